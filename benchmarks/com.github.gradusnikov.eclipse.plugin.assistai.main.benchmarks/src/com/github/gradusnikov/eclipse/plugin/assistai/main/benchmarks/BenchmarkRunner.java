@@ -0,0 +1,48 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks of this bundle.
+ * <p>
+ * JMH is embedded in the dependencies bundle (<code>jmh/</code>), which the
+ * host bundle requires. The benchmark classes are processed by the JMH
+ * annotation processor, enabled in the project settings and on the factory
+ * path. Run this class as a Java application from the project; JMH forks the
+ * benchmark JVMs with the same class path.
+ * <p>
+ * Any JMH command line option can be passed as a program argument, e.g. a
+ * regular expression selecting the benchmarks to run. Allocation figures are
+ * always collected with the GC profiler.
+ * <p>
+ * Results are written to <code>jmh-result.json</code> in the working
+ * directory, so that they can be compared between plugin versions (e.g. with
+ * a JMH results visualizer). Use <code>-rf</code> and <code>-rff</code> to
+ * choose another format or file.
+ */
+public class BenchmarkRunner
+{
+    private static final String RESULT_FILE = "jmh-result.json";
+
+    public static void main( String[] args ) throws RunnerException, CommandLineOptionException
+    {
+        var commandLineOptions = new CommandLineOptions( args );
+        var options = new OptionsBuilder().parent( commandLineOptions )
+                                          .addProfiler( GCProfiler.class );
+        if ( !commandLineOptions.getResultFormat().hasValue() )
+        {
+            options.resultFormat( ResultFormatType.JSON );
+        }
+        if ( !commandLineOptions.getResult().hasValue() )
+        {
+            options.result( RESULT_FILE );
+        }
+        new Runner( options.build() ).run();
+    }
+}
@@ -0,0 +1,96 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+import com.github.gradusnikov.eclipse.assistai.model.ConversationStore;
+
+/**
+ * Measures opening a {@link ConversationStore} with a 5,000 message history:
+ * listing the conversations, and loading the history.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ConversationStoreBenchmark
+{
+    private static final int MESSAGES = 5_000;
+
+    private Path file;
+
+    private String conversationId;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        file = Files.createTempDirectory( "conversations" ).resolve( ConversationStore.LOG_FILE );
+        var conversation = new Conversation();
+        for ( int i = 0; i < MESSAGES; i++ )
+        {
+            var message = new ChatMessage( "message-" + i, i % 2 == 0 ? "user" : "assistant" );
+            message.setContent( ( "Message " + i + " explains how `ConversationStore` appends records to the log. " ).repeat( 10 ) );
+            conversation.add( message );
+        }
+        var store = new ConversationStore( file );
+        store.save( conversation );
+        store.close();
+        conversationId = conversation.getId();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists( file );
+        Files.deleteIfExists( file.getParent() );
+    }
+
+    @Benchmark
+    public List<ConversationStore.ConversationInfo> list()
+    {
+        var store = new ConversationStore( file );
+        try
+        {
+            return store.list();
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+
+    @Benchmark
+    public Conversation load()
+    {
+        var store = new ConversationStore( file );
+        try
+        {
+            var conversation = new Conversation();
+            store.load( conversationId, conversation, message -> {} );
+            return conversation;
+        }
+        finally
+        {
+            store.close();
+        }
+    }
+}
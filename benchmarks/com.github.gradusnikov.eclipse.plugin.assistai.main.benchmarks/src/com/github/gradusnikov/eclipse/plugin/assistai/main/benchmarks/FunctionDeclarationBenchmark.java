@@ -0,0 +1,37 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.gradusnikov.eclipse.assistai.commands.FunctionCalls;
+import com.github.gradusnikov.eclipse.assistai.services.AnnotationToJsonConverter;
+
+/**
+ * Measures conversion of the {@link FunctionCalls} declarations into the
+ * <code>functions</code> JSON added to every request of a model with function
+ * calling enabled.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class FunctionDeclarationBenchmark
+{
+    @Benchmark
+    public JsonNode convertDeclaredFunctionsToJson()
+    {
+        return AnnotationToJsonConverter.convertDeclaredFunctionsToJson( FunctionCalls.class );
+    }
+}
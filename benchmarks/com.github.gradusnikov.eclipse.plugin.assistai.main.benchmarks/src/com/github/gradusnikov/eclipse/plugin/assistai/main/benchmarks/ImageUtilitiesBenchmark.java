@@ -0,0 +1,65 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.gradusnikov.eclipse.assistai.tools.ImageUtilities;
+
+/**
+ * Measures encoding of an attached full HD screenshot for a vision request
+ * ({@link ImageUtilities#toBase64Jpeg(ImageData)}) and scaling it to the
+ * attachment preview ({@link ImageUtilities#createPreview(ImageData)}).
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class ImageUtilitiesBenchmark
+{
+    private static final int WIDTH = 1920;
+
+    private static final int HEIGHT = 1080;
+
+    private ImageData image;
+
+    @Setup
+    public void setup()
+    {
+        image = new ImageData( WIDTH, HEIGHT, 24, new PaletteData( 0xFF0000, 0x00FF00, 0x0000FF ) );
+        for ( int y = 0; y < HEIGHT; y++ )
+        {
+            for ( int x = 0; x < WIDTH; x++ )
+            {
+                // a gradient with some text-like high frequency noise
+                int noise = ( x * 31 + y * 17 ) % 7 == 0 ? 0x40 : 0;
+                image.setPixel( x, y, ( ( x * 255 / WIDTH ) << 16 ) | ( ( y * 255 / HEIGHT ) << 8 ) | ( 0x80 + noise ) );
+            }
+        }
+    }
+
+    @Benchmark
+    public String toBase64Jpeg()
+    {
+        return ImageUtilities.toBase64Jpeg( image );
+    }
+
+    @Benchmark
+    public ImageData createPreview()
+    {
+        return ImageUtilities.createPreview( image );
+    }
+}
@@ -0,0 +1,61 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.gradusnikov.eclipse.assistai.prompt.PromptParser;
+
+/**
+ * Measures rendering of assistant replies of 10 to 200 KB: the whole reply
+ * with {@link PromptParser#parseToHtml()} and the inline markdown of every
+ * line with {@link PromptParser#markdown(String)}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class PromptParserBenchmark
+{
+    @Param( { "10", "50", "200" } )
+    private int replyKilobytes;
+
+    private String reply;
+
+    private String[] lines;
+
+    @Setup
+    public void setup()
+    {
+        reply = SampleReplies.reply( replyKilobytes );
+        lines = reply.split( "\n" );
+    }
+
+    @Benchmark
+    public String parseToHtml()
+    {
+        return new PromptParser( reply ).parseToHtml();
+    }
+
+    @Benchmark
+    public void markdown( Blackhole blackhole )
+    {
+        for ( String line : lines )
+        {
+            blackhole.consume( PromptParser.markdown( line ) );
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jface.preference.PreferenceStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+import com.github.gradusnikov.eclipse.assistai.prompt.Prompts;
+import com.github.gradusnikov.eclipse.assistai.services.OpenAIStreamJavaHttpClient;
+
+/**
+ * Measures serialization of a conversation into the chat completion request
+ * body ({@link OpenAIStreamJavaHttpClient#getRequestBody(java.util.List, ModelApiDescriptor)}),
+ * which happens for every prompt sent to the model.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class RequestBodyBenchmark
+{
+    @Param( { "10", "50" } )
+    private int messages;
+
+    private OpenAIStreamJavaHttpClient client;
+
+    private Conversation conversation;
+
+    private ModelApiDescriptor model;
+
+    @Setup
+    public void setup()
+    {
+        var preferenceStore = new PreferenceStore();
+        preferenceStore.setValue( Prompts.SYSTEM.preferenceName(), "You are a helpful assistant of a Java developer working in Eclipse IDE." );
+        client = new OpenAIStreamJavaHttpClient( preferenceStore );
+        model = new ModelApiDescriptor( "benchmark", "openai", "https://api.openai.com/v1/chat/completions", "", "gpt-4o", 7, false, false );
+        conversation = new Conversation();
+        for ( int i = 0; i < messages; i++ )
+        {
+            var message = new ChatMessage( "message-" + i, i % 2 == 0 ? "user" : "assistant" );
+            message.setContent( SampleReplies.reply( 2 ) );
+            conversation.add( message );
+        }
+    }
+
+    @Benchmark
+    public String getRequestBody()
+    {
+        return client.getRequestBody( conversation.messages(), model );
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main.benchmarks;
+
+/**
+ * Generates assistant replies resembling the ones the chat view renders:
+ * paragraphs with inline markdown, headers, lists and fenced code blocks.
+ */
+final class SampleReplies
+{
+    private static final String PARAGRAPH = """
+            The **OpenAIStreamJavaHttpClient** sends the conversation to the selected model and publishes
+            every received token. See the [API reference](https://platform.openai.com/docs/api-reference/chat)
+            for the `stream` flag; the *assistant* message is then rendered by the `ChatGPTViewPart`.
+            """;
+
+    private static final String LIST = """
+            ### Steps
+            - Select the code in the editor
+            - Run *Refactor* from the context menu
+            * Review the proposed `diff` before applying it
+            > Note: the original file is kept in the local history.
+            """;
+
+    private static final String CODE = """
+            ```java
+            public class Example
+            {
+                private final Map<String, List<Integer>> values = new HashMap<>();
+
+                public int sum( String key )
+                {
+                    // a \\"quoted\\" comment with <html> characters
+                    return values.getOrDefault( key, List.of() ).stream().mapToInt( Integer::intValue ).sum();
+                }
+            }
+            ```
+            """;
+
+    private SampleReplies()
+    {
+    }
+
+    /**
+     * Returns a reply of about the given size.
+     *
+     * @param kilobytes
+     *            the approximate size of the reply
+     */
+    static String reply( int kilobytes )
+    {
+        var reply = new StringBuilder( kilobytes * 1024 + CODE.length() );
+        reply.append( "# Answer\n" );
+        int block = 0;
+        while ( reply.length() < kilobytes * 1024 )
+        {
+            switch ( block++ % 4 )
+            {
+                case 0, 2 -> reply.append( PARAGRAPH );
+                case 1 -> reply.append( LIST );
+                default -> reply.append( CODE );
+            }
+            reply.append( '\n' );
+        }
+        return reply.toString();
+    }
+}
@@ -0,0 +1,116 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.gradusnikov.eclipse.assistai.services.SseEventDecoder;
+
+/**
+ * Compares decoding of a streamed chat completion, one token per SSE event.
+ * <p>
+ * {@link #treePerLine(Blackhole)} reproduces the former decoding in
+ * <code>OpenAIStreamJavaHttpClient</code> (a new {@link ObjectMapper} and a
+ * full <code>readTree()</code> per <code>data:</code> line),
+ * {@link #streamingDecoder(Blackhole)} uses {@link SseEventDecoder}. Run with
+ * <code>-prof gc</code> to get <code>gc.alloc.rate.norm</code>, i.e. bytes
+ * allocated per token.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class SseDecodingBenchmark
+{
+    private static final int TOKENS = 1000;
+
+    private final List<String> lines = new ArrayList<>();
+
+    @Setup
+    public void setup()
+    {
+        lines.add( "data: {\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"created\":1700000000,\"model\":\"gpt-4-turbo\",\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"\"},\"logprobs\":null,\"finish_reason\":null}]}" );
+        lines.add( "" );
+        for ( int i = 0; i < TOKENS; i++ )
+        {
+            lines.add( "data: {\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"created\":1700000000,\"model\":\"gpt-4-turbo\",\"system_fingerprint\":\"fp_1\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\" token"
+                    + i + "\"},\"logprobs\":null,\"finish_reason\":null}]}" );
+            lines.add( "" );
+        }
+        lines.add( "data: [DONE]" );
+        lines.add( "" );
+    }
+
+    @Benchmark
+    @OperationsPerInvocation( TOKENS )
+    public void treePerLine( Blackhole blackhole ) throws IOException
+    {
+        for ( String line : lines )
+        {
+            if ( line.startsWith( "data:" ) )
+            {
+                var data = line.substring( 5 ).trim();
+                if ( "[DONE]".equals( data ) )
+                {
+                    break;
+                }
+                var mapper = new ObjectMapper();
+                var node = mapper.readTree( data ).get( "choices" ).get( 0 ).get( "delta" );
+                if ( node.has( "content" ) )
+                {
+                    blackhole.consume( node.get( "content" ).asText() );
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation( TOKENS )
+    public void streamingDecoder( Blackhole blackhole ) throws IOException
+    {
+        var decoder = new SseEventDecoder( new SseEventDecoder.Listener()
+        {
+            @Override
+            public void onContent( String content )
+            {
+                blackhole.consume( content );
+            }
+
+            @Override
+            public void onFunctionCallName( String name )
+            {
+                blackhole.consume( name );
+            }
+
+            @Override
+            public void onFunctionCallArguments( String arguments )
+            {
+                blackhole.consume( arguments );
+            }
+        } );
+        for ( String line : lines )
+        {
+            if ( !decoder.decodeLine( line ) )
+            {
+                break;
+            }
+        }
+    }
+}
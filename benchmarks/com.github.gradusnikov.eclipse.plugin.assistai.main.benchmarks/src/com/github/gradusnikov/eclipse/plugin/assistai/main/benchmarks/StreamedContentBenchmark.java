@@ -0,0 +1,78 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
+
+/**
+ * Measures streaming a reply of 10 to 200 KB into a {@link ChatMessage} in
+ * 4 character tokens, reading the text received since the previous token
+ * after each one, as the incremental renderer does. The baseline copies the
+ * whole text after each token instead.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class StreamedContentBenchmark
+{
+    @Param( { "10", "50", "200" } )
+    private int replyKilobytes;
+
+    private List<String> tokens;
+
+    @Setup
+    public void setup()
+    {
+        var reply = SampleReplies.reply( replyKilobytes );
+        tokens = new ArrayList<>();
+        for ( int i = 0; i < reply.length(); i += 4 )
+        {
+            tokens.add( reply.substring( i, Math.min( reply.length(), i + 4 ) ) );
+        }
+    }
+
+    @Benchmark
+    public String streamWithViews( Blackhole blackhole )
+    {
+        var message = new ChatMessage( "reply", "assistant" );
+        int rendered = 0;
+        for ( var token : tokens )
+        {
+            message.append( token );
+            var content = message.getContentView();
+            blackhole.consume( content.subSequence( rendered, content.length() ).toString() );
+            rendered = content.length();
+        }
+        return message.getContent();
+    }
+
+    @Benchmark
+    public String streamWithStrings( Blackhole blackhole )
+    {
+        var message = new ChatMessage( "reply", "assistant" );
+        for ( var token : tokens )
+        {
+            message.append( token );
+            blackhole.consume( message.getContent() );
+        }
+        return message.getContent();
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.gradusnikov.eclipse.assistai.tokenizer.Tokenizer;
+import com.github.gradusnikov.eclipse.assistai.tokenizer.Tokenizers;
+
+/**
+ * Measures token counting of assistant replies of 10 and 200 KB with
+ * {@link Tokenizer#countTokens(CharSequence)}. The target is 50 MB/s per
+ * core, i.e. about 4 ms for 200 KB.
+ * <p>
+ * The vocabularies are read from the folder given by the
+ * <code>assistai.tiktoken.dir</code> system property of the benchmark JVM,
+ * which JMH passes on to the forks; without them the estimating tokenizer
+ * is measured. Only the vocabularies published by OpenAI (see
+ * <code>tiktoken/README.md</code> in the dependencies bundle) give figures
+ * comparable with the target.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 1 )
+@Measurement( iterations = 5, time = 1 )
+@Fork( 1 )
+public class TokenizerBenchmark
+{
+    @Param( { Tokenizers.CL100K_BASE, Tokenizers.O200K_BASE } )
+    private String encoding;
+
+    @Param( { "10", "200" } )
+    private int replyKilobytes;
+
+    private Tokenizer tokenizer;
+
+    private String reply;
+
+    @Setup
+    public void setup()
+    {
+        tokenizer = Tokenizers.forEncoding( encoding );
+        reply = SampleReplies.reply( replyKilobytes );
+    }
+
+    @Benchmark
+    public int countTokens()
+    {
+        return tokenizer.countTokens( reply );
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Rendering protocol between ChatGPTViewPart and the chat page.
+ *
+ * A message is a "message-<id>" element. Streamed messages consist of finished
+ * blocks, which are appended once and never touched again, followed by a single
+ * "message-tail" element holding the block that is still being written.
+ */
+
+function assistaiMessage(id) {
+	return document.getElementById("message-" + id);
+}
+
+function assistaiTail(message) {
+	var tail = message.querySelector(":scope > .message-tail");
+	if (!tail) {
+		tail = document.createElement("div");
+		tail.className = "message-tail";
+		message.appendChild(tail);
+	}
+	return tail;
+}
+
+function assistaiHighlight(root) {
+	root.querySelectorAll("pre code").forEach(function(block) {
+		hljs.highlightElement(block);
+	});
+}
+
+function assistaiScrollDown() {
+	window.scrollTo(0, document.body.scrollHeight);
+}
+
+/* Replaces the whole content of a message. */
+function setMessageHtml(id, html) {
+	var message = assistaiMessage(id);
+	message.innerHTML = html;
+	assistaiHighlight(message);
+	assistaiScrollDown();
+}
+
+/*
+ * Appends newly finished blocks to a streamed message and replaces its open
+ * tail block. Only code blocks of the finished part are highlighted.
+ */
+function appendMessageBlocks(id, finishedHtml, tailHtml) {
+	var message = assistaiMessage(id);
+	var tail = assistaiTail(message);
+	if (finishedHtml.length > 0) {
+		var fragment = document.createElement("div");
+		fragment.innerHTML = finishedHtml;
+		assistaiHighlight(fragment);
+		while (fragment.firstChild) {
+			message.insertBefore(fragment.firstChild, tail);
+		}
+	}
+	tail.innerHTML = tailHtml;
+	assistaiScrollDown();
+}
+
+/*
+ * Appends the last blocks of a streamed message once the stream has ended and
+ * removes its tail.
+ */
+function endMessageBlocks(id, finishedHtml) {
+	appendMessageBlocks(id, finishedHtml, "");
+	assistaiTail(assistaiMessage(id)).remove();
+}
@@ -1,5 +1,8 @@
 package com.github.gradusnikov.eclipse.assistai;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
 
@@ -10,6 +13,8 @@ public class Activator extends AbstractUIPlugin
 {
     private static Activator plugin = null;
     
+    private final List<Runnable> stopActions = new CopyOnWriteArrayList<>();
+    
     @Override
     public void start(BundleContext context) throws Exception 
     {
@@ -17,6 +22,23 @@ public class Activator extends AbstractUIPlugin
         plugin = this;
     }
     
+    @Override
+    public void stop(BundleContext context) throws Exception 
+    {
+        stopActions.forEach( Runnable::run );
+        stopActions.clear();
+        super.stop(context);
+    }
+    
+    /**
+     * Runs the action when the plugin stops, e.g. to release threads that
+     * live as long as the plugin rather than as a context using them.
+     */
+    public void onStop( Runnable action )
+    {
+        stopActions.add( action );
+    }
+    
     public static Activator getDefault() 
     {
         return plugin;
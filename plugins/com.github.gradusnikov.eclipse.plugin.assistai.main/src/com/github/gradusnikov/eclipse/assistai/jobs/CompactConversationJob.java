@@ -0,0 +1,281 @@
+package com.github.gradusnikov.eclipse.assistai.jobs;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Provider;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.e4.core.di.annotations.Creatable;
+
+import com.github.gradusnikov.eclipse.assistai.Activator;
+import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+import com.github.gradusnikov.eclipse.assistai.model.Incoming;
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+import com.github.gradusnikov.eclipse.assistai.preferences.PreferenceConstants;
+import com.github.gradusnikov.eclipse.assistai.prompt.ChatMessageFactory;
+import com.github.gradusnikov.eclipse.assistai.prompt.ChatMessageUtilities;
+import com.github.gradusnikov.eclipse.assistai.services.ContextWindowManager;
+import com.github.gradusnikov.eclipse.assistai.services.OpenAIClientConfiguration;
+import com.github.gradusnikov.eclipse.assistai.services.OpenAIStreamJavaHttpClient;
+import com.github.gradusnikov.eclipse.assistai.services.RequestScheduler;
+import com.github.gradusnikov.eclipse.assistai.subscribers.BatchSubscriber;
+
+/**
+ * Replaces the oldest turns of the conversation with a summary once the
+ * request grows above the configured number of tokens.
+ * <p>
+ * The job runs in the background after each reply. It sends the previous
+ * summary and the next turns to the compaction model (see
+ * {@link OpenAIClientConfiguration#getCompactionModel()}) and applies the new
+ * summary with {@link Conversation#compact(int, int, int, ChatMessage)}, so
+ * the result is dropped if the conversation was cleared in the meantime.
+ * Requests sent while the summary is computed use the uncompacted messages.
+ */
+@Creatable
+public class CompactConversationJob extends Job
+{
+    public static final String SUMMARY_PREFIX = "Summary of the earlier conversation:\n\n";
+
+    /** lets only one compaction run at a time */
+    private static final ISchedulingRule MUTEX = new ISchedulingRule()
+    {
+        @Override
+        public boolean contains( ISchedulingRule rule )
+        {
+            return rule == this;
+        }
+
+        @Override
+        public boolean isConflicting( ISchedulingRule rule )
+        {
+            return rule == this;
+        }
+    };
+
+    @Inject
+    private ILog logger;
+
+    private Conversation conversation;
+
+    @Inject
+    private Provider<OpenAIStreamJavaHttpClient> clientProvider;
+
+    @Inject
+    private OpenAIClientConfiguration configuration;
+
+    @Inject
+    private ContextWindowManager contextWindowManager;
+
+    @Inject
+    private ChatMessageFactory chatMessageFactory;
+
+    /** the client requesting the summary, aborted when the job is cancelled */
+    private volatile OpenAIStreamJavaHttpClient client;
+
+    public CompactConversationJob()
+    {
+        super( AssistAIJobConstants.JOB_PREFIX + " compact conversation" );
+        setSystem( true );
+        setPriority( Job.DECORATE );
+        setRule( MUTEX );
+    }
+
+    /**
+     * Sets the conversation to compact.
+     */
+    public void setConversation( Conversation conversation )
+    {
+        this.conversation = conversation;
+    }
+
+    @Override
+    public boolean belongsTo( Object family )
+    {
+        return family == conversation;
+    }
+
+    @Override
+    protected void canceling()
+    {
+        var current = client;
+        if ( current != null )
+        {
+            current.cancel();
+        }
+    }
+
+    @Override
+    protected IStatus run( IProgressMonitor monitor )
+    {
+        Objects.requireNonNull( conversation );
+        var preferenceStore = Activator.getDefault().getPreferenceStore();
+        var selectedModel = configuration.getSelectedModel();
+        if ( !preferenceStore.getBoolean( PreferenceConstants.ASSISTAI_COMPACTION_ENABLED ) || selectedModel.isEmpty() )
+        {
+            return Status.OK_STATUS;
+        }
+        var snapshot = conversation.snapshot();
+        int epoch = snapshot.epoch();
+        int fromIndex = snapshot.compactedCount();
+        List<ChatMessage> requestMessages = snapshot.getRequestMessages();
+        var messages = snapshot.messages();
+        int toIndex = findCompactionEnd( messages, fromIndex, preferenceStore.getInt( PreferenceConstants.ASSISTAI_COMPACTION_TURNS ) );
+        List<ChatMessage> compacted = messages.subList( fromIndex, toIndex );
+        String previousSummary = snapshot.getSummary().map( summary -> summary.getContent().substring( SUMMARY_PREFIX.length() ) ).orElse( "" );
+        if ( compacted.isEmpty() )
+        {
+            return Status.OK_STATUS;
+        }
+        var model = selectedModel.get();
+        int tokens = requestMessages.stream().mapToInt( message -> contextWindowManager.countTokens( message, model ) ).sum();
+        int threshold = preferenceStore.getInt( PreferenceConstants.ASSISTAI_COMPACTION_THRESHOLD_TOKENS );
+        if ( threshold <= 0 )
+        {
+            threshold = contextWindowManager.getBudget( model ) / 2;
+        }
+        if ( tokens < threshold )
+        {
+            return Status.OK_STATUS;
+        }
+
+        String summary;
+        try
+        {
+            summary = summarize( previousSummary, compacted, monitor );
+        }
+        catch ( CancellationException | CompletionException e )
+        {
+            if ( monitor.isCanceled() )
+            {
+                return Status.CANCEL_STATUS;
+            }
+            var cause = e.getCause() != null ? e.getCause() : e;
+            logger.warn( "Cannot compact the conversation: " + cause.getMessage() );
+            return Status.OK_STATUS;
+        }
+        if ( monitor.isCanceled() )
+        {
+            return Status.CANCEL_STATUS;
+        }
+        if ( summary.isBlank() )
+        {
+            logger.warn( "Cannot compact the conversation: the summary is empty" );
+            return Status.OK_STATUS;
+        }
+        var summaryMessage = new ChatMessage( UUID.randomUUID().toString(), "system" );
+        summaryMessage.setContent( SUMMARY_PREFIX + summary.strip() );
+        if ( conversation.compact( epoch, fromIndex, toIndex, summaryMessage ) )
+        {
+            logger.info( "Compacted " + compacted.size() + " messages, the request had " + tokens + " tokens" );
+        }
+        return Status.OK_STATUS;
+    }
+
+    /**
+     * Finds the end of the turns to compact, starting at
+     * <code>fromIndex</code>. A turn starts with a user message, so that
+     * function calls and their results stay together. The last turn is never
+     * compacted.
+     *
+     * @return the index after the last compacted message
+     */
+    public static int findCompactionEnd( List<ChatMessage> messages, int fromIndex, int turns )
+    {
+        int end = fromIndex;
+        int count = 0;
+        for ( int i = fromIndex + 1; i < messages.size() && count < turns; i++ )
+        {
+            if ( "user".equals( messages.get( i ).getRole() ) )
+            {
+                end = i;
+                count++;
+            }
+        }
+        return end;
+    }
+
+    private String summarize( String previousSummary, List<ChatMessage> messages, IProgressMonitor monitor )
+    {
+        var transcript = messages.stream().map( this::toTranscript ).collect( Collectors.joining( "\n\n" ) );
+        var request = new Conversation();
+        request.add( chatMessageFactory.createCompactConversationMessage( previousSummary, transcript ) );
+
+        var model = configuration.getCompactionModel().orElseThrow();
+        // the summary is plain text
+        var textModel = new ModelApiDescriptor( model.uid(), model.apiType(), model.apiUrl(), model.apiKey(), model.modelName(), model.temperature(),
+                false, false, model.maxImageEdge(), model.imageDetail(), model.jpegQuality(), model.contextWindow(),
+                model.connectTimeoutSeconds(), model.firstTokenTimeoutSeconds(), model.idleTimeoutSeconds(), model.requestsPerMinute(), model.tokensPerMinute() );
+
+        var summaryClient = clientProvider.get();
+        summaryClient.setCancelProvider( monitor::isCanceled );
+        summaryClient.setPriority( RequestScheduler.Priority.BACKGROUND );
+        var collector = new ContentCollector();
+        summaryClient.subscribe( collector );
+        client = summaryClient;
+        try
+        {
+            summaryClient.run( request, textModel ).run();
+        }
+        finally
+        {
+            client = null;
+        }
+        return collector.result.join();
+    }
+
+    private String toTranscript( ChatMessage message )
+    {
+        if ( message.getFunctionCall() != null )
+        {
+            return message.getRole() + ": called " + message.getFunctionCall().name() + " " + message.getFunctionCall().arguments();
+        }
+        return message.getRole() + ": " + ChatMessageUtilities.toChatMessageText( message );
+    }
+
+    /**
+     * Collects the streamed content of the summary.
+     */
+    private static class ContentCollector extends BatchSubscriber
+    {
+        private final StringBuilder content = new StringBuilder();
+
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        @Override
+        protected void onBatch( List<Incoming> batch )
+        {
+            for ( Incoming item : batch )
+            {
+                if ( item.type() == Incoming.Type.CONTENT )
+                {
+                    content.append( item.payload() );
+                }
+            }
+        }
+
+        @Override
+        public void onError( Throwable throwable )
+        {
+            result.completeExceptionally( throwable );
+        }
+
+        @Override
+        public void onComplete()
+        {
+            result.complete( content.toString() );
+        }
+    }
+}
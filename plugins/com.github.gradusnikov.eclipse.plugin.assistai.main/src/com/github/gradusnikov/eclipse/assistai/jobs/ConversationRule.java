@@ -0,0 +1,24 @@
+package com.github.gradusnikov.eclipse.assistai.jobs;
+
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+
+/**
+ * Serializes the jobs that change a conversation, while jobs of other
+ * conversations run in parallel.
+ */
+public record ConversationRule( Conversation conversation ) implements ISchedulingRule
+{
+    @Override
+    public boolean contains( ISchedulingRule rule )
+    {
+        return equals( rule );
+    }
+
+    @Override
+    public boolean isConflicting( ISchedulingRule rule )
+    {
+        return equals( rule );
+    }
+}
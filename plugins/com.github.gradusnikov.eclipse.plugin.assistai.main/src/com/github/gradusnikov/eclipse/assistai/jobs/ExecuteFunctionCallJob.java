@@ -33,7 +33,6 @@ public class ExecuteFunctionCallJob extends Job
     
     @Inject
     private FunctionExecutorProvider functionExecutorProvider;
-    @Inject
     private Conversation conversation;
 
     private FunctionCall functionCall;
@@ -49,6 +48,7 @@ public class ExecuteFunctionCallJob extends Job
     protected IStatus run( IProgressMonitor monitor )
     {
         Objects.requireNonNull( functionCall );
+        Objects.requireNonNull( conversation );
         
         try
         {
@@ -66,6 +66,21 @@ public class ExecuteFunctionCallJob extends Job
     {
         this.functionCall = functionCall;
     }
+
+    /**
+     * Sets the conversation the function call was requested in.
+     */
+    public void setConversation( Conversation conversation )
+    {
+        this.conversation = conversation;
+        setRule( new ConversationRule( conversation ) );
+    }
+
+    @Override
+    public boolean belongsTo( Object family )
+    {
+        return family == conversation;
+    }
     private CompletableFuture<IStatus> executeFunctionCall( FunctionCall functionCall )
     {
         logger.info( "Executing function call: " + functionCall  );
@@ -92,6 +107,7 @@ public class ExecuteFunctionCallJob extends Job
                 conversation.add( resultMessage );
                 // 4. and push the conversation to the LLM
                 SendConversationJob job = sendConversationJobProvider.get();
+                job.setConversation( conversation );
                 job.schedule();
                 return Status.OK_STATUS;
             }
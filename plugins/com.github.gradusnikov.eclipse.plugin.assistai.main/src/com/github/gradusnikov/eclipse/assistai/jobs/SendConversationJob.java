@@ -1,8 +1,11 @@
 package com.github.gradusnikov.eclipse.assistai.jobs;
 
-import java.util.concurrent.CompletableFuture;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 
 import jakarta.inject.Inject;
+import jakarta.inject.Provider;
 
 import org.eclipse.core.runtime.ILog;
 import org.eclipse.core.runtime.IProgressMonitor;
@@ -10,10 +13,14 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.e4.core.di.annotations.Creatable;
+import org.eclipse.swt.graphics.ImageData;
 
 import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
 import com.github.gradusnikov.eclipse.assistai.model.Conversation;
-import com.github.gradusnikov.eclipse.assistai.subscribers.OpenAIHttpClientProvider;
+import com.github.gradusnikov.eclipse.assistai.part.Attachment;
+import com.github.gradusnikov.eclipse.assistai.prompt.Prompts;
+import com.github.gradusnikov.eclipse.assistai.services.ModelRouter;
+import com.github.gradusnikov.eclipse.assistai.services.OpenAIStreamJavaHttpClient;
 import com.github.gradusnikov.eclipse.assistai.subscribers.OpenAIHttpClientProvider;
 
 @Creatable
@@ -26,29 +33,150 @@ public class SendConversationJob extends Job
     private OpenAIHttpClientProvider clientProvider;
     
     @Inject
+    private ModelRouter modelRouter;
+    
     private Conversation conversation;
     
+    /** the predefined prompt of the request, or null for a chat message */
+    private Prompts promptType;
+    
+    /** the message the request answers, the last one when the job was created */
+    private ChatMessage answered;
+    
+    @Inject
+    private Provider<CompactConversationJob> compactConversationJobProvider;
+    
+    /** the client sending the request, aborted when the job is cancelled */
+    private volatile OpenAIStreamJavaHttpClient openAIClient;
+    
     public SendConversationJob()
     {
         super( AssistAIJobConstants.JOB_PREFIX + " ask ChatGPT for help");
         
     }
+    /**
+     * Sets the conversation to send. Sends of the same conversation run one
+     * after another.
+     */
+    public void setConversation( Conversation conversation )
+    {
+        this.conversation = conversation;
+        this.answered = conversation.messages().isEmpty() ? null : conversation.messages().get( conversation.messages().size() - 1 );
+        setRule( new ConversationRule( conversation ) );
+    }
+    
+    /**
+     * Tells whether sending the given message would repeat the request of
+     * this job, e.g. when Enter is pressed twice or a command is triggered
+     * again before the reply arrived.
+     * 
+     * @return <code>true</code> if the job answers a different message with
+     *         the same role, content and attachments
+     */
+    public boolean isAnswering( ChatMessage message )
+    {
+        var current = answered;
+        return current != null && current != message && current.getRole().equals( message.getRole() )
+                && current.getContent().equals( message.getContent() )
+                && isSameAttachments( current.getAttachments(), message.getAttachments() );
+    }
+    
+    /**
+     * Attachments are compared by the text sent for them, and images by their
+     * pixels, as an image added again is a new {@link ImageData}.
+     */
+    private static boolean isSameAttachments( List<Attachment> attachments, List<Attachment> others )
+    {
+        if ( attachments.size() != others.size() )
+        {
+            return false;
+        }
+        for ( int i = 0; i < attachments.size(); i++ )
+        {
+            var attachment = attachments.get( i );
+            var other = others.get( i );
+            if ( !Objects.equals( attachment.toChatMessageContent(), other.toChatMessageContent() )
+                    || !isSameImage( attachment.getImageData(), other.getImageData() ) )
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean isSameImage( ImageData image, ImageData other )
+    {
+        if ( image == null || other == null )
+        {
+            return image == other;
+        }
+        return image.width == other.width && image.height == other.height && image.depth == other.depth
+                && Arrays.equals( image.data, other.data );
+    }
+    
+    /**
+     * Sets the predefined prompt the request was created from, which the
+     * {@link ModelRouter} picks the model by.
+     */
+    public void setPromptType( Prompts promptType )
+    {
+        this.promptType = promptType;
+    }
+    
+    @Override
+    public boolean belongsTo( Object family )
+    {
+        return family == conversation;
+    }
+    
+    @Override
+    protected void canceling()
+    {
+        var client = openAIClient;
+        if ( client != null )
+        {
+            client.cancel();
+        }
+    }
+    
+    /**
+     * Sends the request and reads the response in the job thread, so that
+     * {@link #canceling()} can abort both at once.
+     */
     @Override
     protected IStatus run(IProgressMonitor progressMonitor) 
     {
-        var openAIClient = clientProvider.get();
-        openAIClient.setCancelProvider( () -> progressMonitor.isCanceled() ); 
+        Objects.requireNonNull( conversation );
+        var client = clientProvider.get( conversation );
+        client.setCancelProvider( () -> progressMonitor.isCanceled() ); 
+        client.setPromptType( promptType );
+        openAIClient = client;
+        if ( progressMonitor.isCanceled() )
+        {
+            // cancelled before the client was set
+            client.cancel();
+        }
         
         try 
         {
-            var future = CompletableFuture.runAsync( openAIClient.run(conversation) )
-                    .thenApply( v -> Status.OK_STATUS )
-                    .exceptionally( e -> Status.error("Unable to run the task: " + e.getMessage(), e) );
-            return future.get();
+            client.run( conversation, modelRouter.route( conversation, promptType ) ).run();
         } 
         catch ( Exception e ) 
         {
-            return Status.error( e.getMessage(), e );
+            return Status.error( "Unable to run the task: " + e.getMessage(), e );
+        }
+        finally
+        {
+            openAIClient = null;
+        }
+        if ( progressMonitor.isCanceled() )
+        {
+            return Status.CANCEL_STATUS;
         }
+        // summarize the oldest turns while the user reads the reply
+        var compactConversationJob = compactConversationJobProvider.get();
+        compactConversationJob.setConversation( conversation );
+        compactConversationJob.schedule();
+        return Status.OK_STATUS;
     }
 }
@@ -1,9 +1,14 @@
 package com.github.gradusnikov.eclipse.assistai.model;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
 
 import com.github.gradusnikov.eclipse.assistai.part.Attachment;
+import com.github.gradusnikov.eclipse.assistai.tokenizer.Tokenizer;
 
 /**
  * Represents a chat message with an ID, role, number of tokens, and the message
@@ -18,12 +23,25 @@ public class ChatMessage
 
     public final String      name;
 
-    public StringBuffer      content;
+    /** written by one thread at a time, read by any thread */
+    private final ContentBuilder content = new ContentBuilder();
 
     public FunctionCall      functionCall;
 
     private final List<Attachment> attachments;
     
+    /** serialized JSON of this message, by model capabilities */
+    private final Map<String, String> jsonCache = new HashMap<>();
+    
+    /** token count of this message, by encoding and model capabilities */
+    private final Map<String, Integer> tokenCounts = new HashMap<>();
+    
+    /** incremented whenever the message changes */
+    private long revision = 0;
+    
+    /** kept in the request when older messages are dropped */
+    private volatile boolean pinned;
+    
     /**
      * Constructs a ChatMessage with the given ID and role.
      * 
@@ -43,7 +61,6 @@ public class ChatMessage
         this.id = id;
         this.role = role;
         this.name = name;
-        this.content = new StringBuffer();
         this.attachments = new ArrayList<>();
     }
 
@@ -56,10 +73,12 @@ public class ChatMessage
     public void append( String msg )
     {
         this.content.append( msg );
+        invalidate();
     }
 
     /**
-     * Retrieves the message content.
+     * Retrieves the message content. The content is copied into a
+     * {@link String} on the first call after it changed.
      * 
      * @return The message content
      */
@@ -68,6 +87,19 @@ public class ChatMessage
         return content.toString();
     }
 
+    /**
+     * Returns the content received so far without copying it, e.g. to render
+     * the text streamed since the previous render with
+     * {@link CharSequence#subSequence(int, int)}. The view is not changed by
+     * later appends.
+     * 
+     * @return The message content
+     */
+    public CharSequence getContentView()
+    {
+        return content.view( 0 );
+    }
+
     public FunctionCall getFunctionCall()
     {
         return functionCall;
@@ -76,6 +108,7 @@ public class ChatMessage
     public void setFunctionCall( FunctionCall functionCall )
     {
         this.functionCall = functionCall;
+        invalidate();
     }
 
     /**
@@ -86,14 +119,15 @@ public class ChatMessage
      */
     public void setContent( String message )
     {
-        this.content.setLength( 0 );
-        this.content.append( message );
+        this.content.set( message );
+        invalidate();
     }
     
     public void setAttachments( List<Attachment> attachments )
     {
         this.attachments.clear();
         this.attachments.addAll( attachments );
+        invalidate();
     }
 
     public List<Attachment> getAttachments()
@@ -126,4 +160,136 @@ public class ChatMessage
         return name;
     }
 
+    /**
+     * Returns the JSON representation of this message as sent to a model with
+     * the given capabilities. The JSON is created by the serializer on first
+     * use and cached until the content, the attachments or the function call
+     * of the message change.
+     * 
+     * @param capabilities
+     *            identifies the model capabilities (e.g. vision, function
+     *            calling) the serialized form depends on
+     * @param serializer
+     *            creates the JSON representation of this message
+     * @return The serialized message
+     */
+    public String getJson( String capabilities, Function<ChatMessage, String> serializer )
+    {
+        long serializedRevision;
+        synchronized ( jsonCache )
+        {
+            var json = jsonCache.get( capabilities );
+            if ( json != null )
+            {
+                return json;
+            }
+            serializedRevision = revision;
+        }
+        var json = serializer.apply( this );
+        synchronized ( jsonCache )
+        {
+            // do not cache a message that changed while it was serialized
+            if ( serializedRevision == revision )
+            {
+                jsonCache.put( capabilities, json );
+            }
+        }
+        return json;
+    }
+
+    /**
+     * Returns the number of tokens of this message as counted by the counter.
+     * The count is cached like the JSON representation (see
+     * {@link #getJson(String, Function)}).
+     * 
+     * @param key
+     *            identifies the encoding and model capabilities the count
+     *            depends on
+     * @param counter
+     *            counts the tokens of this message
+     * @return The number of tokens
+     */
+    public int getTokenCount( String key, ToIntFunction<ChatMessage> counter )
+    {
+        long countedRevision;
+        synchronized ( jsonCache )
+        {
+            var tokens = tokenCounts.get( key );
+            if ( tokens != null )
+            {
+                return tokens;
+            }
+            countedRevision = revision;
+        }
+        int tokens = counter.applyAsInt( this );
+        synchronized ( jsonCache )
+        {
+            if ( countedRevision == revision )
+            {
+                tokenCounts.put( key, tokens );
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Returns the number of tokens of the content and the text attachments of
+     * this message. The count is cached until the message changes, and each
+     * attachment caches its own count.
+     * 
+     * @param tokenizer
+     *            the tokenizer of the model
+     * @return The number of tokens
+     */
+    public int getTokenCount( Tokenizer tokenizer )
+    {
+        return getTokenCount( tokenizer.getEncoding(), message -> {
+            int tokens = tokenizer.countTokens( message.getContent() );
+            for ( var attachment : message.getAttachments() )
+            {
+                tokens += attachment.countTokens( tokenizer );
+            }
+            return tokens;
+        } );
+    }
+
+    /**
+     * A message is pinned if it was pinned itself or has a pinned attachment.
+     * Pinned messages are sent with every request, even if older messages
+     * have to be dropped to stay within the context window.
+     * 
+     * @return <code>true</code> if the message is pinned
+     */
+    public boolean isPinned()
+    {
+        return pinned || attachments.stream().anyMatch( Attachment::isPinned );
+    }
+
+    public void setPinned( boolean pinned )
+    {
+        this.pinned = pinned;
+    }
+
+    /**
+     * @return a number that is incremented whenever the content, the
+     *         attachments or the function call of the message change
+     */
+    public long getRevision()
+    {
+        synchronized ( jsonCache )
+        {
+            return revision;
+        }
+    }
+
+    private void invalidate()
+    {
+        synchronized ( jsonCache )
+        {
+            revision++;
+            jsonCache.clear();
+            tokenCounts.clear();
+        }
+    }
+
 }
@@ -0,0 +1,215 @@
+package com.github.gradusnikov.eclipse.assistai.model;
+
+import java.util.Arrays;
+
+/**
+ * The text of a {@link ChatMessage}. It is written by one thread at a time,
+ * e.g. the thread receiving the reply of the model, and read by any thread
+ * without locking.
+ * <p>
+ * The text is a rope of the appended chunks, so appending a streamed token
+ * does not copy the text received before. {@link #view(int)} returns a
+ * {@link CharSequence} over the chunks, e.g. the text received since the last
+ * render, and the text is only copied into a {@link String} when
+ * {@link #toString()} is called, e.g. for the request body or the store.
+ * <p>
+ * The writer stores the appended chunk behind the published ones and then
+ * publishes the longer text with a volatile write. Readers only see the
+ * chunks up to the count they read, so they never see a partial append.
+ */
+public class ContentBuilder
+{
+    private static final int INITIAL_CHUNKS = 8;
+
+    private volatile Text text = new Text( new String[INITIAL_CHUNKS], new int[INITIAL_CHUNKS], 0 );
+
+    public synchronized void append( CharSequence chars )
+    {
+        if ( chars.length() == 0 )
+        {
+            return;
+        }
+        var current = text;
+        var chunks = current.chunks;
+        var ends = current.ends;
+        if ( current.count == chunks.length )
+        {
+            chunks = Arrays.copyOf( chunks, chunks.length * 2 );
+            ends = Arrays.copyOf( ends, ends.length * 2 );
+        }
+        chunks[current.count] = chars.toString();
+        ends[current.count] = current.length() + chars.length();
+        text = new Text( chunks, ends, current.count + 1 );
+    }
+
+    /**
+     * Replaces the text. Readers of the previous text keep reading it.
+     */
+    public synchronized void set( String string )
+    {
+        var replaced = new Text( new String[INITIAL_CHUNKS], new int[INITIAL_CHUNKS], string.isEmpty() ? 0 : 1 );
+        replaced.chunks[0] = string;
+        replaced.ends[0] = string.length();
+        replaced.string = string;
+        text = replaced;
+    }
+
+    public int length()
+    {
+        return text.length();
+    }
+
+    /**
+     * Returns the text from the given offset up to the current end, without
+     * copying it. The view is not changed by later appends.
+     *
+     * @param from
+     *            the offset of the first character
+     * @return the text since <code>from</code>
+     */
+    public CharSequence view( int from )
+    {
+        var current = text;
+        if ( from < 0 || from > current.length() )
+        {
+            throw new IndexOutOfBoundsException( "Offset " + from + " outside of content of length " + current.length() );
+        }
+        return new View( current, from, current.length() );
+    }
+
+    @Override
+    public String toString()
+    {
+        return text.materialize();
+    }
+
+    /**
+     * The published text: the first <code>count</code> chunks, which are
+     * never changed.
+     */
+    private static class Text
+    {
+        private final String[] chunks;
+
+        /** the end offset of each chunk in the text */
+        private final int[] ends;
+
+        private final int count;
+
+        /** a racy but safe cache: strings are immutable */
+        private String string;
+
+        private Text( String[] chunks, int[] ends, int count )
+        {
+            this.chunks = chunks;
+            this.ends = ends;
+            this.count = count;
+        }
+
+        private int length()
+        {
+            return count == 0 ? 0 : ends[count - 1];
+        }
+
+        private int start( int chunk )
+        {
+            return chunk == 0 ? 0 : ends[chunk - 1];
+        }
+
+        /**
+         * @return the index of the chunk containing the character at the
+         *         offset
+         */
+        private int chunkAt( int offset )
+        {
+            int index = Arrays.binarySearch( ends, 0, count, offset );
+            // a chunk ends before the character at its end offset
+            return index >= 0 ? index + 1 : -index - 1;
+        }
+
+        private String materialize()
+        {
+            var materialized = string;
+            if ( materialized == null )
+            {
+                materialized = count == 1 ? chunks[0] : copy( 0, length() );
+                string = materialized;
+            }
+            return materialized;
+        }
+
+        private String copy( int from, int to )
+        {
+            var builder = new StringBuilder( to - from );
+            for ( int chunk = chunkAt( from ); chunk < count && start( chunk ) < to; chunk++ )
+            {
+                int start = start( chunk );
+                builder.append( chunks[chunk], Math.max( from, start ) - start, Math.min( to, ends[chunk] ) - start );
+            }
+            return builder.toString();
+        }
+    }
+
+    /**
+     * A part of the published text. Reading it character by character
+     * remembers the current chunk, so a sequential scan does not search the
+     * chunks for every character.
+     */
+    private static class View implements CharSequence
+    {
+        private final Text text;
+
+        private final int from;
+
+        private final int to;
+
+        private int chunk;
+
+        private View( Text text, int from, int to )
+        {
+            this.text = text;
+            this.from = from;
+            this.to = to;
+            this.chunk = text.chunkAt( from );
+        }
+
+        @Override
+        public int length()
+        {
+            return to - from;
+        }
+
+        @Override
+        public char charAt( int index )
+        {
+            if ( index < 0 || index >= length() )
+            {
+                throw new IndexOutOfBoundsException( index );
+            }
+            int offset = from + index;
+            int current = chunk;
+            if ( current >= text.count || offset < text.start( current ) || offset >= text.ends[current] )
+            {
+                current = text.chunkAt( offset );
+                chunk = current;
+            }
+            return text.chunks[current].charAt( offset - text.start( current ) );
+        }
+
+        @Override
+        public CharSequence subSequence( int start, int end )
+        {
+            if ( start < 0 || end > length() || start > end )
+            {
+                throw new IndexOutOfBoundsException( "Range [" + start + ", " + end + ") outside of length " + length() );
+            }
+            return new View( text, from + start, from + end );
+        }
+
+        @Override
+        public String toString()
+        {
+            return from == 0 && to == text.length() ? text.materialize() : text.copy( from, to );
+        }
+    }
+}
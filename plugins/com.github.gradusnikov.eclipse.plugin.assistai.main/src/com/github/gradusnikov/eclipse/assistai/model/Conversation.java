@@ -1,43 +1,199 @@
 package com.github.gradusnikov.eclipse.assistai.model;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 
-import jakarta.inject.Singleton;
-
-import org.eclipse.e4.core.di.annotations.Creatable;
-
-@Creatable
-@Singleton
+/**
+ * The messages of the chat.
+ * <p>
+ * The oldest messages may be compacted: they are still kept and shown in the
+ * chat view, but requests to the model carry a summary of them instead (see
+ * {@link #getRequestMessages()}).
+ * <p>
+ * Each chat tab has its own conversation. Its state is an immutable
+ * {@link Snapshot} that is replaced on every change, so readers, e.g. the
+ * request being sent, never lock and never see a change in the middle of
+ * iterating. Changes are serialized by locking the conversation.
+ */
 public class Conversation
 {
-    public List<ChatMessage> conversation = new LinkedList<>();
+    private volatile Snapshot snapshot = new Snapshot( UUID.randomUUID().toString(), 0, List.of(), null, 0 );
+
+    /**
+     * The state of a conversation at one point in time.
+     *
+     * @param id
+     *            the id in the {@link ConversationStore}
+     * @param epoch
+     *            incremented on {@link Conversation#clear()}, so that a
+     *            compaction of a cleared conversation is discarded
+     * @param messages
+     *            all messages, including the compacted ones
+     * @param summary
+     *            summary of the first <code>compactedCount</code> messages, or
+     *            <code>null</code>
+     * @param compactedCount
+     *            the number of oldest messages replaced by the summary
+     */
+    public record Snapshot( String id, int epoch, List<ChatMessage> messages, ChatMessage summary, int compactedCount )
+    {
+        public Optional<ChatMessage> getSummary()
+        {
+            return Optional.ofNullable( summary );
+        }
+
+        /**
+         * Returns the messages to send to the model: the summary of the
+         * compacted messages, the pinned compacted messages, and the messages
+         * that follow. Without compaction these are all messages.
+         */
+        public List<ChatMessage> getRequestMessages()
+        {
+            var requestMessages = new ArrayList<ChatMessage>( messages.size() - compactedCount + 1 );
+            if ( summary != null )
+            {
+                requestMessages.add( summary );
+            }
+            for ( int i = 0; i < messages.size(); i++ )
+            {
+                var message = messages.get( i );
+                if ( i >= compactedCount || message.isPinned() )
+                {
+                    requestMessages.add( message );
+                }
+            }
+            return requestMessages;
+        }
+    }
+
+    /**
+     * @return the current state, which is not changed by later changes of the
+     *         conversation
+     */
+    public Snapshot snapshot()
+    {
+        return snapshot;
+    }
 
     public int size()
     {
-        return conversation.size();
+        return snapshot.messages().size();
     }
-    
-    public void clear()
+
+    /**
+     * Removes all messages and starts a new conversation.
+     */
+    public synchronized void clear()
+    {
+        open( UUID.randomUUID().toString() );
+    }
+
+    /**
+     * Removes all messages and continues the conversation with the given id,
+     * e.g. to load it from the {@link ConversationStore}.
+     */
+    public synchronized void open( String id )
     {
-        conversation.clear();
+        snapshot = new Snapshot( id, snapshot.epoch() + 1, List.of(), null, 0 );
     }
-    
-    public synchronized void add(ChatMessage message)
+
+    public String getId()
+    {
+        return snapshot.id();
+    }
+
+    public synchronized void add( ChatMessage message )
     {
-        conversation.add(message);
+        var current = snapshot;
+        var messages = current.messages().toArray( new ChatMessage[current.messages().size() + 1] );
+        messages[messages.length - 1] = message;
+        snapshot = new Snapshot( current.id(), current.epoch(), Collections.unmodifiableList( Arrays.asList( messages ) ), current.summary(), current.compactedCount() );
     }
-    
+
+    /**
+     * @return all messages, including the compacted ones, as an unmodifiable
+     *         list that is not changed by later changes of the conversation
+     */
     public List<ChatMessage> messages()
     {
-        return conversation;
+        return snapshot.messages();
+    }
+
+    /**
+     * @see Snapshot#getRequestMessages()
+     */
+    public List<ChatMessage> getRequestMessages()
+    {
+        return snapshot.getRequestMessages();
+    }
+
+    public Optional<ChatMessage> getSummary()
+    {
+        return snapshot.getSummary();
+    }
+
+    /**
+     * @return the number of oldest messages replaced by the summary
+     */
+    public int getCompactedCount()
+    {
+        return snapshot.compactedCount();
+    }
+
+    public int getEpoch()
+    {
+        return snapshot.epoch();
+    }
+
+    /**
+     * Replaces the messages up to <code>toIndex</code> with the summary,
+     * unless the conversation was cleared or compacted again since the
+     * summarized messages were read.
+     *
+     * @param epoch
+     *            the epoch when the messages were read
+     * @param fromIndex
+     *            the compacted count when the messages were read
+     * @param toIndex
+     *            the new compacted count
+     * @param summary
+     *            the summary of the previous summary and the messages between
+     *            <code>fromIndex</code> and <code>toIndex</code>
+     * @return <code>true</code> if the summary was applied
+     */
+    public synchronized boolean compact( int epoch, int fromIndex, int toIndex, ChatMessage summary )
+    {
+        var current = snapshot;
+        if ( current.epoch() != epoch || current.compactedCount() != fromIndex || toIndex > current.messages().size() )
+        {
+            return false;
+        }
+        snapshot = new Snapshot( current.id(), epoch, current.messages(), summary, toIndex );
+        return true;
     }
 
-    public Optional<ChatMessage> removeLastMessage()
+    public synchronized Optional<ChatMessage> removeLastMessage()
     {
-        ChatMessage removed = !conversation.isEmpty() ? conversation.remove( conversation.size() - 1 ) : null;
-        return Optional.ofNullable( removed );
-        
+        var current = snapshot;
+        if ( current.messages().isEmpty() )
+        {
+            return Optional.empty();
+        }
+        int size = current.messages().size() - 1;
+        var messages = List.copyOf( current.messages().subList( 0, size ) );
+        if ( size < current.compactedCount() )
+        {
+            // the summary covers the removed message
+            snapshot = new Snapshot( current.id(), current.epoch() + 1, messages, null, 0 );
+        }
+        else
+        {
+            snapshot = new Snapshot( current.id(), current.epoch(), messages, current.summary(), current.compactedCount() );
+        }
+        return Optional.of( current.messages().get( size ) );
     }
 }
@@ -0,0 +1,681 @@
+package com.github.gradusnikov.eclipse.assistai.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.e4.core.di.annotations.Creatable;
+
+import com.github.gradusnikov.eclipse.assistai.Activator;
+import com.github.gradusnikov.eclipse.assistai.prompt.ChatMessageUtilities;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+
+/**
+ * Keeps conversations in an append-only log in the plugin state location.
+ * <p>
+ * Each record is written as
+ *
+ * <pre>
+ * int    length of the payload
+ * int    CRC32C of the payload
+ * byte   type
+ * long   timestamp
+ * string conversation id
+ * string key: the message id, or the title of a conversation
+ * ...    fields of the record type
+ * </pre>
+ *
+ * where a string is its length in bytes followed by its UTF-8 bytes. A
+ * message is written again when it changes, and the last record wins.
+ * Records are written as they come and forced to disk by a background job at
+ * most every {@value #SYNC_DELAY_MS} ms, so that a burst of messages costs a
+ * single fsync.
+ * <p>
+ * The log is opened on first use. It is memory-mapped in windows of
+ * {@value #MAP_WINDOW} bytes and scanned once, reading only the record headers,
+ * to index the records of each conversation. A record torn by a crash ends the
+ * log: the file is truncated before it. Only the checksum of the last record
+ * is verified when the log is opened, as that is where a crash tears it;
+ * loading a conversation reads only the records of its messages and verifies
+ * theirs, skipping damaged messages. Deleted conversations are not removed
+ * from the file.
+ * <p>
+ * If the log cannot be opened, conversations are not stored for the rest of
+ * the session; a failed write is logged and retried with the next save.
+ */
+@Creatable
+@Singleton
+public class ConversationStore
+{
+    public static final String LOG_FILE = "conversations.log";
+
+    private static final long SYNC_DELAY_MS = 200;
+
+    private static final int TITLE_LENGTH = 80;
+
+    private static final int HEADER_BYTES = 2 * Integer.BYTES;
+
+    private static final long MAP_WINDOW = 64L << 20;
+
+    private static final byte CONVERSATION = 1;
+
+    private static final byte MESSAGE = 2;
+
+    private static final byte SUMMARY = 3;
+
+    private static final byte DELETE = 4;
+
+    /**
+     * Describes a stored conversation, as listed without loading its messages.
+     */
+    public record ConversationInfo( String id, String title, long lastModified, int messageCount ) {}
+
+    /** offsets of the records of a conversation */
+    private static class Index
+    {
+        private String title = "";
+
+        private long lastModified;
+
+        /** latest record of each message, in the order the messages were added */
+        private final LinkedHashMap<String, Long> messages = new LinkedHashMap<>();
+
+        private long summary = -1;
+    }
+
+    /** the fields of a record used by the index */
+    private record Header( byte type, long timestamp, String id, String key ) {}
+
+    private final Path file;
+
+    private FileChannel channel;
+
+    /** set if the log cannot be opened */
+    private boolean unavailable;
+
+    private long size;
+
+    /** conversations by id, in the order they were started */
+    private final Map<String, Index> conversations = new LinkedHashMap<>();
+
+    /** revision and pinned state of the stored messages, by conversation and message id */
+    private final Map<String, Long> storedRevisions = new HashMap<>();
+
+    private final AtomicBoolean syncScheduled = new AtomicBoolean();
+
+    private final Job syncJob = Job.create( "Save conversations", monitor -> {
+        syncScheduled.set( false );
+        try
+        {
+            sync();
+            return Status.OK_STATUS;
+        }
+        catch ( IOException e )
+        {
+            return Status.error( "Cannot save conversations: " + e.getMessage(), e );
+        }
+    } );
+
+    public ConversationStore()
+    {
+        this( Activator.getDefault().getStateLocation().append( LOG_FILE ).toFile().toPath() );
+    }
+
+    /**
+     * Creates a store writing to the given log file.
+     */
+    public ConversationStore( Path file )
+    {
+        this.file = file;
+        syncJob.setSystem( true );
+    }
+
+    /**
+     * Lists the stored conversations, the most recently changed first.
+     */
+    public synchronized List<ConversationInfo> list()
+    {
+        if ( !open() )
+        {
+            return List.of();
+        }
+        return conversations.entrySet()
+                            .stream()
+                            .map( entry -> new ConversationInfo( entry.getKey(), entry.getValue().title, entry.getValue().lastModified,
+                                                                 entry.getValue().messages.size() ) )
+                            .sorted( Comparator.comparingLong( ConversationInfo::lastModified ).reversed() )
+                            .toList();
+    }
+
+    /**
+     * Appends the messages that were added or changed since the conversation
+     * was saved last, and its summary if it was compacted.
+     * <p>
+     * Only complete messages should be saved: the text of attachments is
+     * stored as part of the content, images are not stored.
+     */
+    public void save( Conversation conversation )
+    {
+        var snapshot = conversation.snapshot();
+        String id = snapshot.id();
+        List<ChatMessage> messages = snapshot.messages();
+        ChatMessage summary = snapshot.summary();
+        int compactedCount = snapshot.compactedCount();
+        if ( messages.isEmpty() )
+        {
+            return;
+        }
+        synchronized ( this )
+        {
+            if ( !open() )
+            {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if ( !conversations.containsKey( id ) )
+            {
+                var title = messages.stream()
+                                    .filter( message -> "user".equals( message.getRole() ) )
+                                    .map( ChatMessage::getContent )
+                                    .findFirst()
+                                    .map( ConversationStore::toTitle )
+                                    .orElse( "" );
+                if ( !append( record( CONVERSATION, now, id, title ) ) )
+                {
+                    return;
+                }
+            }
+            scheduleSync();
+            for ( var message : messages )
+            {
+                long revision = message.getRevision() << 1 | ( message.isPinned() ? 1 : 0 );
+                if ( !Objects.equals( storedRevisions.get( id + "/" + message.getId() ), revision ) )
+                {
+                    if ( !append( messageRecord( now, id, message ) ) )
+                    {
+                        return;
+                    }
+                    storedRevisions.put( id + "/" + message.getId(), revision );
+                }
+            }
+            if ( summary != null )
+            {
+                long revision = summary.getRevision() << 32 | compactedCount;
+                if ( !Objects.equals( storedRevisions.get( id + "/" + summary.getId() ), revision ) )
+                {
+                    var record = record( SUMMARY, now, id, summary.getId() );
+                    writeInt( record, compactedCount );
+                    writeString( record, summary.getContent() );
+                    if ( append( record ) )
+                    {
+                        storedRevisions.put( id + "/" + summary.getId(), revision );
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the messages of the conversation with the stored conversation
+     * of the given id. Each message is passed to the listener as it is read,
+     * e.g. to show it in the chat view. Damaged messages are skipped; if the
+     * log cannot be read, the messages read so far are kept.
+     *
+     * @return <code>false</code> if no conversation with that id is stored
+     */
+    public boolean load( String id, Conversation conversation, Consumer<ChatMessage> listener )
+    {
+        List<Long> offsets;
+        long summaryOffset;
+        MappedLog log;
+        synchronized ( this )
+        {
+            if ( !open() )
+            {
+                return false;
+            }
+            var index = conversations.get( id );
+            if ( index == null )
+            {
+                return false;
+            }
+            offsets = new ArrayList<>( index.messages.values() );
+            summaryOffset = index.summary;
+            log = new MappedLog( channel, size );
+        }
+        conversation.open( id );
+        int epoch = conversation.getEpoch();
+        try
+        {
+            for ( long offset : offsets )
+            {
+                var record = payload( log, offset );
+                if ( record == null )
+                {
+                    warn( "Skipping a damaged message of conversation " + id + " in " + file );
+                    continue;
+                }
+                var message = readMessage( record );
+                synchronized ( this )
+                {
+                    storedRevisions.put( id + "/" + message.getId(), message.getRevision() << 1 | ( message.isPinned() ? 1 : 0 ) );
+                }
+                conversation.add( message );
+                listener.accept( message );
+            }
+            var record = summaryOffset >= 0 ? payload( log, summaryOffset ) : null;
+            if ( summaryOffset >= 0 && record == null )
+            {
+                warn( "Skipping the damaged summary of conversation " + id + " in " + file );
+            }
+            else if ( record != null )
+            {
+                var summary = new ChatMessage( readKey( record ), "system" );
+                int compactedCount = record.getInt();
+                summary.setContent( readString( record ) );
+                synchronized ( this )
+                {
+                    storedRevisions.put( id + "/" + summary.getId(), summary.getRevision() << 32 | compactedCount );
+                }
+                conversation.compact( epoch, 0, compactedCount, summary );
+            }
+        }
+        catch ( IOException e )
+        {
+            warn( "Cannot read conversation " + id + " from " + file + ": " + e.getMessage() );
+        }
+        return true;
+    }
+
+    /**
+     * Removes the conversation from the list of stored conversations.
+     */
+    public synchronized void delete( String id )
+    {
+        if ( open() && conversations.containsKey( id ) && append( record( DELETE, System.currentTimeMillis(), id, "" ) ) )
+        {
+            storedRevisions.keySet().removeIf( key -> key.startsWith( id + "/" ) );
+            scheduleSync();
+        }
+    }
+
+    /**
+     * Forces the records written so far to disk.
+     */
+    public synchronized void sync() throws IOException
+    {
+        if ( channel != null )
+        {
+            channel.force( false );
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close()
+    {
+        syncJob.cancel();
+        if ( channel != null )
+        {
+            try
+            {
+                channel.force( false );
+                channel.close();
+            }
+            catch ( IOException e )
+            {
+                warn( "Cannot close " + file + ": " + e.getMessage() );
+            }
+            channel = null;
+            conversations.clear();
+            storedRevisions.clear();
+        }
+    }
+
+    private void scheduleSync()
+    {
+        if ( syncScheduled.compareAndSet( false, true ) )
+        {
+            syncJob.schedule( SYNC_DELAY_MS );
+        }
+    }
+
+    /**
+     * Opens the log and indexes its records, unless it is open already.
+     *
+     * @return <code>false</code> if the log cannot be opened
+     */
+    private boolean open()
+    {
+        if ( channel != null )
+        {
+            return true;
+        }
+        if ( unavailable )
+        {
+            return false;
+        }
+        try
+        {
+            Files.createDirectories( file.getParent() );
+            channel = FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE );
+            size = channel.size();
+            long valid = index( new MappedLog( channel, size ) );
+            if ( valid < size )
+            {
+                warn( "Discarding " + ( size - valid ) + " bytes of an incomplete record at the end of " + file );
+                channel.truncate( valid );
+                size = valid;
+            }
+            return true;
+        }
+        catch ( IOException e )
+        {
+            warn( "Cannot open " + file + ", conversations are not saved: " + e.getMessage() );
+            unavailable = true;
+            conversations.clear();
+            if ( channel != null )
+            {
+                try
+                {
+                    channel.close();
+                }
+                catch ( IOException closeException )
+                {
+                    // not used anymore
+                }
+                channel = null;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Indexes the records of the log. A record is indexed once the header of
+     * the next one was read, so that the last record can be verified first.
+     *
+     * @return the length of the valid records
+     */
+    private long index( MappedLog log ) throws IOException
+    {
+        long offset = 0;
+        long last = -1;
+        Header pending = null;
+        while ( offset + HEADER_BYTES <= log.size() )
+        {
+            int length = log.slice( offset, HEADER_BYTES ).getInt( 0 );
+            if ( length <= 0 || length > log.size() - offset - HEADER_BYTES )
+            {
+                break;
+            }
+            Header header;
+            try
+            {
+                header = readHeader( log.slice( offset + HEADER_BYTES, length ) );
+            }
+            catch ( BufferUnderflowException e )
+            {
+                break;
+            }
+            if ( pending != null )
+            {
+                index( last, pending );
+            }
+            pending = header;
+            last = offset;
+            offset += HEADER_BYTES + length;
+        }
+        if ( pending == null )
+        {
+            return offset;
+        }
+        if ( payload( log, last ) == null )
+        {
+            return last;
+        }
+        index( last, pending );
+        return offset;
+    }
+
+    private void index( long offset, Header header )
+    {
+        if ( header.type() == DELETE )
+        {
+            conversations.remove( header.id() );
+            return;
+        }
+        var index = conversations.computeIfAbsent( header.id(), key -> new Index() );
+        index.lastModified = Math.max( index.lastModified, header.timestamp() );
+        switch ( header.type() )
+        {
+            case CONVERSATION -> index.title = header.key();
+            case MESSAGE -> index.messages.put( header.key(), offset );
+            case SUMMARY -> index.summary = offset;
+            default -> {
+                // written by a newer version
+            }
+        }
+    }
+
+    /**
+     * @return <code>false</code> if the record could not be written
+     */
+    private boolean append( ByteArrayOutputStream record )
+    {
+        byte[] payload = record.toByteArray();
+        var crc = new CRC32C();
+        crc.update( payload );
+        var buffer = ByteBuffer.allocate( HEADER_BYTES + payload.length );
+        buffer.putInt( payload.length ).putInt( (int) crc.getValue() ).put( payload ).flip();
+        long offset = size;
+        try
+        {
+            while ( buffer.hasRemaining() )
+            {
+                channel.write( buffer, size + buffer.position() );
+            }
+        }
+        catch ( IOException e )
+        {
+            // the next record is written over the incomplete one
+            warn( "Cannot write to " + file + ": " + e.getMessage() );
+            return false;
+        }
+        size += buffer.limit();
+        index( offset, readHeader( ByteBuffer.wrap( payload ) ) );
+        return true;
+    }
+
+    private static ByteArrayOutputStream record( byte type, long timestamp, String conversationId, String key )
+    {
+        var record = new ByteArrayOutputStream();
+        record.write( type );
+        writeLong( record, timestamp );
+        writeString( record, conversationId );
+        writeString( record, key );
+        return record;
+    }
+
+    private static ByteArrayOutputStream messageRecord( long timestamp, String conversationId, ChatMessage message )
+    {
+        var record = record( MESSAGE, timestamp, conversationId, message.getId() );
+        writeString( record, message.getRole() );
+        writeString( record, Objects.toString( message.getName(), "" ) );
+        record.write( message.isPinned() ? 1 : 0 );
+        writeString( record, message.getAttachments().isEmpty() ? message.getContent() : ChatMessageUtilities.toChatMessageText( message ) );
+        var functionCall = message.getFunctionCall();
+        writeInt( record, functionCall == null ? -1 : functionCall.arguments().size() );
+        if ( functionCall != null )
+        {
+            writeString( record, functionCall.name() );
+            functionCall.arguments().forEach( ( key, value ) -> {
+                writeString( record, key );
+                writeString( record, value );
+            } );
+        }
+        return record;
+    }
+
+    private static ChatMessage readMessage( ByteBuffer record )
+    {
+        var id = readKey( record );
+        var role = readString( record );
+        var name = readString( record );
+        var message = new ChatMessage( id, name.isEmpty() ? null : name, role );
+        message.setPinned( record.get() != 0 );
+        message.setContent( readString( record ) );
+        int arguments = record.getInt();
+        if ( arguments >= 0 )
+        {
+            var functionName = readString( record );
+            var values = new LinkedHashMap<String, String>();
+            for ( int i = 0; i < arguments; i++ )
+            {
+                values.put( readString( record ), readString( record ) );
+            }
+            message.setFunctionCall( new FunctionCall( functionName, values ) );
+        }
+        return message;
+    }
+
+    /**
+     * @return the payload of the record at the offset, or null if it does not
+     *         match its checksum
+     */
+    private static ByteBuffer payload( MappedLog log, long offset ) throws IOException
+    {
+        var header = log.slice( offset, HEADER_BYTES );
+        var payload = log.slice( offset + HEADER_BYTES, header.getInt( 0 ) );
+        var crc = new CRC32C();
+        crc.update( payload.duplicate() );
+        return (int) crc.getValue() == header.getInt( Integer.BYTES ) ? payload : null;
+    }
+
+    private static Header readHeader( ByteBuffer record )
+    {
+        byte type = record.get();
+        long timestamp = record.getLong();
+        String id = readString( record );
+        String key = type == CONVERSATION || type == MESSAGE ? readString( record ) : "";
+        return new Header( type, timestamp, id, key );
+    }
+
+    /**
+     * Skips the type, timestamp and conversation id of the record.
+     *
+     * @return the key of the record
+     */
+    private static String readKey( ByteBuffer record )
+    {
+        record.position( 1 + Long.BYTES );
+        record.position( record.position() + Integer.BYTES + record.getInt( record.position() ) );
+        return readString( record );
+    }
+
+    private static String readString( ByteBuffer buffer )
+    {
+        int length = buffer.getInt();
+        if ( length < 0 || length > buffer.remaining() )
+        {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+    private static void writeString( ByteArrayOutputStream out, String value )
+    {
+        byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+        writeInt( out, bytes.length );
+        out.writeBytes( bytes );
+    }
+
+    private static void writeInt( ByteArrayOutputStream out, int value )
+    {
+        out.write( value >>> 24 );
+        out.write( value >>> 16 );
+        out.write( value >>> 8 );
+        out.write( value );
+    }
+
+    private static void writeLong( ByteArrayOutputStream out, long value )
+    {
+        writeInt( out, (int) ( value >>> 32 ) );
+        writeInt( out, (int) value );
+    }
+
+    private static String toTitle( String content )
+    {
+        var title = content.strip().lines().findFirst().orElse( "" );
+        return title.length() > TITLE_LENGTH ? title.substring( 0, TITLE_LENGTH ) + "..." : title;
+    }
+
+    /**
+     * Maps the log a window at a time, so that records are read by their
+     * <code>long</code> offset in a file of any size.
+     */
+    private static class MappedLog
+    {
+        private final FileChannel channel;
+
+        private final long size;
+
+        private long start;
+
+        private MappedByteBuffer window;
+
+        MappedLog( FileChannel channel, long size )
+        {
+            this.channel = channel;
+            this.size = size;
+        }
+
+        long size()
+        {
+            return size;
+        }
+
+        /**
+         * @return the bytes at the position, which must be within the size
+         */
+        ByteBuffer slice( long position, int length ) throws IOException
+        {
+            if ( window == null || position < start || position + length > start + window.limit() )
+            {
+                start = position;
+                window = channel.map( FileChannel.MapMode.READ_ONLY, position, Math.max( length, Math.min( MAP_WINDOW, size - position ) ) );
+            }
+            return window.slice( (int) ( position - start ), length );
+        }
+    }
+
+    private static void warn( String message )
+    {
+        var activator = Activator.getDefault();
+        if ( activator != null )
+        {
+            activator.getLog().warn( message );
+        }
+    }
+}
@@ -1,7 +1,31 @@
 package com.github.gradusnikov.eclipse.assistai.model;
 
+import java.util.Locale;
+
 /**
- * 
+ * Describes a model API endpoint and the capabilities of the model.
+ * <p>
+ * Images sent to a vision model are downscaled so that their longer edge
+ * does not exceed <code>maxImageEdge</code> pixels and further reduced
+ * according to <code>imageDetail</code> (see {@link #IMAGE_DETAIL_LOW},
+ * {@link #IMAGE_DETAIL_HIGH}, {@link #IMAGE_DETAIL_AUTO}), then encoded as JPEG
+ * with <code>jpegQuality</code> (1-100). Descriptors stored before these
+ * settings existed get the defaults.
+ * <p>
+ * <code>contextWindow</code> is the number of tokens the model accepts in a
+ * request and its reply. When it is not set, it is derived from the model
+ * name (see {@link #effectiveContextWindow()}).
+ * <p>
+ * A streamed request is aborted when the connection is not established within
+ * <code>connectTimeoutSeconds</code>, when no token is received within
+ * <code>firstTokenTimeoutSeconds</code> of sending it, or when no further
+ * token is received for <code>idleTimeoutSeconds</code>. There is no limit on
+ * the duration of a stream that keeps receiving tokens.
+ * <p>
+ * <code>requestsPerMinute</code> and <code>tokensPerMinute</code> limit the
+ * rate of the requests sent to the model, see
+ * {@link com.github.gradusnikov.eclipse.assistai.services.RequestScheduler}.
+ * 0 means no limit.
  */
 public record ModelApiDescriptor(
          String uid,
@@ -11,5 +35,117 @@ public record ModelApiDescriptor(
          String modelName,
          int temperature,
          boolean vision,
-         boolean functionCalling
-         ) {} 
\ No newline at end of file
+         boolean functionCalling,
+         int maxImageEdge,
+         String imageDetail,
+         int jpegQuality,
+         int contextWindow,
+         int connectTimeoutSeconds,
+         int firstTokenTimeoutSeconds,
+         int idleTimeoutSeconds,
+         int requestsPerMinute,
+         int tokensPerMinute
+         )
+{
+    public static final String IMAGE_DETAIL_LOW  = "low";
+    public static final String IMAGE_DETAIL_HIGH = "high";
+    public static final String IMAGE_DETAIL_AUTO = "auto";
+
+    public static final int DEFAULT_MAX_IMAGE_EDGE = 2048;
+    public static final int DEFAULT_JPEG_QUALITY   = 75;
+
+    public static final int DEFAULT_CONTEXT_WINDOW = 8192;
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_SECONDS     = 10;
+    public static final int DEFAULT_FIRST_TOKEN_TIMEOUT_SECONDS = 60;
+    public static final int DEFAULT_IDLE_TIMEOUT_SECONDS        = 20;
+
+    public ModelApiDescriptor
+    {
+        if ( maxImageEdge <= 0 )
+        {
+            maxImageEdge = DEFAULT_MAX_IMAGE_EDGE;
+        }
+        if ( imageDetail == null || imageDetail.isBlank() )
+        {
+            imageDetail = IMAGE_DETAIL_AUTO;
+        }
+        if ( jpegQuality <= 0 || jpegQuality > 100 )
+        {
+            jpegQuality = DEFAULT_JPEG_QUALITY;
+        }
+        if ( contextWindow < 0 )
+        {
+            contextWindow = 0;
+        }
+        if ( connectTimeoutSeconds <= 0 )
+        {
+            connectTimeoutSeconds = DEFAULT_CONNECT_TIMEOUT_SECONDS;
+        }
+        if ( firstTokenTimeoutSeconds <= 0 )
+        {
+            firstTokenTimeoutSeconds = DEFAULT_FIRST_TOKEN_TIMEOUT_SECONDS;
+        }
+        if ( idleTimeoutSeconds <= 0 )
+        {
+            idleTimeoutSeconds = DEFAULT_IDLE_TIMEOUT_SECONDS;
+        }
+        if ( requestsPerMinute < 0 )
+        {
+            requestsPerMinute = 0;
+        }
+        if ( tokensPerMinute < 0 )
+        {
+            tokensPerMinute = 0;
+        }
+    }
+
+    /**
+     * Creates a descriptor with the default image settings, context window
+     * and timeouts, without rate limits.
+     */
+    public ModelApiDescriptor( String uid, String apiType, String apiUrl, String apiKey, String modelName, int temperature, boolean vision, boolean functionCalling )
+    {
+        this( uid, apiType, apiUrl, apiKey, modelName, temperature, vision, functionCalling, DEFAULT_MAX_IMAGE_EDGE, IMAGE_DETAIL_AUTO, DEFAULT_JPEG_QUALITY, 0, 0, 0, 0, 0, 0 );
+    }
+
+    /**
+     * @return the configured context window, or the context window of the
+     *         model if none is configured
+     */
+    public int effectiveContextWindow()
+    {
+        return contextWindow > 0 ? contextWindow : defaultContextWindow( modelName );
+    }
+
+    /**
+     * Returns the context window of well known OpenAI models, or
+     * {@link #DEFAULT_CONTEXT_WINDOW} for others.
+     */
+    public static int defaultContextWindow( String modelName )
+    {
+        String name = modelName == null ? "" : modelName.toLowerCase( Locale.ROOT );
+        if ( name.startsWith( "gpt-4.1" ) )
+        {
+            return 1_047_576;
+        }
+        if ( name.startsWith( "o1" ) || name.startsWith( "o3" ) || name.startsWith( "o4" ) )
+        {
+            return 200_000;
+        }
+        if ( name.startsWith( "gpt-4o" ) || name.startsWith( "chatgpt-4o" ) || name.startsWith( "gpt-4-turbo" ) 
+                || name.startsWith( "gpt-4-1106" ) || name.startsWith( "gpt-4-0125" ) || name.startsWith( "gpt-4-vision" ) )
+        {
+            return 128_000;
+        }
+        if ( name.startsWith( "gpt-4-32k" ) )
+        {
+            return 32_768;
+        }
+        if ( name.startsWith( "gpt-3.5-turbo" ) )
+        {
+            return 16_385;
+        }
+        return DEFAULT_CONTEXT_WINDOW;
+    }
+}
@@ -1,9 +1,14 @@
 package com.github.gradusnikov.eclipse.assistai.part;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.apache.commons.lang3.StringUtils;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.swt.graphics.ImageData;
 
+import com.github.gradusnikov.eclipse.assistai.tokenizer.Tokenizer;
+
 /**
  * Represents an attachment to a chat message, e.g. an image or content from a
  * file.
@@ -16,6 +21,24 @@ public interface Attachment
 
     ImageData getImageData();
 
+    /**
+     * Counts the tokens of {@link #toChatMessageContent()}. Attachments do
+     * not change, so the count is computed once per encoding.
+     * 
+     * @param tokenizer
+     *            the tokenizer of the model
+     * @return the number of tokens
+     */
+    int countTokens( Tokenizer tokenizer );
+
+    /**
+     * @return <code>true</code> if the message with this attachment is kept in
+     *         the request when older messages are dropped
+     */
+    boolean isPinned();
+
+    void setPinned( boolean pinned );
+
     void accept( UiVisitor visitor );
 
     public interface UiVisitor
@@ -25,6 +48,11 @@ public interface Attachment
 
     abstract class BaseAttachment implements Attachment
     {
+        private volatile boolean pinned;
+
+        /** token counts by encoding */
+        private final Map<String, Integer> tokenCounts = new ConcurrentHashMap<>();
+
         @Override
         public String toChatMessageContent()
         {
@@ -42,6 +70,27 @@ public interface Attachment
         {
             return null;
         }
+
+        @Override
+        public int countTokens( Tokenizer tokenizer )
+        {
+            return tokenCounts.computeIfAbsent( tokenizer.getEncoding(), encoding -> {
+                String content = toChatMessageContent();
+                return content == null ? 0 : tokenizer.countTokens( content );
+            } );
+        }
+
+        @Override
+        public boolean isPinned()
+        {
+            return pinned;
+        }
+
+        @Override
+        public void setPinned( boolean pinned )
+        {
+            this.pinned = pinned;
+        }
     }
 
     /**
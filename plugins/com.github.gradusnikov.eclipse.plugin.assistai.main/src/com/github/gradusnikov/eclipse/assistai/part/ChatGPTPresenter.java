@@ -6,6 +6,9 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 import org.eclipse.core.runtime.ILog;
@@ -26,15 +29,20 @@ import org.eclipse.ui.PlatformUI;
 import org.osgi.service.prefs.BackingStoreException;
 import org.osgi.service.prefs.Preferences;
 
+import com.github.gradusnikov.eclipse.assistai.Activator;
 import com.github.gradusnikov.eclipse.assistai.jobs.AssistAIJobConstants;
 import com.github.gradusnikov.eclipse.assistai.jobs.SendConversationJob;
 import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
 import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+import com.github.gradusnikov.eclipse.assistai.model.ConversationStore;
 import com.github.gradusnikov.eclipse.assistai.part.Attachment.FileContentAttachment;
 import com.github.gradusnikov.eclipse.assistai.prompt.ChatMessageFactory;
 import com.github.gradusnikov.eclipse.assistai.prompt.ChatMessageUtilities;
 import com.github.gradusnikov.eclipse.assistai.prompt.Prompts;
-import com.github.gradusnikov.eclipse.assistai.subscribers.AppendMessageToViewSubscriber;
+import com.github.gradusnikov.eclipse.assistai.services.ContextWindowManager;
+import com.github.gradusnikov.eclipse.assistai.services.ImageEncodingService;
+import com.github.gradusnikov.eclipse.assistai.services.OpenAIClientConfiguration;
+import com.github.gradusnikov.eclipse.assistai.subscribers.OpenAIHttpClientProvider;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.inject.Inject;
@@ -51,9 +59,6 @@ public class ChatGPTPresenter
     @Inject
     private PartAccessor                  partAccessor;
 
-    @Inject
-    private Conversation                  conversation;
-
     @Inject
     private ChatMessageFactory            chatMessageFactory;
 
@@ -64,50 +69,174 @@ public class ChatGPTPresenter
     private Provider<SendConversationJob> sendConversationJobProvider;
 
     @Inject
-    private AppendMessageToViewSubscriber appendMessageToViewSubscriber;
+    private OpenAIHttpClientProvider      clientProvider;
 
     @Inject
     private ApplyPatchWizardHelper        applyPatchWizzardHelper;
 
+    @Inject
+    private MessageRenderScheduler        renderScheduler;
+
+    @Inject
+    private ImageEncodingService          imageEncodingService;
+
+    @Inject
+    private ContextWindowManager          contextWindowManager;
+
+    @Inject
+    private OpenAIClientConfiguration     configuration;
+
+    @Inject
+    private ConversationStore             conversationStore;
+
     private static final String           LAST_SELECTED_DIR_KEY = "lastSelectedDirectory";
 
+    private static final String           NEW_CONVERSATION_TITLE = "New Chat";
+
+    private static final int              TITLE_LENGTH          = 30;
+
     // Preference node for your plugin
     private Preferences                   preferences           = InstanceScope.INSTANCE.getNode( "com.github.gradusnikov.eclipse.assistai" );
 
     private final List<Attachment>        attachments           = new ArrayList<>();
 
+    /** the conversations shown as tabs, in tab order */
+    private final List<Conversation>      conversations         = new ArrayList<>();
+
+    /** the conversation of the selected tab */
+    private volatile Conversation         conversation          = new Conversation();
+
+    /** the conversations receiving a reply */
+    private final Set<Conversation>       streaming             = ConcurrentHashMap.newKeySet();
+
+    /** whether the most recent stored conversation was loaded */
+    private final AtomicBoolean           restored              = new AtomicBoolean();
+
+    /** the text the user is typing */
+    private volatile String               userInput             = "";
+
     @PostConstruct
     public void init()
     {
-        appendMessageToViewSubscriber.setPresenter( this );
+        clientProvider.setPresenter( this );
+        conversations.add( conversation );
+    }
+
+    /**
+     * Shows a tab for each open conversation when the chat view is created.
+     * The first time, the most recent stored conversation is loaded into the
+     * empty first tab, e.g. after a restart.
+     */
+    public void onViewCreated()
+    {
+        for ( var open : getConversations() )
+        {
+            applyToView( view -> view.addConversation( open, getTitle( open ), () -> showConversation( open ) ) );
+        }
+        var selected = conversation;
+        applyToView( view -> view.selectConversation( selected ) );
+        updateInputEnabled();
+    }
+
+    public void onNewConversation()
+    {
+        var created = new Conversation();
+        synchronized ( conversations )
+        {
+            conversations.add( created );
+        }
+        conversation = created;
+        applyToView( view -> {
+            view.addConversation( created, getTitle( created ), () -> {} );
+            view.selectConversation( created );
+        } );
+        updateInputEnabled();
+        updateTokenCount();
+    }
+
+    public void onConversationSelected( Conversation selected )
+    {
+        conversation = selected;
+        updateInputEnabled();
+        updateTokenCount();
+    }
+
+    /**
+     * Cancels the jobs of the conversation and closes its tab. The
+     * conversation stays in the {@link ConversationStore}.
+     */
+    public void onCloseConversation( Conversation closed )
+    {
+        jobManager.cancel( closed );
+        streaming.remove( closed );
+        Conversation next = null;
+        synchronized ( conversations )
+        {
+            int index = conversations.indexOf( closed );
+            conversations.remove( closed );
+            if ( !conversations.isEmpty() )
+            {
+                next = conversations.get( Math.max( 0, index - 1 ) );
+            }
+        }
+        applyToView( view -> view.removeConversation( closed ) );
+        if ( next == null )
+        {
+            onNewConversation();
+        }
+        else if ( closed == conversation )
+        {
+            var selected = next;
+            applyToView( view -> view.selectConversation( selected ) );
+            onConversationSelected( selected );
+        }
     }
 
     public void onClear()
     {
-        onStop();
-        conversation.clear();
+        var cleared = conversation;
+        jobManager.cancel( cleared );
+        streaming.remove( cleared );
+        cleared.clear();
         attachments.clear();
         partAccessor.findMessageView().ifPresent( view -> {
-            view.clearChatView();
+            view.clearChatView( cleared );
             view.clearUserInput();
             view.clearAttachments();
+            view.setConversationTitle( cleared, getTitle( cleared ) );
         } );
+        updateInputEnabled();
+        updateTokenCount();
     }
 
     public void onSendUserMessage( String text )
     {
         logger.info( "Send user message" );
+        var target = conversation;
         ChatMessage message = createUserMessage( text );
-        conversation.add( message );
+        if ( isSending( target, message ) )
+        {
+            logger.info( "Ignored a repeated message, the same request is already being answered" );
+            // the attachments are in the pending request, the text is kept to be sent later
+            attachments.clear();
+            partAccessor.findMessageView().ifPresent( part -> {
+                part.clearAttachments();
+                part.showNotice( "Not sent: the same message is already being answered" );
+            } );
+            return;
+        }
+        target.add( message );
+        conversationStore.save( target );
         partAccessor.findMessageView().ifPresent( part -> {
             part.clearUserInput();
             part.clearAttachments();
-            part.appendMessage( message.getId(), message.getRole() );
-            String content = ChatMessageUtilities.toMarkdownContent( message );
-            part.setMessageHtml( message.getId(), content );
+            part.appendMessage( target, message.getId(), message.getRole() );
+            String content = ChatMessageUtilities.toMarkdownContent( message, imageEncodingService );
+            part.setMessageHtml( target, message.getId(), content );
+            part.setConversationTitle( target, getTitle( target ) );
             attachments.clear();
         } );
-        sendConversationJobProvider.get().schedule();
+        sendConversation( target, null );
     }
 
     private ChatMessage createUserMessage( String userMessage )
@@ -117,44 +246,183 @@ public class ChatGPTPresenter
         return message;
     }
 
-    public ChatMessage beginMessageFromAssistant()
+    /**
+     * Tells whether the request sending the given message is already queued
+     * or streaming, with the same attachments. The repeated message is then
+     * dropped, the user is told so, and its reply is the one of the pending
+     * request: sends of a conversation run one after another (see {@link SendConversationJob}), so a second send would only
+     * start after the first reply, with the message twice in the request.
+     */
+    private boolean isSending( Conversation target, ChatMessage message )
+    {
+        return Arrays.stream( jobManager.find( target ) )
+                .anyMatch( job -> job instanceof SendConversationJob send && send.isAnswering( message ) );
+    }
+
+    /**
+     * Schedules the request. Requests of the same conversation are sent one
+     * after another, requests of different conversations in parallel.
+     * 
+     * @param promptType
+     *            the predefined prompt of the request, or null for a chat
+     *            message
+     */
+    private void sendConversation( Conversation target, Prompts promptType )
+    {
+        var job = sendConversationJobProvider.get();
+        job.setConversation( target );
+        job.setPromptType( promptType );
+        job.schedule();
+    }
+
+    public ChatMessage beginMessageFromAssistant( Conversation target )
     {
         ChatMessage message = chatMessageFactory.createAssistantChatMessage( "" );
-        conversation.add( message );
-        partAccessor.findMessageView().ifPresent( messageView -> {
-            messageView.appendMessage( message.getId(), message.getRole() );
-            messageView.setInputEnabled( false );
-        } );
+        target.add( message );
+        streaming.add( target );
+        applyToView( messageView -> messageView.appendMessage( target, message.getId(), message.getRole() ) );
+        updateInputEnabled();
         return message;
     }
 
-    public void updateMessageFromAssistant( ChatMessage message )
+    public void updateMessageFromAssistant( Conversation target, ChatMessage message )
+    {
+        renderScheduler.schedule( message.getId(), () -> renderMessage( target, message ) );
+    }
+
+    public void endMessageFromAssistant( Conversation target, ChatMessage message )
     {
+        renderScheduler.flush( message.getId() );
         partAccessor.findMessageView().ifPresent( messageView -> {
-            messageView.setMessageHtml( message.getId(), message.getContent() );
+            messageView.endMessageHtml( target, message.getId(), message.getContentView() );
         } );
+        streaming.remove( target );
+        updateInputEnabled();
+        conversationStore.save( target );
+        if ( target == conversation )
+        {
+            updateTokenCount();
+        }
     }
 
-    public void endMessageFromAssistant()
+    /**
+     * Shows the messages of a conversation in its tab, or loads the most
+     * recent stored conversation into the first tab.
+     */
+    private void showConversation( Conversation shown )
     {
-        partAccessor.findMessageView().ifPresent( messageView -> {
-            messageView.setInputEnabled( true );
+        var job = Job.create( AssistAIJobConstants.JOB_PREFIX + " load conversation", monitor -> {
+            if ( restored.compareAndSet( false, true ) && shown.size() == 0 )
+            {
+                conversationStore.list().stream().findFirst().ifPresent( info -> {
+                    conversationStore.load( info.id(), shown, message -> showMessage( shown, message ) );
+                    applyToView( view -> view.setConversationTitle( shown, getTitle( shown ) ) );
+                    updateTokenCount();
+                } );
+            }
+            else
+            {
+                shown.messages().forEach( message -> showMessage( shown, message ) );
+            }
+        } );
+        job.setSystem( true );
+        job.schedule();
+    }
+
+    private void showMessage( Conversation shown, ChatMessage message )
+    {
+        // function calls and their results are not shown
+        if ( "function".equals( message.getRole() ) || message.getFunctionCall() != null || message.getContent().isBlank() )
+        {
+            return;
+        }
+        String content = ChatMessageUtilities.toMarkdownContent( message, imageEncodingService );
+        applyToView( messageView -> {
+            messageView.appendMessage( shown, message.getId(), message.getRole() );
+            messageView.setMessageHtml( shown, message.getId(), content );
         } );
     }
 
+    public void onUserInputChanged( String text )
+    {
+        userInput = text;
+        updateTokenCount();
+    }
+
     /**
-     * Cancels all running ChatGPT jobs
+     * Shows the tokens of the request that would be sent with the text the
+     * user is typing and the current attachments.
      */
-    public void onStop()
+    private void updateTokenCount()
     {
-        var jobs = jobManager.find( null );
-        Arrays.stream( jobs ).filter( job -> job.getName().startsWith( AssistAIJobConstants.JOB_PREFIX ) ).forEach( Job::cancel );
+        var selected = conversation;
+        configuration.getSelectedModel().ifPresent( model -> {
+            List<ChatMessage> messages = selected.getRequestMessages();
+            if ( !userInput.isBlank() || !attachments.isEmpty() )
+            {
+                var pending = new ChatMessage( "pending", "user" );
+                pending.setContent( userInput );
+                pending.setAttachments( List.copyOf( attachments ) );
+                messages.add( pending );
+            }
+            var systemPrompt = Activator.getDefault().getPreferenceStore().getString( Prompts.SYSTEM.preferenceName() );
+            var selection = contextWindowManager.select( messages, model, systemPrompt );
+            applyToView( messageView -> messageView.setTokenCount( selection.tokens(), selection.budget(), selection.dropped() ) );
+        } );
+    }
+
+    /**
+     * The input is disabled while the reply in the selected conversation is
+     * streamed.
+     */
+    private void updateInputEnabled()
+    {
+        boolean enabled = !streaming.contains( conversation );
+        applyToView( messageView -> messageView.setInputEnabled( enabled ) );
+    }
 
+    private void renderMessage( Conversation target, ChatMessage message )
+    {
         partAccessor.findMessageView().ifPresent( messageView -> {
-            messageView.setInputEnabled( true );
+            messageView.updateMessageHtml( target, message.getId(), message.getContentView() );
         } );
     }
 
+    private List<Conversation> getConversations()
+    {
+        synchronized ( conversations )
+        {
+            return new ArrayList<>( conversations );
+        }
+    }
+
+    /**
+     * @return the first line of the first user message, shown as the title
+     *         of the conversation tab
+     */
+    private static String getTitle( Conversation conversation )
+    {
+        return conversation.messages().stream()
+                       .filter( message -> "user".equals( message.getRole() ) )
+                       .map( message -> message.getContent().strip() )
+                       .filter( content -> !content.isEmpty() )
+                       .findFirst()
+                       .map( content -> content.lines().findFirst().orElse( content ) )
+                       .map( title -> title.length() > TITLE_LENGTH ? title.substring( 0, TITLE_LENGTH ) + "..." : title )
+                       .orElse( NEW_CONVERSATION_TITLE );
+    }
+
+    /**
+     * Cancels the jobs of the selected conversation
+     */
+    public void onStop()
+    {
+        var stopped = conversation;
+        jobManager.cancel( stopped );
+        streaming.remove( stopped );
+        updateInputEnabled();
+    }
+
     /**
      * Copies the given code block to the system clipboard.
      *
@@ -177,16 +445,25 @@ public class ChatGPTPresenter
 
     public void onSendPredefinedPrompt( Prompts type, ChatMessage message )
     {
-        conversation.add( message );
+        var target = conversation;
+        if ( isSending( target, message ) )
+        {
+            logger.info( "Ignored a repeated " + type.getDescription() + " request, the same request is already being answered" );
+            applyToView( messageView -> messageView.showNotice( "Not sent: the same " + type.getDescription() + " request is already being answered" ) );
+            return;
+        }
+        target.add( message );
+        conversationStore.save( target );
 
         // update view
         partAccessor.findMessageView().ifPresent( messageView -> {
-            messageView.appendMessage( message.getId(), message.getRole() );
-            messageView.setMessageHtml( message.getId(), type.getDescription() );
+            messageView.appendMessage( target, message.getId(), message.getRole() );
+            messageView.setMessageHtml( target, message.getId(), type.getDescription() );
+            messageView.setConversationTitle( target, getTitle( target ) );
         } );
 
         // schedule message
-        sendConversationJobProvider.get().schedule();
+        sendConversation( target, type );
     }
 
     public void onAddAttachment()
@@ -225,9 +502,11 @@ public class ChatGPTPresenter
                 if ( imageDataArray.length > 0 )
                 {
                     attachments.add( new Attachment.ImageAttachment( imageDataArray[0], createPreview( imageDataArray[0] ) ) );
+                    imageEncodingService.prepare( imageDataArray[0] );
                     applyToView( messageView -> {
                         messageView.setAttachments( attachments );
                     } );
+                    updateTokenCount();
                 }
             }
         } );
@@ -246,9 +525,11 @@ public class ChatGPTPresenter
     public void onAttachmentAdded( ImageData imageData )
     {
         attachments.add( new Attachment.ImageAttachment( imageData, createPreview( imageData ) ) );
+        imageEncodingService.prepare( imageData );
         applyToView( messageView -> {
             messageView.setAttachments( attachments );
         } );
+        updateTokenCount();
     }
 
     public void onAttachmentAdded( FileContentAttachment attachment )
@@ -257,5 +538,6 @@ public class ChatGPTPresenter
         applyToView( messageView -> {
             messageView.setAttachments( attachments );
         } );
+        updateTokenCount();
     }
 }
@@ -5,9 +5,15 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.ILog;
@@ -19,6 +25,12 @@ import org.eclipse.jface.resource.LocalResourceManager;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.browser.Browser;
 import org.eclipse.swt.browser.BrowserFunction;
+import org.eclipse.swt.browser.ProgressAdapter;
+import org.eclipse.swt.browser.ProgressEvent;
+import org.eclipse.swt.custom.CTabFolder;
+import org.eclipse.swt.custom.CTabFolder2Adapter;
+import org.eclipse.swt.custom.CTabFolderEvent;
+import org.eclipse.swt.custom.CTabItem;
 import org.eclipse.swt.custom.SashForm;
 import org.eclipse.swt.custom.ScrolledComposite;
 import org.eclipse.swt.dnd.Clipboard;
@@ -49,6 +61,7 @@ import org.eclipse.swt.widgets.MenuItem;
 import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.PlatformUI;
 
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
 import com.github.gradusnikov.eclipse.assistai.part.Attachment.UiVisitor;
 import com.github.gradusnikov.eclipse.assistai.part.dnd.DropManager;
 import com.github.gradusnikov.eclipse.assistai.prompt.PromptParser;
@@ -59,7 +72,10 @@ import jakarta.inject.Inject;
 public class ChatGPTViewPart
 {
 
-    private Browser              browser;
+    private CTabFolder           tabFolder;
+
+    /** the chat view of each conversation, accessed from the UI thread only */
+    private final Map<Conversation, Browser> browsers = new HashMap<>();
 
     @Inject
     private UISynchronize        uiSync;
@@ -77,10 +93,17 @@ public class ChatGPTViewPart
 
     private Text                 inputArea;
 
+    private Label                tokenCountLabel;
+
     private ScrolledComposite    scrolledComposite;
 
     private Composite            imagesContainer;
 
+    private final Map<Conversation, Map<String, AtomicLong>> renderGenerations = new ConcurrentHashMap<>();
+
+    /** accessed from the UI thread only */
+    private final Map<Conversation, Map<String, IncrementalMessageRenderer>> incrementalRenderers = new HashMap<>();
+
     public ChatGPTViewPart()
     {
     }
@@ -91,9 +114,89 @@ public class ChatGPTViewPart
         inputArea.setFocus();
     }
 
-    public void clearChatView()
+    public void clearChatView( Conversation conversation )
+    {
+        renderGenerations.remove( conversation );
+        withBrowser( conversation, browser -> {
+            incrementalRenderers.remove( conversation );
+            initializeChatView( browser );
+        } );
+    }
+
+    /**
+     * Adds a tab showing the conversation.
+     *
+     * @param onReady
+     *            called once the chat view of the tab is ready to show
+     *            messages
+     */
+    public void addConversation( Conversation conversation, String title, Runnable onReady )
+    {
+        uiSync.asyncExec( () -> {
+            var browser = createChatView( tabFolder );
+            browser.addProgressListener( new ProgressAdapter()
+            {
+                @Override
+                public void completed( ProgressEvent event )
+                {
+                    browser.removeProgressListener( this );
+                    onReady.run();
+                }
+            } );
+            var item = new CTabItem( tabFolder, SWT.NONE );
+            item.setText( title );
+            item.setData( conversation );
+            item.setControl( browser );
+            browsers.put( conversation, browser );
+            if ( tabFolder.getSelection() == null )
+            {
+                tabFolder.setSelection( item );
+            }
+        } );
+    }
+
+    public void removeConversation( Conversation conversation )
+    {
+        renderGenerations.remove( conversation );
+        uiSync.asyncExec( () -> {
+            incrementalRenderers.remove( conversation );
+            findTab( conversation ).ifPresent( CTabItem::dispose );
+            var browser = browsers.remove( conversation );
+            if ( browser != null )
+            {
+                browser.dispose();
+            }
+        } );
+    }
+
+    public void selectConversation( Conversation conversation )
+    {
+        uiSync.asyncExec( () -> findTab( conversation ).ifPresent( tabFolder::setSelection ) );
+    }
+
+    public void setConversationTitle( Conversation conversation, String title )
     {
-        uiSync.asyncExec( () -> initializeChatView( browser ) );
+        uiSync.asyncExec( () -> findTab( conversation ).ifPresent( item -> item.setText( title ) ) );
+    }
+
+    private Optional<CTabItem> findTab( Conversation conversation )
+    {
+        return Arrays.stream( tabFolder.getItems() ).filter( item -> item.getData() == conversation ).findFirst();
+    }
+
+    /**
+     * Runs the action on the UI thread with the chat view of the
+     * conversation, unless its tab was closed.
+     */
+    private void withBrowser( Conversation conversation, Consumer<Browser> action )
+    {
+        uiSync.asyncExec( () -> {
+            var browser = browsers.get( conversation );
+            if ( browser != null && !browser.isDisposed() )
+            {
+                action.accept( browser );
+            }
+        } );
     }
 
     public void clearUserInput()
@@ -114,27 +217,46 @@ public class ChatGPTViewPart
         Composite browserContainer = new Composite( sashForm, SWT.NONE );
         browserContainer.setLayout( new FillLayout() );
 
-        browser = createChatView( browserContainer );
-
-        // Create the JavaScript-to-Java callback
-        new CopyCodeFunction( browser, "eclipseFunc" );
+        tabFolder = new CTabFolder( browserContainer, SWT.BORDER | SWT.CLOSE );
+        tabFolder.addSelectionListener( new SelectionAdapter()
+        {
+            @Override
+            public void widgetSelected( SelectionEvent e )
+            {
+                presenter.onConversationSelected( (Conversation) e.item.getData() );
+            }
+        } );
+        tabFolder.addCTabFolder2Listener( new CTabFolder2Adapter()
+        {
+            @Override
+            public void close( CTabFolderEvent event )
+            {
+                // the presenter removes the tab
+                event.doit = false;
+                presenter.onCloseConversation( (Conversation) event.item.getData() );
+            }
+        } );
 
         Composite controls = new Composite( sashForm, SWT.NONE );
 
         Composite attachmentsPanel = createAttachmentsPanel( controls );
         inputArea = createUserInput( controls );
         // create components
-        Button[] buttons = { createClearChatButton( controls ), createStopButton( controls ) };
+        tokenCountLabel = new Label( controls, SWT.NONE );
+        tokenCountLabel.setToolTipText( "Tokens of the next request and the token budget of the model" );
+        Button[] buttons = { createNewChatButton( controls ), createClearChatButton( controls ), createStopButton( controls ) };
 
         // layout components
-        controls.setLayout( new GridLayout( buttons.length, false ) );
-        attachmentsPanel.setLayoutData( new GridData( SWT.FILL, SWT.FILL, true, false, buttons.length, 1 ) ); // Full
-                                                                                                              // width
-        inputArea.setLayoutData( new GridData( SWT.FILL, SWT.FILL, true, true, buttons.length, 1 ) ); // colspan
-                                                                                                      // =
-                                                                                                      // num
-                                                                                                      // of
-                                                                                                      // buttons
+        int columns = buttons.length + 1;
+        controls.setLayout( new GridLayout( columns, false ) );
+        attachmentsPanel.setLayoutData( new GridData( SWT.FILL, SWT.FILL, true, false, columns, 1 ) ); // Full
+                                                                                                       // width
+        inputArea.setLayoutData( new GridData( SWT.FILL, SWT.FILL, true, true, columns, 1 ) ); // colspan
+                                                                                               // =
+                                                                                               // num
+                                                                                               // of
+                                                                                               // columns
+        tokenCountLabel.setLayoutData( new GridData( SWT.FILL, SWT.CENTER, true, false ) );
         for ( var button : buttons )
         {
             button.setLayoutData( new GridData( SWT.FILL, SWT.RIGHT, true, false ) );
@@ -147,6 +269,7 @@ public class ChatGPTViewPart
         dropManager.registerDropTarget( controls );
 
         clearAttachments();
+        presenter.onViewCreated();
     }
 
     private Composite createAttachmentsPanel( Composite parent )
@@ -168,6 +291,24 @@ public class ChatGPTViewPart
         return attachmentsPanel;
     }
 
+    private Button createNewChatButton( Composite parent )
+    {
+        Button button = new Button( parent, SWT.PUSH );
+        button.setText( "New" );
+        button.setToolTipText( "Start a new conversation in another tab" );
+        Image addIcon = PlatformUI.getWorkbench().getSharedImages().getImage( org.eclipse.ui.ISharedImages.IMG_OBJ_ADD );
+        button.setImage( addIcon );
+        button.addSelectionListener( new SelectionAdapter()
+        {
+            @Override
+            public void widgetSelected( SelectionEvent e )
+            {
+                presenter.onNewConversation();
+            }
+        } );
+        return button;
+    }
+
     private Button createClearChatButton( Composite parent )
     {
         Button button = new Button( parent, SWT.PUSH );
@@ -225,6 +366,7 @@ public class ChatGPTViewPart
                 }
             }
         } );
+        inputArea.addModifyListener( e -> presenter.onUserInputChanged( inputArea.getText() ) );
         createCustomMenu( inputArea );
         return inputArea;
     }
@@ -312,6 +454,7 @@ public class ChatGPTViewPart
 
     private void initializeFunctions( Browser browser )
     {
+        new CopyCodeFunction( browser, "eclipseFunc" );
         new CopyCodeFunction( browser, "eclipseCopyCode" );
         new ApplyPatchFunction( browser, "eclipseApplyPatch" );
     }
@@ -372,7 +515,7 @@ public class ChatGPTViewPart
      */
     private String loadJavaScripts()
     {
-        String[] jsFiles = { "highlight.min.js" };
+        String[] jsFiles = { "highlight.min.js", "chatview.js" };
         StringBuilder js = new StringBuilder();
         for ( String file : jsFiles )
         {
@@ -390,19 +533,103 @@ public class ChatGPTViewPart
         return js.toString();
     }
 
-    public void setMessageHtml( String messageId, String messageBody )
+    public void setMessageHtml( Conversation conversation, String messageId, String messageBody )
     {
-        uiSync.asyncExec( () -> {
+        long generation = nextRenderGeneration( conversation, messageId );
+        withBrowser( conversation, browser -> {
+            if ( isStaleRender( conversation, messageId, generation ) )
+            {
+                return;
+            }
             PromptParser parser = new PromptParser( messageBody );
 
-            String fixedHtml = escapeHtmlQuotes( fixLineBreaks( parser.parseToHtml() ) );
+            String fixedHtml = toJsString( parser.parseToHtml() );
             // inject and highlight html message
-            browser.execute( "document.getElementById(\"message-" + messageId + "\").innerHTML = '" + fixedHtml + "';hljs.highlightAll();" );
-            // Scroll down
-            browser.execute( "window.scrollTo(0, document.body.scrollHeight);" );
+            browser.execute( "setMessageHtml(\"" + messageId + "\", '" + fixedHtml + "');" );
+        } );
+    }
+
+    /**
+     * Renders a message that is still being streamed. Only the blocks that
+     * were finished since the previous update are sent to the page, together
+     * with the block that is still open.
+     *
+     * @param conversation
+     *            the conversation of the message
+     * @param messageId
+     *            the message id
+     * @param messageBody
+     *            the complete message text received so far
+     */
+    public void updateMessageHtml( Conversation conversation, String messageId, CharSequence messageBody )
+    {
+        long generation = nextRenderGeneration( conversation, messageId );
+        withBrowser( conversation, browser -> {
+            if ( isStaleRender( conversation, messageId, generation ) )
+            {
+                return;
+            }
+            var update = incrementalRenderers.computeIfAbsent( conversation, c -> new HashMap<>() )
+                                             .computeIfAbsent( messageId, id -> new IncrementalMessageRenderer() )
+                                             .update( messageBody );
+            browser.execute( "appendMessageBlocks(\"" + messageId + "\", '" + toJsString( update.finishedHtml() ) + "', '" + toJsString( update.tailHtml() ) + "');" );
+        } );
+    }
+
+    /**
+     * Renders the end of a streamed message: the blocks that were still open
+     * are closed and highlighted, and the renderer of the message is
+     * released.
+     *
+     * @param conversation
+     *            the conversation of the message
+     * @param messageId
+     *            the message id
+     * @param messageBody
+     *            the complete message text
+     */
+    public void endMessageHtml( Conversation conversation, String messageId, CharSequence messageBody )
+    {
+        long generation = nextRenderGeneration( conversation, messageId );
+        withBrowser( conversation, browser -> {
+            if ( isStaleRender( conversation, messageId, generation ) )
+            {
+                return;
+            }
+            var renderers = incrementalRenderers.computeIfAbsent( conversation, c -> new HashMap<>() );
+            var renderer = renderers.remove( messageId );
+            if ( renderers.isEmpty() )
+            {
+                incrementalRenderers.remove( conversation );
+            }
+            String finishedHtml = ( renderer != null ? renderer : new IncrementalMessageRenderer() ).finish( messageBody );
+            browser.execute( "endMessageBlocks(\"" + messageId + "\", '" + toJsString( finishedHtml ) + "');" );
         } );
     }
 
+    /**
+     * A newer render of the same message supersedes the ones still queued in
+     * {@link UISynchronize#asyncExec(Runnable)}.
+     */
+    private long nextRenderGeneration( Conversation conversation, String messageId )
+    {
+        return renderGenerations.computeIfAbsent( conversation, c -> new ConcurrentHashMap<>() )
+                                .computeIfAbsent( messageId, id -> new AtomicLong() )
+                                .incrementAndGet();
+    }
+
+    private boolean isStaleRender( Conversation conversation, String messageId, long generation )
+    {
+        var generations = renderGenerations.get( conversation );
+        var current = generations != null ? generations.get( messageId ) : null;
+        return current == null || current.get() != generation;
+    }
+
+    private String toJsString( String html )
+    {
+        return escapeHtmlQuotes( fixLineBreaks( html ) );
+    }
+
     /**
      * Replaces newline characters with line break escape sequences in the given
      * string.
@@ -429,11 +656,11 @@ public class ChatGPTViewPart
         return html.replace( "\"", "\\\"" ).replace( "'", "\\'" );
     }
 
-    public void appendMessage( String messageId, String role )
+    public void appendMessage( Conversation conversation, String messageId, String role )
     {
         //
         String cssClass = "user".equals( role ) ? "chat-bubble me" : "chat-bubble you";
-        uiSync.asyncExec( () -> {
+        withBrowser( conversation, browser -> {
             browser.execute( """
                     node = document.createElement("div");
                     node.setAttribute("id", "message-${id}");
@@ -476,12 +703,10 @@ public class ChatGPTViewPart
             }
             else
             {
-                AttachmentVisitor attachmentVisitor = new AttachmentVisitor();
-
                 // There are images to display, add them to the imagesContainer
                 for ( var attachment : attachments )
                 {
-                    attachment.accept( attachmentVisitor );
+                    attachment.accept( new AttachmentVisitor( attachment ) );
                 }
                 scrolledComposite.setVisible( true );
                 imagesContainer.setSize( imagesContainer.computeSize( SWT.DEFAULT, SWT.DEFAULT ) );
@@ -492,17 +717,25 @@ public class ChatGPTViewPart
         } );
     }
 
+    /**
+     * Shows an attachment. Clicking it selects the attachment, which pins it
+     * to every request (see {@link Attachment#isPinned()}).
+     */
     private class AttachmentVisitor implements UiVisitor
     {
-        private Label imageLabel;
+        private final Attachment attachment;
+
+        public AttachmentVisitor( Attachment attachment )
+        {
+            this.attachment = attachment;
+        }
 
         @Override
         public void add( ImageData preview, String caption )
         {
-            imageLabel = new Label( imagesContainer, SWT.NONE );
-            // initially nothing is selected
-            imageLabel.setData( "selected", false );
-            imageLabel.setToolTipText( caption );
+            Label imageLabel = new Label( imagesContainer, SWT.NONE );
+            imageLabel.setData( "selected", attachment.isPinned() );
+            imageLabel.setToolTipText( ( caption != null ? caption + "\n\n" : "" ) + "Click to keep in every request" );
 
             ImageDescriptor imageDescriptor;
             try
@@ -518,7 +751,7 @@ public class ChatGPTViewPart
             Image scaledImage = resourceManager.createImageWithDefault( imageDescriptor );
             Image selectedImage = createSelectedImage( scaledImage );
 
-            imageLabel.setImage( scaledImage );
+            imageLabel.setImage( attachment.isPinned() ? selectedImage : scaledImage );
 
             imageLabel.addDisposeListener( l -> {
                 resourceManager.destroy( imageDescriptor );
@@ -533,6 +766,7 @@ public class ChatGPTViewPart
                 {
                     boolean isSelected = (boolean) imageLabel.getData( "selected" );
                     imageLabel.setData( "selected", !isSelected );
+                    attachment.setPinned( !isSelected );
 
                     if ( isSelected )
                     {
@@ -589,6 +823,41 @@ public class ChatGPTViewPart
         }
     }
 
+    /**
+     * Shows the number of tokens of the next request.
+     * 
+     * @param tokens
+     *            the tokens of the request
+     * @param budget
+     *            the tokens available for a request to the model
+     * @param dropped
+     *            the number of older messages left out of the request
+     */
+    public void setTokenCount( int tokens, int budget, int dropped )
+    {
+        uiSync.asyncExec( () -> {
+            String text = String.format( "%,d / %,d tokens", tokens, budget );
+            if ( dropped > 0 )
+            {
+                text += String.format( " (%d older messages left out)", dropped );
+            }
+            tokenCountLabel.setText( text );
+            tokenCountLabel.getParent().layout();
+        } );
+    }
+
+    /**
+     * Shows a short notice in place of the token count, until the count is
+     * updated with the next input.
+     */
+    public void showNotice( String notice )
+    {
+        uiSync.asyncExec( () -> {
+            tokenCountLabel.setText( notice );
+            tokenCountLabel.getParent().layout();
+        } );
+    }
+
     public void setInputEnabled( boolean b )
     {
         uiSync.asyncExec( () -> {
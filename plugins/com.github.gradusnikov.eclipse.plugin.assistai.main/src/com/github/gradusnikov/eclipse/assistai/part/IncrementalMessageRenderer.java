@@ -0,0 +1,44 @@
+package com.github.gradusnikov.eclipse.assistai.part;
+
+import com.github.gradusnikov.eclipse.assistai.prompt.PromptParser;
+
+/**
+ * Renders a message that is still being streamed in increments.
+ * <p>
+ * Each {@link #update(String)} returns the HTML of the blocks finished since
+ * the previous update, which the page appends once, and the HTML of the block
+ * that is still open (the tail), which replaces the previous tail. Only the
+ * text appended since the previous update is passed to the parser. The
+ * message text is expected to only grow between updates. Once the stream has
+ * ended, {@link #finish(CharSequence)} returns the remaining blocks, the
+ * renderer is not used afterwards.
+ */
+class IncrementalMessageRenderer
+{
+    public record Update( String finishedHtml, String tailHtml ) {}
+
+    private final PromptParser parser = new PromptParser();
+
+    private int fed = 0;
+
+    public Update update( CharSequence content )
+    {
+        if ( content.length() < fed )
+        {
+            throw new IllegalStateException( "Streamed message content shrank from " + fed + " to " + content.length() + " characters" );
+        }
+        String finishedHtml = parser.feed( content.subSequence( fed, content.length() ) );
+        fed = content.length();
+        return new Update( finishedHtml, parser.tailHtml() );
+    }
+
+    /**
+     * Ends the message: closes the open block, so there is no tail left.
+     *
+     * @return the HTML of the blocks finished since the previous update
+     */
+    public String finish( CharSequence content )
+    {
+        return update( content ).finishedHtml() + parser.finish();
+    }
+}
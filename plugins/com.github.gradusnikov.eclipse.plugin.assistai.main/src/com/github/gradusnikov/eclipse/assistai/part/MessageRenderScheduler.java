@@ -0,0 +1,132 @@
+package com.github.gradusnikov.eclipse.assistai.part;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.e4.core.di.annotations.Creatable;
+import org.eclipse.jface.preference.IPreferenceStore;
+
+import com.github.gradusnikov.eclipse.assistai.Activator;
+import com.github.gradusnikov.eclipse.assistai.preferences.PreferenceConstants;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/**
+ * Coalesces render requests for streamed messages into at most one render per
+ * frame.
+ * <p>
+ * Every incoming token schedules a render of its message. Only the most recent
+ * render task of a message is kept; it runs once the current frame (see
+ * {@link PreferenceConstants#ASSISTAI_RENDER_RATE_HZ}) has elapsed. All tokens
+ * arriving within the same frame therefore result in a single update of the
+ * view. {@link #flush(String)} runs a pending render immediately, e.g. when
+ * the stream completes.
+ */
+@Creatable
+@Singleton
+public class MessageRenderScheduler
+{
+    private static final int DEFAULT_RATE_HZ = 30;
+
+    @Inject
+    private ILog logger;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor( runnable -> {
+        Thread thread = new Thread( runnable, "AssistAI render scheduler" );
+        thread.setDaemon( true );
+        return thread;
+    } );
+
+    private final Map<String, Runnable> pending = new LinkedHashMap<>();
+
+    private boolean frameScheduled = false;
+
+    private long lastFrameNanos = 0;
+
+    /**
+     * Schedules a render of the given message, replacing any render of the
+     * same message still waiting for the next frame.
+     *
+     * @param messageId
+     *            the message to be rendered
+     * @param render
+     *            renders the current state of the message
+     */
+    public synchronized void schedule( String messageId, Runnable render )
+    {
+        pending.put( messageId, render );
+        if ( !frameScheduled )
+        {
+            frameScheduled = true;
+            long delay = Math.max( 0, lastFrameNanos + getFrameNanos() - System.nanoTime() );
+            timer.schedule( this::renderFrame, delay, TimeUnit.NANOSECONDS );
+        }
+    }
+
+    /**
+     * Runs the pending render of the given message now, if there is one.
+     *
+     * @param messageId
+     *            the message to be rendered
+     */
+    public void flush( String messageId )
+    {
+        Runnable render;
+        synchronized ( this )
+        {
+            render = pending.remove( messageId );
+        }
+        run( render );
+    }
+
+    private void renderFrame()
+    {
+        Runnable[] renders;
+        synchronized ( this )
+        {
+            renders = pending.values().toArray( Runnable[]::new );
+            pending.clear();
+            frameScheduled = false;
+            lastFrameNanos = System.nanoTime();
+        }
+        for ( Runnable render : renders )
+        {
+            run( render );
+        }
+    }
+
+    private void run( Runnable render )
+    {
+        if ( render == null )
+        {
+            return;
+        }
+        try
+        {
+            render.run();
+        }
+        catch ( Exception e )
+        {
+            logger.error( e.getMessage(), e );
+        }
+    }
+
+    private long getFrameNanos()
+    {
+        IPreferenceStore preferenceStore = Activator.getDefault().getPreferenceStore();
+        int rate = preferenceStore.getInt( PreferenceConstants.ASSISTAI_RENDER_RATE_HZ );
+        return TimeUnit.SECONDS.toNanos( 1 ) / ( rate > 0 ? rate : DEFAULT_RATE_HZ );
+    }
+
+    @PreDestroy
+    public void dispose()
+    {
+        timer.shutdownNow();
+    }
+}
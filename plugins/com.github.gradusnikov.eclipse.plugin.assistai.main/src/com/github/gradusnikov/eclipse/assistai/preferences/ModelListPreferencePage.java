@@ -17,6 +17,7 @@ import org.eclipse.swt.layout.FormLayout;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Group;
@@ -54,6 +55,24 @@ public class ModelListPreferencePage extends PreferencePage implements IWorkbenc
 
     private Scale      withTemperature;
 
+    private Text       maxImageEdge;
+
+    private Combo      imageDetail;
+
+    private Text       jpegQuality;
+
+    private Text       contextWindow;
+
+    private Text       connectTimeout;
+
+    private Text       firstTokenTimeout;
+
+    private Text       idleTimeout;
+
+    private Text       requestsPerMinute;
+
+    private Text       tokensPerMinute;
+
     private Group      form;
 
     private Button     addButton;
@@ -130,11 +149,36 @@ public class ModelListPreferencePage extends PreferencePage implements IWorkbenc
                 modelName.getText(),
                 withTemperature.getSelection(), 
                 withVision.getSelection(), 
-                withFunctionCalls.getSelection() );
+                withFunctionCalls.getSelection(),
+                parseInt( maxImageEdge.getText() ),
+                imageDetail.getText(),
+                parseInt( jpegQuality.getText() ),
+                parseInt( contextWindow.getText() ),
+                parseInt( connectTimeout.getText() ),
+                parseInt( firstTokenTimeout.getText() ),
+                parseInt( idleTimeout.getText() ),
+                parseInt( requestsPerMinute.getText() ),
+                parseInt( tokensPerMinute.getText() ) );
         presenter.saveModel( selectedIndex, updatedModel );
         super.performApply();
     }
 
+    /**
+     * @return the number, or 0 (the default of the setting) if the text is
+     *         not a number
+     */
+    private int parseInt( String text )
+    {
+        try
+        {
+            return Integer.parseInt( text.trim() );
+        }
+        catch ( NumberFormatException e )
+        {
+            return 0;
+        }
+    }
+
     @Override
     protected void performDefaults()
     {
@@ -173,6 +217,21 @@ public class ModelListPreferencePage extends PreferencePage implements IWorkbenc
         withVision = addCheckField( form, "With Vision:");
         withFunctionCalls = addCheckField( form, "With Function Calls:");
         withTemperature = addScaleField( form, "Temperature");
+        maxImageEdge = addTextField( form, "Max Image Edge (px):");
+        imageDetail = addComboField( form, "Image Detail:", 
+                ModelApiDescriptor.IMAGE_DETAIL_AUTO, ModelApiDescriptor.IMAGE_DETAIL_LOW, ModelApiDescriptor.IMAGE_DETAIL_HIGH );
+        jpegQuality = addTextField( form, "JPEG Quality (1-100):");
+        contextWindow = addTextField( form, "Context Window (tokens):");
+        contextWindow.setToolTipText( "0 uses the context window of the model" );
+        connectTimeout = addTextField( form, "Connect Timeout (s):");
+        firstTokenTimeout = addTextField( form, "First Token Timeout (s):");
+        firstTokenTimeout.setToolTipText( "The time to wait for the first token of a reply" );
+        idleTimeout = addTextField( form, "Idle Timeout (s):");
+        idleTimeout.setToolTipText( "The longest pause between two tokens of a reply" );
+        requestsPerMinute = addTextField( form, "Requests per Minute:");
+        requestsPerMinute.setToolTipText( "0 for no limit" );
+        tokensPerMinute = addTextField( form, "Tokens per Minute:");
+        tokensPerMinute.setToolTipText( "0 for no limit" );
 
         return form;
     }
@@ -188,6 +247,14 @@ public class ModelListPreferencePage extends PreferencePage implements IWorkbenc
         return scale;
     }
 
+    private Combo addComboField( Composite form, String labelText, String ... items )
+    {
+        Combo combo = new Combo( form, SWT.READ_ONLY );
+        combo.setItems( items );
+        addFormControl( combo, form, labelText);
+        return combo;
+    }
+
     private Button addCheckField( Composite form, String labelText)
     {
         Button button = new Button( form, SWT.CHECK );
@@ -259,6 +326,15 @@ public class ModelListPreferencePage extends PreferencePage implements IWorkbenc
             withTemperature.setSelection( modelApiDescriptor.temperature() );
             withVision.setSelection( modelApiDescriptor.vision() );
             withFunctionCalls.setSelection( modelApiDescriptor.functionCalling() );
+            maxImageEdge.setText( String.valueOf( modelApiDescriptor.maxImageEdge() ) );
+            imageDetail.setText( modelApiDescriptor.imageDetail() );
+            jpegQuality.setText( String.valueOf( modelApiDescriptor.jpegQuality() ) );
+            contextWindow.setText( String.valueOf( modelApiDescriptor.contextWindow() ) );
+            connectTimeout.setText( String.valueOf( modelApiDescriptor.connectTimeoutSeconds() ) );
+            firstTokenTimeout.setText( String.valueOf( modelApiDescriptor.firstTokenTimeoutSeconds() ) );
+            idleTimeout.setText( String.valueOf( modelApiDescriptor.idleTimeoutSeconds() ) );
+            requestsPerMinute.setText( String.valueOf( modelApiDescriptor.requestsPerMinute() ) );
+            tokensPerMinute.setText( String.valueOf( modelApiDescriptor.tokensPerMinute() ) );
         } );
         setDetailsEditable( true );
     }
@@ -272,6 +348,15 @@ public class ModelListPreferencePage extends PreferencePage implements IWorkbenc
             withTemperature.setSelection( 0 );
             withVision.setSelection( false );
             withFunctionCalls.setSelection( false );
+            maxImageEdge.setText( String.valueOf( ModelApiDescriptor.DEFAULT_MAX_IMAGE_EDGE ) );
+            imageDetail.setText( ModelApiDescriptor.IMAGE_DETAIL_AUTO );
+            jpegQuality.setText( String.valueOf( ModelApiDescriptor.DEFAULT_JPEG_QUALITY ) );
+            contextWindow.setText( "0" );
+            connectTimeout.setText( String.valueOf( ModelApiDescriptor.DEFAULT_CONNECT_TIMEOUT_SECONDS ) );
+            firstTokenTimeout.setText( String.valueOf( ModelApiDescriptor.DEFAULT_FIRST_TOKEN_TIMEOUT_SECONDS ) );
+            idleTimeout.setText( String.valueOf( ModelApiDescriptor.DEFAULT_IDLE_TIMEOUT_SECONDS ) );
+            requestsPerMinute.setText( "0" );
+            tokensPerMinute.setText( "0" );
         } );
         setDetailsEditable( false );
     }
@@ -82,7 +82,16 @@ public class ModelListPreferencePresenter
                 updatedModelStub.modelName(), 
                 updatedModelStub.temperature(), 
                 updatedModelStub.vision(),
-                updatedModelStub.functionCalling()
+                updatedModelStub.functionCalling(),
+                updatedModelStub.maxImageEdge(),
+                updatedModelStub.imageDetail(),
+                updatedModelStub.jpegQuality(),
+                updatedModelStub.contextWindow(),
+                updatedModelStub.connectTimeoutSeconds(),
+                updatedModelStub.firstTokenTimeoutSeconds(),
+                updatedModelStub.idleTimeoutSeconds(),
+                updatedModelStub.requestsPerMinute(),
+                updatedModelStub.tokensPerMinute()
                  );
         update.accept( toStore );
         save( storedDescriptors );
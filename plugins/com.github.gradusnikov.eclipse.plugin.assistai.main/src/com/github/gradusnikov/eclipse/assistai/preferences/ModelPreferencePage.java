@@ -4,8 +4,10 @@ import java.util.Arrays;
 
 import org.eclipse.e4.core.contexts.IEclipseContext;
 import org.eclipse.e4.ui.di.UISynchronize;
+import org.eclipse.jface.preference.BooleanFieldEditor;
 import org.eclipse.jface.preference.ComboFieldEditor;
 import org.eclipse.jface.preference.FieldEditorPreferencePage;
+import org.eclipse.jface.preference.IntegerFieldEditor;
 import org.eclipse.jface.util.IPropertyChangeListener;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.ui.IWorkbench;
@@ -63,6 +65,64 @@ public class ModelPreferencePage extends FieldEditorPreferencePage implements IW
         
         ComboFieldEditor modelSelector = new ComboFieldEditor(PreferenceConstants.ASSISTAI_SELECTED_MODEL, "&Selected Model:", entries, getFieldEditorParent());    
         addField( modelSelector );
+        
+        IntegerFieldEditor renderRate = new IntegerFieldEditor( PreferenceConstants.ASSISTAI_RENDER_RATE_HZ, "Chat view &refresh rate (Hz):", getFieldEditorParent() );
+        renderRate.setValidRange( 1, 120 );
+        addField( renderRate );
+        
+        IntegerFieldEditor streamBufferSize = new IntegerFieldEditor( PreferenceConstants.ASSISTAI_STREAM_BUFFER_SIZE, "Stream &buffer size (batches):", getFieldEditorParent() );
+        streamBufferSize.setValidRange( 1, 1024 );
+        addField( streamBufferSize );
+        
+        IntegerFieldEditor maxConcurrentRequests = new IntegerFieldEditor( PreferenceConstants.ASSISTAI_MAX_CONCURRENT_REQUESTS, "Max concurrent re&quests:", getFieldEditorParent() );
+        maxConcurrentRequests.setValidRange( 1, 32 );
+        addField( maxConcurrentRequests );
+        
+        BooleanFieldEditor compaction = new BooleanFieldEditor( PreferenceConstants.ASSISTAI_COMPACTION_ENABLED, "&Compact long conversations", getFieldEditorParent() );
+        compaction.getDescriptionControl( getFieldEditorParent() ).setToolTipText( "Replace the oldest turns with a summary when the conversation grows too long" );
+        addField( compaction );
+        
+        IntegerFieldEditor compactionThreshold = new IntegerFieldEditor( PreferenceConstants.ASSISTAI_COMPACTION_THRESHOLD_TOKENS, "Compact above (tokens, 0 = half the context):", getFieldEditorParent() );
+        compactionThreshold.setValidRange( 0, Integer.MAX_VALUE );
+        addField( compactionThreshold );
+        
+        IntegerFieldEditor compactionTurns = new IntegerFieldEditor( PreferenceConstants.ASSISTAI_COMPACTION_TURNS, "Turns to compact at once:", getFieldEditorParent() );
+        compactionTurns.setValidRange( 1, 100 );
+        addField( compactionTurns );
+        
+        String[][] compactionEntries = new String[models.size() + 1][2];
+        compactionEntries[0][0] = "Selected Model";
+        compactionEntries[0][1] = "";
+        System.arraycopy( entries, 0, compactionEntries, 1, entries.length );
+        ComboFieldEditor compactionModel = new ComboFieldEditor( PreferenceConstants.ASSISTAI_COMPACTION_MODEL, "Summarizing &Model:", compactionEntries, getFieldEditorParent() );
+        addField( compactionModel );
+        
+        String[][] hedgeEntries = new String[models.size() + 1][2];
+        hedgeEntries[0][0] = "None";
+        hedgeEntries[0][1] = "";
+        System.arraycopy( entries, 0, hedgeEntries, 1, entries.length );
+        ComboFieldEditor hedgeModel = new ComboFieldEditor( PreferenceConstants.ASSISTAI_HEDGE_MODEL, "&Hedge slow replies with:", hedgeEntries, getFieldEditorParent() );
+        addField( hedgeModel );
+        
+        IntegerFieldEditor hedgeDelay = new IntegerFieldEditor( PreferenceConstants.ASSISTAI_HEDGE_DELAY_MILLIS, "Hedge &after (ms, 0 = p90 time to first token):", getFieldEditorParent() );
+        hedgeDelay.setValidRange( 0, 600_000 );
+        addField( hedgeDelay );
+        
+        BooleanFieldEditor routing = new BooleanFieldEditor( PreferenceConstants.ASSISTAI_ROUTING_ENABLED, "R&oute requests to the fastest suitable model", getFieldEditorParent() );
+        routing.getDescriptionControl( getFieldEditorParent() ).setToolTipText( "Send small predefined prompts, e.g. commit messages, to the model with the lowest measured latency, and requests the selected model cannot handle to a model that can" );
+        addField( routing );
+        
+        IntegerFieldEditor smallRequestTokens = new IntegerFieldEditor( PreferenceConstants.ASSISTAI_ROUTING_SMALL_REQUEST_TOKENS, "Route prompts &up to (tokens):", getFieldEditorParent() );
+        smallRequestTokens.setValidRange( 0, Integer.MAX_VALUE );
+        addField( smallRequestTokens );
+        
+        BooleanFieldEditor responseCache = new BooleanFieldEditor( PreferenceConstants.ASSISTAI_RESPONSE_CACHE_ENABLED, "Reuse replies to unchanged &predefined prompts", getFieldEditorParent() );
+        responseCache.getDescriptionControl( getFieldEditorParent() ).setToolTipText( "Answer a predefined prompt sent again with the same model, prompt and code from the cache instead of the model" );
+        addField( responseCache );
+        
+        IntegerFieldEditor responseCacheTtl = new IntegerFieldEditor( PreferenceConstants.ASSISTAI_RESPONSE_CACHE_TTL_MINUTES, "Cached replies e&xpire after (minutes):", getFieldEditorParent() );
+        responseCacheTtl.setValidRange( 1, Integer.MAX_VALUE );
+        addField( responseCacheTtl );
     }
     
     
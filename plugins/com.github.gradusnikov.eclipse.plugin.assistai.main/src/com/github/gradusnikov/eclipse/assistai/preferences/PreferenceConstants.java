@@ -5,9 +5,20 @@ package com.github.gradusnikov.eclipse.assistai.preferences;
  */
 public class PreferenceConstants
 {
-    public static final String ASSISTAI_CONNECTION_TIMEOUT_SECONDS = "AssistAIConnectionTimeoutSeconds";
-    public static final String ASSISTAI_REQUEST_TIMEOUT_SECONDS = "AssistAIRequestTimeoutSeconds";
     public static final String ASSISTAI_SELECTED_MODEL = "AssistaAISelectedModel";
     public static final String ASSISTAI_DEFINED_MODELS = "AssistAIDefinedModels";
+    public static final String ASSISTAI_RENDER_RATE_HZ = "AssistAIRenderRateHz";
+    public static final String ASSISTAI_STREAM_BUFFER_SIZE = "AssistAIStreamBufferSize";
+    public static final String ASSISTAI_MAX_CONCURRENT_REQUESTS = "AssistAIMaxConcurrentRequests";
+    public static final String ASSISTAI_HEDGE_MODEL = "AssistAIHedgeModel";
+    public static final String ASSISTAI_HEDGE_DELAY_MILLIS = "AssistAIHedgeDelayMillis";
+    public static final String ASSISTAI_ROUTING_ENABLED = "AssistAIRoutingEnabled";
+    public static final String ASSISTAI_ROUTING_SMALL_REQUEST_TOKENS = "AssistAIRoutingSmallRequestTokens";
+    public static final String ASSISTAI_RESPONSE_CACHE_ENABLED = "AssistAIResponseCacheEnabled";
+    public static final String ASSISTAI_RESPONSE_CACHE_TTL_MINUTES = "AssistAIResponseCacheTtlMinutes";
+    public static final String ASSISTAI_COMPACTION_ENABLED = "AssistAICompactionEnabled";
+    public static final String ASSISTAI_COMPACTION_THRESHOLD_TOKENS = "AssistAICompactionThresholdTokens";
+    public static final String ASSISTAI_COMPACTION_TURNS = "AssistAICompactionTurns";
+    public static final String ASSISTAI_COMPACTION_MODEL = "AssistAICompactionModel";
     
 }
@@ -17,8 +17,19 @@ public class PreferenceInitializer extends AbstractPreferenceInitializer
     public void initializeDefaultPreferences()
     {
         IPreferenceStore store = Activator.getDefault().getPreferenceStore();
-        store.setDefault( PreferenceConstants.ASSISTAI_CONNECTION_TIMEOUT_SECONDS, 10 );
-        store.setDefault( PreferenceConstants.ASSISTAI_REQUEST_TIMEOUT_SECONDS, 30 );
+        store.setDefault( PreferenceConstants.ASSISTAI_RENDER_RATE_HZ, 30 );
+        store.setDefault( PreferenceConstants.ASSISTAI_STREAM_BUFFER_SIZE, 64 );
+        store.setDefault( PreferenceConstants.ASSISTAI_MAX_CONCURRENT_REQUESTS, 4 );
+        store.setDefault( PreferenceConstants.ASSISTAI_HEDGE_MODEL, "" );
+        store.setDefault( PreferenceConstants.ASSISTAI_HEDGE_DELAY_MILLIS, 0 );
+        store.setDefault( PreferenceConstants.ASSISTAI_ROUTING_ENABLED, false );
+        store.setDefault( PreferenceConstants.ASSISTAI_ROUTING_SMALL_REQUEST_TOKENS, 2000 );
+        store.setDefault( PreferenceConstants.ASSISTAI_RESPONSE_CACHE_ENABLED, false );
+        store.setDefault( PreferenceConstants.ASSISTAI_RESPONSE_CACHE_TTL_MINUTES, 1440 );
+        store.setDefault( PreferenceConstants.ASSISTAI_COMPACTION_ENABLED, false );
+        store.setDefault( PreferenceConstants.ASSISTAI_COMPACTION_THRESHOLD_TOKENS, 0 );
+        store.setDefault( PreferenceConstants.ASSISTAI_COMPACTION_TURNS, 10 );
+        store.setDefault( PreferenceConstants.ASSISTAI_COMPACTION_MODEL, "" );
         
         ModelApiDescriptor gpt4 = new ModelApiDescriptor( "1", "openai", "https://api.openai.com/v1/chat/completions", "", "gpt-4-turbo", 7, true, true );
         ModelApiDescriptor gpt35 = new ModelApiDescriptor( "2", "openai", "https://api.openai.com/v1/chat/completions", "", "gpt-3.5-turbo", 7, true, true );
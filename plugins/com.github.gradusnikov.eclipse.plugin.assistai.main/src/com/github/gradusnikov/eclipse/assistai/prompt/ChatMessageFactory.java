@@ -113,6 +113,21 @@ public class ChatMessageFactory
         return createUserChatMessage( promptSupplier );
     }
     
+    /**
+     * Creates the request to summarize compacted conversation turns.
+     * 
+     * @param summary the summary of the turns compacted before, may be empty
+     * @param transcript the turns to compact
+     */
+    public ChatMessage createCompactConversationMessage( String summary, String transcript )
+    {
+        Supplier<String> promptSupplier  =  () -> promptLoader.updatePromptText( preferenceStore.getString( Prompts.COMPACT.preferenceName() ), 
+                "${summary}", summary,
+                "${conversation}", transcript );
+        
+        return createUserChatMessage( promptSupplier );
+    }
+    
     public ChatMessage createUserChatMessage( Supplier<String> promptSupplier )
     {
         ChatMessage message = new ChatMessage( UUID.randomUUID().toString(), "user" );
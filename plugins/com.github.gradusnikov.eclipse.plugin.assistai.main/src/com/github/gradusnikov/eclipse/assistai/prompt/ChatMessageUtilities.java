@@ -8,11 +8,40 @@ import org.eclipse.swt.graphics.ImageData;
 
 import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
 import com.github.gradusnikov.eclipse.assistai.part.Attachment;
-import com.github.gradusnikov.eclipse.assistai.tools.ImageUtilities;
+import com.github.gradusnikov.eclipse.assistai.services.ImageEncodingService;
 
 public class ChatMessageUtilities
 {
-    public static String toMarkdownContent( ChatMessage message )
+    /**
+     * Converts the message and its text attachments to the text sent to the
+     * model.
+     * 
+     * @param message
+     *            the message to convert
+     * @return the text content
+     */
+    public static String toChatMessageText( ChatMessage message )
+    {
+        List<String> textParts = message.getAttachments()
+                .stream()
+                .map( Attachment::toChatMessageContent )
+                .filter( Objects::nonNull )
+                .collect( Collectors.toList() );
+        return String.join( "\n", textParts ) + "\n\n" + message.getContent();
+    }
+
+    /**
+     * Converts the message and its attachments to the markdown shown in the
+     * chat view.
+     * 
+     * @param message
+     *            the message to convert
+     * @param imageEncodingService
+     *            encodes image attachments, sharing the encoded images with
+     *            the requests sent to the model
+     * @return the markdown content
+     */
+    public static String toMarkdownContent( ChatMessage message, ImageEncodingService imageEncodingService )
     {
         String content = message.getContent();
 
@@ -31,7 +60,7 @@ public class ChatMessageUtilities
         if (!images.isEmpty())
         {
             content += "\n" + images.stream()
-                    .map( ImageUtilities::toBase64Jpeg )
+                    .map( imageEncodingService::toBase64Jpeg )
                     .map( data -> "![image](data:image/jpeg;base64," + data + ")" )
                     .collect( Collectors.joining( "\n" ) );
         }
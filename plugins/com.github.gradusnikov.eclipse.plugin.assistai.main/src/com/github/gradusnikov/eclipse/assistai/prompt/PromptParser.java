@@ -1,22 +1,32 @@
 package com.github.gradusnikov.eclipse.assistai.prompt;
 
-import java.util.Scanner;
 import java.util.UUID;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringEscapeUtils;
 
 /**
- * A utility class for parsing and converting a text prompt to an HTML formatted string.
+ * A streaming parser converting a text prompt to an HTML formatted string.
+ * <p>
+ * The prompt can be passed as a whole ({@link #parseToHtml()}) or in chunks
+ * as it is being received ({@link #feed(CharSequence)}). The parser keeps its
+ * state (code block, function call, text attachment) between chunks and
+ * converts every line exactly once, as soon as it is complete, so the cost of
+ * parsing a streamed reply is linear in its length.
+ * <p>
+ * HTML is handed out per block: a block is finished once its last line is
+ * complete and no code block, function call or text attachment is open. The
+ * block that is still open can be rendered with {@link #tailHtml()}.
  */
 public class PromptParser
 {
-    
+
     private static final int DEFAULT_STATE = 0;
     private static final int CODE_BLOCK_STATE = 1;
     private static final int FUNCION_CALL_STATE = 2;
     private static final int TEXT_ATTACHMENT_STATE = 4;
-    
+
     private static final String TATT_CONTEXTSTART = "<|ContextStart|>";
     private static final String TATT_FILEPREFIX = "File: ";
     private static final String TATT_LINESPREFIX = "Lines: ";
@@ -24,59 +34,178 @@ public class PromptParser
     private static final String TATT_CONTENTEND = "<|ContentEnd|>";
     private static final String TATT_CONTEXTEND = "<|ContextEnd|>";
 
-    
+    private static final String  CODE_BLOCK_FENCE = "```";
+    private static final String  FUNCTION_CALL_PREFIX = "\"function_call\"";
+    private static final Pattern CODE_BLOCK_PATTERN = Pattern.compile( "^```([aA-zZ]*)$" );
+
+    // inline markdown, see markdown(String)
+    private static final Pattern[] HEADERS = {
+            Pattern.compile( "^# (.*?)$" ),
+            Pattern.compile( "^## (.*?)$" ),
+            Pattern.compile( "^### (.*?)$" ),
+            Pattern.compile( "^#### (.*?)$" ),
+            Pattern.compile( "^##### (.*?)$" ),
+            Pattern.compile( "^###### (.*?)$" ) };
+    private static final Pattern STRONG = Pattern.compile( "\\*\\*(.*?)\\*\\*" );
+    private static final Pattern EMPHASIS = Pattern.compile( "\\*(.*?)\\*" );
+    private static final Pattern ITALIC_CODE = Pattern.compile( "`(.*?)`" );
+    private static final Pattern IMAGE = Pattern.compile( "!\\[(.*?)\\]\\((.*?)\\)" );
+    private static final Pattern LINK = Pattern.compile( "\\[(.*?)\\]\\((.*?)\\)" );
+    private static final Pattern INLINE_CODE = Pattern.compile( "`([^`]+)`" );
+    private static final Pattern BLOCKQUOTE = Pattern.compile( "^> (.*?)$" );
+    private static final Pattern LIST_ITEM = Pattern.compile( "^[*+-] (.*?)$" );
+    private static final Pattern HORIZONTAL_RULE = Pattern.compile( "^(\\*\\*\\*|---)$" );
+
+
     private int state = DEFAULT_STATE;
-    
+
     private final String prompt;
-    
+
+    /** HTML of the complete lines of the block that is still open */
+    private final StringBuilder openBlock = new StringBuilder();
+
+    /** the beginning of a line whose line break has not been received yet */
+    private final StringBuilder partialLine = new StringBuilder();
+
+    /**
+     * Creates a parser for a prompt that will be passed in chunks with
+     * {@link #feed(CharSequence)}.
+     */
+    public PromptParser()
+    {
+        this( "" );
+    }
+
     public PromptParser( String prompt )
     {
         this.prompt = prompt;
     }
-    
+
     /**
      * Converts the prompt text to an HTML formatted string.
      *
      * @return An HTML formatted string representation of the prompt text.
      */
     public String parseToHtml()
+    {
+        return feed( prompt ) + finish();
+    }
+
+    /**
+     * Parses the next chunk of the prompt.
+     *
+     * @param chunk
+     *            the text received since the previous call
+     * @return the HTML of the blocks finished by this chunk, possibly empty
+     */
+    public String feed( CharSequence chunk )
     {
         var out = new StringBuilder();
-        
-        try( var scanner = new Scanner(prompt) )
+        int lineStart = 0;
+        for ( int i = 0; i < chunk.length(); i++ )
         {
-            scanner.useDelimiter( "\n" );
-            var codeBlockPattern = Pattern.compile( "^```([aA-zZ]*)$" );
-            var functionCallPattern = Pattern.compile( "^\"function_call\".*" );
-            while ( scanner.hasNext() )
+            if ( chunk.charAt( i ) == '\n' )
             {
-                var  line    = scanner.next();
-                var codeBlockMatcher = codeBlockPattern.matcher( line );
-                var functionBlockMatcher = functionCallPattern.matcher( line );
-                
-                if ( codeBlockMatcher.find() )
+                String line;
+                if ( partialLine.length() > 0 )
                 {
-                    var lang = codeBlockMatcher.group(1);
-                    handleCodeBlock( out, lang );
+                    line = partialLine.append( chunk, lineStart, i ).toString();
+                    partialLine.setLength( 0 );
                 }
-                else if ( functionBlockMatcher.find() )
-                {
-                    handleFunctionCall( out, line );
-                }
-                else if ( line.startsWith( TATT_CONTEXTSTART ) )
+                else
                 {
-                    handleTextAttachmentStart( out, line );
+                    line = chunk.subSequence( lineStart, i ).toString();
                 }
-                else
+                state = parseLine( openBlock, line, state );
+                if ( state == DEFAULT_STATE )
                 {
-                    handleNonCodeBlock( out, line, !scanner.hasNext() );
+                    out.append( openBlock );
+                    openBlock.setLength( 0 );
                 }
+                lineStart = i + 1;
             }
         }
+        partialLine.append( chunk, lineStart, chunk.length() );
         return out.toString();
     }
 
-    private void handleTextAttachmentStart( StringBuilder out, String line )
+    /**
+     * Renders the block that is still open, including an incomplete last
+     * line, as well-formed HTML. The parser state is not changed.
+     *
+     * @return the HTML of the open block, or an empty string
+     */
+    public String tailHtml()
+    {
+        var out = new StringBuilder( openBlock );
+        int tailState = state;
+        if ( partialLine.length() > 0 )
+        {
+            tailState = parseLine( out, partialLine.toString(), tailState );
+        }
+        closeOpenBlocks( out, tailState );
+        return out.toString();
+    }
+
+    /**
+     * Ends the prompt: parses an incomplete last line and closes the blocks
+     * that are still open.
+     *
+     * @return the HTML of the remaining blocks
+     */
+    public String finish()
+    {
+        if ( partialLine.length() > 0 )
+        {
+            state = parseLine( openBlock, partialLine.toString(), state );
+            partialLine.setLength( 0 );
+        }
+        closeOpenBlocks( openBlock, state );
+        state = DEFAULT_STATE;
+        var out = openBlock.toString();
+        openBlock.setLength( 0 );
+        return out;
+    }
+
+    private int parseLine( StringBuilder out, String line, int state )
+    {
+        Matcher codeBlockMatcher;
+        if ( line.startsWith( CODE_BLOCK_FENCE ) && ( codeBlockMatcher = CODE_BLOCK_PATTERN.matcher( line ) ).find() )
+        {
+            var lang = codeBlockMatcher.group(1);
+            return handleCodeBlock( out, lang, state );
+        }
+        else if ( line.startsWith( FUNCTION_CALL_PREFIX ) )
+        {
+            return handleFunctionCall( out, line, state );
+        }
+        else if ( line.startsWith( TATT_CONTEXTSTART ) )
+        {
+            return handleTextAttachmentStart( out, line, state );
+        }
+        else
+        {
+            return handleNonCodeBlock( out, line, state );
+        }
+    }
+
+    private void closeOpenBlocks( StringBuilder out, int state )
+    {
+        if ( (state & CODE_BLOCK_STATE) == CODE_BLOCK_STATE )
+        {
+            out.append( "</code></pre>\n" );
+        }
+        if ( (state & FUNCION_CALL_STATE) == FUNCION_CALL_STATE )
+        {
+            out.append( "</pre></div>\n" );
+        }
+        if ( (state & TEXT_ATTACHMENT_STATE) == TEXT_ATTACHMENT_STATE )
+        {
+            out.append( "\n</details></div>\n" );
+        }
+    }
+
+    private int handleTextAttachmentStart( StringBuilder out, String line, int state )
     {
         if ( ( state & TEXT_ATTACHMENT_STATE ) != TEXT_ATTACHMENT_STATE )
         {
@@ -86,10 +215,10 @@ public class PromptParser
                     <details><summary>""" );
             state ^= TEXT_ATTACHMENT_STATE;
         }
-
+        return state;
     }
 
-    private void handleFunctionCall( StringBuilder out, String line )
+    private int handleFunctionCall( StringBuilder out, String line, int state )
     {
         if( (state & FUNCION_CALL_STATE) != FUNCION_CALL_STATE )
         {
@@ -98,49 +227,34 @@ public class PromptParser
                     <details><summary>Function call</summary>
                     <pre>
                     """ + line
-                    
+
             );
             state ^= FUNCION_CALL_STATE;
-            
+
         }
+        return state;
     }
 
-    private void handleNonCodeBlock( StringBuilder out,  String line, boolean lastLine )
+    private int handleNonCodeBlock( StringBuilder out,  String line, int state )
     {
         if ( (state & CODE_BLOCK_STATE) == CODE_BLOCK_STATE  )
         {
-            
             out.append(  StringEscapeUtils.escapeHtml4(escapeBackSlashes(line)) );
+            out.append( "\n" );
         }
         else if ( ( state & TEXT_ATTACHMENT_STATE ) == TEXT_ATTACHMENT_STATE )
         {
-            handleTextAttachmentLine( out, line );
-            return;
+            return handleTextAttachmentLine( out, line, state );
         }
         else
         {
             out.append( markdown( StringEscapeUtils.escapeHtml4(line) ) );
-        }
-        
-        if ( lastLine && (state & CODE_BLOCK_STATE) == CODE_BLOCK_STATE  ) // close opened code blocks
-        {
-        	out.append( "</code></pre>\n" );
-        }
-        if ( lastLine && (state & FUNCION_CALL_STATE) == FUNCION_CALL_STATE  ) // close opened code blocks
-        {
-            out.append( "</pre></div>\n" );
-        }
-        else if ( (state & CODE_BLOCK_STATE) == CODE_BLOCK_STATE  )
-        {
-                out.append( "\n" );
-        }
-        else
-        {
             out.append( "<br/>" );
         }
+        return state;
     }
 
-    private void handleTextAttachmentLine( StringBuilder out, String line )
+    private int handleTextAttachmentLine( StringBuilder out, String line, int state )
     {
         if ( line.startsWith( TATT_FILEPREFIX ) )
         {
@@ -167,14 +281,15 @@ public class PromptParser
         {
             out.append( StringEscapeUtils.escapeHtml4( line ) + "<br/>" );
         }
+        return state;
     }
 
-    private void handleCodeBlock( StringBuilder out, String lang )
+    private int handleCodeBlock( StringBuilder out, String lang, int state )
     {
         if( (state & CODE_BLOCK_STATE) != CODE_BLOCK_STATE )
         {
             String codeBlockId = UUID.randomUUID().toString();
-            out.append( """ 
+            out.append( """
                     <input type="button" onClick="eclipseCopyCode(document.getElementById('${codeBlockId}').innerText)" value="Copy Code" />
                     <input type="${showApplyPatch}" onClick="eclipseApplyPatch(document.getElementById('${codeBlockId}').innerText)" value="ApplyPatch"/>
                     <pre><code lang="${lang}" id="${codeBlockId}">
@@ -190,61 +305,88 @@ public class PromptParser
             out.append( "</code></pre>\n" );
             state ^= CODE_BLOCK_STATE;
         }
+        return state;
     }
-    
+
     public static String escapeBackSlashes( String input )
     {
         input = input.replace( "\\", "\\\\" );
         return input;
     }
-    
-    public static String markdown(String input) 
+
+    /**
+     * Converts inline markdown of a single line to HTML. Each rule is only
+     * applied when the line contains the characters it starts with, so plain
+     * text lines are passed through without running any regular expression.
+     */
+    public static String markdown(String input)
     {
+        if ( input.isEmpty() )
+        {
+            return input;
+        }
+        char first = input.charAt( 0 );
+
         // Replace headers
-        input = input.replaceAll("^# (.*?)$", "<h1>$1</h1>");
-        input = input.replaceAll("^## (.*?)$", "<h2>$1</h2>");
-        input = input.replaceAll("^### (.*?)$", "<h3>$1</h3>");
-        input = input.replaceAll("^#### (.*?)$", "<h4>$1</h4>");
-        input = input.replaceAll("^##### (.*?)$", "<h5>$1</h5>");
-        input = input.replaceAll("^###### (.*?)$", "<h6>$1</h6>");
-        
-        // Replace **text** with <strong>text</strong>
-        input = input.replaceAll("\\*\\*(.*?)\\*\\*", "<strong>$1</strong>");
-
-        // Replace *text* with <em>text</em>
-        input = input.replaceAll("\\*(.*?)\\*", "<em>$1</em>");
+        if ( first == '#' )
+        {
+            for ( int i = 0; i < HEADERS.length; i++ )
+            {
+                input = HEADERS[i].matcher( input ).replaceAll( "<h" + (i + 1) + ">$1</h" + (i + 1) + ">" );
+            }
+        }
+
+        if ( input.indexOf( '*' ) >= 0 )
+        {
+            // Replace **text** with <strong>text</strong>
+            input = STRONG.matcher( input ).replaceAll( "<strong>$1</strong>" );
+
+            // Replace *text* with <em>text</em>
+            input = EMPHASIS.matcher( input ).replaceAll( "<em>$1</em>" );
+        }
 
         // Replace `text` with <i>text</i>
-        input = input.replaceAll("`(.*?)`", "<i>$1</i>");
+        if ( input.indexOf( '`' ) >= 0 )
+        {
+            input = ITALIC_CODE.matcher( input ).replaceAll( "<i>$1</i>" );
+        }
 
-        // Replace ![alt text](url) with <img src="url" alt="alt text">
-        input = input.replaceAll("!\\[(.*?)\\]\\((.*?)\\)", "<img src=\"$2\" alt=\"$1\" />");
+        if ( input.indexOf( '[' ) >= 0 )
+        {
+            // Replace ![alt text](url) with <img src="url" alt="alt text">
+            input = IMAGE.matcher( input ).replaceAll( "<img src=\"$2\" alt=\"$1\" />" );
 
-        // Replace [text](url) with <a href="url">text</a>
-        input = input.replaceAll("\\[(.*?)\\]\\((.*?)\\)", "<a href=\"$2\" target=\"_blank\">$1</a>");
+            // Replace [text](url) with <a href="url">text</a>
+            input = LINK.matcher( input ).replaceAll( "<a href=\"$2\" target=\"_blank\">$1</a>" );
+        }
 
         // Inline code
-        input = input.replaceAll("`([^`]+)`", "<code>$1</code>");
-        
-        // Links
-        input = input.replaceAll("\\[(.*?)\\]\\((.*?)\\)", "<a href=\"$2\" target=\"_blank\">$1</a>");
+        if ( input.indexOf( '`' ) >= 0 )
+        {
+            input = INLINE_CODE.matcher( input ).replaceAll( "<code>$1</code>" );
+        }
 
         // Blockquotes
-        input = input.replaceAll("^> (.*?)$", "<blockquote>$1</blockquote>");
-        
+        if ( first == '>' )
+        {
+            input = BLOCKQUOTE.matcher( input ).replaceAll( "<blockquote>$1</blockquote>" );
+        }
+
         // Unordered lists
-        input = input.replaceAll("^\\* (.*?)$", "<li>$1</li>");
-        input = input.replaceAll("^- (.*?)$", "<li>$1</li>");
-        input = input.replaceAll("^\\+ (.*?)$", "<li>$1</li>");
+        if ( first == '*' || first == '-' || first == '+' )
+        {
+            input = LIST_ITEM.matcher( input ).replaceAll( "<li>$1</li>" );
+        }
 
-        
-        
         // Ordered lists
 //        input = input.replaceAll("^\\d+\\. (.*?)$", "<li>$1</li>");
-        
+
         // Horizontal Rule
-        input = input.replaceAll("^(\\*\\*\\*|---)$", "<hr>");
-        
+        if ( first == '*' || first == '-' )
+        {
+            input = HORIZONTAL_RULE.matcher( input ).replaceAll( "<hr>" );
+        }
+
         return input;
     }
 }
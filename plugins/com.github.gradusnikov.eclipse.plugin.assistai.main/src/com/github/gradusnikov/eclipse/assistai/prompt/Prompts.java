@@ -8,7 +8,8 @@ public enum Prompts
     FIX_ERRORS("fix-errors-prompt.txt", "Fix Errors"),
     GIT_COMMENT("gitcomment-prompt.txt", "Git Comment"),
     REFACTOR("refactor-prompt.txt", "Refactor"),
-    TEST_CASE("testcase-prompt.txt", "JUnit Test case");
+    TEST_CASE("testcase-prompt.txt", "JUnit Test case"),
+    COMPACT("compact-prompt.txt", "Compact Conversation");
 
     private final String fileName;
     private final String description;
@@ -0,0 +1,108 @@
+package com.github.gradusnikov.eclipse.assistai.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Publishes the items of one streamed response to its subscribers in
+ * batches, on the threads of the {@link StreamingExecutor}.
+ * <p>
+ * The reader of the response collects items with {@link #add(Object)} and
+ * publishes them with {@link #flush()}, e.g. when it has consumed the data
+ * received so far. While a subscriber lags a full buffer behind, the items
+ * are held back and published with the next batch, so a slow subscriber
+ * neither blocks the reader nor loses items.
+ * <p>
+ * A publisher is written by one thread.
+ */
+public class BatchPublisher<T>
+{
+    private final StreamingExecutor streamingExecutor;
+
+    private final SubmissionPublisher<List<T>> publisher;
+
+    private List<T> pending = new ArrayList<>();
+
+    /**
+     * @param bufferSize
+     *            the number of batches buffered per subscriber
+     */
+    public BatchPublisher( StreamingExecutor streamingExecutor, int bufferSize )
+    {
+        this.streamingExecutor = streamingExecutor;
+        this.publisher = new SubmissionPublisher<>( streamingExecutor.getExecutor(), bufferSize );
+    }
+
+    public void subscribe( Flow.Subscriber<? super List<T>> subscriber )
+    {
+        publisher.subscribe( subscriber );
+    }
+
+    public void add( T item )
+    {
+        pending.add( item );
+    }
+
+    /**
+     * Publishes the collected items as one batch, unless a subscriber lags a
+     * full buffer behind.
+     */
+    public void flush()
+    {
+        if ( pending.isEmpty() )
+        {
+            return;
+        }
+        if ( publisher.estimateMaximumLag() >= publisher.getMaxBufferCapacity() )
+        {
+            streamingExecutor.recordHeldBack();
+            return;
+        }
+        submit();
+    }
+
+    /**
+     * Publishes the remaining items, waiting for buffer space if needed, and
+     * completes the subscribers.
+     */
+    public void close()
+    {
+        if ( !pending.isEmpty() && !publisher.isClosed() )
+        {
+            submit();
+        }
+        publisher.close();
+    }
+
+    /**
+     * Publishes the remaining items and fails the subscribers with the given
+     * error.
+     */
+    public void closeExceptionally( Throwable error )
+    {
+        if ( !pending.isEmpty() && !publisher.isClosed() )
+        {
+            submit();
+        }
+        publisher.closeExceptionally( error );
+    }
+
+    /**
+     * @return the number of batches the slowest subscriber has not consumed
+     */
+    public int getQueueDepth()
+    {
+        return publisher.estimateMaximumLag();
+    }
+
+    private void submit()
+    {
+        var batch = Collections.unmodifiableList( pending );
+        pending = new ArrayList<>();
+        int queueDepth = publisher.submit( batch );
+        streamingExecutor.recordBatch( batch.size(), queueDepth );
+    }
+}
@@ -0,0 +1,270 @@
+package com.github.gradusnikov.eclipse.assistai.services;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.e4.core.di.annotations.Creatable;
+
+import com.github.gradusnikov.eclipse.assistai.commands.FunctionExecutorProvider;
+import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+import com.github.gradusnikov.eclipse.assistai.part.Attachment;
+import com.github.gradusnikov.eclipse.assistai.prompt.ChatMessageUtilities;
+import com.github.gradusnikov.eclipse.assistai.tokenizer.Tokenizer;
+import com.github.gradusnikov.eclipse.assistai.tokenizer.Tokenizers;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/**
+ * Fits a conversation into the context window of a model.
+ * <p>
+ * The tokens of each message are counted with the tokenizer of the model and
+ * cached in the message (see
+ * {@link ChatMessage#getTokenCount(String, java.util.function.ToIntFunction)}).
+ * A request always contains the system prompt, the latest message and the
+ * pinned messages (see {@link ChatMessage#isPinned()}). The remaining budget
+ * is filled with the other messages from the newest to the oldest: the first
+ * message that does not fit is truncated, and all older ones are dropped.
+ */
+@Creatable
+@Singleton
+public class ContextWindowManager
+{
+    /** role and separators added to each message */
+    private static final int TOKENS_PER_MESSAGE = 4;
+
+    /** priming of the reply */
+    private static final int TOKENS_PER_REQUEST = 3;
+
+    /** a message is not truncated to fewer tokens than that */
+    private static final int MIN_TRUNCATED_TOKENS = 64;
+
+    private static final int MAX_RESPONSE_RESERVE = 4096;
+
+    private static final int IMAGE_BASE_TOKENS = 85;
+
+    private static final int IMAGE_TILE_TOKENS = 170;
+
+    private static final int IMAGE_TILE_SIZE = 512;
+
+    private static final String TRUNCATED_MARK = "\n[...]";
+
+    @Inject
+    private FunctionExecutorProvider functionExecutor;
+
+    /** tokens of the function declarations, by encoding */
+    private final Map<String, Integer> functionTokens = new ConcurrentHashMap<>();
+
+    /**
+     * Messages selected for a request.
+     * 
+     * @param messages
+     *            the messages to send, some of them possibly truncated copies
+     * @param tokens
+     *            the tokens of the request, including the system prompt and
+     *            function declarations
+     * @param budget
+     *            the tokens available for the request
+     * @param dropped
+     *            the number of messages left out
+     * @param truncated
+     *            the number of messages truncated
+     */
+    public record Selection( List<ChatMessage> messages, int tokens, int budget, int dropped, int truncated ) {}
+
+    /**
+     * Selects the messages sent to the model.
+     * 
+     * @param messages
+     *            the conversation, from the oldest to the latest message
+     * @param model
+     *            the model the request is sent to
+     * @param systemPrompt
+     *            the system prompt sent with the messages
+     * @return the selected messages in conversation order
+     */
+    public Selection select( List<ChatMessage> messages, ModelApiDescriptor model, String systemPrompt )
+    {
+        int budget = getBudget( model );
+        int tokens = TOKENS_PER_REQUEST + TOKENS_PER_MESSAGE + countTokens( systemPrompt, model ) + countFunctionTokens( model );
+
+        int last = messages.size() - 1;
+        var selected = new ChatMessage[messages.size()];
+        for ( int i = 0; i <= last; i++ )
+        {
+            var message = messages.get( i );
+            if ( i == last || message.isPinned() )
+            {
+                selected[i] = message;
+                tokens += countTokens( message, model );
+            }
+        }
+        int dropped = 0;
+        int truncated = 0;
+        boolean full = false;
+        for ( int i = last - 1; i >= 0; i-- )
+        {
+            var message = messages.get( i );
+            if ( selected[i] != null )
+            {
+                continue;
+            }
+            if ( !full )
+            {
+                int messageTokens = countTokens( message, model );
+                if ( tokens + messageTokens <= budget )
+                {
+                    selected[i] = message;
+                    tokens += messageTokens;
+                    continue;
+                }
+                full = true;
+                var truncatedMessage = truncate( message, budget - tokens, model );
+                if ( truncatedMessage != null )
+                {
+                    selected[i] = truncatedMessage;
+                    tokens += countTokens( truncatedMessage, model );
+                    truncated++;
+                    continue;
+                }
+            }
+            dropped++;
+        }
+        // a function result is not sent without the call it answers
+        for ( int i = 0; i < last; i++ )
+        {
+            var message = selected[i];
+            if ( message != null && "function".equals( message.getRole() ) && !message.isPinned() && ( i == 0 || selected[i - 1] == null ) )
+            {
+                selected[i] = null;
+                tokens -= countTokens( message, model );
+                dropped++;
+            }
+        }
+        var result = Arrays.stream( selected ).filter( Objects::nonNull ).toList();
+        return new Selection( result, tokens, budget, dropped, truncated );
+    }
+
+    /**
+     * @return the tokens available for a request to the model, leaving room
+     *         for the reply
+     */
+    public int getBudget( ModelApiDescriptor model )
+    {
+        int contextWindow = model.effectiveContextWindow();
+        return contextWindow - Math.min( MAX_RESPONSE_RESERVE, contextWindow / 4 );
+    }
+
+    /**
+     * Counts the tokens of a message as it is sent to the model, including its
+     * attachments. The count is cached in the message until it changes.
+     * 
+     * @param message
+     *            the message to count
+     * @param model
+     *            the model the message is sent to
+     * @return the number of tokens
+     */
+    public int countTokens( ChatMessage message, ModelApiDescriptor model )
+    {
+        var tokenizer = Tokenizers.forModel( model.modelName() );
+        var key = tokenizer.getEncoding() + ",vision=" + model.vision() + ",functionCalling=" + model.functionCalling() 
+                + ",image=" + model.maxImageEdge() + "/" + model.imageDetail();
+        return message.getTokenCount( key, m -> countMessageTokens( m, tokenizer, model ) );
+    }
+
+    /**
+     * Counts the tokens of a text with the tokenizer of the model.
+     */
+    public int countTokens( CharSequence text, ModelApiDescriptor model )
+    {
+        return text == null ? 0 : Tokenizers.forModel( model.modelName() ).countTokens( text );
+    }
+
+    private int countMessageTokens( ChatMessage message, Tokenizer tokenizer, ModelApiDescriptor model )
+    {
+        int tokens = TOKENS_PER_MESSAGE + message.getTokenCount( tokenizer );
+        if ( model.functionCalling() )
+        {
+            if ( message.getName() != null )
+            {
+                tokens += tokenizer.countTokens( message.getName() );
+            }
+            if ( message.getFunctionCall() != null )
+            {
+                tokens += tokenizer.countTokens( message.getFunctionCall().name() );
+                tokens += tokenizer.countTokens( String.valueOf( message.getFunctionCall().arguments() ) );
+            }
+        }
+        if ( model.vision() )
+        {
+            tokens += message.getAttachments()
+                             .stream()
+                             .map( Attachment::getImageData )
+                             .filter( Objects::nonNull )
+                             .mapToInt( image -> countImageTokens( image.width, image.height, model ) )
+                             .sum();
+        }
+        return tokens;
+    }
+
+    /**
+     * Counts the tokens of an image the way OpenAI vision models bill them: a
+     * base cost, plus a cost for each 512px tile unless the detail is low.
+     */
+    private int countImageTokens( int width, int height, ModelApiDescriptor model )
+    {
+        if ( ModelApiDescriptor.IMAGE_DETAIL_LOW.equals( model.imageDetail() ) )
+        {
+            return IMAGE_BASE_TOKENS;
+        }
+        var size = ImageEncodingService.getTargetSize( width, height, model );
+        int tiles = ( ( size.x + IMAGE_TILE_SIZE - 1 ) / IMAGE_TILE_SIZE ) * ( ( size.y + IMAGE_TILE_SIZE - 1 ) / IMAGE_TILE_SIZE );
+        return IMAGE_BASE_TOKENS + IMAGE_TILE_TOKENS * tiles;
+    }
+
+    private int countFunctionTokens( ModelApiDescriptor model )
+    {
+        if ( !model.functionCalling() )
+        {
+            return 0;
+        }
+        var tokenizer = Tokenizers.forModel( model.modelName() );
+        return functionTokens.computeIfAbsent( tokenizer.getEncoding(), encoding -> tokenizer.countTokens( 
+                AnnotationToJsonConverter.convertDeclaredFunctionsToJson( functionExecutor.get().getFunctions() ).toString() ) );
+    }
+
+    /**
+     * Creates a copy of the message, without attachments, shortened to the
+     * given number of tokens.
+     * 
+     * @return the truncated message, or <code>null</code> if it would be too
+     *         short to be of use or the message is a function call
+     */
+    private ChatMessage truncate( ChatMessage message, int maxTokens, ModelApiDescriptor model )
+    {
+        if ( maxTokens < TOKENS_PER_MESSAGE + MIN_TRUNCATED_TOKENS || message.getFunctionCall() != null )
+        {
+            return null;
+        }
+        String text = ChatMessageUtilities.toChatMessageText( message );
+        int textTokens = Math.max( 1, countTokens( text, model ) );
+        int length = (int) ( (long) text.length() * ( maxTokens - TOKENS_PER_MESSAGE - countTokens( TRUNCATED_MARK, model ) ) / textTokens );
+        var copy = new ChatMessage( message.getId(), message.getName(), message.getRole() );
+        // the estimate may be off for uneven text, shorten until it fits
+        while ( length > 0 )
+        {
+            copy.setContent( text.substring( 0, Math.min( length, text.length() ) ) + TRUNCATED_MARK );
+            if ( countTokens( copy, model ) <= maxTokens )
+            {
+                return copy;
+            }
+            length = length * 9 / 10;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,159 @@
+package com.github.gradusnikov.eclipse.assistai.services;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.e4.core.di.annotations.Creatable;
+
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/**
+ * Keeps one long-lived {@link HttpClient} per model endpoint (keyed by
+ * {@link ModelApiDescriptor#apiUrl()}), so that consecutive prompts reuse the
+ * kept-alive TCP/TLS connection instead of paying for a new handshake and a
+ * new selector thread each time.
+ * <p>
+ * Clients prefer HTTP/2 on <code>https</code> endpoints (negotiated via ALPN,
+ * the JDK falls back to HTTP/1.1 when the server does not offer it). An
+ * endpoint that breaks the HTTP/2 protocol (e.g. resets the stream or sends
+ * GOAWAY) is downgraded to HTTP/1.1 for the rest of the session. A client is rebuilt whenever the connect timeout of the model
+ * (see {@link ModelApiDescriptor#connectTimeoutSeconds()}) changes.
+ */
+@Creatable
+@Singleton
+public class HttpClientConnectionManager
+{
+    @Inject
+    private ILog logger;
+
+    private final Map<String, PooledClient> clients = new ConcurrentHashMap<>();
+
+    private final AtomicLong clientsBuilt = new AtomicLong();
+
+    private final AtomicLong requests = new AtomicLong();
+
+    /**
+     * Client pool counters: the number of clients built and of requests sent
+     * through the pool. The JDK client does not expose its connections, so
+     * these are not TCP connection counts.
+     */
+    public record Statistics( long clientsBuilt, long requests ) {}
+
+    private record PooledClient( HttpClient client, int connectionTimeoutSeconds, HttpClient.Version version ) {}
+
+    /**
+     * Sends the request through the pooled client of the given endpoint. If
+     * the exchange fails with an HTTP/2 protocol error, the endpoint is
+     * downgraded to HTTP/1.1 for the following requests and the error is
+     * rethrown; the request is not sent again here, retries are left to the
+     * caller (see {@link RequestScheduler}).
+     */
+    public <T> HttpResponse<T> send( ModelApiDescriptor model, HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler ) throws IOException, InterruptedException
+    {
+        var pooled = acquire( model );
+        try
+        {
+            return pooled.client().send( request, bodyHandler );
+        }
+        catch ( IOException e )
+        {
+            if ( pooled.version() == HttpClient.Version.HTTP_2 && isHttp2Failure( e ) )
+            {
+                logger.warn( "HTTP/2 exchange with " + model.apiUrl() + " failed (" + e.getMessage() + "), using HTTP/1.1 from now on" );
+                clients.replace( model.apiUrl(), pooled, newClient( pooled.connectionTimeoutSeconds(), HttpClient.Version.HTTP_1_1 ) );
+            }
+            throw e;
+        }
+    }
+
+    public Statistics getStatistics()
+    {
+        return new Statistics( clientsBuilt.get(), requests.get() );
+    }
+
+    /**
+     * Drops all pooled clients. Their connections are closed once idle.
+     */
+    public void clear()
+    {
+        clients.clear();
+    }
+
+    private PooledClient acquire( ModelApiDescriptor model )
+    {
+        int connectionTimeout = model.connectTimeoutSeconds();
+        var pooled = clients.compute( model.apiUrl(), ( url, current ) -> {
+            if ( current != null && current.connectionTimeoutSeconds() == connectionTimeout )
+            {
+                return current;
+            }
+            // keep the HTTP/1.1 downgrade when only the timeouts changed
+            var version = current != null ? current.version() : preferredVersion( url );
+            return newClient( connectionTimeout, version );
+        } );
+        requests.incrementAndGet();
+        return pooled;
+    }
+
+    private PooledClient newClient( int connectionTimeoutSeconds, HttpClient.Version version )
+    {
+        var client = HttpClient.newBuilder()
+                               .version( version )
+                               .connectTimeout( Duration.ofSeconds( connectionTimeoutSeconds ) )
+                               .build();
+        clientsBuilt.incrementAndGet();
+        return new PooledClient( client, connectionTimeoutSeconds, version );
+    }
+
+    /**
+     * @return <code>true</code> if the exchange failed on the HTTP/2 framing
+     *         layer rather than on the network: a {@link ProtocolException},
+     *         or a stream reset (RST_STREAM) or GOAWAY reported by the JDK
+     *         client
+     */
+    static boolean isHttp2Failure( IOException e )
+    {
+        for ( Throwable cause = e; cause != null; cause = cause.getCause() )
+        {
+            if ( cause instanceof ProtocolException )
+            {
+                return true;
+            }
+            var message = cause.getMessage() != null ? cause.getMessage() : "";
+            if ( message.contains( "RST_STREAM" ) || message.contains( "GOAWAY" ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * HTTP/2 is only attempted over TLS. Cleartext endpoints (e.g. local model
+     * servers) would otherwise receive an h2c upgrade request, which many of
+     * them do not handle.
+     */
+    private HttpClient.Version preferredVersion( String apiUrl )
+    {
+        try
+        {
+            return "https".equalsIgnoreCase( URI.create( apiUrl ).getScheme() ) ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1;
+        }
+        catch ( IllegalArgumentException e )
+        {
+            return HttpClient.Version.HTTP_1_1;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.github.gradusnikov.eclipse.assistai.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.e4.core.di.annotations.Creatable;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.graphics.RGB;
+
+import com.github.gradusnikov.eclipse.assistai.Activator;
+import com.github.gradusnikov.eclipse.assistai.jobs.AssistAIJobConstants;
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+import com.github.gradusnikov.eclipse.assistai.tools.ImageUtilities;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/**
+ * Encodes image attachments as base64 JPEG, once per image and model image
+ * settings.
+ * <p>
+ * Before encoding, an image is downscaled to the largest size the model makes
+ * use of (see {@link #getTargetSize(int, int, ModelApiDescriptor)}), with the
+ * JPEG quality of the model. {@link #prepare(ImageData)} does this on a
+ * background job as soon as an image is attached, so that the request does
+ * not have to wait for it.
+ * <p>
+ * Images are identified by a SHA-256 hash of their pixels, computed once per
+ * {@link ImageData} instance. Encoded images are kept in a memory cache
+ * bounded by {@link #MAX_MEMORY_BYTES}; the least recently used ones are
+ * spilled to the <code>image-cache</code> folder in the plugin state location,
+ * which is bounded by {@link #MAX_DISK_BYTES}. The request to the model and
+ * the chat view are both served from the same entry.
+ */
+@Creatable
+@Singleton
+public class ImageEncodingService
+{
+    public static final long MAX_MEMORY_BYTES = 64L * 1024 * 1024;
+
+    public static final long MAX_DISK_BYTES = 256L * 1024 * 1024;
+
+    private static final String CACHE_FOLDER = "image-cache";
+
+    private static final String FILE_EXTENSION = ".jpg";
+
+    private static final int LOW_DETAIL_EDGE = 512;
+
+    private static final int HIGH_DETAIL_SHORT_EDGE = 768;
+
+    @Inject
+    private ILog logger;
+
+    @Inject
+    private OpenAIClientConfiguration configuration;
+
+    /** pixel hashes of the images seen so far */
+    private final Map<ImageData, String> hashes = Collections.synchronizedMap( new WeakHashMap<>() );
+
+    /** base64 encoded JPEGs by pixel hash and encoding settings, in access order */
+    private final LinkedHashMap<String, String> encoded = new LinkedHashMap<>( 16, 0.75f, true );
+
+    private long memoryBytes = 0;
+
+    /** encodings in progress by cache key */
+    private final Map<String, CompletableFuture<String>> encoding = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the image as a base64 encoded JPEG for the selected model, or at
+     * full size if no model is selected.
+     *
+     * @param image
+     *            the image to encode
+     * @return base64 encoded JPEG
+     */
+    public String toBase64Jpeg( ImageData image )
+    {
+        return configuration.getSelectedModel()
+                            .map( model -> toBase64Jpeg( image, model ) )
+                            .orElseGet( () -> encode( image, image.width, image.height, -1 ) );
+    }
+
+    /**
+     * Returns the image as a base64 encoded JPEG, downscaled and compressed
+     * according to the image settings of the model.
+     *
+     * @param image
+     *            the image to encode
+     * @param model
+     *            the model the image is sent to
+     * @return base64 encoded JPEG
+     */
+    public String toBase64Jpeg( ImageData image, ModelApiDescriptor model )
+    {
+        if ( image == null )
+        {
+            throw new IllegalArgumentException( "ImageData argument is null" );
+        }
+        var size = getTargetSize( image.width, image.height, model );
+        return encode( image, size.x, size.y, model.jpegQuality() );
+    }
+
+    /**
+     * Encodes the image for the selected model on a background job.
+     *
+     * @param image
+     *            an image that has just been attached
+     */
+    public void prepare( ImageData image )
+    {
+        var job = Job.create( AssistAIJobConstants.JOB_PREFIX + " encode image", monitor -> {
+            toBase64Jpeg( image );
+        } );
+        job.setSystem( true );
+        job.setPriority( Job.DECORATE );
+        job.schedule();
+    }
+
+    /**
+     * Computes the size an image is sent to the model at. The longer edge is
+     * limited to {@link ModelApiDescriptor#maxImageEdge()}. With
+     * {@link ModelApiDescriptor#IMAGE_DETAIL_LOW} the image is limited to
+     * {@value #LOW_DETAIL_EDGE} pixels, otherwise its shorter edge is limited
+     * to {@value #HIGH_DETAIL_SHORT_EDGE} pixels, as vision models resize
+     * larger images to that anyway.
+     */
+    public static Point getTargetSize( int width, int height, ModelApiDescriptor model )
+    {
+        int maxEdge = model.maxImageEdge();
+        int maxShortEdge = HIGH_DETAIL_SHORT_EDGE;
+        if ( ModelApiDescriptor.IMAGE_DETAIL_LOW.equals( model.imageDetail() ) )
+        {
+            maxEdge = Math.min( maxEdge, LOW_DETAIL_EDGE );
+            maxShortEdge = Integer.MAX_VALUE;
+        }
+        double scale = Math.min( 1.0, Math.min( (double) maxEdge / Math.max( width, height ),
+                                                (double) maxShortEdge / Math.min( width, height ) ) );
+        return new Point( Math.max( 1, (int) Math.round( width * scale ) ),
+                          Math.max( 1, (int) Math.round( height * scale ) ) );
+    }
+
+    private String encode( ImageData image, int width, int height, int quality )
+    {
+        String key = hashes.computeIfAbsent( image, ImageEncodingService::hash ) + "-" + width + "x" + height + "-q" + quality;
+        String base64;
+        synchronized ( encoded )
+        {
+            base64 = encoded.get( key );
+        }
+        if ( base64 != null )
+        {
+            return base64;
+        }
+        // let a request wait for the background job already encoding the image
+        var future = new CompletableFuture<String>();
+        var running = encoding.putIfAbsent( key, future );
+        if ( running != null )
+        {
+            return running.join();
+        }
+        try
+        {
+            base64 = readFromDisk( key ).orElseGet( () -> ImageUtilities.toBase64Jpeg( ImageUtilities.downscale( image, width, height ), quality ) );
+            put( key, base64 );
+            future.complete( base64 );
+            return base64;
+        }
+        catch ( RuntimeException e )
+        {
+            future.completeExceptionally( e );
+            throw e;
+        }
+        finally
+        {
+            encoding.remove( key );
+        }
+    }
+
+    /**
+     * Drops all encoded images from memory and disk.
+     */
+    public void clear()
+    {
+        synchronized ( encoded )
+        {
+            encoded.clear();
+            memoryBytes = 0;
+        }
+        getCacheFolder().ifPresent( folder -> listCacheFiles( folder ).forEach( file -> file.toFile().delete() ) );
+    }
+
+    private void put( String key, String base64 )
+    {
+        var evicted = new ArrayList<Map.Entry<String, String>>();
+        synchronized ( encoded )
+        {
+            if ( encoded.put( key, base64 ) == null )
+            {
+                memoryBytes += base64.length();
+            }
+            var iterator = encoded.entrySet().iterator();
+            while ( memoryBytes > MAX_MEMORY_BYTES && encoded.size() > 1 )
+            {
+                var eldest = iterator.next();
+                iterator.remove();
+                memoryBytes -= eldest.getValue().length();
+                evicted.add( eldest );
+            }
+        }
+        evicted.forEach( entry -> writeToDisk( entry.getKey(), entry.getValue() ) );
+    }
+
+    private Optional<String> readFromDisk( String key )
+    {
+        return getCacheFolder().map( folder -> folder.resolve( key + FILE_EXTENSION ) )
+                               .filter( Files::isRegularFile )
+                               .map( file -> {
+                                   try
+                                   {
+                                       var base64 = Base64.getEncoder().encodeToString( Files.readAllBytes( file ) );
+                                       // keep it when the disk cache is pruned
+                                       file.toFile().setLastModified( System.currentTimeMillis() );
+                                       return base64;
+                                   }
+                                   catch ( IOException e )
+                                   {
+                                       logger.warn( "Cannot read cached image " + file + ": " + e.getMessage() );
+                                       return null;
+                                   }
+                               } );
+    }
+
+    private void writeToDisk( String key, String base64 )
+    {
+        getCacheFolder().ifPresent( folder -> {
+            var file = folder.resolve( key + FILE_EXTENSION );
+            try
+            {
+                if ( !Files.exists( file ) )
+                {
+                    Files.write( file, Base64.getDecoder().decode( base64 ) );
+                    prune( folder );
+                }
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Cannot write cached image " + file + ": " + e.getMessage() );
+            }
+        } );
+    }
+
+    /**
+     * Deletes the least recently used files until the disk cache fits into
+     * {@link #MAX_DISK_BYTES}.
+     */
+    private void prune( Path folder )
+    {
+        List<File> files = new ArrayList<>( listCacheFiles( folder ).map( Path::toFile ).toList() );
+        long size = files.stream().mapToLong( File::length ).sum();
+        files.sort( Comparator.comparingLong( File::lastModified ) );
+        for ( int i = 0; size > MAX_DISK_BYTES && i < files.size(); i++ )
+        {
+            size -= files.get( i ).length();
+            files.get( i ).delete();
+        }
+    }
+
+    private Stream<Path> listCacheFiles( Path folder )
+    {
+        try ( var files = Files.list( folder ) )
+        {
+            return files.filter( file -> file.getFileName().toString().endsWith( FILE_EXTENSION ) ).toList().stream();
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Cannot list image cache " + folder + ": " + e.getMessage() );
+            return Stream.empty();
+        }
+    }
+
+    /**
+     * @return the disk cache folder, or empty when the plugin is not running
+     */
+    private Optional<Path> getCacheFolder()
+    {
+        var activator = Activator.getDefault();
+        if ( activator == null )
+        {
+            return Optional.empty();
+        }
+        var folder = activator.getStateLocation().append( CACHE_FOLDER ).toFile();
+        if ( !folder.isDirectory() && !folder.mkdirs() )
+        {
+            return Optional.empty();
+        }
+        return Optional.of( folder.toPath() );
+    }
+
+    /**
+     * Computes a SHA-256 hash of the image format and pixels.
+     */
+    private static String hash( ImageData image )
+    {
+        try
+        {
+            var digest = MessageDigest.getInstance( "SHA-256" );
+            var header = ByteBuffer.allocate( 9 * Integer.BYTES );
+            header.putInt( image.width )
+                  .putInt( image.height )
+                  .putInt( image.depth )
+                  .putInt( image.bytesPerLine )
+                  .putInt( image.transparentPixel )
+                  .putInt( image.alpha );
+            if ( image.palette.isDirect )
+            {
+                header.putInt( image.palette.redMask ).putInt( image.palette.greenMask ).putInt( image.palette.blueMask );
+            }
+            digest.update( header.array(), 0, header.position() );
+            if ( !image.palette.isDirect )
+            {
+                for ( RGB rgb : image.palette.getRGBs() )
+                {
+                    digest.update( (byte) rgb.red );
+                    digest.update( (byte) rgb.green );
+                    digest.update( (byte) rgb.blue );
+                }
+            }
+            digest.update( image.data );
+            if ( image.alphaData != null )
+            {
+                digest.update( image.alphaData );
+            }
+            if ( image.maskData != null )
+            {
+                digest.update( image.maskData );
+            }
+            return HexFormat.of().formatHex( digest.digest() );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new RuntimeException( e );
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.gradusnikov.eclipse.assistai.services;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.e4.core.di.annotations.Creatable;
+
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+
+import jakarta.inject.Singleton;
+
+/**
+ * Records the time to the first token and the streaming rate of the replies
+ * of each model (keyed by {@link ModelApiDescriptor#uid()}), e.g. to hedge a
+ * request once it takes longer than most replies of its model (see
+ * {@link OpenAIClientConfiguration#getHedgeDelayMillis()}) or to route it to
+ * the fastest model (see {@link ModelRouter}).
+ * <p>
+ * Only the last {@value #SAMPLES} replies of a model are kept for the
+ * percentiles, and the estimates are exponentially weighted moving averages,
+ * so both follow the current load of the endpoint.
+ */
+@Creatable
+@Singleton
+public class LatencyTracker
+{
+    public static final int SAMPLES = 100;
+
+    /** the replies needed before a percentile is reported */
+    public static final int MIN_SAMPLES = 10;
+
+    /** the weight of the latest reply in the moving averages */
+    private static final double EWMA_WEIGHT = 0.2;
+
+    /** the samples by model uid, guarded by this */
+    private final Map<String, Samples> samples = new HashMap<>();
+
+    /**
+     * The moving averages of the replies of a model. The rate is 0 until a
+     * reply streamed more than one token.
+     */
+    public record Estimate( double firstTokenMillis, double tokensPerSecond ) {}
+
+    public synchronized void recordFirstToken( ModelApiDescriptor model, long nanos )
+    {
+        getSamples( model ).add( TimeUnit.NANOSECONDS.toMillis( nanos ) );
+    }
+
+    /**
+     * Records the rate of a streamed reply.
+     *
+     * @param tokens
+     *            the tokens received after the first one
+     * @param nanos
+     *            the time between the first and the last token
+     */
+    public synchronized void recordThroughput( ModelApiDescriptor model, int tokens, long nanos )
+    {
+        if ( tokens > 0 && nanos > 0 )
+        {
+            getSamples( model ).addThroughput( tokens * 1e9 / nanos );
+        }
+    }
+
+    /**
+     * @return the moving averages of the model, if it replied before
+     */
+    public synchronized Optional<Estimate> getEstimate( ModelApiDescriptor model )
+    {
+        var modelSamples = samples.get( model.uid() );
+        if ( modelSamples == null || modelSamples.count == 0 )
+        {
+            return Optional.empty();
+        }
+        return Optional.of( new Estimate( modelSamples.firstTokenMillis, modelSamples.tokensPerSecond ) );
+    }
+
+    private Samples getSamples( ModelApiDescriptor model )
+    {
+        return samples.computeIfAbsent( model.uid(), uid -> new Samples() );
+    }
+
+    /**
+     * @param percentile
+     *            the percentile, e.g. 90
+     * @return the time to the first token that the given percentage of the
+     *         recent replies of the model did not exceed, or -1 if there are
+     *         fewer than {@value #MIN_SAMPLES} replies
+     */
+    public synchronized long getFirstTokenPercentileMillis( ModelApiDescriptor model, int percentile )
+    {
+        var modelSamples = samples.get( model.uid() );
+        if ( modelSamples == null || modelSamples.count < MIN_SAMPLES )
+        {
+            return -1;
+        }
+        var sorted = Arrays.copyOf( modelSamples.millis, modelSamples.count );
+        Arrays.sort( sorted );
+        int index = (int) Math.ceil( percentile / 100.0 * sorted.length ) - 1;
+        return sorted[Math.max( 0, Math.min( sorted.length - 1, index ) )];
+    }
+
+    /**
+     * A ring buffer of the last {@value #SAMPLES} times to the first token,
+     * and the moving averages.
+     */
+    private static class Samples
+    {
+        private final long[] millis = new long[SAMPLES];
+
+        private int count;
+
+        private int next;
+
+        private double firstTokenMillis;
+
+        private double tokensPerSecond;
+
+        private void add( long value )
+        {
+            firstTokenMillis = count == 0 ? value : EWMA_WEIGHT * value + ( 1 - EWMA_WEIGHT ) * firstTokenMillis;
+            millis[next] = value;
+            next = ( next + 1 ) % SAMPLES;
+            count = Math.min( SAMPLES, count + 1 );
+        }
+
+        private void addThroughput( double value )
+        {
+            tokensPerSecond = tokensPerSecond == 0 ? value : EWMA_WEIGHT * value + ( 1 - EWMA_WEIGHT ) * tokensPerSecond;
+        }
+    }
+}
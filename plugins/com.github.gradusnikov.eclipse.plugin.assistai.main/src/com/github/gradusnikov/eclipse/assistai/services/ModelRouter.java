@@ -0,0 +1,138 @@
+package com.github.gradusnikov.eclipse.assistai.services;
+
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.e4.core.di.annotations.Creatable;
+
+import com.github.gradusnikov.eclipse.assistai.Activator;
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+import com.github.gradusnikov.eclipse.assistai.part.Attachment;
+import com.github.gradusnikov.eclipse.assistai.prompt.Prompts;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/**
+ * Picks the model a request is sent to, among the defined models.
+ * <p>
+ * A model is only considered if it can handle the request: it supports
+ * vision when the request contains images, function calling when the
+ * conversation contains function calls or the selected model calls functions
+ * in the chat, and its context window fits the request without dropping
+ * messages (see {@link ContextWindowManager}).
+ * <p>
+ * Small predefined prompts, e.g. a commit message or a Javadoc comment, go to
+ * the model with the lowest estimated latency: its moving average of the time
+ * to the first token plus the time to stream a short reply, see
+ * {@link LatencyTracker}. A model without replies yet is estimated as fast,
+ * so it is tried once. All other requests go to the selected model, unless it
+ * cannot handle them; then to the suitable model with the largest context
+ * window.
+ * <p>
+ * Without routing (see {@link OpenAIClientConfiguration#isRoutingEnabled()}),
+ * every request goes to the selected model.
+ */
+@Creatable
+@Singleton
+public class ModelRouter
+{
+    /** the prompts with short replies that do not need the selected model */
+    private static final Set<Prompts> SMALL_PROMPTS = EnumSet.of( Prompts.GIT_COMMENT, Prompts.DOCUMENT );
+
+    /** the estimated length of the reply to a small prompt */
+    private static final int SMALL_REPLY_TOKENS = 200;
+
+    @Inject
+    private ILog logger;
+
+    @Inject
+    private OpenAIClientConfiguration configuration;
+
+    @Inject
+    private ContextWindowManager contextWindowManager;
+
+    @Inject
+    private LatencyTracker latencyTracker;
+
+    /**
+     * @param conversation
+     *            the conversation to send
+     * @param promptType
+     *            the predefined prompt the request was created from, or null
+     *            for a chat message
+     * @return the model to send the request to
+     */
+    public ModelApiDescriptor route( Conversation conversation, Prompts promptType )
+    {
+        var selected = configuration.getSelectedModel().orElseThrow();
+        if ( !configuration.isRoutingEnabled() )
+        {
+            return selected;
+        }
+        var messages = conversation.getRequestMessages();
+        boolean needsVision = messages.stream().flatMap( message -> message.getAttachments().stream() )
+                .map( Attachment::getImageData ).anyMatch( Objects::nonNull );
+        boolean needsFunctions = messages.stream().anyMatch( message -> message.getFunctionCall() != null || "function".equals( message.getRole() ) )
+                || ( promptType == null && selected.functionCalling() );
+        var systemPrompt = Activator.getDefault().getPreferenceStore().getString( Prompts.SYSTEM.preferenceName() );
+
+        var capable = configuration.getModels().stream()
+                .filter( model -> ( !needsVision || model.vision() ) && ( !needsFunctions || model.functionCalling() ) )
+                .toList();
+        List<Candidate> candidates = capable.stream()
+                .map( model -> new Candidate( model, contextWindowManager.select( messages, model, systemPrompt ) ) )
+                .filter( candidate -> candidate.selection().dropped() == 0 && candidate.selection().truncated() == 0 )
+                .toList();
+
+        ModelApiDescriptor model;
+        String reason;
+        int tokens = messages.stream().mapToInt( message -> contextWindowManager.countTokens( message, selected ) ).sum();
+        if ( candidates.isEmpty() )
+        {
+            // the conversation is cut to fit in any case, keep as much as possible
+            model = capable.stream().max( Comparator.comparingInt( contextWindowManager::getBudget ) ).orElse( selected );
+            reason = capable.isEmpty() ? "no model supports the request" : "the largest context window";
+        }
+        else if ( promptType != null && SMALL_PROMPTS.contains( promptType ) && tokens <= configuration.getRoutingSmallRequestTokens() )
+        {
+            model = candidates.stream().min( Comparator.comparingDouble( candidate -> estimateMillis( candidate.model() ) ) ).orElseThrow().model();
+            reason = "the lowest estimated latency";
+        }
+        else if ( candidates.stream().anyMatch( candidate -> candidate.model().uid().equals( selected.uid() ) ) )
+        {
+            model = selected;
+            reason = "the selected model";
+        }
+        else
+        {
+            model = candidates.stream().max( Comparator.comparingInt( candidate -> candidate.selection().budget() ) ).orElseThrow().model();
+            reason = "the selected model cannot handle the request";
+        }
+        if ( !model.uid().equals( selected.uid() ) )
+        {
+            logger.info( "Routed " + ( promptType != null ? promptType.getDescription() : "chat" ) + " request (" + tokens + " tokens) to "
+                    + model.modelName() + ": " + reason );
+        }
+        return model;
+    }
+
+    /**
+     * @return the estimated time to receive a short reply from the model, 0
+     *         if the model did not reply yet
+     */
+    private double estimateMillis( ModelApiDescriptor model )
+    {
+        return latencyTracker.getEstimate( model )
+                .map( estimate -> estimate.firstTokenMillis()
+                        + ( estimate.tokensPerSecond() > 0 ? SMALL_REPLY_TOKENS * 1000 / estimate.tokensPerSecond() : 0 ) )
+                .orElse( 0.0 );
+    }
+
+    private record Candidate( ModelApiDescriptor model, ContextWindowManager.Selection selection ) {}
+}
@@ -2,6 +2,7 @@ package com.github.gradusnikov.eclipse.assistai.services;
 
 import jakarta.inject.Singleton;
 
+import java.util.List;
 import java.util.Optional;
 
 import org.eclipse.e4.core.di.annotations.Creatable;
@@ -22,24 +23,112 @@ public class OpenAIClientConfiguration
     {
         IPreferenceStore prefernceStore = Activator.getDefault().getPreferenceStore();
         var selected = prefernceStore.getString( PreferenceConstants.ASSISTAI_SELECTED_MODEL );
+        return getModel( selected );
+    }
+    
+    /**
+     * @return the model that summarizes compacted conversation turns, by
+     *         default the selected model
+     */
+    public Optional<ModelApiDescriptor> getCompactionModel()
+    {
+        IPreferenceStore prefernceStore = Activator.getDefault().getPreferenceStore();
+        var uid = prefernceStore.getString( PreferenceConstants.ASSISTAI_COMPACTION_MODEL );
+        return getModel( uid ).or( this::getSelectedModel );
+    }
+    
+    /**
+     * @return the model a slow request to the selected model is also sent
+     *         to, if any
+     */
+    public Optional<ModelApiDescriptor> getHedgeModel()
+    {
+        IPreferenceStore prefernceStore = Activator.getDefault().getPreferenceStore();
+        var uid = prefernceStore.getString( PreferenceConstants.ASSISTAI_HEDGE_MODEL );
+        return getModel( uid );
+    }
+    
+    /**
+     * @return the time without a first token after which a request is also
+     *         sent to the hedge model, 0 for the 90th percentile of the time
+     *         to the first token of the selected model, see
+     *         {@link LatencyTracker}
+     */
+    public int getHedgeDelayMillis()
+    {
+        IPreferenceStore prefernceStore = Activator.getDefault().getPreferenceStore();
+        return prefernceStore.getInt( PreferenceConstants.ASSISTAI_HEDGE_DELAY_MILLIS );
+    }
+    
+    /**
+     * @return <code>true</code> if the {@link ModelRouter} picks the model
+     *         of each request instead of always using the selected model
+     */
+    public boolean isRoutingEnabled()
+    {
+        IPreferenceStore prefernceStore = Activator.getDefault().getPreferenceStore();
+        return prefernceStore.getBoolean( PreferenceConstants.ASSISTAI_ROUTING_ENABLED );
+    }
+    
+    /**
+     * @return the input tokens up to which a predefined prompt is routed to
+     *         the fastest model, see {@link ModelRouter}
+     */
+    public int getRoutingSmallRequestTokens()
+    {
+        IPreferenceStore prefernceStore = Activator.getDefault().getPreferenceStore();
+        return prefernceStore.getInt( PreferenceConstants.ASSISTAI_ROUTING_SMALL_REQUEST_TOKENS );
+    }
+    
+    /**
+     * @return <code>true</code> if replies to predefined prompts are reused,
+     *         see {@link ResponseCache}
+     */
+    public boolean isResponseCacheEnabled()
+    {
+        IPreferenceStore prefernceStore = Activator.getDefault().getPreferenceStore();
+        return prefernceStore.getBoolean( PreferenceConstants.ASSISTAI_RESPONSE_CACHE_ENABLED );
+    }
+    
+    /**
+     * @return the minutes after which a cached reply expires
+     */
+    public int getResponseCacheTtlMinutes()
+    {
+        IPreferenceStore prefernceStore = Activator.getDefault().getPreferenceStore();
+        return prefernceStore.getInt( PreferenceConstants.ASSISTAI_RESPONSE_CACHE_TTL_MINUTES );
+    }
+    
+    public List<ModelApiDescriptor> getModels()
+    {
+        IPreferenceStore prefernceStore = Activator.getDefault().getPreferenceStore();
         var modelsJson = prefernceStore.getString( PreferenceConstants.ASSISTAI_DEFINED_MODELS );
-        var models =  ModelApiDescriptorUtilities.fromJson( modelsJson );
-        
-        return models.stream().filter( model -> model.uid().equals( selected ) ).findFirst();
+        return ModelApiDescriptorUtilities.fromJson( modelsJson );
+    }
+    
+    public Optional<ModelApiDescriptor> getModel( String uid )
+    {
+        return getModels().stream().filter( model -> model.uid().equals( uid ) ).findFirst();
     }
     
-    public int getConnectionTimoutSeconds()
+    /**
+     * @return the number of batches of a streamed response buffered per
+     *         subscriber, see {@link StreamingExecutor}
+     */
+    public int getStreamBufferSize()
     {
         IPreferenceStore prefernceStore = Activator.getDefault().getPreferenceStore();
-        return Integer.parseInt( prefernceStore.getString(PreferenceConstants.ASSISTAI_CONNECTION_TIMEOUT_SECONDS) );
-        
+        return prefernceStore.getInt( PreferenceConstants.ASSISTAI_STREAM_BUFFER_SIZE );
     }
     
-    public int getRequestTimoutSeconds()
+    /**
+     * @return the number of requests sent to the models at the same time,
+     *         see {@link RequestScheduler}
+     */
+    public int getMaxConcurrentRequests()
     {
         IPreferenceStore prefernceStore = Activator.getDefault().getPreferenceStore();
-        return Integer.parseInt( prefernceStore.getString(PreferenceConstants.ASSISTAI_REQUEST_TIMEOUT_SECONDS) );
-        
+        return prefernceStore.getInt( PreferenceConstants.ASSISTAI_MAX_CONCURRENT_REQUESTS );
     }
     
 }
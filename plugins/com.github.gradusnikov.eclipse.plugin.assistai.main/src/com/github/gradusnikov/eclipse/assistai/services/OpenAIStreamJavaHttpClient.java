@@ -1,24 +1,29 @@
 package com.github.gradusnikov.eclipse.assistai.services;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringWriter;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Flow;
-import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
 
 import org.eclipse.core.runtime.ILog;
 import org.eclipse.e4.core.di.annotations.Creatable;
@@ -34,10 +39,11 @@ import com.github.gradusnikov.eclipse.assistai.model.Conversation;
 import com.github.gradusnikov.eclipse.assistai.model.Incoming;
 import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
 import com.github.gradusnikov.eclipse.assistai.part.Attachment;
+import com.github.gradusnikov.eclipse.assistai.prompt.ChatMessageUtilities;
 import com.github.gradusnikov.eclipse.assistai.prompt.PromptLoader;
 import com.github.gradusnikov.eclipse.assistai.prompt.Prompts;
-import com.github.gradusnikov.eclipse.assistai.tools.ImageUtilities;
 
+import jakarta.annotation.PostConstruct;
 import jakarta.inject.Inject;
 
 /**
@@ -47,11 +53,39 @@ import jakarta.inject.Inject;
 @Creatable
 public class OpenAIStreamJavaHttpClient
 {
-    private SubmissionPublisher<Incoming> publisher;
+    /** the hedge delay until the time to the first token of the model is known */
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = 2_000;
+    
+    /** the length of the chunks a cached reply is published in */
+    private static final int REPLAY_CHUNK_LENGTH = 32;
+    
+    private BatchPublisher<Incoming> publisher;
     
     private Supplier<Boolean> isCancelled = () -> false;
     
+    /** the reason the request was aborted by {@link #cancel()} */
+    private final AtomicReference<Exception> aborted = new AtomicReference<>();
+    
+    /** the attempts sending the request, see {@link #run(Conversation)} */
+    private final List<Attempt> attempts = new CopyOnWriteArrayList<>();
+    
+    /** the attempt that received the first token, the only one publishing */
+    private final AtomicReference<Attempt> winner = new AtomicReference<>();
+    
+    /** the attempt sending the request to the hedge model, guarded by this */
+    private Attempt hedge;
     
+    /** whether the hedge may no longer be started, guarded by this */
+    private boolean hedgeClosed;
+    
+    /** the predefined prompt of the request, or null */
+    private Prompts promptType;
+    
+    /** the published content of a predefined prompt, written by the winning attempt only */
+    private final StringBuilder reply = new StringBuilder();
+    
+    /** whether the reply called a function */
+    private volatile boolean functionCalled;
     
     @Inject
     private ILog logger;
@@ -62,6 +96,29 @@ public class OpenAIStreamJavaHttpClient
     @Inject
     private FunctionExecutorProvider functionExecutor;
     
+    @Inject
+    private HttpClientConnectionManager connectionManager;
+    
+    @Inject
+    private ImageEncodingService imageEncodingService;
+    
+    @Inject
+    private ContextWindowManager contextWindowManager;
+    
+    @Inject
+    private StreamingExecutor streamingExecutor;
+    
+    @Inject
+    private RequestScheduler requestScheduler;
+    
+    @Inject
+    private LatencyTracker latencyTracker;
+    
+    @Inject
+    private ResponseCache responseCache;
+    
+    private RequestScheduler.Priority priority = RequestScheduler.Priority.INTERACTIVE;
+    
     private IPreferenceStore preferenceStore;
     
     private final ObjectMapper objectMapper = new ObjectMapper();
@@ -69,9 +126,22 @@ public class OpenAIStreamJavaHttpClient
     
     public OpenAIStreamJavaHttpClient()
     {
-       
-        publisher = new SubmissionPublisher<>();
-        preferenceStore = Activator.getDefault().getPreferenceStore();
+        this( Activator.getDefault().getPreferenceStore() );
+    }
+    
+    /**
+     * Creates a client reading the system prompt from the given preference
+     * store, e.g. outside of a running workbench.
+     */
+    public OpenAIStreamJavaHttpClient( IPreferenceStore preferenceStore )
+    {
+        this.preferenceStore = preferenceStore;
+    }
+    
+    @PostConstruct
+    public void init()
+    {
+        this.publisher = streamingExecutor.newPublisher();
     }
     
     public void setCancelProvider( Supplier<Boolean> isCancelled )
@@ -79,50 +149,127 @@ public class OpenAIStreamJavaHttpClient
         this.isCancelled = isCancelled;
     }
     
+    /**
+     * Sets the priority of the request among the queued requests, see
+     * {@link RequestScheduler}. Requests are interactive by default.
+     */
+    public void setPriority( RequestScheduler.Priority priority )
+    {
+        this.priority = priority;
+    }
+    
+    /**
+     * Sets the predefined prompt the request was created from. Replies to
+     * predefined prompts are taken from the {@link ResponseCache} when it is
+     * enabled.
+     */
+    public void setPromptType( Prompts promptType )
+    {
+        this.promptType = promptType;
+    }
+    
+    /**
+     * Aborts the request immediately: closes the response bodies, which releases
+     * the connections, and interrupts the threads waiting for a response or
+     * for the next line of a stream. The subscribers then receive a
+     * {@link CancellationException}.
+     * <p>
+     * The cancel provider (see {@link #setCancelProvider(Supplier)}) is only
+     * checked between the lines of the stream.
+     */
+    public void cancel()
+    {
+        if ( aborted.compareAndSet( null, new CancellationException() ) )
+        {
+            attempts.forEach( attempt -> attempt.stop( aborted.get() ) );
+        }
+    }
+    
+    private boolean isCancelRequested()
+    {
+        return aborted.get() != null || isCancelled.get();
+    }
+    
     /**
      * Subscribes a given Flow.Subscriber to receive String data from OpenAI API responses.
+     * The data is published in batches on the {@link StreamingExecutor}: each batch holds
+     * the deltas decoded from the data received so far.
      * @param subscriber the Flow.Subscriber to be subscribed to the publisher
      */
-    public synchronized void subscribe(Flow.Subscriber<Incoming> subscriber)
+    public synchronized void subscribe(Flow.Subscriber<List<Incoming>> subscriber)
     {
         publisher.subscribe(subscriber);
     }
     /**
-     * Returns the JSON request body as a String for the given prompt.
-     * @param prompt the user input to be included in the request body
+     * Returns the JSON request body as a String for the given messages.
+     * <p>
+     * The messages are written as the JSON fragments cached by
+     * {@link ChatMessage#getJson(String, java.util.function.Function)}, so only
+     * messages that are new or changed since the previous request are
+     * serialized again. The body is written compact, without pretty printing.
+     * 
+     * @param messages the messages to be included in the request body
+     * @param model the model the request is sent to
      * @return the JSON request body as a String
      */
-    private String getRequestBody(Conversation prompt, ModelApiDescriptor model)
+    public String getRequestBody(List<ChatMessage> messages, ModelApiDescriptor model)
     {
-        try
+        var capabilities = getCapabilities( model );
+        var writer = new StringWriter();
+        try ( var generator = objectMapper.getFactory().createGenerator( writer ) )
         {
+            generator.writeStartObject();
+            generator.writeStringField( "model", model.modelName() );
+            if ( model.functionCalling() )
+            {
+                generator.writeFieldName( "functions" );
+                generator.writeTree( AnnotationToJsonConverter.convertDeclaredFunctionsToJson( functionExecutor.get().getFunctions() ) );
+            }
+            generator.writeArrayFieldStart( "messages" );
             
+            generator.writeStartObject();
+            generator.writeStringField( "role", "system" );
+            generator.writeStringField( "content", getSystemPrompt() );
+            generator.writeEndObject();
             
-            var requestBody = new LinkedHashMap<String, Object>();
-            var messages = new ArrayList<Map<String, Object>>();
-    
-            var systemMessage = new LinkedHashMap<String, Object> ();
-            systemMessage.put("role", "system");
-            systemMessage.put("content",  preferenceStore.getString( Prompts.SYSTEM.preferenceName() ));
-            messages.add(systemMessage);
-            
-            
-            prompt.messages().stream().map( message -> toJsonPayload(message, model) ).forEach( messages::add );
-            
-            requestBody.put("model", model.modelName() );
-            if ( model.functionCalling() )
+            for ( ChatMessage message : messages )
             {
-                requestBody.put("functions", AnnotationToJsonConverter.convertDeclaredFunctionsToJson( functionExecutor.get().getFunctions() ) );
+                generator.writeRawValue( message.getJson( capabilities, m -> toJson( m, model ) ) );
             }
-            requestBody.put("messages", messages);
-            requestBody.put("temperature", model.temperature()/10);
-            requestBody.put("stream", true);
-    
-            String jsonString;
-            jsonString = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(requestBody);
-            return jsonString;
+            generator.writeEndArray();
+            generator.writeNumberField( "temperature", model.temperature()/10 );
+            generator.writeBooleanField( "stream", true );
+            generator.writeEndObject();
         }
-        catch (JsonProcessingException e)
+        catch ( IOException e )
+        {
+            throw new RuntimeException( e );
+        }
+        return writer.toString();
+    }
+
+    private String getSystemPrompt()
+    {
+        return preferenceStore.getString( Prompts.SYSTEM.preferenceName() );
+    }
+
+    /**
+     * Identifies the model capabilities the serialized form of a message
+     * depends on.
+     */
+    private String getCapabilities( ModelApiDescriptor model )
+    {
+        return "vision=" + model.vision() + ",functionCalling=" + model.functionCalling()
+                + ",image=" + model.maxImageEdge() + "/" + model.imageDetail() + "/" + model.jpegQuality();
+    }
+
+    private String toJson( ChatMessage message, ModelApiDescriptor model )
+    {
+        try
+        {
+            return objectMapper.writeValueAsString( toJsonPayload( message, model ) );
+        }
+        catch ( JsonProcessingException e )
         {
             throw new RuntimeException( e );
         }
@@ -151,12 +298,7 @@ public class OpenAIStreamJavaHttpClient
             }
             
             // assemble text content
-            List<String> textParts = message.getAttachments()
-                    .stream()
-                    .map( Attachment::toChatMessageContent )
-                    .filter( Objects::nonNull )
-                    .collect( Collectors.toList() );
-            String textContent = String.join( "\n", textParts ) + "\n\n" + message.getContent();
+            String textContent = ChatMessageUtilities.toChatMessageText( message );
            
             // add image content
             if ( model.vision() )
@@ -170,8 +312,8 @@ public class OpenAIStreamJavaHttpClient
                        .stream()
                        .map( Attachment::getImageData )
                        .filter( Objects::nonNull )
-                       .map( ImageUtilities::toBase64Jpeg )
-                       .map( this::toImageUrl )
+                       .map( image -> imageEncodingService.toBase64Jpeg( image, model ) )
+                       .map( data -> toImageUrl( data, model ) )
                        .forEachOrdered( content::add );
                 userMessage.put( "content", content );
             }
@@ -196,16 +338,23 @@ public class OpenAIStreamJavaHttpClient
      * The 'image_url' key is an object containing a 'url' key, which holds the base64-encoded image data prefixed
      * with the appropriate data URI scheme.
      *
+     * The 'detail' level of the model is added unless it is 'auto', the API default.
+     *
      * @param data the base64-encoded string of the image data
+     * @param model the model the image is sent to
      * @return a LinkedHashMap where the key 'type' is set to 'image_url', and 'image_url' is another LinkedHashMap
      *         containing the 'url' key with the full data URI of the image.
      */
-    private LinkedHashMap<String, Object> toImageUrl(String data)
+    private LinkedHashMap<String, Object> toImageUrl(String data, ModelApiDescriptor model)
     {
         var imageObject = new LinkedHashMap<String, Object>();
         imageObject.put("type", "image_url");
         var urlObject = new LinkedHashMap<String, String>();
         urlObject.put("url", "data:image/jpeg;base64," + data);
+        if ( !ModelApiDescriptor.IMAGE_DETAIL_AUTO.equals( model.imageDetail() ) )
+        {
+            urlObject.put("detail", model.imageDetail());
+        }
         imageObject.put("image_url", urlObject);
         return imageObject;
     }
@@ -214,6 +363,27 @@ public class OpenAIStreamJavaHttpClient
      * Creates and returns a Runnable that will execute the HTTP request to OpenAI API
      * with the given conversation prompt and process the responses.
      * <p>
+     * The request is aborted when the model does not reply or stalls, see the
+     * timeouts of {@link ModelApiDescriptor}.
+     * <p>
+     * The request waits for its turn in the {@link RequestScheduler} and is
+     * sent again when the API is rate limited or temporarily unavailable.
+     * <p>
+     * If a hedge model is configured (see {@link OpenAIClientConfiguration#getHedgeModel()}),
+     * an interactive request is also sent to it when the selected model has not replied
+     * within the hedge delay, or failed before. The first model to send a token wins, the
+     * request to the other one is aborted.
+     * <p>
+     * If the response cache is enabled (see {@link OpenAIClientConfiguration#isResponseCacheEnabled()}),
+     * a predefined prompt sent again with the same request body is answered from the
+     * {@link ResponseCache}: the cached reply is published in chunks, like a stream.
+     * <p>
+     * Only the messages that fit into the context window of the model are sent,
+     * see {@link ContextWindowManager}. Compacted messages are replaced by their
+     * summary, see {@link Conversation#getRequestMessages()}. The messages are
+     * taken from a snapshot of the conversation when the request is sent, so
+     * later changes do not affect it.
+     * <p>
      * Note: this method does not block and the returned Runnable should be executed
      * to perform the actual HTTP request and processing.
      *
@@ -222,92 +392,568 @@ public class OpenAIStreamJavaHttpClient
      */
     public Runnable run( Conversation prompt ) 
     {
-    	return () ->  {
-    		
-            var model = configuration.getSelectedModel().orElseThrow();
-    	    
-    	    HttpClient client = HttpClient.newBuilder()
-    		                              .connectTimeout( Duration.ofSeconds(configuration.getConnectionTimoutSeconds()) )
-    		                              .build();
-    		
-    		String requestBody = getRequestBody(prompt, model);
-            HttpRequest request = HttpRequest.newBuilder().uri(URI.create(model.apiUrl()))
-                    .timeout( Duration.ofSeconds( configuration.getRequestTimoutSeconds() ) )
-                    .version(HttpClient.Version.HTTP_1_1)
-    				.header("Authorization", "Bearer " + model.apiKey())
-    				.header("Accept", "text/event-stream")
-    				.header("Content-Type", "application/json")
-    				.POST(HttpRequest.BodyPublishers.ofString(requestBody))
-    				.build();
-    		
-    		logger.info("Sending request to ChatGPT.\n\n" + requestBody);
-    		
-    		try
-    		{
-    			HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
-    			
-    			if (response.statusCode() != 200)
-    			{
-    			    logger.error("Request failed with status code: " + response.statusCode() + " and response body: " + new String(response.body().readAllBytes()));
-    			}
-    			try (var inputStream = response.body();
-    			     var inputStreamReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
-    			     var reader = new BufferedReader(inputStreamReader)) 
-    			{
-    				String line;
-    				while ((line = reader.readLine()) != null && !isCancelled.get() )
-    				{
-    					if (line.startsWith("data:"))
-    					{
-    					    var data = line.substring(5).trim();
-    						if ("[DONE]".equals(data))
-    						{
-    							break;
-    						} 
-    						else
-    						{
-    						    var mapper = new ObjectMapper();
-    						    var choice = mapper.readTree(data).get("choices").get(0);
-    						    var node =  choice.get("delta");
-    							if (node.has("content") )
-    							{
-    							    var content = node.get("content").asText();
-    							    if ( !"null".equals( content ) )
-    							    {
-    							        publisher.submit(new Incoming(Incoming.Type.CONTENT, content));
-    							    }
-    							}
-    							if ( node.has( "function_call" ) )
-    							{
-    							    var functionNode = node.get( "function_call" );
-    							    if ( functionNode.has( "name" ) )
-    							    {
-    							        publisher.submit( new Incoming(Incoming.Type.FUNCTION_CALL, String.format( "\"function_call\" : { \n \"name\": \"%s\",\n \"arguments\" :", functionNode.get("name").asText() ) ) );
-    							    }
-    							    if ( functionNode.has( "arguments" ) )
-    							    {
-    							        publisher.submit( new Incoming(Incoming.Type.FUNCTION_CALL, node.get("function_call").get("arguments").asText()) );
-    							    }
-    							}
-    						}
-    					}
-    				}
-    			}
-    			if ( isCancelled.get() )
-    			{
-    				publisher.closeExceptionally( new CancellationException() );
-    			}
-    		}
-    		catch (Exception e)
-    		{
-    		    logger.error( e.getMessage(), e );
-    			publisher.closeExceptionally(e);
-    		} 
-    		finally
-    		{
-    			publisher.close();
-    		}
-    	};
+        return () -> run( prompt, configuration.getSelectedModel().orElseThrow() ).run();
+    }
+
+    /**
+     * Creates and returns a Runnable that sends the conversation to the given
+     * model, e.g. the one picked by the {@link ModelRouter}, see
+     * {@link #run(Conversation)}. Background requests are not hedged.
+     *
+     * @param prompt the conversation to be sent to the OpenAI API
+     * @param model the model the request is sent to
+     * @return a Runnable that performs the HTTP request and processes the responses
+     */
+    public Runnable run( Conversation prompt, ModelApiDescriptor model ) 
+    {
+        return () -> {
+            var hedgeModel = configuration.getHedgeModel()
+                    .filter( hedge -> priority == RequestScheduler.Priority.INTERACTIVE && !hedge.uid().equals( model.uid() ) );
+            run( prompt, model, hedgeModel );
+        };
+    }
+
+    private void run( Conversation prompt, ModelApiDescriptor model, Optional<ModelApiDescriptor> hedgeModel )
+    {
+        ScheduledFuture<?> hedgeTimer = null;
+        Attempt hedge = null;
+        try
+        {
+            var cacheKey = getCacheKey( prompt, model );
+            if ( cacheKey.isPresent() && replay( cacheKey.get() ) )
+            {
+                return;
+            }
+            var primary = new Attempt( prompt, model );
+            if ( hedgeModel.isPresent() )
+            {
+                long delay = getHedgeDelayMillis( model );
+                hedgeTimer = streamingExecutor.schedule( () -> startHedge( prompt, hedgeModel.get(), delay ), delay, TimeUnit.MILLISECONDS );
+            }
+            primary.run();
+            if ( hedgeModel.isPresent() )
+            {
+                hedgeTimer.cancel( false );
+                // the selected model failed without a reply
+                startHedge( prompt, hedgeModel.get(), -1 );
+                hedge = closeHedge();
+            }
+            if ( hedge != null && winner.get() != primary )
+            {
+                hedge.finished.await();
+            }
+            var replied = winner.get();
+            var failure = replied != null ? replied.failure : primary.failure;
+            if ( isCancelRequested() )
+            {
+                publisher.closeExceptionally( getAbortReason() );
+            }
+            else if ( failure != null )
+            {
+                if ( !( failure instanceof HttpTimeoutException ) )
+                {
+                    logger.error( failure.getMessage(), failure );
+                }
+                publisher.closeExceptionally( failure );
+            }
+            else if ( cacheKey.isPresent() && replied == primary && !functionCalled && reply.length() > 0 )
+            {
+                responseCache.put( promptType, cacheKey.get(), reply.toString() );
+            }
+        }
+        catch ( Exception e )
+        {
+            logger.error( e.getMessage(), e );
+            publisher.closeExceptionally( e );
+        }
+        finally
+        {
+            if ( hedgeTimer != null )
+            {
+                hedgeTimer.cancel( false );
+            }
+            publisher.close();
+        }
+    }
+    
+    /**
+     * @return the key of the reply in the {@link ResponseCache}, if the reply
+     *         may be cached
+     */
+    private Optional<String> getCacheKey( Conversation prompt, ModelApiDescriptor model )
+    {
+        if ( promptType == null || !configuration.isResponseCacheEnabled() )
+        {
+            return Optional.empty();
+        }
+        var selection = contextWindowManager.select( prompt.getRequestMessages(), model, getSystemPrompt() );
+        return Optional.of( ResponseCache.getKey( model, getRequestBody( selection.messages(), model ) ) );
+    }
+    
+    /**
+     * Publishes the cached reply, if any.
+     * 
+     * @return whether the reply was cached
+     */
+    private boolean replay( String cacheKey )
+    {
+        var cached = responseCache.get( promptType, cacheKey, Duration.ofMinutes( configuration.getResponseCacheTtlMinutes() ) );
+        if ( cached.isEmpty() )
+        {
+            return false;
+        }
+        logger.info( "Replaying the cached reply to " + promptType.getDescription() );
+        var content = cached.get();
+        for ( int start = 0; start < content.length() && !isCancelRequested(); start += REPLAY_CHUNK_LENGTH )
+        {
+            publisher.add( new Incoming( Incoming.Type.CONTENT, content.substring( start, Math.min( content.length(), start + REPLAY_CHUNK_LENGTH ) ) ) );
+            publisher.flush();
+        }
+        if ( isCancelRequested() )
+        {
+            publisher.closeExceptionally( getAbortReason() );
+        }
+        return true;
+    }
+    
+    /**
+     * @return the configured hedge delay, or the 90th percentile of the time
+     *         to the first token of the model
+     */
+    private long getHedgeDelayMillis( ModelApiDescriptor model )
+    {
+        long delay = configuration.getHedgeDelayMillis();
+        if ( delay <= 0 )
+        {
+            delay = latencyTracker.getFirstTokenPercentileMillis( model, 90 );
+        }
+        return delay > 0 ? delay : DEFAULT_HEDGE_DELAY_MILLIS;
+    }
+    
+    /**
+     * Sends the request to the hedge model on a thread of its own, unless a
+     * model already replied, the request was cancelled or is finished, or the
+     * hedge was started before.
+     */
+    private synchronized void startHedge( Conversation prompt, ModelApiDescriptor model, long delay )
+    {
+        if ( hedge != null || hedgeClosed || winner.get() != null || aborted.get() != null )
+        {
+            return;
+        }
+        logger.info( delay < 0 ? "Hedging the failed request with " + model.modelName()
+                : "No token received within " + delay + " ms, hedging the request with " + model.modelName() );
+        hedge = new Attempt( prompt, model );
+        var thread = new Thread( hedge, "AssistAI hedged request" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+    
+    /**
+     * Prevents starting the hedge from now on.
+     * 
+     * @return the started hedge, or null
+     */
+    private synchronized Attempt closeHedge()
+    {
+        hedgeClosed = true;
+        return hedge;
+    }
+    
+    private Exception getAbortReason()
+    {
+        var reason = aborted.get();
+        return reason != null ? reason : new CancellationException();
+    }
+
+    /**
+     * One stream of the request: sends the request to a model, again as the
+     * {@link RequestScheduler} allows, and reads the reply. Only the attempt
+     * that received the first token publishes, see {@link #claim()}.
+     */
+    private class Attempt implements Runnable
+    {
+        private final Conversation prompt;
+        
+        private final ModelApiDescriptor model;
+        
+        /** the reason the attempt was stopped, e.g. a timeout or a faster attempt */
+        private final AtomicReference<Exception> stopped = new AtomicReference<>();
+        
+        private final CountDownLatch finished = new CountDownLatch( 1 );
+        
+        /** the failure of the attempt, set when finished */
+        private volatile Exception failure;
+        
+        /** the thread sending the request and reading the response, guarded by this */
+        private Thread thread;
+        
+        /** the body of the response being read */
+        private volatile InputStream body;
+        
+        /** whether the response is still being received, read by the watchdog */
+        private volatile boolean receiving;
+        
+        /** whether a token of the reply was received */
+        private volatile boolean tokenReceived;
+        
+        /** the time the request was sent */
+        private volatile long sentNanos;
+        
+        /** the time the request was sent, then the time the last token was received */
+        private volatile long lastTokenNanos;
+        
+        /** the time the first token was received */
+        private long firstTokenNanos;
+        
+        /** the deltas received, about one token each, written by the attempt thread only */
+        private int tokens;
+        
+        /** the next check of the timeouts */
+        private volatile ScheduledFuture<?> watchdog;
+        
+        private Attempt( Conversation prompt, ModelApiDescriptor model )
+        {
+            this.prompt = prompt;
+            this.model = model;
+            attempts.add( this );
+        }
+        
+        @Override
+        @SuppressWarnings( "try" ) // the scheduler permit is held while the block runs
+        public void run()
+        {
+            synchronized ( this )
+            {
+                thread = Thread.currentThread();
+                if ( aborted.get() != null || stopped.get() != null )
+                {
+                    thread.interrupt();
+                }
+            }
+            try
+            {
+                var selection = contextWindowManager.select( prompt.getRequestMessages(), model, getSystemPrompt() );
+                if ( selection.dropped() > 0 || selection.truncated() > 0 )
+                {
+                    logger.info( "Context window of " + model.modelName() + " exceeded: dropped " + selection.dropped() 
+                            + " and truncated " + selection.truncated() + " older messages" );
+                }
+                String requestBody = getRequestBody(selection.messages(), model);
+                HttpRequest request = HttpRequest.newBuilder().uri(URI.create(model.apiUrl()))
+                        .header("Authorization", "Bearer " + model.apiKey())
+                        .header("Accept", "text/event-stream")
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(requestBody))
+                        .build();
+                
+                logger.info("Sending request to ChatGPT.\n\n" + requestBody);
+                
+                for ( int attempt = 0; ; attempt++ )
+                {
+                    long retryDelay;
+                    try ( var permit = requestScheduler.acquire( model, selection.tokens(), priority ) )
+                    {
+                        retryDelay = send( request, attempt );
+                    }
+                    if ( retryDelay < 0 )
+                    {
+                        break;
+                    }
+                    Thread.sleep( retryDelay );
+                }
+            }
+            catch ( Exception e )
+            {
+                // the body was closed or the thread interrupted by stop()
+                failure = stopped.get() != null ? stopped.get() : e;
+            }
+            finally
+            {
+                synchronized ( this )
+                {
+                    thread = null;
+                }
+                if ( stopped.get() != null )
+                {
+                    // do not leave the interrupt of stop() on a pooled thread
+                    Thread.interrupted();
+                    if ( failure == null )
+                    {
+                        failure = stopped.get();
+                    }
+                }
+                if ( failure == null )
+                {
+                    // an empty reply
+                    winner.compareAndSet( null, this );
+                }
+                finished.countDown();
+            }
+        }
+        
+        /**
+         * Stops the attempt immediately: closes the response body, which
+         * releases the connection, and interrupts the thread waiting for the
+         * response or for the next line of the stream.
+         */
+        private void stop( Exception reason )
+        {
+            if ( !stopped.compareAndSet( null, reason ) )
+            {
+                return;
+            }
+            var stream = body;
+            if ( stream != null )
+            {
+                try
+                {
+                    stream.close();
+                }
+                catch ( IOException e )
+                {
+                    // the reader fails anyway
+                }
+            }
+            synchronized ( this )
+            {
+                if ( thread != null )
+                {
+                    thread.interrupt();
+                }
+            }
+        }
+        
+        private boolean isStopped()
+        {
+            return stopped.get() != null || isCancelRequested();
+        }
+        
+        /**
+         * Sends the request once and streams the response to the subscribers.
+         * 
+         * @return the milliseconds to wait before sending the request again, or -1
+         *         if the response was received
+         * @throws IOException if the request failed and should not be retried
+         */
+        private long send( HttpRequest request, int attempt ) throws IOException, InterruptedException
+        {
+            sentNanos = System.nanoTime();
+            lastTokenNanos = sentNanos;
+            tokenReceived = false;
+            tokens = 0;
+            receiving = true;
+            watch();
+            try
+            {
+                HttpResponse<InputStream> response;
+                try
+                {
+                    response = connectionManager.send( model, request, HttpResponse.BodyHandlers.ofInputStream() );
+                }
+                catch ( IOException e )
+                {
+                    long retryDelay = requestScheduler.getRetryDelayMillis( attempt );
+                    if ( isStopped() || retryDelay < 0 )
+                    {
+                        throw e;
+                    }
+                    logger.warn( "Request to " + model.modelName() + " failed (" + e.getMessage() + "), retrying in " + retryDelay + " ms" );
+                    return retryDelay;
+                }
+                body = response.body();
+                if ( stopped.get() != null )
+                {
+                    // stopped while the headers arrived, before the body could be closed
+                    response.body().close();
+                }
+                var statistics = connectionManager.getStatistics();
+                logger.info( "Response received over " + response.version() + " (HTTP clients built: " + statistics.clientsBuilt() + ", requests sent: " + statistics.requests() + ")" );
+                requestScheduler.onResponse( model, response.headers() );
+                
+                if ( response.statusCode() != 200 )
+                {
+                    String error;
+                    try ( var inputStream = response.body() )
+                    {
+                        error = new String( inputStream.readAllBytes(), StandardCharsets.UTF_8 );
+                    }
+                    long retryDelay = requestScheduler.getRetryDelayMillis( model, attempt, response.statusCode(), response.headers() );
+                    if ( retryDelay < 0 )
+                    {
+                        throw new IOException( "Request failed with status code: " + response.statusCode() + " and response body: " + error );
+                    }
+                    logger.warn( "Request to " + model.modelName() + " failed with status code " + response.statusCode() + ", retrying in " + retryDelay + " ms" );
+                    return retryDelay;
+                }
+                try (var inputStream = response.body();
+                     var inputStreamReader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+                     var reader = new BufferedReader(inputStreamReader)) 
+                {
+                    var decoder = new SseEventDecoder( new PublishingListener( this ) );
+                    String line;
+                    while ((line = reader.readLine()) != null && !isStopped() )
+                    {
+                        if ( !decoder.decodeLine( line ) )
+                        {
+                            break;
+                        }
+                        // publish once the data received so far is decoded; only
+                        // the winning attempt writes to the publisher
+                        if ( winner.get() == this && !reader.ready() )
+                        {
+                            publisher.flush();
+                        }
+                    }
+                    if ( line == null )
+                    {
+                        decoder.flush();
+                    }
+                    if ( !isStopped() )
+                    {
+                        latencyTracker.recordThroughput( model, tokens - 1, lastTokenNanos - firstTokenNanos );
+                    }
+                    var streaming = streamingExecutor.getStatistics();
+                    logger.info( "Response streamed (batches: " + streaming.batches() + ", items: " + streaming.items() + ", held back: " 
+                            + streaming.heldBack() + ", max queue depth: " + streaming.maxQueueDepth() + ")" );
+                }
+                return -1;
+            }
+            finally
+            {
+                receiving = false;
+                var check = watchdog;
+                if ( check != null )
+                {
+                    check.cancel( false );
+                }
+            }
+        }
+        
+        /**
+         * Checks the timeouts of the model on the watchdog thread of the
+         * {@link StreamingExecutor}. The attempt is stopped when the first token
+         * is not received in time, or when no further token is received within
+         * the idle timeout. Otherwise the check is scheduled again for when the
+         * timeout would expire, so the tokens themselves only record their time.
+         */
+        private void watch()
+        {
+            if ( !receiving )
+            {
+                return;
+            }
+            boolean firstToken = !tokenReceived;
+            int timeoutSeconds = firstToken ? model.firstTokenTimeoutSeconds() : model.idleTimeoutSeconds();
+            long remaining = TimeUnit.SECONDS.toNanos( timeoutSeconds ) - ( System.nanoTime() - lastTokenNanos );
+            if ( remaining > 0 )
+            {
+                watchdog = streamingExecutor.schedule( this::watch, remaining, TimeUnit.NANOSECONDS );
+            }
+            else
+            {
+                stop( new HttpTimeoutException( firstToken 
+                        ? "No reply from " + model.modelName() + " within " + timeoutSeconds + " s"
+                        : "The reply of " + model.modelName() + " stalled, no token received for " + timeoutSeconds + " s" ) );
+            }
+        }
+        
+        /**
+         * Records a received token.
+         * 
+         * @return whether the token is published, see {@link #claim()}
+         */
+        private boolean onToken()
+        {
+            long now = System.nanoTime();
+            lastTokenNanos = now;
+            tokens++;
+            if ( !tokenReceived )
+            {
+                tokenReceived = true;
+                firstTokenNanos = now;
+                latencyTracker.recordFirstToken( model, now - sentNanos );
+                // the idle timeout may expire before the pending first token timeout
+                var check = watchdog;
+                if ( check != null && check.cancel( false ) )
+                {
+                    watch();
+                }
+            }
+            return claim();
+        }
+        
+        /**
+         * Makes this attempt the one publishing its reply unless another
+         * attempt received a token first. The losing attempts are stopped.
+         * 
+         * @return whether this attempt publishes its reply
+         */
+        private boolean claim()
+        {
+            if ( winner.get() == this )
+            {
+                return true;
+            }
+            if ( winner.compareAndSet( null, this ) )
+            {
+                if ( attempts.size() > 1 )
+                {
+                    logger.info( model.modelName() + " replied first" );
+                }
+                attempts.stream().filter( attempt -> attempt != this ).forEach( attempt -> attempt.stop( new CancellationException( model.modelName() + " replied first" ) ) );
+                return true;
+            }
+            stop( new CancellationException( "Another model replied first" ) );
+            return false;
+        }
+    }
+
+    /**
+     * Forwards decoded stream deltas of an attempt to the subscribers, once
+     * the attempt won, see {@link Attempt#claim()}.
+     */
+    private class PublishingListener implements SseEventDecoder.Listener
+    {
+        private final Attempt attempt;
+        
+        private PublishingListener( Attempt attempt )
+        {
+            this.attempt = attempt;
+        }
+        
+        @Override
+        public void onContent( String content )
+        {
+            // the first chunk only carries the role
+            if ( !content.isEmpty() && attempt.onToken() )
+            {
+                if ( promptType != null )
+                {
+                    reply.append( content );
+                }
+                publisher.add( new Incoming( Incoming.Type.CONTENT, content ) );
+            }
+        }
+
+        @Override
+        public void onFunctionCallName( String name )
+        {
+            if ( attempt.onToken() )
+            {
+                functionCalled = true;
+                publisher.add( new Incoming( Incoming.Type.FUNCTION_CALL, String.format( "\"function_call\" : { \n \"name\": \"%s\",\n \"arguments\" :", name ) ) );
+            }
+        }
+
+        @Override
+        public void onFunctionCallArguments( String arguments )
+        {
+            if ( attempt.onToken() )
+            {
+                publisher.add( new Incoming( Incoming.Type.FUNCTION_CALL, arguments ) );
+            }
+        }
     }
 
 }
\ No newline at end of file
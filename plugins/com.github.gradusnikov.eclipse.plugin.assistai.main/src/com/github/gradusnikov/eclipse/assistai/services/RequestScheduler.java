@@ -0,0 +1,453 @@
+package com.github.gradusnikov.eclipse.assistai.services;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.e4.core.di.annotations.Creatable;
+
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/**
+ * Schedules the requests sent to the models, so that the IDE stays within
+ * the rate limits of the APIs and interactive requests are not held up by
+ * background ones.
+ * <p>
+ * A request waits in {@link #acquire(ModelApiDescriptor, int, Priority)}
+ * until
+ * <ul>
+ * <li>fewer than {@link OpenAIClientConfiguration#getMaxConcurrentRequests()}
+ * requests are running,</li>
+ * <li>the token bucket of its model holds one request and the tokens of the
+ * prompt. The buckets refill at {@link ModelApiDescriptor#requestsPerMinute()}
+ * and {@link ModelApiDescriptor#tokensPerMinute()}, 0 means no limit,</li>
+ * <li>and the model is not paused because the API reported its rate limit as
+ * exhausted, see {@link #onResponse(ModelApiDescriptor, HttpHeaders)} and
+ * {@link #getRetryDelayMillis(ModelApiDescriptor, int, int, HttpHeaders)}.</li>
+ * </ul>
+ * Waiting requests are granted by {@link Priority}, then in the order they
+ * arrived. A request waiting for the bucket of its model does not hold up the
+ * requests to other models.
+ */
+@Creatable
+@Singleton
+public class RequestScheduler
+{
+    /** the number of times a failed request is sent again */
+    public static final int MAX_RETRIES = 3;
+
+    private static final long INITIAL_BACKOFF_MILLIS = 1_000;
+
+    /** the longest wait before a retry, a longer Retry-After fails the request */
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    private static final Pattern RESET_DURATION = Pattern.compile( "(\\d+(?:\\.\\d+)?)(ms|h|m|s)" );
+
+    public enum Priority
+    {
+        /** a request the user waits for */
+        INTERACTIVE,
+        /** a request running in the background, e.g. a compaction */
+        BACKGROUND
+    }
+
+    @Inject
+    private ILog logger;
+
+    @Inject
+    private OpenAIClientConfiguration configuration;
+
+    /** the waiting requests, guarded by this */
+    private final TreeSet<Waiter> queue = new TreeSet<>( Comparator.comparing( Waiter::priority ).thenComparingLong( Waiter::sequence ) );
+
+    /** the token buckets by model uid, guarded by this */
+    private final Map<String, Bucket> buckets = new HashMap<>();
+
+    private long sequence;
+
+    private int running;
+
+    private record Waiter( Priority priority, long sequence, ModelApiDescriptor model, int tokens ) {}
+
+    /**
+     * Waits until the request may be sent. The returned permit must be closed
+     * when the response is received completely.
+     *
+     * @param model
+     *            the model the request is sent to
+     * @param tokens
+     *            the estimated tokens of the prompt
+     * @param priority
+     *            the priority of the request
+     * @return the permit of the running request
+     * @throws InterruptedException
+     *             if the thread is interrupted while waiting, e.g. the request
+     *             is cancelled
+     */
+    public Permit acquire( ModelApiDescriptor model, int tokens, Priority priority ) throws InterruptedException
+    {
+        synchronized ( this )
+        {
+            var waiter = new Waiter( priority, sequence++, model, tokens );
+            queue.add( waiter );
+            try
+            {
+                long delay;
+                while ( ( delay = getGrantDelayNanos( waiter ) ) != 0 )
+                {
+                    if ( delay < 0 )
+                    {
+                        wait();
+                    }
+                    else
+                    {
+                        TimeUnit.NANOSECONDS.timedWait( this, delay );
+                    }
+                }
+                getBucket( model ).take( tokens, System.nanoTime() );
+                running++;
+            }
+            finally
+            {
+                queue.remove( waiter );
+                notifyAll();
+            }
+        }
+        return new Permit();
+    }
+
+    /**
+     * @return 0 if the waiter may be granted now, the nanoseconds until the
+     *         bucket of its model can grant it, or -1 to wait until another
+     *         request is granted or finished
+     */
+    private long getGrantDelayNanos( Waiter waiter )
+    {
+        long now = System.nanoTime();
+        boolean slotFree = running < Math.max( 1, configuration.getMaxConcurrentRequests() );
+        var modelsAhead = new HashSet<String>();
+        for ( var next : queue )
+        {
+            boolean first = modelsAhead.add( next.model().uid() );
+            if ( next == waiter )
+            {
+                if ( !first )
+                {
+                    // an earlier request to the same model takes the bucket first
+                    return -1;
+                }
+                long delay = getBucket( waiter.model() ).getDelayNanos( waiter.tokens(), now );
+                return delay > 0 ? delay : slotFree ? 0 : -1;
+            }
+            if ( first && slotFree && getBucket( next.model() ).getDelayNanos( next.tokens(), now ) == 0 )
+            {
+                // an earlier request takes the free slot first
+                return -1;
+            }
+        }
+        throw new IllegalStateException( "The request is not queued" );
+    }
+
+    private Bucket getBucket( ModelApiDescriptor model )
+    {
+        var bucket = buckets.get( model.uid() );
+        if ( bucket == null || bucket.requestsPerMinute != model.requestsPerMinute() || bucket.tokensPerMinute != model.tokensPerMinute() )
+        {
+            bucket = new Bucket( model.requestsPerMinute(), model.tokensPerMinute(), System.nanoTime() );
+            buckets.put( model.uid(), bucket );
+        }
+        return bucket;
+    }
+
+    /**
+     * Pauses the model until its rate limit resets when the
+     * <code>x-ratelimit-remaining-*</code> headers of the response report it
+     * as exhausted.
+     */
+    public void onResponse( ModelApiDescriptor model, HttpHeaders headers )
+    {
+        long pauseMillis = Math.max( getResetMillis( headers, "requests" ), getResetMillis( headers, "tokens" ) );
+        if ( pauseMillis > 0 )
+        {
+            logger.info( "Rate limit of " + model.modelName() + " exhausted, pausing its requests for " + pauseMillis + " ms" );
+            pause( model, pauseMillis );
+        }
+    }
+
+    /**
+     * Returns the time to wait before sending a failed request again, or -1
+     * if it should not be retried.
+     * <p>
+     * The delay honours the <code>Retry-After</code>,
+     * <code>retry-after-ms</code> and <code>x-ratelimit-reset-*</code> headers,
+     * otherwise it grows exponentially with the attempt. Either way it is
+     * jittered, so that requests failing together are not retried together. A
+     * rate limited model (HTTP 429) is paused for the delay, so that its other
+     * requests wait as well.
+     *
+     * @param model
+     *            the model the request was sent to
+     * @param attempt
+     *            the number of the failed attempt, starting with 0
+     * @param statusCode
+     *            the status of the response
+     * @param headers
+     *            the headers of the response
+     * @return the delay in milliseconds, or -1
+     */
+    public long getRetryDelayMillis( ModelApiDescriptor model, int attempt, int statusCode, HttpHeaders headers )
+    {
+        if ( !isRetryable( statusCode ) || attempt >= MAX_RETRIES )
+        {
+            return -1;
+        }
+        long delay = getRetryAfterMillis( headers );
+        if ( delay < 0 && statusCode == 429 )
+        {
+            delay = Math.max( getResetMillis( headers, "requests" ), getResetMillis( headers, "tokens" ) );
+        }
+        if ( delay > MAX_BACKOFF_MILLIS )
+        {
+            // e.g. a daily quota, waiting would only block the other requests
+            return -1;
+        }
+        delay = delay > 0 ? delay + ThreadLocalRandom.current().nextLong( delay / 10 + 1 ) : getBackoffMillis( attempt );
+        if ( statusCode == 429 )
+        {
+            pause( model, delay );
+        }
+        return delay;
+    }
+
+    /**
+     * Returns the time to wait before sending a request again that failed
+     * without a response, e.g. when the connection was reset, or -1 if it
+     * should not be retried.
+     */
+    public long getRetryDelayMillis( int attempt )
+    {
+        return attempt < MAX_RETRIES ? getBackoffMillis( attempt ) : -1;
+    }
+
+    /**
+     * @return whether the request may succeed when sent again: the API is
+     *         rate limited, overloaded or temporarily unavailable
+     */
+    public static boolean isRetryable( int statusCode )
+    {
+        return statusCode == 429 || statusCode == 500 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the delay is fixed, the
+     * other half random.
+     */
+    private static long getBackoffMillis( int attempt )
+    {
+        long backoff = Math.min( MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min( attempt, 16 ) );
+        return backoff / 2 + ThreadLocalRandom.current().nextLong( backoff / 2 + 1 );
+    }
+
+    private synchronized void pause( ModelApiDescriptor model, long millis )
+    {
+        getBucket( model ).pause( System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( millis ) );
+        notifyAll();
+    }
+
+    /**
+     * Parses the <code>retry-after-ms</code> header, or the
+     * <code>Retry-After</code> header in seconds or as an HTTP date.
+     *
+     * @return the delay in milliseconds, or -1 if there is none
+     */
+    public static long getRetryAfterMillis( HttpHeaders headers )
+    {
+        try
+        {
+            var millis = headers.firstValue( "retry-after-ms" );
+            if ( millis.isPresent() )
+            {
+                return Math.max( 0, (long) Double.parseDouble( millis.get().trim() ) );
+            }
+            var retryAfter = headers.firstValue( "retry-after" );
+            if ( retryAfter.isEmpty() )
+            {
+                return -1;
+            }
+            var value = retryAfter.get().trim();
+            if ( !value.isEmpty() && Character.isDigit( value.charAt( 0 ) ) )
+            {
+                return Math.max( 0, (long) ( Double.parseDouble( value ) * 1000 ) );
+            }
+            var date = ZonedDateTime.parse( value, DateTimeFormatter.RFC_1123_DATE_TIME );
+            return Math.max( 0, Duration.between( ZonedDateTime.now( date.getZone() ), date ).toMillis() );
+        }
+        catch ( NumberFormatException | DateTimeParseException e )
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the time until the rate limit of the given kind
+     *         (<code>requests</code> or <code>tokens</code>) resets if its
+     *         remaining budget is 0, otherwise -1
+     */
+    private static long getResetMillis( HttpHeaders headers, String kind )
+    {
+        var remaining = headers.firstValue( "x-ratelimit-remaining-" + kind );
+        if ( remaining.isEmpty() || !"0".equals( remaining.get().trim() ) )
+        {
+            return -1;
+        }
+        return headers.firstValue( "x-ratelimit-reset-" + kind ).map( RequestScheduler::parseResetDuration ).orElse( -1L );
+    }
+
+    /**
+     * Parses the duration format of the <code>x-ratelimit-reset-*</code>
+     * headers, e.g. <code>1s</code>, <code>6m0s</code> or <code>20ms</code>.
+     *
+     * @return the duration in milliseconds, or -1 if it cannot be parsed
+     */
+    public static long parseResetDuration( String value )
+    {
+        var matcher = RESET_DURATION.matcher( value.trim() );
+        double millis = 0;
+        int end = 0;
+        while ( matcher.find() && matcher.start() == end )
+        {
+            double amount = Double.parseDouble( matcher.group( 1 ) );
+            millis += switch ( matcher.group( 2 ) )
+            {
+                case "h" -> amount * 3_600_000;
+                case "m" -> amount * 60_000;
+                case "s" -> amount * 1_000;
+                default -> amount;
+            };
+            end = matcher.end();
+        }
+        return end > 0 && end == value.trim().length() ? (long) Math.ceil( millis ) : -1;
+    }
+
+    /**
+     * A running request. Closing it lets the next request run.
+     */
+    public class Permit implements AutoCloseable
+    {
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+            if ( closed.compareAndSet( false, true ) )
+            {
+                synchronized ( RequestScheduler.this )
+                {
+                    running--;
+                    RequestScheduler.this.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * The request and token budget of a model. Both refill continuously up to
+     * their limit per minute, so a burst of up to a minute of requests is
+     * granted at once.
+     */
+    private static class Bucket
+    {
+        private static final double NANOS_PER_MINUTE = TimeUnit.MINUTES.toNanos( 1 );
+
+        private final int requestsPerMinute;
+
+        private final int tokensPerMinute;
+
+        private double requests;
+
+        private double tokens;
+
+        private long refilledNanos;
+
+        private long pausedUntilNanos;
+
+        private Bucket( int requestsPerMinute, int tokensPerMinute, long now )
+        {
+            this.requestsPerMinute = requestsPerMinute;
+            this.tokensPerMinute = tokensPerMinute;
+            this.requests = requestsPerMinute;
+            this.tokens = tokensPerMinute;
+            this.refilledNanos = now;
+            this.pausedUntilNanos = now;
+        }
+
+        private void refill( long now )
+        {
+            double minutes = ( now - refilledNanos ) / NANOS_PER_MINUTE;
+            requests = Math.min( requestsPerMinute, requests + minutes * requestsPerMinute );
+            tokens = Math.min( tokensPerMinute, tokens + minutes * tokensPerMinute );
+            refilledNanos = now;
+        }
+
+        /**
+         * @return the nanoseconds until a request with the given tokens can
+         *         be granted, 0 if it can be granted now
+         */
+        private long getDelayNanos( int requestTokens, long now )
+        {
+            refill( now );
+            long delay = Math.max( 0, pausedUntilNanos - now );
+            if ( requestsPerMinute > 0 && requests < 1 )
+            {
+                delay = Math.max( delay, (long) Math.ceil( ( 1 - requests ) / requestsPerMinute * NANOS_PER_MINUTE ) );
+            }
+            // a prompt larger than the bucket waits for a full bucket
+            double needed = Math.min( requestTokens, tokensPerMinute );
+            if ( tokensPerMinute > 0 && tokens < needed )
+            {
+                delay = Math.max( delay, (long) Math.ceil( ( needed - tokens ) / tokensPerMinute * NANOS_PER_MINUTE ) );
+            }
+            return delay;
+        }
+
+        private void take( int requestTokens, long now )
+        {
+            refill( now );
+            if ( requestsPerMinute > 0 )
+            {
+                requests -= 1;
+            }
+            if ( tokensPerMinute > 0 )
+            {
+                tokens -= Math.min( requestTokens, tokensPerMinute );
+            }
+        }
+
+        private void pause( long untilNanos )
+        {
+            if ( untilNanos - pausedUntilNanos > 0 )
+            {
+                pausedUntilNanos = untilNanos;
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package com.github.gradusnikov.eclipse.assistai.services;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import org.eclipse.e4.core.di.annotations.Creatable;
+import org.eclipse.jface.util.IPropertyChangeListener;
+import org.eclipse.jface.util.PropertyChangeEvent;
+
+import com.github.gradusnikov.eclipse.assistai.Activator;
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+import com.github.gradusnikov.eclipse.assistai.prompt.Prompts;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+
+/**
+ * Keeps the replies to predefined prompts, so that running a prompt again on
+ * an unchanged file or diff is answered without a request, see
+ * {@link OpenAIClientConfiguration#isResponseCacheEnabled()}.
+ * <p>
+ * A reply is keyed by a hash of the endpoint and the request body, i.e. the
+ * model name, the temperature, the system prompt and the serialized messages.
+ * The last {@value #MEMORY_ENTRIES} replies used are kept in memory, and all
+ * replies in a file each in the plugin state location, in a directory per
+ * prompt. At most {@value #DISK_ENTRIES} files are kept, the oldest are
+ * deleted first.
+ * <p>
+ * Replies expire after the configured time. The replies to a prompt are
+ * removed when its template is edited, and all replies when the system prompt
+ * is edited.
+ */
+@Creatable
+@Singleton
+public class ResponseCache
+{
+    public static final String CACHE_DIRECTORY = "response-cache";
+
+    private static final int MEMORY_ENTRIES = 64;
+
+    private static final int DISK_ENTRIES = 1000;
+
+    private static final String SUFFIX = ".txt";
+
+    /** a cached reply */
+    private record Entry( Prompts promptType, long created, String content ) {}
+
+    private final Path directory;
+
+    /** the replies used last, guarded by this */
+    private final Map<String, Entry> entries = new LinkedHashMap<>( 16, 0.75f, true )
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Entry> eldest )
+        {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+
+    private final IPropertyChangeListener promptListener = this::onPreferenceChange;
+
+    public ResponseCache()
+    {
+        this( Activator.getDefault().getStateLocation().append( CACHE_DIRECTORY ).toFile().toPath() );
+    }
+
+    /**
+     * Creates a cache storing the replies in the given directory.
+     */
+    public ResponseCache( Path directory )
+    {
+        this.directory = directory;
+    }
+
+    @PostConstruct
+    public void init()
+    {
+        Activator.getDefault().getPreferenceStore().addPropertyChangeListener( promptListener );
+    }
+
+    @PreDestroy
+    public void dispose()
+    {
+        Activator.getDefault().getPreferenceStore().removePropertyChangeListener( promptListener );
+    }
+
+    /**
+     * @param requestBody
+     *            the serialized request
+     * @return the key of the reply to the request
+     */
+    public static String getKey( ModelApiDescriptor model, String requestBody )
+    {
+        try
+        {
+            var digest = MessageDigest.getInstance( "SHA-256" );
+            digest.update( model.apiUrl().getBytes( StandardCharsets.UTF_8 ) );
+            digest.update( (byte) '\n' );
+            digest.update( requestBody.getBytes( StandardCharsets.UTF_8 ) );
+            return HexFormat.of().formatHex( digest.digest() );
+        }
+        catch ( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * @param promptType
+     *            the predefined prompt of the request
+     * @param key
+     *            the key of the request, see {@link #getKey(ModelApiDescriptor, String)}
+     * @param maxAge
+     *            the age after which a reply expires
+     * @return the cached reply, if it has not expired
+     */
+    public synchronized Optional<String> get( Prompts promptType, String key, Duration maxAge )
+    {
+        var entry = entries.get( key );
+        if ( entry == null || entry.promptType() != promptType )
+        {
+            entry = read( promptType, key );
+            if ( entry == null )
+            {
+                return Optional.empty();
+            }
+            entries.put( key, entry );
+        }
+        if ( System.currentTimeMillis() - entry.created() > maxAge.toMillis() )
+        {
+            entries.remove( key );
+            delete( file( entry.promptType(), key ) );
+            return Optional.empty();
+        }
+        return Optional.of( entry.content() );
+    }
+
+    public synchronized void put( Prompts promptType, String key, String content )
+    {
+        var entry = new Entry( promptType, System.currentTimeMillis(), content );
+        entries.put( key, entry );
+        try
+        {
+            var file = file( promptType, key );
+            Files.createDirectories( file.getParent() );
+            var temporary = Files.createTempFile( file.getParent(), key, ".tmp" );
+            Files.writeString( temporary, entry.created() + "\n" + content, StandardCharsets.UTF_8 );
+            Files.move( temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            prune();
+        }
+        catch ( IOException e )
+        {
+            // the reply stays cached in memory
+        }
+    }
+
+    /**
+     * Removes the replies to the given prompt.
+     */
+    public synchronized void invalidate( Prompts promptType )
+    {
+        entries.values().removeIf( entry -> entry.promptType() == promptType );
+        files( directory.resolve( promptType.name() ) ).forEach( this::delete );
+    }
+
+    /**
+     * Removes all replies.
+     */
+    public synchronized void clear()
+    {
+        entries.clear();
+        Arrays.stream( Prompts.values() ).flatMap( prompt -> files( directory.resolve( prompt.name() ) ) ).forEach( this::delete );
+    }
+
+    private void onPreferenceChange( PropertyChangeEvent event )
+    {
+        Arrays.stream( Prompts.values() ).filter( prompt -> prompt.preferenceName().equals( event.getProperty() ) ).findFirst().ifPresent( prompt -> {
+            if ( prompt == Prompts.SYSTEM )
+            {
+                clear();
+            }
+            else
+            {
+                invalidate( prompt );
+            }
+        } );
+    }
+
+    private Entry read( Prompts promptType, String key )
+    {
+        var file = file( promptType, key );
+        if ( !Files.exists( file ) )
+        {
+            return null;
+        }
+        try
+        {
+            var text = Files.readString( file, StandardCharsets.UTF_8 );
+            int newline = text.indexOf( '\n' );
+            return new Entry( promptType, Long.parseLong( text.substring( 0, newline ) ), text.substring( newline + 1 ) );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            // a damaged entry is a miss
+            delete( file );
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the oldest files above {@value #DISK_ENTRIES}.
+     */
+    private void prune()
+    {
+        List<Path> files = Arrays.stream( Prompts.values() ).flatMap( prompt -> files( directory.resolve( prompt.name() ) ) ).toList();
+        if ( files.size() <= DISK_ENTRIES )
+        {
+            return;
+        }
+        files.stream().sorted( Comparator.comparingLong( this::lastModified ) ).limit( files.size() - DISK_ENTRIES ).forEach( this::delete );
+    }
+
+    private Path file( Prompts promptType, String key )
+    {
+        return directory.resolve( promptType.name() ).resolve( key + SUFFIX );
+    }
+
+    /**
+     * @return the cached replies in the directory of a prompt
+     */
+    private Stream<Path> files( Path promptDirectory )
+    {
+        if ( !Files.isDirectory( promptDirectory ) )
+        {
+            return Stream.empty();
+        }
+        try ( var files = Files.list( promptDirectory ) )
+        {
+            return files.filter( file -> file.getFileName().toString().endsWith( SUFFIX ) ).toList().stream();
+        }
+        catch ( IOException e )
+        {
+            return Stream.empty();
+        }
+    }
+
+    private long lastModified( Path file )
+    {
+        try
+        {
+            return Files.getLastModifiedTime( file ).toMillis();
+        }
+        catch ( IOException e )
+        {
+            return 0;
+        }
+    }
+
+    private void delete( Path file )
+    {
+        try
+        {
+            Files.deleteIfExists( file );
+        }
+        catch ( IOException e )
+        {
+            // deleted again on the next miss
+        }
+    }
+}
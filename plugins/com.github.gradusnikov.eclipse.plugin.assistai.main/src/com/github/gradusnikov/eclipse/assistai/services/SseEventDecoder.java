@@ -0,0 +1,273 @@
+package com.github.gradusnikov.eclipse.assistai.services;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.StreamReadFeature;
+
+/**
+ * Decodes a <a href="https://html.spec.whatwg.org/multipage/server-sent-events.html">Server-Sent Events</a>
+ * stream produced by the OpenAI chat completions API.
+ * <p>
+ * Lines are fed one by one with {@link #decodeLine(String)}. Comment lines
+ * (starting with <code>:</code>) are ignored, <code>event:</code> fields are
+ * remembered, and <code>data:</code> fields are accumulated until a blank line
+ * dispatches the event. Each dispatched event payload is scanned with a
+ * streaming {@link JsonParser} that pulls out
+ * <code>choices[0].delta.content</code> and
+ * <code>choices[0].delta.function_call</code> without building a
+ * {@link com.fasterxml.jackson.databind.JsonNode} tree.
+ * <p>
+ * Instances are not thread safe; use one decoder per response stream.
+ */
+public class SseEventDecoder
+{
+    /**
+     * A shared, pre-configured factory. {@link JsonFactory} is thread safe and
+     * recycles its internal buffers, so a single instance serves all streams.
+     */
+    private static final JsonFactory JSON_FACTORY = JsonFactory.builder()
+                                                               .disable( StreamReadFeature.INCLUDE_SOURCE_IN_LOCATION )
+                                                               .build();
+
+    private static final String DONE = "[DONE]";
+
+    /**
+     * Receives the decoded deltas.
+     */
+    public interface Listener
+    {
+        void onContent( String content );
+
+        void onFunctionCallName( String name );
+
+        void onFunctionCallArguments( String arguments );
+    }
+
+    private final Listener listener;
+
+    private final StringBuilder data = new StringBuilder();
+
+    private boolean hasData = false;
+
+    private String eventType = null;
+
+    private boolean done = false;
+
+    public SseEventDecoder( Listener listener )
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Feeds a single line of the event stream (without the line terminator).
+     *
+     * @param line
+     *            the line read from the stream
+     * @return <code>false</code> once the <code>[DONE]</code> marker has been
+     *         received and no more events are expected
+     * @throws IOException
+     *             if an event payload is not valid JSON
+     */
+    public boolean decodeLine( String line ) throws IOException
+    {
+        if ( done )
+        {
+            return false;
+        }
+        if ( line.isEmpty() )
+        {
+            dispatch();
+        }
+        else if ( line.charAt( 0 ) == ':' )
+        {
+            // comment, e.g. a keep-alive ": ping"
+        }
+        else
+        {
+            int colon = line.indexOf( ':' );
+            String field = colon < 0 ? line : line.substring( 0, colon );
+            int valueStart = colon < 0 ? line.length() : colon + 1;
+            // a single leading space after the colon is not part of the value
+            if ( valueStart < line.length() && line.charAt( valueStart ) == ' ' )
+            {
+                valueStart++;
+            }
+            switch ( field )
+            {
+                case "data" -> {
+                    if ( hasData )
+                    {
+                        data.append( '\n' );
+                    }
+                    data.append( line, valueStart, line.length() );
+                    hasData = true;
+                }
+                case "event" -> eventType = line.substring( valueStart );
+                default -> {
+                    // "id", "retry" and unknown fields are not used by the API
+                }
+            }
+        }
+        return !done;
+    }
+
+    /**
+     * Dispatches an event that was not terminated by a blank line before the
+     * stream ended.
+     *
+     * @throws IOException
+     *             if the pending payload is not valid JSON
+     */
+    public void flush() throws IOException
+    {
+        if ( !done )
+        {
+            dispatch();
+        }
+    }
+
+    public boolean isDone()
+    {
+        return done;
+    }
+
+    private void dispatch() throws IOException
+    {
+        try
+        {
+            if ( !hasData )
+            {
+                return;
+            }
+            if ( eventType != null && !"message".equals( eventType ) )
+            {
+                // only the default event type carries completion chunks
+                return;
+            }
+            if ( data.length() == DONE.length() && DONE.contentEquals( data ) )
+            {
+                done = true;
+                return;
+            }
+            decodeChunk( data.toString() );
+        }
+        finally
+        {
+            data.setLength( 0 );
+            hasData = false;
+            eventType = null;
+        }
+    }
+
+    /**
+     * Scans a <code>chat.completion.chunk</code> JSON object for the first
+     * choice delta.
+     *
+     * @param json
+     *            the event payload
+     * @throws IOException
+     *             if the payload is not valid JSON
+     */
+    public void decodeChunk( String json ) throws IOException
+    {
+        try ( JsonParser parser = JSON_FACTORY.createParser( json ) )
+        {
+            if ( parser.nextToken() != JsonToken.START_OBJECT )
+            {
+                return;
+            }
+            while ( parser.nextToken() == JsonToken.FIELD_NAME )
+            {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ( "choices".equals( field ) && value == JsonToken.START_ARRAY )
+                {
+                    readChoices( parser );
+                }
+                else
+                {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    private void readChoices( JsonParser parser ) throws IOException
+    {
+        boolean first = true;
+        while ( parser.nextToken() != JsonToken.END_ARRAY )
+        {
+            if ( first && parser.currentToken() == JsonToken.START_OBJECT )
+            {
+                readChoice( parser );
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+            first = false;
+        }
+    }
+
+    private void readChoice( JsonParser parser ) throws IOException
+    {
+        while ( parser.nextToken() == JsonToken.FIELD_NAME )
+        {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ( "delta".equals( field ) && value == JsonToken.START_OBJECT )
+            {
+                readDelta( parser );
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void readDelta( JsonParser parser ) throws IOException
+    {
+        while ( parser.nextToken() == JsonToken.FIELD_NAME )
+        {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ( "content".equals( field ) && value == JsonToken.VALUE_STRING )
+            {
+                listener.onContent( parser.getText() );
+            }
+            else if ( "function_call".equals( field ) && value == JsonToken.START_OBJECT )
+            {
+                readFunctionCall( parser );
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void readFunctionCall( JsonParser parser ) throws IOException
+    {
+        while ( parser.nextToken() == JsonToken.FIELD_NAME )
+        {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ( "name".equals( field ) && value == JsonToken.VALUE_STRING )
+            {
+                listener.onFunctionCallName( parser.getText() );
+            }
+            else if ( "arguments".equals( field ) && value == JsonToken.VALUE_STRING )
+            {
+                listener.onFunctionCallArguments( parser.getText() );
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+    }
+}
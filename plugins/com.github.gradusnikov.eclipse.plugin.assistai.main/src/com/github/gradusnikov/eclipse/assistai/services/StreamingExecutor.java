@@ -0,0 +1,131 @@
+package com.github.gradusnikov.eclipse.assistai.services;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.e4.core.di.annotations.Creatable;
+
+import com.github.gradusnikov.eclipse.assistai.Activator;
+
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+
+/**
+ * The threads delivering streamed responses to their subscribers, separate
+ * from the common {@link java.util.concurrent.ForkJoinPool} used by the rest
+ * of the IDE.
+ * <p>
+ * Responses are published with a {@link BatchPublisher}, which records the
+ * published batches and the queue depth here, see {@link #getStatistics()}.
+ * <p>
+ * A single watchdog thread runs the timeouts of the streams (see
+ * {@link #schedule(Runnable, long, TimeUnit)}), so a stalled stream is
+ * detected while its reader is still blocked.
+ * <p>
+ * The executor is shared by all contexts, so its threads are shut down when
+ * the plugin stops, not when a context injecting it is disposed.
+ */
+@Creatable
+@Singleton
+public class StreamingExecutor
+{
+    private static final int THREADS = Math.max( 2, Math.min( 4, Runtime.getRuntime().availableProcessors() ) );
+
+    @Inject
+    private OpenAIClientConfiguration configuration;
+
+    private final ThreadPoolExecutor executor;
+
+    private final ScheduledThreadPoolExecutor watchdog;
+
+    private final AtomicLong batches = new AtomicLong();
+
+    private final AtomicLong items = new AtomicLong();
+
+    private final AtomicLong heldBack = new AtomicLong();
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+    /**
+     * Streaming counters. A batch is <i>held back</i> when a subscriber lags
+     * a full buffer behind, its items are then published with the next
+     * batch. The queue depth is the number of batches the slowest subscriber
+     * had not consumed yet when a batch was published.
+     */
+    public record Statistics( long batches, long items, long heldBack, int maxQueueDepth ) {}
+
+    public StreamingExecutor()
+    {
+        var threads = new AtomicInteger();
+        executor = new ThreadPoolExecutor( THREADS, THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            var thread = new Thread( runnable, "AssistAI streaming " + threads.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        executor.allowCoreThreadTimeOut( true );
+        watchdog = new ScheduledThreadPoolExecutor( 1, runnable -> {
+            var thread = new Thread( runnable, "AssistAI stream watchdog" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        // the timeouts of finished streams are cancelled, do not keep them queued
+        watchdog.setRemoveOnCancelPolicy( true );
+        var activator = Activator.getDefault();
+        if ( activator != null )
+        {
+            activator.onStop( this::shutdown );
+        }
+    }
+
+    /**
+     * Creates a publisher for one response, buffering up to the configured
+     * number of batches per subscriber.
+     */
+    public <T> BatchPublisher<T> newPublisher()
+    {
+        return new BatchPublisher<>( this, configuration.getStreamBufferSize() );
+    }
+
+    public Executor getExecutor()
+    {
+        return executor;
+    }
+
+    /**
+     * Runs the task on the watchdog thread after the given delay. The task
+     * must not block.
+     */
+    public ScheduledFuture<?> schedule( Runnable task, long delay, TimeUnit unit )
+    {
+        return watchdog.schedule( task, delay, unit );
+    }
+
+    public Statistics getStatistics()
+    {
+        return new Statistics( batches.get(), items.get(), heldBack.get(), maxQueueDepth.get() );
+    }
+
+    void recordBatch( int size, int queueDepth )
+    {
+        batches.incrementAndGet();
+        items.addAndGet( size );
+        maxQueueDepth.accumulateAndGet( queueDepth, Math::max );
+    }
+
+    void recordHeldBack()
+    {
+        heldBack.incrementAndGet();
+    }
+
+    public void shutdown()
+    {
+        executor.shutdownNow();
+        watchdog.shutdownNow();
+    }
+}
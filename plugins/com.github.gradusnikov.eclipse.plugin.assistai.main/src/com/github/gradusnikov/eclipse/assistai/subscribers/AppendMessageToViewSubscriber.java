@@ -1,30 +1,32 @@
 package com.github.gradusnikov.eclipse.assistai.subscribers;
 
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.Flow;
-import java.util.concurrent.Flow.Subscription;
 
 import jakarta.inject.Inject;
-import jakarta.inject.Singleton;
 
 import org.eclipse.core.runtime.ILog;
 import org.eclipse.e4.core.di.annotations.Creatable;
 
 import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
 import com.github.gradusnikov.eclipse.assistai.model.Incoming;
 import com.github.gradusnikov.eclipse.assistai.part.ChatGPTPresenter;
 
+/**
+ * Appends the streamed reply to the conversation and its chat view. Each
+ * request gets its own subscriber, so that conversations stream in parallel.
+ * The view is updated once per received batch.
+ */
 @Creatable
-@Singleton
-public class AppendMessageToViewSubscriber implements Flow.Subscriber<Incoming>
+public class AppendMessageToViewSubscriber extends BatchSubscriber
 {
     @Inject
     private ILog logger;
     
-    private Flow.Subscription subscription;
-    
     private ChatMessage message;
     private ChatGPTPresenter presenter;
+    private Conversation conversation;
     
     public AppendMessageToViewSubscriber( )
     {
@@ -35,29 +37,38 @@ public class AppendMessageToViewSubscriber implements Flow.Subscriber<Incoming>
         this.presenter = presenter;
     }
 
+    public void setConversation(Conversation conversation)
+    {
+        this.conversation = conversation;
+    }
+
     @Override
-    public void onSubscribe(Subscription subscription)
+    protected void onStart()
     {
         Objects.requireNonNull( presenter );
-        this.subscription = subscription;
-        message = presenter.beginMessageFromAssistant();
-        subscription.request(1);
+        Objects.requireNonNull( conversation );
+        message = presenter.beginMessageFromAssistant( conversation );
     }
 
     @Override
-    public void onNext(Incoming item)
+    protected void onBatch(List<Incoming> batch)
     {
         Objects.requireNonNull( presenter );
         Objects.requireNonNull( message );
-        Objects.requireNonNull( subscription );
-        message.append(item.payload());
-        presenter.updateMessageFromAssistant( message );
-        subscription.request(1);
+        for ( Incoming item : batch )
+        {
+            message.append(item.payload());
+        }
+        presenter.updateMessageFromAssistant( conversation, message );
     }
 
     @Override
     public void onError(Throwable throwable)
     {
+        if ( message != null )
+        {
+            presenter.endMessageFromAssistant( conversation, message );
+        }
         message = null;
         logger.error(throwable.getMessage(), throwable);
     }
@@ -66,10 +77,10 @@ public class AppendMessageToViewSubscriber implements Flow.Subscriber<Incoming>
     public void onComplete()
     {
         Objects.requireNonNull( presenter );
+        Objects.requireNonNull( message );
+        // always render the final state, even if the last frame was skipped
+        presenter.endMessageFromAssistant( conversation, message );
         message = null;
-        subscription = null;
-        presenter.endMessageFromAssistant();
-        subscription.request(1);
     }
     
 
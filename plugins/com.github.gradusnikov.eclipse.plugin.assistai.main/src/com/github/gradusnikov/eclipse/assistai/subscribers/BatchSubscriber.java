@@ -0,0 +1,51 @@
+package com.github.gradusnikov.eclipse.assistai.subscribers;
+
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import com.github.gradusnikov.eclipse.assistai.model.Incoming;
+import com.github.gradusnikov.eclipse.assistai.services.BatchPublisher;
+
+/**
+ * Receives a streamed response in batches (see {@link BatchPublisher}). More
+ * batches are requested when half of the requested ones arrived, so the
+ * publisher does not wait for each request.
+ */
+public abstract class BatchSubscriber implements Flow.Subscriber<List<Incoming>>
+{
+    /** the number of batches requested at once */
+    private static final int DEMAND = 16;
+
+    private Flow.Subscription subscription;
+
+    private int received;
+
+    @Override
+    public void onSubscribe( Flow.Subscription subscription )
+    {
+        this.subscription = subscription;
+        received = 0;
+        onStart();
+        subscription.request( DEMAND );
+    }
+
+    @Override
+    public void onNext( List<Incoming> batch )
+    {
+        onBatch( batch );
+        if ( ++received == DEMAND / 2 )
+        {
+            received = 0;
+            subscription.request( DEMAND / 2 );
+        }
+    }
+
+    /**
+     * Called before the first batch.
+     */
+    protected void onStart()
+    {
+    }
+
+    protected abstract void onBatch( List<Incoming> batch );
+}
@@ -1,7 +1,6 @@
 package com.github.gradusnikov.eclipse.assistai.subscribers;
 
-import java.util.concurrent.Flow;
-import java.util.concurrent.Flow.Subscription;
+import java.util.List;
 
 import jakarta.inject.Inject;
 import jakarta.inject.Provider;
@@ -11,42 +10,50 @@ import org.eclipse.e4.core.di.annotations.Creatable;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.gradusnikov.eclipse.assistai.jobs.ExecuteFunctionCallJob;
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
 import com.github.gradusnikov.eclipse.assistai.model.FunctionCall;
 import com.github.gradusnikov.eclipse.assistai.model.Incoming;
 
 @Creatable
-public class FunctionCallSubscriber implements Flow.Subscriber<Incoming>
+public class FunctionCallSubscriber extends BatchSubscriber
 {
     @Inject
     private ILog logger;
     @Inject
     private Provider<ExecuteFunctionCallJob> executeFunctionCallJobProvider;
     
-    private Subscription subscription;
-    private final StringBuffer jsonBuffer;
+    private final StringBuilder jsonBuffer;
+    private Conversation conversation;
     
     public FunctionCallSubscriber()
     {
-        jsonBuffer = new StringBuffer();
+        jsonBuffer = new StringBuilder();
+    }
+    
+    /**
+     * Sets the conversation that requested the function call.
+     */
+    public void setConversation( Conversation conversation )
+    {
+        this.conversation = conversation;
     }
     
     @Override
-    public void onSubscribe( Subscription subscription )
+    protected void onStart()
     {
-        this.subscription = subscription;
         jsonBuffer.setLength( 0 );
-        subscription.request(1);
-
     }
 
     @Override
-    public void onNext( Incoming item )
+    protected void onBatch( List<Incoming> batch )
     {
-        if ( Incoming.Type.FUNCTION_CALL == item.type() )
+        for ( Incoming item : batch )
         {
-            jsonBuffer.append( item.payload() );
+            if ( Incoming.Type.FUNCTION_CALL == item.type() )
+            {
+                jsonBuffer.append( item.payload() );
+            }
         }
-        subscription.request(1);
     }
 
     @Override
@@ -63,7 +70,6 @@ public class FunctionCallSubscriber implements Flow.Subscriber<Incoming>
 
         if ( !json.startsWith( "\"function_call\"" ) )
         {
-            subscription.request(1);
             return;
         }
         try
@@ -75,13 +81,13 @@ public class FunctionCallSubscriber implements Flow.Subscriber<Incoming>
             
             ExecuteFunctionCallJob job = executeFunctionCallJobProvider.get();
             job.setFunctionCall( functionCall );
+            job.setConversation( conversation );
             job.schedule();
         }
         catch ( Exception e )
         {
             logger.error( e.getMessage(), e );
         }
-        subscription.request(1);
     }
 
 
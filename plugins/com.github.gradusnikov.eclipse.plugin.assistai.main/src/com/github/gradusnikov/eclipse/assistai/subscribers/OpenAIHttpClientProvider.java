@@ -7,8 +7,14 @@ import jakarta.inject.Singleton;
 
 import org.eclipse.e4.core.di.annotations.Creatable;
 
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+import com.github.gradusnikov.eclipse.assistai.part.ChatGPTPresenter;
 import com.github.gradusnikov.eclipse.assistai.services.OpenAIStreamJavaHttpClient;
 
+/**
+ * Creates a client with its own chain of subscribers for each request, bound
+ * to the conversation the reply belongs to.
+ */
 @Creatable
 @Singleton
 public class OpenAIHttpClientProvider
@@ -16,16 +22,31 @@ public class OpenAIHttpClientProvider
     @Inject
     private Provider<OpenAIStreamJavaHttpClient> clientProvider;
     @Inject
-    private AppendMessageToViewSubscriber appendMessageToViewSubscriber;
+    private Provider<AppendMessageToViewSubscriber> appendMessageToViewSubscriberProvider;
     @Inject
-    private FunctionCallSubscriber functionCallSubscriber;
+    private Provider<FunctionCallSubscriber> functionCallSubscriberProvider;
     @Inject
-    private PrintMessageSubscriber printMessageSubscriber;
+    private Provider<PrintMessageSubscriber> printMessageSubscriberProvider;
     
-    public OpenAIStreamJavaHttpClient get()
+    private ChatGPTPresenter presenter;
+    
+    public void setPresenter( ChatGPTPresenter presenter )
+    {
+        this.presenter = presenter;
+    }
+    
+    public OpenAIStreamJavaHttpClient get( Conversation conversation )
     {
         OpenAIStreamJavaHttpClient client = clientProvider.get();
-        client.subscribe( printMessageSubscriber );
+        
+        var appendMessageToViewSubscriber = appendMessageToViewSubscriberProvider.get();
+        appendMessageToViewSubscriber.setPresenter( presenter );
+        appendMessageToViewSubscriber.setConversation( conversation );
+        
+        var functionCallSubscriber = functionCallSubscriberProvider.get();
+        functionCallSubscriber.setConversation( conversation );
+        
+        client.subscribe( printMessageSubscriberProvider.get() );
         client.subscribe( appendMessageToViewSubscriber );
         client.subscribe( functionCallSubscriber );
         return client;
@@ -1,29 +1,18 @@
 package com.github.gradusnikov.eclipse.assistai.subscribers;
 
-import java.util.concurrent.Flow;
-import java.util.concurrent.Flow.Subscription;
+import java.util.List;
 
 import org.eclipse.e4.core.di.annotations.Creatable;
 
 import com.github.gradusnikov.eclipse.assistai.model.Incoming;
 
 @Creatable
-public class PrintMessageSubscriber implements Flow.Subscriber<Incoming>
+public class PrintMessageSubscriber extends BatchSubscriber
 {
-    private Flow.Subscription subscription;
-
-    @Override
-    public void onSubscribe(Subscription subscription)
-    {
-        this.subscription = subscription;
-        subscription.request(1);
-    }
-
     @Override
-    public void onNext(Incoming item)
+    protected void onBatch(List<Incoming> batch)
     {
-        System.out.print(item.payload());
-        subscription.request(1);
+        batch.forEach( item -> System.out.print(item.payload()) );
     }
 
     @Override
@@ -35,7 +24,6 @@ public class PrintMessageSubscriber implements Flow.Subscriber<Incoming>
     public void onComplete()
     {
         System.out.print("\n\n");
-        subscription.request(1);
     }
 
 }
@@ -5,8 +5,8 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.concurrent.Flow;
-import java.util.concurrent.Flow.Subscription;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import jakarta.inject.Inject;
 
@@ -16,10 +16,8 @@ import org.eclipse.e4.core.di.annotations.Creatable;
 import com.github.gradusnikov.eclipse.assistai.model.Incoming;
 
 @Creatable
-public class PrintToFileMessageSubscriber implements Flow.Subscriber<Incoming>
+public class PrintToFileMessageSubscriber extends BatchSubscriber
 {
-    private Flow.Subscription subscription;
-    
     @Inject
     private ILog logger;
     
@@ -42,18 +40,15 @@ public class PrintToFileMessageSubscriber implements Flow.Subscriber<Incoming>
 
     }
     @Override
-    public void onSubscribe(Subscription subscription)
+    protected void onStart()
     {
         logger.info( "Opening a log file: " + getFile() );        
-        this.subscription = subscription;
         write( "\n>--- BEGIN MESSAGE ---\n" );
-        subscription.request(1);
     }
     @Override
-    public void onNext(Incoming item)
+    protected void onBatch(List<Incoming> batch)
     {
-        write( item.payload() );
-        subscription.request(1);
+        write( batch.stream().map( Incoming::payload ).collect( Collectors.joining() ) );
     }
 
     @Override
@@ -65,6 +60,5 @@ public class PrintToFileMessageSubscriber implements Flow.Subscriber<Incoming>
     public void onComplete()
     {
         write( "\n--- END MESSAGE ---\n" );
-        subscription.request(1);
     }
 }
@@ -0,0 +1,490 @@
+package com.github.gradusnikov.eclipse.assistai.tokenizer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Counts tokens with a byte pair encoding, compatible with the tiktoken
+ * encodings of OpenAI models.
+ * <p>
+ * The text is split by a {@link PreTokenizer} into pieces, each piece is
+ * encoded as UTF-8 and its bytes are merged pairwise, lowest rank first, as
+ * long as the merged bytes are a token of the vocabulary. The ranks are kept
+ * in a {@link ByteRankMap}.
+ * <p>
+ * Most pieces of a text are frequent words, so the token counts of short
+ * pieces are cached per thread. Longer texts that are counted again and
+ * again, such as file attachments, cache their own count (see
+ * {@link com.github.gradusnikov.eclipse.assistai.part.Attachment#countTokens(Tokenizer)}).
+ */
+public final class BpeTokenizer implements Tokenizer
+{
+    /** pieces up to this many bytes are merged by scanning, longer ones with a heap */
+    private static final int MAX_SCANNED_BYTES = 128;
+
+    /** pieces up to this many characters are cached */
+    private static final int MAX_CACHED_PIECE  = 32;
+
+    private final String                 encoding;
+
+    private final PreTokenizer           preTokenizer;
+
+    private final ByteRankMap            ranks;
+
+    private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial( Workspace::new );
+
+    BpeTokenizer( String encoding, PreTokenizer preTokenizer, ByteRankMap ranks )
+    {
+        this.encoding = encoding;
+        this.preTokenizer = preTokenizer;
+        this.ranks = ranks;
+    }
+
+    /**
+     * Loads a vocabulary in the tiktoken format: one token per line, the
+     * base64 encoded bytes of the token followed by a space and its rank.
+     * 
+     * @param encoding
+     *            the name of the encoding
+     * @param preTokenizer
+     *            splits text the way the encoding does
+     * @param vocabulary
+     *            the vocabulary, closed by the caller
+     * @return the tokenizer
+     * @throws IOException
+     *             if the vocabulary cannot be read
+     */
+    public static BpeTokenizer load( String encoding, PreTokenizer preTokenizer, InputStream vocabulary ) throws IOException
+    {
+        var ranks = new ByteRankMap( 1 << 17 );
+        var decoder = Base64.getDecoder();
+        var reader = new BufferedReader( new InputStreamReader( vocabulary, StandardCharsets.US_ASCII ) );
+        String line;
+        while ( ( line = reader.readLine() ) != null )
+        {
+            int separator = line.indexOf( ' ' );
+            if ( separator > 0 )
+            {
+                ranks.put( decoder.decode( line.substring( 0, separator ) ), Integer.parseInt( line.substring( separator + 1 ).trim() ) );
+            }
+        }
+        if ( ranks.size() == 0 )
+        {
+            throw new IOException( "Empty vocabulary of " + encoding );
+        }
+        return new BpeTokenizer( encoding, preTokenizer, ranks );
+    }
+
+    @Override
+    public String getEncoding()
+    {
+        return encoding;
+    }
+
+    @Override
+    public int countTokens( CharSequence text )
+    {
+        var workspace = workspaces.get();
+        int tokens = 0;
+        int length = text.length();
+        for ( int start = 0; start < length; )
+        {
+            int end = preTokenizer.pieceEnd( text, start );
+            tokens += countPiece( workspace, text, start, end );
+            start = end;
+        }
+        return tokens;
+    }
+
+    private int countPiece( Workspace workspace, CharSequence text, int start, int end )
+    {
+        boolean cached = end - start <= MAX_CACHED_PIECE;
+        int hash = 0;
+        if ( cached )
+        {
+            hash = workspace.hash( text, start, end );
+            int tokens = workspace.getCount( hash, text, start, end );
+            if ( tokens > 0 )
+            {
+                return tokens;
+            }
+        }
+        int length = workspace.encode( text, start, end );
+        int tokens;
+        if ( ranks.get( workspace.bytes, 0, length ) >= 0 )
+        {
+            tokens = 1;
+        }
+        else if ( length <= MAX_SCANNED_BYTES )
+        {
+            tokens = mergeByScanning( workspace, length );
+        }
+        else
+        {
+            tokens = mergeWithHeap( workspace, length );
+        }
+        if ( cached )
+        {
+            workspace.putCount( hash, text, start, end, tokens );
+        }
+        return tokens;
+    }
+
+    /**
+     * Merges the bytes of a short piece, finding the lowest ranked pair by
+     * scanning all pairs.
+     * 
+     * @return the number of tokens
+     */
+    private int mergeByScanning( Workspace workspace, int length )
+    {
+        byte[] bytes = workspace.bytes;
+        // part i spans bytes[starts[i]..starts[i+1]), pair i joins part i and i+1
+        int[] starts = workspace.starts;
+        int[] pairRanks = workspace.pairRanks;
+        int parts = length;
+        for ( int i = 0; i <= length; i++ )
+        {
+            starts[i] = i;
+        }
+        for ( int i = 0; i < parts - 1; i++ )
+        {
+            pairRanks[i] = rank( bytes, i, i + 2 );
+        }
+        while ( parts > 1 )
+        {
+            int min = Integer.MAX_VALUE;
+            int at = -1;
+            for ( int i = 0; i < parts - 1; i++ )
+            {
+                if ( pairRanks[i] < min )
+                {
+                    min = pairRanks[i];
+                    at = i;
+                }
+            }
+            if ( at < 0 )
+            {
+                break;
+            }
+            System.arraycopy( starts, at + 2, starts, at + 1, parts - at - 1 );
+            System.arraycopy( pairRanks, at + 1, pairRanks, at, parts - at - 2 );
+            parts--;
+            if ( at < parts - 1 )
+            {
+                pairRanks[at] = rank( bytes, starts[at], starts[at + 2] );
+            }
+            if ( at > 0 )
+            {
+                pairRanks[at - 1] = rank( bytes, starts[at - 1], starts[at + 1] );
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Merges the bytes of a long piece, keeping the pairs in a heap ordered by
+     * rank and position and the parts in a linked list.
+     * 
+     * @return the number of tokens
+     */
+    private int mergeWithHeap( Workspace workspace, int length )
+    {
+        byte[] bytes = workspace.bytes;
+        // a part is identified by its first byte, next[i] is where it ends
+        int[] next = workspace.next( length );
+        int[] previous = workspace.previous( length );
+        for ( int i = 0; i < length; i++ )
+        {
+            next[i] = i + 1;
+            previous[i] = i - 1;
+        }
+        var heap = workspace.heap;
+        heap.clear();
+        for ( int i = 0; i < length - 1; i++ )
+        {
+            heap.push( bytes, ranks, i, i + 2 );
+        }
+        int parts = length;
+        while ( !heap.isEmpty() )
+        {
+            long top = heap.pop();
+            int rank = (int) ( top >>> 32 );
+            int i = (int) top;
+            int j = next[i];
+            // skip pairs that changed since they were pushed
+            if ( previous[i] == -2 || j >= length || rank( bytes, i, next[j] ) != rank )
+            {
+                continue;
+            }
+            int end = next[j];
+            next[i] = end;
+            previous[j] = -2;
+            if ( end < length )
+            {
+                previous[end] = i;
+                heap.push( bytes, ranks, i, next[end] );
+            }
+            if ( previous[i] >= 0 )
+            {
+                heap.push( bytes, ranks, previous[i], end );
+            }
+            parts--;
+        }
+        return parts;
+    }
+
+    private int rank( byte[] bytes, int from, int to )
+    {
+        int rank = ranks.get( bytes, from, to );
+        return rank < 0 ? Integer.MAX_VALUE : rank;
+    }
+
+    /**
+     * Buffers and caches of a thread.
+     */
+    private static final class Workspace
+    {
+        private static final int CACHE_SLOTS = 1 << 15;
+
+        private static final int CACHE_CHARS = CACHE_SLOTS * 8;
+
+        byte[]                   bytes       = new byte[256];
+
+        int[]                    starts      = new int[MAX_SCANNED_BYTES + 1];
+
+        int[]                    pairRanks   = new int[MAX_SCANNED_BYTES];
+
+        private int[]            next        = new int[0];
+
+        private int[]            previous    = new int[0];
+
+        final PairHeap           heap        = new PairHeap();
+
+        /** piece cache: characters of the pieces back to back */
+        private final char[]     keys        = new char[CACHE_CHARS];
+
+        private int              keysSize    = 0;
+
+        private final int[]      offsets     = new int[CACHE_SLOTS];
+
+        private final int[]      hashes      = new int[CACHE_SLOTS];
+
+        /** token count by slot, 0 for an empty slot */
+        private final int[]      counts      = new int[CACHE_SLOTS];
+
+        private int              size        = 0;
+
+        /**
+         * Encodes the characters as UTF-8 into {@link #bytes}.
+         * 
+         * @return the number of bytes
+         */
+        int encode( CharSequence text, int start, int end )
+        {
+            int capacity = ( end - start ) * 3;
+            if ( bytes.length < capacity )
+            {
+                bytes = new byte[Math.max( capacity, bytes.length * 2 )];
+            }
+            int n = 0;
+            for ( int i = start; i < end; i++ )
+            {
+                char c = text.charAt( i );
+                if ( c < 0x80 )
+                {
+                    bytes[n++] = (byte) c;
+                }
+                else if ( c < 0x800 )
+                {
+                    bytes[n++] = (byte) ( 0xC0 | ( c >> 6 ) );
+                    bytes[n++] = (byte) ( 0x80 | ( c & 0x3F ) );
+                }
+                else if ( Character.isHighSurrogate( c ) && i + 1 < end && Character.isLowSurrogate( text.charAt( i + 1 ) ) )
+                {
+                    int cp = Character.toCodePoint( c, text.charAt( ++i ) );
+                    bytes[n++] = (byte) ( 0xF0 | ( cp >> 18 ) );
+                    bytes[n++] = (byte) ( 0x80 | ( ( cp >> 12 ) & 0x3F ) );
+                    bytes[n++] = (byte) ( 0x80 | ( ( cp >> 6 ) & 0x3F ) );
+                    bytes[n++] = (byte) ( 0x80 | ( cp & 0x3F ) );
+                }
+                else
+                {
+                    // unpaired surrogates are replaced with U+FFFD
+                    int cp = Character.isSurrogate( c ) ? 0xFFFD : c;
+                    bytes[n++] = (byte) ( 0xE0 | ( cp >> 12 ) );
+                    bytes[n++] = (byte) ( 0x80 | ( ( cp >> 6 ) & 0x3F ) );
+                    bytes[n++] = (byte) ( 0x80 | ( cp & 0x3F ) );
+                }
+            }
+            return n;
+        }
+
+        int[] next( int length )
+        {
+            if ( next.length < length )
+            {
+                next = new int[length];
+                previous = new int[length];
+            }
+            return next;
+        }
+
+        int[] previous( int length )
+        {
+            next( length );
+            return previous;
+        }
+
+        int hash( CharSequence text, int start, int end )
+        {
+            int hash = 0;
+            for ( int i = start; i < end; i++ )
+            {
+                hash = 31 * hash + text.charAt( i );
+            }
+            return hash ^ ( hash >>> 15 );
+        }
+
+        /**
+         * @return the cached token count of the piece, or 0
+         */
+        int getCount( int hash, CharSequence text, int start, int end )
+        {
+            int slot = hash & ( CACHE_SLOTS - 1 );
+            int count;
+            while ( ( count = counts[slot] ) != 0 )
+            {
+                if ( hashes[slot] == hash && matches( slot, text, start, end ) )
+                {
+                    return count;
+                }
+                slot = ( slot + 1 ) & ( CACHE_SLOTS - 1 );
+            }
+            return 0;
+        }
+
+        void putCount( int hash, CharSequence text, int start, int end, int count )
+        {
+            int length = end - start;
+            if ( size * 2 >= CACHE_SLOTS || keysSize + length + 1 > keys.length )
+            {
+                // start over rather than track usage
+                Arrays.fill( counts, 0 );
+                size = 0;
+                keysSize = 0;
+            }
+            int slot = hash & ( CACHE_SLOTS - 1 );
+            while ( counts[slot] != 0 )
+            {
+                slot = ( slot + 1 ) & ( CACHE_SLOTS - 1 );
+            }
+            offsets[slot] = keysSize;
+            hashes[slot] = hash;
+            counts[slot] = count;
+            // the key is stored with its length in front of it
+            keys[keysSize++] = (char) length;
+            for ( int i = start; i < end; i++ )
+            {
+                keys[keysSize++] = text.charAt( i );
+            }
+            size++;
+        }
+
+        private boolean matches( int slot, CharSequence text, int start, int end )
+        {
+            int offset = offsets[slot];
+            if ( keys[offset++] != end - start )
+            {
+                return false;
+            }
+            for ( int i = start; i < end; i++ )
+            {
+                if ( keys[offset++] != text.charAt( i ) )
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A binary min-heap of pairs, each a long of the rank in the high and the
+     * position in the low 32 bits, so that ties are broken by position.
+     */
+    private static final class PairHeap
+    {
+        private long[] items = new long[256];
+
+        private int    size  = 0;
+
+        void clear()
+        {
+            size = 0;
+        }
+
+        boolean isEmpty()
+        {
+            return size == 0;
+        }
+
+        /**
+         * Pushes the pair <code>bytes[from..to)</code> if it is a token.
+         */
+        void push( byte[] bytes, ByteRankMap ranks, int from, int to )
+        {
+            int rank = ranks.get( bytes, from, to );
+            if ( rank < 0 )
+            {
+                return;
+            }
+            if ( size == items.length )
+            {
+                items = Arrays.copyOf( items, size * 2 );
+            }
+            long item = ( (long) rank << 32 ) | from;
+            int i = size++;
+            while ( i > 0 )
+            {
+                int parent = ( i - 1 ) >>> 1;
+                if ( items[parent] <= item )
+                {
+                    break;
+                }
+                items[i] = items[parent];
+                i = parent;
+            }
+            items[i] = item;
+        }
+
+        long pop()
+        {
+            long top = items[0];
+            long item = items[--size];
+            int i = 0;
+            int half = size >>> 1;
+            while ( i < half )
+            {
+                int child = 2 * i + 1;
+                if ( child + 1 < size && items[child + 1] < items[child] )
+                {
+                    child++;
+                }
+                if ( item <= items[child] )
+                {
+                    break;
+                }
+                items[i] = items[child];
+                i = child;
+            }
+            items[i] = item;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.github.gradusnikov.eclipse.assistai.tokenizer;
+
+import java.util.Arrays;
+
+/**
+ * Maps byte sequences to the ranks of a byte pair encoding.
+ * <p>
+ * An open addressing hash table with linear probing over primitive arrays.
+ * The keys are stored back to back in a single byte pool, so that a lookup of
+ * a range of a byte array neither allocates nor follows references, which a
+ * <code>HashMap&lt;String, Integer&gt;</code> would.
+ */
+final class ByteRankMap
+{
+    private static final int EMPTY = -1;
+
+    private byte[] pool;
+
+    private int    poolSize;
+
+    /** offset of the key in the pool by slot, or {@link #EMPTY} */
+    private int[]  offsets;
+
+    private int[]  lengths;
+
+    private int[]  hashes;
+
+    private int[]  ranks;
+
+    private int    mask;
+
+    private int    size;
+
+    ByteRankMap( int expectedSize )
+    {
+        int capacity = Integer.highestOneBit( Math.max( 16, expectedSize * 2 ) - 1 ) << 1;
+        pool = new byte[Math.max( 1024, expectedSize * 8 )];
+        offsets = new int[capacity];
+        Arrays.fill( offsets, EMPTY );
+        lengths = new int[capacity];
+        hashes = new int[capacity];
+        ranks = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds a key, or replaces the rank of an existing key.
+     */
+    void put( byte[] key, int rank )
+    {
+        int hash = hash( key, 0, key.length );
+        int slot = hash & mask;
+        while ( offsets[slot] != EMPTY )
+        {
+            if ( hashes[slot] == hash && equals( slot, key, 0, key.length ) )
+            {
+                ranks[slot] = rank;
+                return;
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+        if ( poolSize + key.length > pool.length )
+        {
+            pool = Arrays.copyOf( pool, Math.max( pool.length * 2, poolSize + key.length ) );
+        }
+        System.arraycopy( key, 0, pool, poolSize, key.length );
+        offsets[slot] = poolSize;
+        lengths[slot] = key.length;
+        hashes[slot] = hash;
+        ranks[slot] = rank;
+        poolSize += key.length;
+        if ( ++size * 2 > offsets.length )
+        {
+            grow();
+        }
+    }
+
+    /**
+     * Looks up the rank of <code>bytes[from..to)</code>.
+     * 
+     * @return the rank, or -1 if the bytes are not a token
+     */
+    int get( byte[] bytes, int from, int to )
+    {
+        int hash = hash( bytes, from, to );
+        int slot = hash & mask;
+        int offset;
+        while ( ( offset = offsets[slot] ) != EMPTY )
+        {
+            if ( hashes[slot] == hash && equals( slot, bytes, from, to - from ) )
+            {
+                return ranks[slot];
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+        return offset;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    private boolean equals( int slot, byte[] bytes, int from, int length )
+    {
+        int offset = offsets[slot];
+        return lengths[slot] == length && Arrays.equals( pool, offset, offset + length, bytes, from, from + length );
+    }
+
+    private void grow()
+    {
+        int[] oldOffsets = offsets;
+        int[] oldLengths = lengths;
+        int[] oldHashes = hashes;
+        int[] oldRanks = ranks;
+        int capacity = oldOffsets.length * 2;
+        offsets = new int[capacity];
+        Arrays.fill( offsets, EMPTY );
+        lengths = new int[capacity];
+        hashes = new int[capacity];
+        ranks = new int[capacity];
+        mask = capacity - 1;
+        for ( int i = 0; i < oldOffsets.length; i++ )
+        {
+            if ( oldOffsets[i] != EMPTY )
+            {
+                int slot = oldHashes[i] & mask;
+                while ( offsets[slot] != EMPTY )
+                {
+                    slot = ( slot + 1 ) & mask;
+                }
+                offsets[slot] = oldOffsets[i];
+                lengths[slot] = oldLengths[i];
+                hashes[slot] = oldHashes[i];
+                ranks[slot] = oldRanks[i];
+            }
+        }
+    }
+
+    private static int hash( byte[] bytes, int from, int to )
+    {
+        int hash = 0x811C9DC5;
+        for ( int i = from; i < to; i++ )
+        {
+            hash = ( hash ^ bytes[i] ) * 0x01000193;
+        }
+        // spread the bits used by the mask
+        return hash ^ ( hash >>> 16 );
+    }
+}
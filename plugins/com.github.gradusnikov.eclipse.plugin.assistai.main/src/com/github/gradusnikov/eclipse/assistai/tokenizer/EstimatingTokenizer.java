@@ -0,0 +1,96 @@
+package com.github.gradusnikov.eclipse.assistai.tokenizer;
+
+/**
+ * Estimates the token count of a text without a vocabulary.
+ * <p>
+ * The text is split the way BPE encodings pre-tokenize it: words with their
+ * leading space, runs of digits, runs of punctuation and whitespace. Each
+ * piece is then counted by its length: words by the average number of
+ * characters per token of the encoding, digits in groups of three,
+ * punctuation in pairs, and CJK characters one per token.
+ */
+public final class EstimatingTokenizer implements Tokenizer
+{
+    private final String encoding;
+
+    private final double charsPerToken;
+
+    public EstimatingTokenizer( String encoding, double charsPerToken )
+    {
+        this.encoding = encoding;
+        this.charsPerToken = charsPerToken;
+    }
+
+    @Override
+    public String getEncoding()
+    {
+        return encoding;
+    }
+
+    @Override
+    public int countTokens( CharSequence text )
+    {
+        int tokens = 0;
+        int length = text.length();
+        int i = 0;
+        while ( i < length )
+        {
+            char c = text.charAt( i );
+            int start = i;
+            if ( c == ' ' && i + 1 < length && Character.isLetter( text.charAt( i + 1 ) ) )
+            {
+                // a word token includes its leading space
+                i++;
+                c = text.charAt( i );
+            }
+            if ( isIdeograph( c ) )
+            {
+                i++;
+                tokens++;
+            }
+            else if ( Character.isLetter( c ) )
+            {
+                while ( i < length && Character.isLetter( text.charAt( i ) ) && !isIdeograph( text.charAt( i ) ) )
+                {
+                    i++;
+                }
+                tokens += (int) Math.ceil( ( i - start ) / charsPerToken );
+            }
+            else if ( Character.isDigit( c ) )
+            {
+                while ( i < length && Character.isDigit( text.charAt( i ) ) )
+                {
+                    i++;
+                }
+                tokens += ( i - start + 2 ) / 3;
+            }
+            else if ( Character.isWhitespace( c ) )
+            {
+                while ( i < length && Character.isWhitespace( text.charAt( i ) ) )
+                {
+                    i++;
+                }
+                tokens++;
+            }
+            else
+            {
+                while ( i < length && isPunctuation( text.charAt( i ) ) )
+                {
+                    i++;
+                }
+                tokens += ( i - start + 1 ) / 2;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isIdeograph( char c )
+    {
+        return c >= '\u2E80' && Character.isIdeographic( c ) || c >= '\u3040' && c <= '\u30FF' || c >= '\uAC00' && c <= '\uD7AF';
+    }
+
+    private static boolean isPunctuation( char c )
+    {
+        return !Character.isLetterOrDigit( c ) && !Character.isWhitespace( c );
+    }
+}
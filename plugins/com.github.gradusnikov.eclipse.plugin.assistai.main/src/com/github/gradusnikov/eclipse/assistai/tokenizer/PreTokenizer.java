@@ -0,0 +1,345 @@
+package com.github.gradusnikov.eclipse.assistai.tokenizer;
+
+/**
+ * Splits text into the pieces that are encoded with byte pair encoding
+ * independently of each other.
+ * <p>
+ * The splitting is equivalent to the regular expressions of the tiktoken
+ * encodings, written out by hand: matching them with
+ * {@link java.util.regex.Pattern} costs more than the encoding itself.
+ */
+public enum PreTokenizer
+{
+    /**
+     * <pre>
+     * (?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\r\n\p{L}\p{N}]?\p{L}+|\p{N}{1,3}| ?[^\s\p{L}\p{N}]+[\r\n]*|\s*[\r\n]+|\s+(?!\S)|\s+
+     * </pre>
+     */
+    CL100K
+    {
+        @Override
+        public int pieceEnd( CharSequence text, int start )
+        {
+            int length = text.length();
+            int end = contractionEnd( text, start );
+            if ( end > 0 )
+            {
+                return end;
+            }
+            int cp = codePointAt( text, start );
+            int next = start + Character.charCount( cp );
+            int type = type( cp );
+            if ( ( type & LETTER ) != 0 )
+            {
+                return skip( text, next, LETTER );
+            }
+            if ( ( type & ( NUMBER | NEWLINE ) ) == 0 && next < length && ( type( codePointAt( text, next ) ) & LETTER ) != 0 )
+            {
+                return skip( text, next, LETTER );
+            }
+            if ( ( type & NUMBER ) != 0 )
+            {
+                return skipNumbers( text, start );
+            }
+            end = punctuationEnd( text, start, cp, type );
+            if ( end > 0 )
+            {
+                return skip( text, end, NEWLINE );
+            }
+            return whitespaceEnd( text, start );
+        }
+    },
+
+    /**
+     * <pre>
+     * [^\r\n\p{L}\p{N}]?[\p{Lu}\p{Lt}\p{Lm}\p{Lo}\p{M}]*[\p{Ll}\p{Lm}\p{Lo}\p{M}]+(?i:'s|'t|'re|'ve|'m|'ll|'d)?
+     * |[^\r\n\p{L}\p{N}]?[\p{Lu}\p{Lt}\p{Lm}\p{Lo}\p{M}]+[\p{Ll}\p{Lm}\p{Lo}\p{M}]*(?i:'s|'t|'re|'ve|'m|'ll|'d)?
+     * |\p{N}{1,3}| ?[^\s\p{L}\p{N}]+[\r\n/]*|\s*[\r\n]+|\s+(?!\S)|\s+
+     * </pre>
+     */
+    O200K
+    {
+        @Override
+        public int pieceEnd( CharSequence text, int start )
+        {
+            int cp = codePointAt( text, start );
+            int type = type( cp );
+            // the word alternatives, each with and without the optional
+            // leading character
+            int prefixed = ( type & ( NUMBER | NEWLINE | LETTER ) ) == 0 && start + 1 < text.length() ? start + Character.charCount( cp ) : -1;
+            int end = prefixed > 0 ? lowerWordEnd( text, prefixed ) : -1;
+            if ( end < 0 )
+            {
+                end = lowerWordEnd( text, start );
+            }
+            if ( end < 0 && prefixed > 0 )
+            {
+                end = upperWordEnd( text, prefixed );
+            }
+            if ( end < 0 )
+            {
+                end = upperWordEnd( text, start );
+            }
+            if ( end > 0 )
+            {
+                return end;
+            }
+            if ( ( type & NUMBER ) != 0 )
+            {
+                return skipNumbers( text, start );
+            }
+            end = punctuationEnd( text, start, cp, type );
+            if ( end > 0 )
+            {
+                return skip( text, end, NEWLINE | SLASH );
+            }
+            return whitespaceEnd( text, start );
+        }
+
+        /**
+         * Matches <code>[\p{Lu}\p{Lt}\p{Lm}\p{Lo}\p{M}]*[\p{Ll}\p{Lm}\p{Lo}\p{M}]+</code>
+         * and an optional contraction.
+         *
+         * @return the end of the word, or -1 if there is none
+         */
+        private int lowerWordEnd( CharSequence text, int from )
+        {
+            // the first class is greedy, it gives back characters only if the
+            // second does not match after it
+            int upperEnd = skip( text, from, UPPER_CLASS );
+            if ( upperEnd < text.length() && ( type( codePointAt( text, upperEnd ) ) & LOWER_CLASS ) != 0 )
+            {
+                return contractionOrEnd( text, skip( text, upperEnd, LOWER_CLASS ) );
+            }
+            for ( int i = upperEnd; i > from; )
+            {
+                int cp = Character.codePointBefore( text, i );
+                if ( ( type( cp ) & LOWER_CLASS ) != 0 )
+                {
+                    return contractionOrEnd( text, i );
+                }
+                i -= Character.charCount( cp );
+            }
+            return -1;
+        }
+
+        /**
+         * Matches <code>[\p{Lu}\p{Lt}\p{Lm}\p{Lo}\p{M}]+[\p{Ll}\p{Lm}\p{Lo}\p{M}]*</code>
+         * and an optional contraction.
+         *
+         * @return the end of the word, or -1 if there is none
+         */
+        private int upperWordEnd( CharSequence text, int from )
+        {
+            int upperEnd = skip( text, from, UPPER_CLASS );
+            return upperEnd > from ? contractionOrEnd( text, skip( text, upperEnd, LOWER_CLASS ) ) : -1;
+        }
+
+        private int contractionOrEnd( CharSequence text, int end )
+        {
+            int contraction = end < text.length() ? contractionEnd( text, end ) : -1;
+            return contraction > 0 ? contraction : end;
+        }
+    };
+
+    private static final int LETTER      = 1;
+
+    private static final int NUMBER      = 1 << 1;
+
+    private static final int WHITESPACE  = 1 << 2;
+
+    private static final int NEWLINE     = 1 << 3;
+
+    private static final int SLASH       = 1 << 4;
+
+    /** [\p{Lu}\p{Lt}\p{Lm}\p{Lo}\p{M}] */
+    private static final int UPPER_CLASS = 1 << 5;
+
+    /** [\p{Ll}\p{Lm}\p{Lo}\p{M}] */
+    private static final int LOWER_CLASS = 1 << 6;
+
+    private static final int[] ASCII = new int[128];
+
+    static
+    {
+        for ( int c = 0; c < ASCII.length; c++ )
+        {
+            ASCII[c] = computeType( c );
+        }
+    }
+
+    /**
+     * Finds the end of the piece starting at the given index.
+     * 
+     * @param text
+     *            the text to split
+     * @param start
+     *            the start of the piece, less than the length of the text
+     * @return the end of the piece (exclusive), greater than start
+     */
+    public abstract int pieceEnd( CharSequence text, int start );
+
+    private static int type( int cp )
+    {
+        return cp < 128 ? ASCII[cp] : computeType( cp );
+    }
+
+    private static int computeType( int cp )
+    {
+        return switch ( Character.getType( cp ) )
+        {
+            case Character.UPPERCASE_LETTER, Character.TITLECASE_LETTER -> LETTER | UPPER_CLASS;
+            case Character.LOWERCASE_LETTER -> LETTER | LOWER_CLASS;
+            case Character.MODIFIER_LETTER, Character.OTHER_LETTER -> LETTER | UPPER_CLASS | LOWER_CLASS;
+            case Character.NON_SPACING_MARK, Character.ENCLOSING_MARK, Character.COMBINING_SPACING_MARK -> UPPER_CLASS | LOWER_CLASS;
+            case Character.DECIMAL_DIGIT_NUMBER, Character.LETTER_NUMBER, Character.OTHER_NUMBER -> NUMBER;
+            // White_Space as in \s of the encodings
+            default -> cp == '\r' || cp == '\n' ? WHITESPACE | NEWLINE 
+                    : cp >= '\t' && cp <= '\r' || cp == '\u0085' || Character.isSpaceChar( cp ) ? WHITESPACE 
+                    : cp == '/' ? SLASH : 0;
+        };
+    }
+
+    private static int codePointAt( CharSequence text, int index )
+    {
+        char c = text.charAt( index );
+        return Character.isHighSurrogate( c ) ? Character.codePointAt( text, index ) : c;
+    }
+
+    /**
+     * @return the index of the first character after the given index not of
+     *         the given type
+     */
+    private static int skip( CharSequence text, int from, int type )
+    {
+        int length = text.length();
+        int i = from;
+        while ( i < length )
+        {
+            int cp = codePointAt( text, i );
+            if ( ( type( cp ) & type ) == 0 )
+            {
+                break;
+            }
+            i += Character.charCount( cp );
+        }
+        return i;
+    }
+
+    private static int skipNumbers( CharSequence text, int start )
+    {
+        int i = start;
+        for ( int n = 0; n < 3 && i < text.length(); n++ )
+        {
+            int cp = codePointAt( text, i );
+            if ( ( type( cp ) & NUMBER ) == 0 )
+            {
+                break;
+            }
+            i += Character.charCount( cp );
+        }
+        return i;
+    }
+
+    /**
+     * Matches <code>(?i:'s|'t|'re|'ve|'m|'ll|'d)</code>.
+     * 
+     * @return the end of the contraction, or -1 if there is none
+     */
+    private static int contractionEnd( CharSequence text, int start )
+    {
+        if ( text.charAt( start ) != '\'' || start + 1 >= text.length() )
+        {
+            return -1;
+        }
+        char c = Character.toLowerCase( text.charAt( start + 1 ) );
+        // case insensitive matching folds the long s
+        c = c == '\u017F' ? 's' : c;
+        if ( c == 's' || c == 't' || c == 'm' || c == 'd' )
+        {
+            return start + 2;
+        }
+        if ( start + 2 < text.length() )
+        {
+            char d = Character.toLowerCase( text.charAt( start + 2 ) );
+            if ( c == 'r' && d == 'e' || c == 'v' && d == 'e' || c == 'l' && d == 'l' )
+            {
+                return start + 3;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Matches <code> ?[^\s\p{L}\p{N}]+</code>.
+     * 
+     * @return the end of the punctuation, or -1 if there is none
+     */
+    private static int punctuationEnd( CharSequence text, int start, int cp, int type )
+    {
+        int from = start;
+        if ( cp == ' ' && start + 1 < text.length() )
+        {
+            from = start + 1;
+            type = type( codePointAt( text, from ) );
+        }
+        if ( ( type & ( WHITESPACE | LETTER | NUMBER ) ) != 0 )
+        {
+            return -1;
+        }
+        int i = from;
+        int length = text.length();
+        while ( i < length )
+        {
+            int c = codePointAt( text, i );
+            if ( ( type( c ) & ( WHITESPACE | LETTER | NUMBER ) ) != 0 )
+            {
+                break;
+            }
+            i += Character.charCount( c );
+        }
+        return i;
+    }
+
+    /**
+     * Matches <code>\s*[\r\n]+|\s+(?!\S)|\s+</code>: whitespace up to the last
+     * line break, or all but the last whitespace character before a word, or
+     * a single character.
+     */
+    private static int whitespaceEnd( CharSequence text, int start )
+    {
+        int length = text.length();
+        int lastNewline = -1;
+        int i = start;
+        int previous = start;
+        while ( i < length )
+        {
+            int cp = codePointAt( text, i );
+            int type = type( cp );
+            if ( ( type & WHITESPACE ) == 0 )
+            {
+                break;
+            }
+            previous = i;
+            i += Character.charCount( cp );
+            if ( ( type & NEWLINE ) != 0 )
+            {
+                lastNewline = i;
+            }
+        }
+        if ( lastNewline > 0 )
+        {
+            return lastNewline;
+        }
+        if ( i == start )
+        {
+            // not whitespace, e.g. an unpaired surrogate
+            return start + Character.charCount( codePointAt( text, start ) );
+        }
+        if ( i == length || previous == start )
+        {
+            return i;
+        }
+        return previous;
+    }
+}
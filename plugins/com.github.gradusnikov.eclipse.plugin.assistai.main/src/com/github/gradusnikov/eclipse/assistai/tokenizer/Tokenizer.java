@@ -0,0 +1,21 @@
+package com.github.gradusnikov.eclipse.assistai.tokenizer;
+
+/**
+ * Counts the tokens a model sees for a piece of text.
+ */
+public interface Tokenizer
+{
+    /**
+     * @return the name of the encoding, e.g. <code>cl100k_base</code>
+     */
+    String getEncoding();
+
+    /**
+     * Counts the tokens of the given text.
+     * 
+     * @param text
+     *            the text to count
+     * @return the number of tokens
+     */
+    int countTokens( CharSequence text );
+}
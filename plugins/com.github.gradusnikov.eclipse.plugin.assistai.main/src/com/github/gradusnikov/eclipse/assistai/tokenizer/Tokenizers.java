@@ -0,0 +1,131 @@
+package com.github.gradusnikov.eclipse.assistai.tokenizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.runtime.Platform;
+
+import com.github.gradusnikov.eclipse.assistai.Activator;
+
+/**
+ * Selects the {@link Tokenizer} compatible with a model.
+ * <p>
+ * The vocabularies of the encodings are loaded on first use from the
+ * <code>tiktoken</code> folder of the dependencies bundle, or from the folder
+ * given by the <code>assistai.tiktoken.dir</code> system property (e.g. in
+ * benchmarks). If a vocabulary is not available, token counts are estimated
+ * by {@link EstimatingTokenizer}.
+ */
+public final class Tokenizers
+{
+    public static final String CL100K_BASE = "cl100k_base";
+
+    public static final String O200K_BASE  = "o200k_base";
+
+    public static final String VOCABULARY_DIR_PROPERTY = "assistai.tiktoken.dir";
+
+    private static final String DEPENDENCIES_BUNDLE = "com.github.gradusnikov.eclipse.plugin.assistai.dependencies";
+
+    private static final String VOCABULARY_FOLDER = "tiktoken/";
+
+    private static final String VOCABULARY_EXTENSION = ".tiktoken";
+
+    private static final Map<String, Tokenizer> TOKENIZERS = new ConcurrentHashMap<>();
+
+    private Tokenizers()
+    {
+    }
+
+    /**
+     * Returns the tokenizer of the given model. Models without a known
+     * encoding are counted with <code>cl100k_base</code>.
+     * 
+     * @param modelName
+     *            the model name, e.g. <code>gpt-4o</code>
+     * @return the tokenizer
+     */
+    public static Tokenizer forModel( String modelName )
+    {
+        return forEncoding( getEncoding( modelName ) );
+    }
+
+    /**
+     * Returns the tokenizer of an encoding, loading its vocabulary on first
+     * use.
+     * 
+     * @param encoding
+     *            {@link #CL100K_BASE} or {@link #O200K_BASE}
+     * @return the tokenizer
+     */
+    public static Tokenizer forEncoding( String encoding )
+    {
+        return TOKENIZERS.computeIfAbsent( encoding, Tokenizers::load );
+    }
+
+    /**
+     * @return the name of the encoding used by the given model
+     */
+    public static String getEncoding( String modelName )
+    {
+        String name = modelName == null ? "" : modelName.toLowerCase( Locale.ROOT );
+        if ( name.startsWith( "gpt-4o" ) || name.startsWith( "gpt-4.1" ) || name.startsWith( "gpt-4.5" ) || name.startsWith( "gpt-5" )
+                || name.startsWith( "o1" ) || name.startsWith( "o3" ) || name.startsWith( "o4" ) || name.startsWith( "chatgpt-4o" ) )
+        {
+            return O200K_BASE;
+        }
+        return CL100K_BASE;
+    }
+
+    private static Tokenizer load( String encoding )
+    {
+        var preTokenizer = O200K_BASE.equals( encoding ) ? PreTokenizer.O200K : PreTokenizer.CL100K;
+        try ( var vocabulary = openVocabulary( encoding ) )
+        {
+            if ( vocabulary != null )
+            {
+                return BpeTokenizer.load( encoding, preTokenizer, vocabulary );
+            }
+            warn( "No vocabulary of " + encoding + ", token counts are estimated" );
+        }
+        catch ( IOException e )
+        {
+            warn( "Cannot load vocabulary of " + encoding + ", token counts are estimated: " + e.getMessage() );
+        }
+        return new EstimatingTokenizer( encoding, O200K_BASE.equals( encoding ) ? 4.4 : 4.0 );
+    }
+
+    /**
+     * @return the vocabulary stream, or <code>null</code> if there is none
+     */
+    private static InputStream openVocabulary( String encoding ) throws IOException
+    {
+        var fileName = encoding + VOCABULARY_EXTENSION;
+        var folder = System.getProperty( VOCABULARY_DIR_PROPERTY );
+        if ( folder != null )
+        {
+            var file = Path.of( folder, fileName );
+            return Files.isRegularFile( file ) ? Files.newInputStream( file ) : null;
+        }
+        if ( !Platform.isRunning() )
+        {
+            return null;
+        }
+        var bundle = Platform.getBundle( DEPENDENCIES_BUNDLE );
+        var entry = bundle != null ? bundle.getEntry( VOCABULARY_FOLDER + fileName ) : null;
+        return entry != null ? entry.openStream() : null;
+    }
+
+    private static void warn( String message )
+    {
+        var activator = Activator.getDefault();
+        if ( activator != null )
+        {
+            activator.getLog().warn( message );
+        }
+    }
+}
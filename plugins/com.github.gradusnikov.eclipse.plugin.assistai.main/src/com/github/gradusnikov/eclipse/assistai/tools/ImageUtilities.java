@@ -1,10 +1,12 @@
 package com.github.gradusnikov.eclipse.assistai.tools;
 
 import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
 import java.util.Base64;
 
 import org.eclipse.swt.graphics.ImageData;
 import org.eclipse.swt.graphics.ImageLoader;
+import org.eclipse.swt.graphics.PaletteData;
 
 public class ImageUtilities
 {
@@ -16,6 +18,20 @@ public class ImageUtilities
      * @return Base64 encoded JPEG string
      */
     public static String toBase64Jpeg( ImageData image )
+    {
+        return toBase64Jpeg( image, -1 );
+    }
+
+    /**
+     * Converts ImageData to a Base64 encoded JPEG string.
+     *
+     * @param image
+     *            ImageData to be converted to Base64
+     * @param quality
+     *            JPEG quality from 1 to 100, or -1 for the SWT default
+     * @return Base64 encoded JPEG string
+     */
+    public static String toBase64Jpeg( ImageData image, int quality )
     {
         if ( image == null )
         {
@@ -24,6 +40,7 @@ public class ImageUtilities
 
         ImageLoader loader = new ImageLoader();
         loader.data = new ImageData[] { image }; // Set the image data
+        loader.compression = quality;
 
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         // Save as JPEG format
@@ -43,4 +60,151 @@ public class ImageUtilities
         ImageData scaled = imageData.scaledTo( scaledWidth, scaledHeight );
         return scaled;
     }
+
+    /**
+     * Downscales an image with an area-averaging filter: every target pixel is
+     * the average of the source pixels it covers, weighted by the covered
+     * area. Unlike {@link ImageData#scaledTo(int, int)} (nearest neighbour)
+     * this keeps thin lines and text of screenshots legible. Each source pixel
+     * is read once.
+     *
+     * @param image
+     *            the image to scale
+     * @param width
+     *            the target width, not larger than the image width
+     * @param height
+     *            the target height, not larger than the image height
+     * @return a 24-bit direct color image of the given size, or the image
+     *         itself if it already has that size
+     */
+    public static ImageData downscale( ImageData image, int width, int height )
+    {
+        if ( width == image.width && height == image.height )
+        {
+            return image;
+        }
+        if ( width <= 0 || height <= 0 || width > image.width || height > image.height )
+        {
+            throw new IllegalArgumentException( "Cannot downscale " + image.width + "x" + image.height + " to " + width + "x" + height );
+        }
+        // destination column (and its weight) of every source column; a source
+        // column spills over into the next destination column with weight
+        // columnSpill when it crosses a destination pixel boundary
+        int[] column = new int[image.width];
+        float[] columnWeight = new float[image.width];
+        float[] columnSpill = new float[image.width];
+        coverage( image.width, width, column, columnWeight, columnSpill );
+        int[] row = new int[image.height];
+        float[] rowWeight = new float[image.height];
+        float[] rowSpill = new float[image.height];
+        coverage( image.height, height, row, rowWeight, rowSpill );
+
+        var target = new ImageData( width, height, 24, new PaletteData( 0xFF0000, 0x00FF00, 0x0000FF ) );
+        var palette = image.palette;
+        int[] pixels = new int[image.width];
+        // per channel sums of the current and the next destination row
+        float[] current = new float[width * 3];
+        float[] next = new float[width * 3];
+        float[] line = new float[width * 3];
+        int[] targetLine = new int[width];
+        int currentRow = 0;
+        for ( int y = 0; y < image.height; y++ )
+        {
+            image.getPixels( 0, y, image.width, pixels, 0 );
+            Arrays.fill( line, 0 );
+            for ( int x = 0; x < image.width; x++ )
+            {
+                int r, g, b;
+                if ( palette.isDirect )
+                {
+                    int pixel = pixels[x];
+                    r = shift( pixel & palette.redMask, palette.redShift );
+                    g = shift( pixel & palette.greenMask, palette.greenShift );
+                    b = shift( pixel & palette.blueMask, palette.blueShift );
+                }
+                else
+                {
+                    var rgb = palette.colors[pixels[x]];
+                    r = rgb.red;
+                    g = rgb.green;
+                    b = rgb.blue;
+                }
+                int i = column[x] * 3;
+                float w = columnWeight[x];
+                line[i] += r * w;
+                line[i + 1] += g * w;
+                line[i + 2] += b * w;
+                float spill = columnSpill[x];
+                if ( spill > 0 )
+                {
+                    line[i + 3] += r * spill;
+                    line[i + 4] += g * spill;
+                    line[i + 5] += b * spill;
+                }
+            }
+            if ( row[y] != currentRow )
+            {
+                // all source rows of the current destination row were read
+                writeRow( target, currentRow, current, targetLine );
+                float[] done = current;
+                current = next;
+                next = done;
+                Arrays.fill( next, 0 );
+                currentRow = row[y];
+            }
+            float w = rowWeight[y];
+            float spill = rowSpill[y];
+            for ( int i = 0; i < line.length; i++ )
+            {
+                current[i] += line[i] * w;
+                next[i] += line[i] * spill;
+            }
+        }
+        writeRow( target, currentRow, current, targetLine );
+        return target;
+    }
+
+    /**
+     * Maps each of <code>sourceSize</code> source pixels onto
+     * <code>targetSize</code> destination pixels. The weight of a source pixel
+     * is the part of the destination pixel it covers, so the weights of every
+     * destination pixel sum up to 1.
+     */
+    private static void coverage( int sourceSize, int targetSize, int[] target, float[] weight, float[] spill )
+    {
+        double scale = (double) targetSize / sourceSize;
+        for ( int s = 0; s < sourceSize; s++ )
+        {
+            double start = s * scale;
+            double end = ( s + 1 ) * scale;
+            int t = Math.min( (int) start, targetSize - 1 );
+            target[s] = t;
+            if ( end > t + 1 && t + 1 < targetSize )
+            {
+                weight[s] = (float) ( t + 1 - start );
+                spill[s] = (float) ( end - ( t + 1 ) );
+            }
+            else
+            {
+                weight[s] = (float) ( end - start );
+            }
+        }
+    }
+
+    private static void writeRow( ImageData target, int y, float[] sums, int[] line )
+    {
+        for ( int x = 0; x < line.length; x++ )
+        {
+            int r = Math.min( 255, Math.round( sums[x * 3] ) );
+            int g = Math.min( 255, Math.round( sums[x * 3 + 1] ) );
+            int b = Math.min( 255, Math.round( sums[x * 3 + 2] ) );
+            line[x] = ( r << 16 ) | ( g << 8 ) | b;
+        }
+        target.setPixels( 0, y, line.length, line, 0 );
+    }
+
+    private static int shift( int value, int shift )
+    {
+        return shift < 0 ? value >>> -shift : value << shift;
+    }
 }
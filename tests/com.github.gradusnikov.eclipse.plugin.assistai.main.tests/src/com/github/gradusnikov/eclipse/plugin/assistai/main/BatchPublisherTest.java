@@ -0,0 +1,111 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.services.BatchPublisher;
+import com.github.gradusnikov.eclipse.assistai.services.StreamingExecutor;
+
+/**
+ * Publishes items with a {@link BatchPublisher} to a slow subscriber.
+ */
+public class BatchPublisherTest
+{
+    private StreamingExecutor streamingExecutor;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        streamingExecutor = new StreamingExecutor();
+    }
+
+    @AfterEach
+    public void afterEach()
+    {
+        streamingExecutor.shutdown();
+    }
+
+    @Test
+    public void holdsBackItemsWhileSubscriberLags() throws Exception
+    {
+        var publisher = new BatchPublisher<Integer>( streamingExecutor, 4 );
+        var subscriber = new SlowSubscriber();
+        publisher.subscribe( subscriber );
+
+        // the subscriber does not consume anything yet, the reader must not block
+        for ( int i = 0; i < 1000; i++ )
+        {
+            publisher.add( i );
+            publisher.flush();
+        }
+        assertThat( publisher.getQueueDepth(), equalTo( 4 ) );
+        assertThat( streamingExecutor.getStatistics().heldBack(), greaterThan( 0L ) );
+
+        subscriber.consume.countDown();
+        publisher.close();
+
+        assertThat( subscriber.done.await( 5, TimeUnit.SECONDS ), equalTo( true ) );
+        assertThat( subscriber.items, equalTo( IntStream.range( 0, 1000 ).boxed().toList() ) );
+        assertThat( subscriber.batches, equalTo( (int) streamingExecutor.getStatistics().batches() ) );
+    }
+
+    private static class SlowSubscriber implements Flow.Subscriber<List<Integer>>
+    {
+        private final List<Integer> items = new CopyOnWriteArrayList<>();
+
+        private final CountDownLatch consume = new CountDownLatch( 1 );
+
+        private final CountDownLatch done = new CountDownLatch( 1 );
+
+        private volatile int batches;
+
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe( Flow.Subscription subscription )
+        {
+            this.subscription = subscription;
+            subscription.request( 1 );
+        }
+
+        @Override
+        public void onNext( List<Integer> batch )
+        {
+            try
+            {
+                consume.await();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            items.addAll( batch );
+            batches++;
+            subscription.request( 1 );
+        }
+
+        @Override
+        public void onError( Throwable throwable )
+        {
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete()
+        {
+            done.countDown();
+        }
+    }
+}
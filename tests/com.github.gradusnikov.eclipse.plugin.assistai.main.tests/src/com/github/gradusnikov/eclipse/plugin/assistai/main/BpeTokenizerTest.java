@@ -0,0 +1,69 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.tokenizer.BpeTokenizer;
+import com.github.gradusnikov.eclipse.assistai.tokenizer.PreTokenizer;
+
+/**
+ * Counts tokens with {@link BpeTokenizer} and a small vocabulary.
+ */
+public class BpeTokenizerTest
+{
+    private static final String[] MERGES = { "ll", "he", "hell", "hello", " w", "aa", "aaaa" };
+
+    @Test
+    public void mergesLowestRankFirst() throws Exception
+    {
+        var tokenizer = tokenizer();
+
+        // "hello" | " w" "o" "r" "l" "d"
+        assertThat( tokenizer.countTokens( "hello world" ), equalTo( 6 ) );
+        // "he" "l" "p"
+        assertThat( tokenizer.countTokens( "help" ), equalTo( 3 ) );
+        assertThat( tokenizer.countTokens( "" ), equalTo( 0 ) );
+    }
+
+    @Test
+    public void mergesLongPieces() throws Exception
+    {
+        var tokenizer = tokenizer();
+
+        assertThat( tokenizer.countTokens( "a".repeat( 100 ) ), equalTo( 25 ) );
+        assertThat( tokenizer.countTokens( "a".repeat( 1001 ) ), equalTo( 251 ) );
+    }
+
+    @Test
+    public void countsMultiByteCharacters() throws Exception
+    {
+        var tokenizer = tokenizer();
+
+        // two bytes each, no merges
+        assertThat( tokenizer.countTokens( "éé" ), equalTo( 4 ) );
+        // four bytes
+        assertThat( tokenizer.countTokens( "😀" ), equalTo( 4 ) );
+    }
+
+    private static BpeTokenizer tokenizer() throws Exception
+    {
+        var vocabulary = new StringBuilder();
+        var encoder = Base64.getEncoder();
+        for ( int i = 0; i < 256; i++ )
+        {
+            vocabulary.append( encoder.encodeToString( new byte[] { (byte) i } ) ).append( ' ' ).append( i ).append( '\n' );
+        }
+        for ( int i = 0; i < MERGES.length; i++ )
+        {
+            vocabulary.append( encoder.encodeToString( MERGES[i].getBytes( StandardCharsets.UTF_8 ) ) ).append( ' ' ).append( 256 + i ).append( '\n' );
+        }
+        var stream = new ByteArrayInputStream( vocabulary.toString().getBytes( StandardCharsets.US_ASCII ) );
+        return BpeTokenizer.load( "test", PreTokenizer.CL100K, stream );
+    }
+}
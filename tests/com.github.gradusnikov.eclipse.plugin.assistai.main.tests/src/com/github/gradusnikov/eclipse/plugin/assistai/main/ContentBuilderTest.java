@@ -0,0 +1,50 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.model.ContentBuilder;
+
+/**
+ * Appends to and reads views of a {@link ContentBuilder}.
+ */
+public class ContentBuilderTest
+{
+    @Test
+    public void readsViewsAcrossChunks()
+    {
+        var content = new ContentBuilder();
+        for ( String token : new String[] { "Hello", ", ", "", "wor", "ld", "!" } )
+        {
+            content.append( token );
+        }
+
+        var view = content.view( 3 );
+        assertThat( view.toString(), equalTo( "lo, world!" ) );
+        assertThat( view.length(), equalTo( 10 ) );
+        assertThat( view.charAt( 4 ), equalTo( 'w' ) );
+        assertThat( view.charAt( 0 ), equalTo( 'l' ) );
+        assertThat( view.subSequence( 2, 7 ).toString(), equalTo( ", wor" ) );
+        assertThat( content.toString(), equalTo( "Hello, world!" ) );
+    }
+
+    @Test
+    public void viewIsNotChangedByLaterAppends()
+    {
+        var content = new ContentBuilder();
+        content.append( "first" );
+        var view = content.view( 0 );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            content.append( " next" );
+        }
+        content.set( "replaced" );
+
+        assertThat( view.toString(), equalTo( "first" ) );
+        assertThat( content.view( content.length() ).length(), equalTo( 0 ) );
+        assertThat( content.toString(), equalTo( "replaced" ) );
+    }
+}
@@ -0,0 +1,98 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+import com.github.gradusnikov.eclipse.assistai.services.ContextWindowManager;
+
+/**
+ * Selects messages of a conversation with {@link ContextWindowManager}.
+ */
+public class ContextWindowManagerTest
+{
+    private final ContextWindowManager manager = new ContextWindowManager();
+
+    @Test
+    public void keepsConversationWithinContextWindow()
+    {
+        var messages = conversation( 10 );
+        var model = model( 100_000 );
+
+        var selection = manager.select( messages, model, "You are a helpful assistant." );
+
+        assertThat( selection.messages(), equalTo( messages ) );
+        assertThat( selection.dropped(), equalTo( 0 ) );
+        assertThat( selection.truncated(), equalTo( 0 ) );
+    }
+
+    @Test
+    public void dropsOldestMessagesFirst()
+    {
+        var messages = conversation( 40 );
+        var model = model( 4000 );
+
+        var selection = manager.select( messages, model, "You are a helpful assistant." );
+
+        assertThat( selection.tokens(), lessThanOrEqualTo( selection.budget() ) );
+        assertThat( selection.messages().get( selection.messages().size() - 1 ), equalTo( messages.get( 39 ) ) );
+        assertThat( selection.dropped() + selection.messages().size(), equalTo( 40 ) );
+        if ( selection.truncated() > 0 )
+        {
+            assertThat( selection.messages().get( 0 ).getContent(), endsWith( "[...]" ) );
+        }
+    }
+
+    @Test
+    public void keepsPinnedMessages()
+    {
+        var messages = conversation( 40 );
+        messages.get( 1 ).setPinned( true );
+        var model = model( 2000 );
+
+        var selection = manager.select( messages, model, "" );
+
+        assertThat( selection.messages().get( 0 ), equalTo( messages.get( 1 ) ) );
+        assertThat( selection.messages().stream().filter( ChatMessage::isPinned ).toList(), contains( messages.get( 1 ) ) );
+    }
+
+    @Test
+    public void cachesTokenCountUntilMessageChanges()
+    {
+        var message = new ChatMessage( "1", "user" );
+        message.setContent( "Hello world" );
+        var model = model( 8192 );
+
+        int tokens = manager.countTokens( message, model );
+        assertThat( manager.countTokens( message, model ), equalTo( tokens ) );
+
+        message.append( " and a few more words to count" );
+        assertThat( manager.countTokens( message, model ) > tokens, equalTo( true ) );
+    }
+
+    private static ModelApiDescriptor model( int contextWindow )
+    {
+        return new ModelApiDescriptor( "test", "openai", "http://localhost", "", "gpt-4o", 7, false, false, 0, null, 0, contextWindow, 0, 0, 0, 0, 0 );
+    }
+
+    private static List<ChatMessage> conversation( int size )
+    {
+        var messages = new ArrayList<ChatMessage>();
+        for ( int i = 0; i < size; i++ )
+        {
+            var message = new ChatMessage( String.valueOf( i ), i % 2 == 0 ? "user" : "assistant" );
+            message.setContent( ( "Message " + i + " talks about the Eclipse plugin and its chat view. " ).repeat( 20 ) );
+            messages.add( message );
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.jobs.CompactConversationJob;
+import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+
+/**
+ * Compacts a {@link Conversation} the way {@link CompactConversationJob} does.
+ */
+public class ConversationCompactionTest
+{
+    @Test
+    public void sendsSummaryInsteadOfCompactedMessages()
+    {
+        var conversation = conversation( 3 );
+        var summary = new ChatMessage( "summary", "system" );
+
+        assertThat( conversation.compact( conversation.getEpoch(), 0, 4, summary ), equalTo( true ) );
+
+        var messages = conversation.messages();
+        assertThat( conversation.getRequestMessages(), contains( summary, messages.get( 4 ), messages.get( 5 ) ) );
+        assertThat( messages.size(), equalTo( 6 ) );
+    }
+
+    @Test
+    public void keepsPinnedCompactedMessages()
+    {
+        var conversation = conversation( 3 );
+        var messages = conversation.messages();
+        messages.get( 1 ).setPinned( true );
+        var summary = new ChatMessage( "summary", "system" );
+
+        conversation.compact( conversation.getEpoch(), 0, 4, summary );
+
+        assertThat( conversation.getRequestMessages(), contains( summary, messages.get( 1 ), messages.get( 4 ), messages.get( 5 ) ) );
+    }
+
+    @Test
+    public void discardsSummaryOfClearedConversation()
+    {
+        var conversation = conversation( 3 );
+        int epoch = conversation.getEpoch();
+        conversation.clear();
+        conversation.add( message( "user", 0 ) );
+
+        assertThat( conversation.compact( epoch, 0, 1, new ChatMessage( "summary", "system" ) ), equalTo( false ) );
+        assertThat( conversation.getRequestMessages(), equalTo( conversation.messages() ) );
+    }
+
+    @Test
+    public void compactsWholeTurnsExceptTheLast()
+    {
+        var messages = new ArrayList<ChatMessage>();
+        messages.add( message( "user", 0 ) );
+        messages.add( message( "assistant", 1 ) );
+        messages.add( message( "function", 2 ) );
+        messages.add( message( "assistant", 3 ) );
+        messages.add( message( "user", 4 ) );
+        messages.add( message( "assistant", 5 ) );
+        messages.add( message( "user", 6 ) );
+
+        assertThat( CompactConversationJob.findCompactionEnd( messages, 0, 1 ), equalTo( 4 ) );
+        assertThat( CompactConversationJob.findCompactionEnd( messages, 0, 10 ), equalTo( 6 ) );
+        assertThat( CompactConversationJob.findCompactionEnd( messages, 6, 10 ), equalTo( 6 ) );
+    }
+
+    private static Conversation conversation( int turns )
+    {
+        var conversation = new Conversation();
+        for ( int i = 0; i < turns * 2; i++ )
+        {
+            conversation.add( message( i % 2 == 0 ? "user" : "assistant", i ) );
+        }
+        return conversation;
+    }
+
+    private static ChatMessage message( String role, int index )
+    {
+        var message = new ChatMessage( "m" + index, role );
+        message.setContent( "Message " + index );
+        return message;
+    }
+}
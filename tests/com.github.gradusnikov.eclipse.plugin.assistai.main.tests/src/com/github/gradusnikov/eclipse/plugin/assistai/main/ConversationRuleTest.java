@@ -0,0 +1,84 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.jobs.ConversationRule;
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+
+/**
+ * Schedules jobs with a {@link ConversationRule}: jobs of one conversation run
+ * one after another, jobs of different conversations in parallel.
+ */
+public class ConversationRuleTest
+{
+    @Test
+    public void conflictsOnlyWithSameConversation()
+    {
+        var first = new Conversation();
+        var second = new Conversation();
+
+        assertThat( new ConversationRule( first ).isConflicting( new ConversationRule( first ) ), equalTo( true ) );
+        assertThat( new ConversationRule( first ).isConflicting( new ConversationRule( second ) ), equalTo( false ) );
+    }
+
+    @Test
+    public void runsDifferentConversationsInParallel() throws Exception
+    {
+        var started = new CountDownLatch( 2 );
+        var release = new CountDownLatch( 1 );
+        var first = blockingJob( new Conversation(), started, release );
+        var second = blockingJob( new Conversation(), started, release );
+        first.schedule();
+        second.schedule();
+
+        assertThat( started.await( 5, TimeUnit.SECONDS ), equalTo( true ) );
+        release.countDown();
+        first.join();
+        second.join();
+    }
+
+    @Test
+    public void serializesSameConversation() throws Exception
+    {
+        var conversation = new Conversation();
+        var started = new CountDownLatch( 2 );
+        var release = new CountDownLatch( 1 );
+        var first = blockingJob( conversation, started, release );
+        var second = blockingJob( conversation, started, release );
+        first.schedule();
+        second.schedule();
+
+        assertThat( started.await( 500, TimeUnit.MILLISECONDS ), equalTo( false ) );
+        assertThat( started.getCount(), equalTo( 1L ) );
+        release.countDown();
+        first.join();
+        second.join();
+        assertThat( started.getCount(), equalTo( 0L ) );
+    }
+
+    private static Job blockingJob( Conversation conversation, CountDownLatch started, CountDownLatch release )
+    {
+        var job = Job.create( "send", monitor -> {
+            started.countDown();
+            try
+            {
+                release.await( 5, TimeUnit.SECONDS );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+            return Status.OK_STATUS;
+        } );
+        job.setRule( new ConversationRule( conversation ) );
+        return job;
+    }
+}
@@ -0,0 +1,77 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.startsWith;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+
+/**
+ * Reads a {@link Conversation} and a {@link ChatMessage} while they are
+ * changed.
+ */
+public class ConversationSnapshotTest
+{
+    @Test
+    public void snapshotIsNotChangedByLaterMessages()
+    {
+        var conversation = new Conversation();
+        var first = message( "user", "Hello" );
+        conversation.add( first );
+        var snapshot = conversation.snapshot();
+
+        for ( var message : conversation.messages() )
+        {
+            conversation.add( message( "assistant", message.getContent() ) );
+        }
+        conversation.removeLastMessage();
+        conversation.removeLastMessage();
+        conversation.clear();
+
+        assertThat( snapshot.messages(), contains( first ) );
+        assertThat( snapshot.getRequestMessages(), contains( first ) );
+        assertThat( conversation.size(), equalTo( 0 ) );
+        assertThat( conversation.getEpoch(), equalTo( snapshot.epoch() + 1 ) );
+    }
+
+    @Test
+    public void readsAppendedContentWithoutLocking() throws Exception
+    {
+        var expected = new StringBuilder();
+        for ( int i = 0; i < 20_000; i++ )
+        {
+            expected.append( "token " ).append( i ).append( ' ' );
+        }
+        var message = new ChatMessage( "reply", "assistant" );
+        var done = new AtomicBoolean();
+        var writer = new Thread( () -> {
+            for ( int i = 0; i < 20_000; i++ )
+            {
+                message.append( "token " + i + " " );
+            }
+            done.set( true );
+        } );
+        writer.start();
+        while ( !done.get() )
+        {
+            // every read is a complete prefix of the reply
+            assertThat( expected.toString(), startsWith( message.getContent() ) );
+        }
+        writer.join();
+
+        assertThat( message.getContent(), equalTo( expected.toString() ) );
+    }
+
+    private static ChatMessage message( String role, String content )
+    {
+        var message = new ChatMessage( role + content.length(), role );
+        message.setContent( content );
+        return message;
+    }
+}
@@ -0,0 +1,209 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+import com.github.gradusnikov.eclipse.assistai.model.ConversationStore;
+import com.github.gradusnikov.eclipse.assistai.model.FunctionCall;
+
+/**
+ * Saves and loads conversations with {@link ConversationStore}.
+ */
+public class ConversationStoreTest
+{
+    private Path file;
+
+    @BeforeEach
+    public void beforeEach() throws Exception
+    {
+        file = Files.createTempDirectory( "conversations" ).resolve( ConversationStore.LOG_FILE );
+    }
+
+    @AfterEach
+    public void afterEach() throws Exception
+    {
+        Files.deleteIfExists( file );
+        Files.deleteIfExists( file.getParent() );
+    }
+
+    @Test
+    public void loadsSavedConversation() throws Exception
+    {
+        var conversation = conversation( 3 );
+        var call = new ChatMessage( "call", "assistant" );
+        call.setFunctionCall( new FunctionCall( "getCurrentWeather", Map.of( "location", "Paris" ) ) );
+        conversation.add( call );
+        conversation.messages().get( 1 ).setPinned( true );
+        var store = new ConversationStore( file );
+        store.save( conversation );
+        store.close();
+
+        var loaded = new Conversation();
+        var shown = new ArrayList<String>();
+        new ConversationStore( file ).load( conversation.getId(), loaded, message -> shown.add( message.getId() ) );
+
+        assertThat( loaded.getId(), equalTo( conversation.getId() ) );
+        assertThat( shown, contains( "m0", "m1", "m2", "m3", "m4", "m5", "call" ) );
+        assertThat( loaded.messages().get( 5 ).getContent(), equalTo( "Message 5" ) );
+        assertThat( loaded.messages().get( 1 ).isPinned(), equalTo( true ) );
+        assertThat( loaded.messages().get( 6 ).getFunctionCall(), equalTo( call.getFunctionCall() ) );
+    }
+
+    @Test
+    public void appendsOnlyChangedMessages() throws Exception
+    {
+        var conversation = conversation( 2 );
+        var store = new ConversationStore( file );
+        store.save( conversation );
+        long size = Files.size( file );
+
+        store.save( conversation );
+        assertThat( Files.size( file ), equalTo( size ) );
+
+        conversation.messages().get( 3 ).append( " continued" );
+        store.save( conversation );
+        store.close();
+
+        var loaded = new Conversation();
+        new ConversationStore( file ).load( conversation.getId(), loaded, message -> {} );
+        assertThat( loaded.size(), equalTo( 4 ) );
+        assertThat( loaded.messages().get( 3 ).getContent(), equalTo( "Message 3 continued" ) );
+    }
+
+    @Test
+    public void listsMostRecentConversationFirst() throws Exception
+    {
+        var store = new ConversationStore( file );
+        var first = conversation( 2 );
+        store.save( first );
+        Thread.sleep( 5 );
+        var second = conversation( 1 );
+        store.save( second );
+        var deleted = conversation( 1 );
+        store.save( deleted );
+        store.delete( deleted.getId() );
+        store.close();
+
+        var conversations = new ConversationStore( file ).list();
+
+        assertThat( conversations.stream().map( ConversationStore.ConversationInfo::id ).toList(), contains( second.getId(), first.getId() ) );
+        assertThat( conversations.get( 1 ).title(), equalTo( "Message 0" ) );
+        assertThat( conversations.get( 1 ).messageCount(), equalTo( 4 ) );
+    }
+
+    @Test
+    public void discardsRecordTornByCrash() throws Exception
+    {
+        var conversation = conversation( 2 );
+        var store = new ConversationStore( file );
+        store.save( conversation );
+        long size = Files.size( file );
+        conversation.add( message( "user", 4 ) );
+        store.save( conversation );
+        store.close();
+        // the last record was not written completely
+        try ( var channel = FileChannel.open( file, StandardOpenOption.WRITE ) )
+        {
+            channel.truncate( Files.size( file ) - 3 );
+            channel.write( ByteBuffer.wrap( new byte[] { 1, 2, 3 } ), Files.size( file ) - 6 );
+        }
+
+        var loaded = new Conversation();
+        store = new ConversationStore( file );
+        store.load( conversation.getId(), loaded, message -> {} );
+
+        assertThat( loaded.size(), equalTo( 4 ) );
+        assertThat( Files.size( file ), equalTo( size ) );
+        store.delete( conversation.getId() );
+        assertThat( store.list(), empty() );
+        store.close();
+    }
+
+    @Test
+    public void skipsDamagedMessageOnLoad() throws Exception
+    {
+        var conversation = conversation( 2 );
+        var store = new ConversationStore( file );
+        store.save( conversation );
+        store.close();
+        // a bit flipped in the content of the second message
+        byte[] bytes = Files.readAllBytes( file );
+        byte[] content = "Message 1".getBytes( StandardCharsets.UTF_8 );
+        int position = indexOf( bytes, content );
+        bytes[position + content.length - 1] ^= 1;
+        Files.write( file, bytes );
+
+        store = new ConversationStore( file );
+        assertThat( store.list().get( 0 ).messageCount(), equalTo( 4 ) );
+        var loaded = new Conversation();
+        store.load( conversation.getId(), loaded, message -> {} );
+
+        assertThat( loaded.messages().stream().map( ChatMessage::getId ).toList(), contains( "m0", "m2", "m3" ) );
+        store.close();
+    }
+
+    @Test
+    public void keepsWorkingWithoutLog() throws Exception
+    {
+        // the log cannot be created below a regular file
+        Files.createDirectories( file.getParent() );
+        var blocked = Files.createFile( file.getParent().resolve( "blocked" ) );
+        var store = new ConversationStore( blocked.resolve( ConversationStore.LOG_FILE ) );
+        var conversation = conversation( 1 );
+
+        store.save( conversation );
+        store.delete( conversation.getId() );
+
+        assertThat( store.list(), empty() );
+        assertThat( store.load( conversation.getId(), new Conversation(), message -> {} ), equalTo( false ) );
+        store.close();
+        Files.delete( blocked );
+    }
+
+    private static int indexOf( byte[] bytes, byte[] part )
+    {
+        for ( int i = 0; i <= bytes.length - part.length; i++ )
+        {
+            if ( Arrays.equals( bytes, i, i + part.length, part, 0, part.length ) )
+            {
+                return i;
+            }
+        }
+        throw new AssertionError( "not found" );
+    }
+
+    private static Conversation conversation( int turns )
+    {
+        var conversation = new Conversation();
+        for ( int i = 0; i < turns * 2; i++ )
+        {
+            conversation.add( message( i % 2 == 0 ? "user" : "assistant", i ) );
+        }
+        return conversation;
+    }
+
+    private static ChatMessage message( String role, int index )
+    {
+        var message = new ChatMessage( "m" + index, role );
+        message.setContent( "Message " + index );
+        return message;
+    }
+}
@@ -0,0 +1,60 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+import com.github.gradusnikov.eclipse.assistai.services.LatencyTracker;
+
+/**
+ * Computes percentiles of the time to the first token and the moving
+ * averages with {@link LatencyTracker}.
+ */
+public class LatencyTrackerTest
+{
+    private final ModelApiDescriptor model = new ModelApiDescriptor( "test", "openai", "http://localhost", "", "gpt-4o", 7, false, false );
+
+    @Test
+    public void reportsPercentileOfRecentReplies()
+    {
+        var tracker = new LatencyTracker();
+        for ( int i = 1; i < LatencyTracker.MIN_SAMPLES; i++ )
+        {
+            tracker.recordFirstToken( model, TimeUnit.MILLISECONDS.toNanos( i * 100 ) );
+        }
+        assertThat( tracker.getFirstTokenPercentileMillis( model, 90 ), equalTo( -1L ) );
+
+        tracker.recordFirstToken( model, TimeUnit.MILLISECONDS.toNanos( 1000 ) );
+        assertThat( tracker.getFirstTokenPercentileMillis( model, 90 ), equalTo( 900L ) );
+        assertThat( tracker.getFirstTokenPercentileMillis( model, 50 ), equalTo( 500L ) );
+
+        // only the last replies count
+        for ( int i = 0; i < LatencyTracker.SAMPLES; i++ )
+        {
+            tracker.recordFirstToken( model, TimeUnit.MILLISECONDS.toNanos( 50 ) );
+        }
+        assertThat( tracker.getFirstTokenPercentileMillis( model, 90 ), equalTo( 50L ) );
+    }
+
+    @Test
+    public void followsRecentRepliesInEstimate()
+    {
+        var tracker = new LatencyTracker();
+        assertThat( tracker.getEstimate( model ).isPresent(), equalTo( false ) );
+
+        tracker.recordFirstToken( model, TimeUnit.MILLISECONDS.toNanos( 1000 ) );
+        tracker.recordThroughput( model, 100, TimeUnit.SECONDS.toNanos( 2 ) );
+        assertThat( tracker.getEstimate( model ).get().firstTokenMillis(), closeTo( 1000, 0.001 ) );
+        assertThat( tracker.getEstimate( model ).get().tokensPerSecond(), closeTo( 50, 0.001 ) );
+
+        tracker.recordFirstToken( model, TimeUnit.MILLISECONDS.toNanos( 500 ) );
+        tracker.recordThroughput( model, 100, TimeUnit.SECONDS.toNanos( 1 ) );
+        assertThat( tracker.getEstimate( model ).get().firstTokenMillis(), closeTo( 900, 0.001 ) );
+        assertThat( tracker.getEstimate( model ).get().tokensPerSecond(), closeTo( 60, 0.001 ) );
+    }
+}
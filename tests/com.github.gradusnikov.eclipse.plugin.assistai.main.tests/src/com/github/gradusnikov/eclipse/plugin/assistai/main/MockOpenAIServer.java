@@ -0,0 +1,429 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * An in-process stand-in for an OpenAI compatible chat completions endpoint
+ * (<code>POST /v1/chat/completions</code> with <code>"stream": true</code>).
+ * <p>
+ * The server listens on a free loopback port and streams the configured reply
+ * as server-sent events, one token per event, the way the OpenAI API does.
+ * The timing of the stream (time to first token, token rate, inter-token
+ * jitter) and failures (HTTP 429/500 responses, connections dropped in the
+ * middle of the stream) are configurable, so the streaming pipeline of the
+ * plugin can be tested and measured without network access.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * try ( var server = MockOpenAIServer.start() )
+ * {
+ *     server.reply( "Hello world" ).tokensPerSecond( 50 ).timeToFirstToken( Duration.ofMillis( 300 ) );
+ *     ModelApiDescriptor model = server.model();
+ *     ...
+ * }
+ * </pre>
+ *
+ * The jitter is drawn from a seeded {@link Random}, so runs are repeatable.
+ */
+public class MockOpenAIServer implements AutoCloseable
+{
+    public static final String COMPLETIONS_PATH = "/v1/chat/completions";
+
+    private static final int FUNCTION_ARGUMENTS_CHUNK_LENGTH = 4;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final List<String> requestBodies = new CopyOnWriteArrayList<>();
+
+    private final Queue<Integer> failures = new ConcurrentLinkedQueue<>();
+
+    private volatile List<String> tokens = List.of();
+
+    private volatile String functionName;
+
+    private volatile double tokensPerSecond = 0;
+
+    private volatile Duration jitter = Duration.ZERO;
+
+    private volatile Duration timeToFirstToken = Duration.ZERO;
+
+    private volatile int dropConnectionAfterTokens = -1;
+
+    private volatile int retryAfterSeconds = 1;
+
+    private volatile Random random = new Random( 0 );
+
+    private MockOpenAIServer( HttpServer server, ExecutorService executor )
+    {
+        this.server = server;
+        this.executor = executor;
+    }
+
+    /**
+     * Starts a server on a free port of the loopback interface.
+     */
+    public static MockOpenAIServer start() throws IOException
+    {
+        var httpServer = HttpServer.create( new InetSocketAddress( InetAddress.getLoopbackAddress(), 0 ), 0 );
+        var executor = Executors.newCachedThreadPool( runnable -> {
+            Thread thread = new Thread( runnable, "Mock OpenAI server" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        var mockServer = new MockOpenAIServer( httpServer, executor );
+        httpServer.createContext( COMPLETIONS_PATH, mockServer::handle );
+        httpServer.setExecutor( executor );
+        httpServer.start();
+        return mockServer;
+    }
+
+    /**
+     * @return the URL of the chat completions endpoint
+     */
+    public String getApiUrl()
+    {
+        var address = server.getAddress();
+        return "http://" + address.getHostString() + ":" + address.getPort() + COMPLETIONS_PATH;
+    }
+
+    /**
+     * @return a text only model without function calling served by this
+     *         server
+     */
+    public ModelApiDescriptor model()
+    {
+        return model( false, false );
+    }
+
+    public ModelApiDescriptor model( boolean vision, boolean functionCalling )
+    {
+        return new ModelApiDescriptor( "mock-openai", "openai", getApiUrl(), "mock-api-key", "mock-model", 7, vision, functionCalling );
+    }
+
+    /**
+     * Streams the given text, split into word tokens (a token starts with the
+     * whitespace preceding the word).
+     */
+    public MockOpenAIServer reply( String content )
+    {
+        return replyTokens( content.split( "(?<=\\S)(?=\\s)" ) );
+    }
+
+    /**
+     * Streams the given tokens, one per event.
+     */
+    public MockOpenAIServer replyTokens( String... tokens )
+    {
+        this.tokens = List.of( tokens );
+        this.functionName = null;
+        return this;
+    }
+
+    /**
+     * Streams a <code>function_call</code> instead of content: the function
+     * name in the first delta, followed by the arguments in small fragments.
+     *
+     * @param name
+     *            the function name
+     * @param arguments
+     *            the arguments as a JSON string
+     */
+    public MockOpenAIServer functionCall( String name, String arguments )
+    {
+        var fragments = new ArrayList<String>();
+        for ( int i = 0; i < arguments.length(); i += FUNCTION_ARGUMENTS_CHUNK_LENGTH )
+        {
+            fragments.add( arguments.substring( i, Math.min( arguments.length(), i + FUNCTION_ARGUMENTS_CHUNK_LENGTH ) ) );
+        }
+        this.tokens = fragments;
+        this.functionName = name;
+        return this;
+    }
+
+    /**
+     * Limits the token rate of the stream. A rate of 0 streams the tokens
+     * without delay.
+     */
+    public MockOpenAIServer tokensPerSecond( double tokensPerSecond )
+    {
+        this.tokensPerSecond = tokensPerSecond;
+        return this;
+    }
+
+    /**
+     * Randomly shortens or extends every inter-token delay by up to the given
+     * duration.
+     */
+    public MockOpenAIServer jitter( Duration jitter )
+    {
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * Delays the first token after the response headers have been sent.
+     */
+    public MockOpenAIServer timeToFirstToken( Duration timeToFirstToken )
+    {
+        this.timeToFirstToken = timeToFirstToken;
+        return this;
+    }
+
+    /**
+     * Closes the connection without finishing the response after the given
+     * number of tokens. A negative value disables dropping.
+     */
+    public MockOpenAIServer dropConnectionAfter( int tokens )
+    {
+        this.dropConnectionAfterTokens = tokens;
+        return this;
+    }
+
+    /**
+     * Answers the next requests with the given HTTP status codes (e.g. 429 or
+     * 500), one per request, before streaming again.
+     */
+    public MockOpenAIServer failWith( int... statusCodes )
+    {
+        Arrays.stream( statusCodes ).forEach( failures::add );
+        return this;
+    }
+
+    /**
+     * Sets the <code>Retry-After</code> header sent with 429 responses.
+     */
+    public MockOpenAIServer retryAfter( int seconds )
+    {
+        this.retryAfterSeconds = seconds;
+        return this;
+    }
+
+    /**
+     * Seeds the random generator of the jitter.
+     */
+    public MockOpenAIServer seed( long seed )
+    {
+        this.random = new Random( seed );
+        return this;
+    }
+
+    /**
+     * @return the bodies of all requests received so far
+     */
+    public List<String> getRequestBodies()
+    {
+        return List.copyOf( requestBodies );
+    }
+
+    public int getRequestCount()
+    {
+        return requestBodies.size();
+    }
+
+    /**
+     * @return the body of the last request received
+     */
+    public JsonNode getLastRequest() throws IOException
+    {
+        return mapper.readTree( requestBodies.get( requestBodies.size() - 1 ) );
+    }
+
+    @Override
+    public void close()
+    {
+        server.stop( 0 );
+        executor.shutdownNow();
+    }
+
+    private void handle( HttpExchange exchange ) throws IOException
+    {
+        try
+        {
+            respond( exchange );
+            // not closed when respond() fails: the server then drops the
+            // connection, leaving the response unterminated
+            exchange.close();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( e );
+        }
+    }
+
+    private void respond( HttpExchange exchange ) throws IOException, InterruptedException
+    {
+        if ( !"POST".equals( exchange.getRequestMethod() ) )
+        {
+            sendError( exchange, 405, "invalid_request_error", "Method not allowed" );
+            return;
+        }
+        if ( !COMPLETIONS_PATH.equals( exchange.getRequestURI().getPath() ) )
+        {
+            sendError( exchange, 404, "invalid_request_error", "Unknown path " + exchange.getRequestURI().getPath() );
+            return;
+        }
+        var body = new String( exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8 );
+        requestBodies.add( body );
+
+        Integer failure = failures.poll();
+        if ( failure != null )
+        {
+            if ( failure == 429 )
+            {
+                exchange.getResponseHeaders().add( "Retry-After", String.valueOf( retryAfterSeconds ) );
+                sendError( exchange, 429, "rate_limit_exceeded", "Rate limit reached" );
+            }
+            else
+            {
+                sendError( exchange, failure, "server_error", "The server had an error while processing your request" );
+            }
+            return;
+        }
+        var request = mapper.readTree( body );
+        if ( !request.path( "stream" ).asBoolean() )
+        {
+            sendError( exchange, 400, "invalid_request_error", "Only streaming requests are supported" );
+            return;
+        }
+        stream( exchange, request.path( "model" ).asText() );
+    }
+
+    private void stream( HttpExchange exchange, String model ) throws IOException, InterruptedException
+    {
+        // read the configuration once, so that it can be changed while streaming
+        var tokens = this.tokens;
+        var functionName = this.functionName;
+        int dropAfter = this.dropConnectionAfterTokens;
+
+        exchange.getResponseHeaders().add( "Content-Type", "text/event-stream" );
+        exchange.getResponseHeaders().add( "Cache-Control", "no-cache" );
+        exchange.sendResponseHeaders( 200, 0 );
+
+        var out = exchange.getResponseBody();
+        out.flush();
+        var delta = mapper.createObjectNode().put( "role", "assistant" );
+        if ( functionName != null )
+        {
+            delta.putNull( "content" );
+            delta.putObject( "function_call" ).put( "name", functionName ).put( "arguments", "" );
+        }
+        else
+        {
+            delta.put( "content", "" );
+        }
+        sleep( timeToFirstToken.toNanos() );
+        sendEvent( out, chunk( model, delta, null ) );
+
+        for ( int i = 0; i < tokens.size(); i++ )
+        {
+            if ( i == dropAfter )
+            {
+                throw new IOException( "Connection dropped by the mock server after " + i + " tokens" );
+            }
+            if ( i > 0 )
+            {
+                sleep( nextTokenDelayNanos() );
+            }
+            delta = mapper.createObjectNode();
+            if ( functionName != null )
+            {
+                delta.putObject( "function_call" ).put( "arguments", tokens.get( i ) );
+            }
+            else
+            {
+                delta.put( "content", tokens.get( i ) );
+            }
+            sendEvent( out, chunk( model, delta, null ) );
+        }
+        sendEvent( out, chunk( model, mapper.createObjectNode(), functionName != null ? "function_call" : "stop" ) );
+        sendEvent( out, "[DONE]" );
+    }
+
+    private String chunk( String model, ObjectNode delta, String finishReason ) throws IOException
+    {
+        var chunk = mapper.createObjectNode();
+        chunk.put( "id", "chatcmpl-mock" );
+        chunk.put( "object", "chat.completion.chunk" );
+        chunk.put( "created", TimeUnit.MILLISECONDS.toSeconds( System.currentTimeMillis() ) );
+        chunk.put( "model", model );
+        var choice = chunk.putArray( "choices" ).addObject();
+        choice.put( "index", 0 );
+        choice.set( "delta", delta );
+        if ( finishReason != null )
+        {
+            choice.put( "finish_reason", finishReason );
+        }
+        else
+        {
+            choice.putNull( "finish_reason" );
+        }
+        return mapper.writeValueAsString( chunk );
+    }
+
+    private void sendEvent( OutputStream out, String data ) throws IOException
+    {
+        out.write( ( "data: " + data + "\n\n" ).getBytes( StandardCharsets.UTF_8 ) );
+        out.flush();
+    }
+
+    private void sendError( HttpExchange exchange, int status, String type, String message ) throws IOException
+    {
+        var error = mapper.createObjectNode();
+        error.putObject( "error" ).put( "message", message ).put( "type", type ).putNull( "param" ).putNull( "code" );
+        var bytes = mapper.writeValueAsBytes( error );
+        exchange.getResponseHeaders().add( "Content-Type", "application/json" );
+        exchange.sendResponseHeaders( status, bytes.length );
+        exchange.getResponseBody().write( bytes );
+    }
+
+    private long nextTokenDelayNanos()
+    {
+        if ( tokensPerSecond <= 0 )
+        {
+            return 0;
+        }
+        long delay = (long) ( TimeUnit.SECONDS.toNanos( 1 ) / tokensPerSecond );
+        long jitterNanos = jitter.toNanos();
+        if ( jitterNanos > 0 )
+        {
+            delay += (long) ( ( random.nextDouble() * 2 - 1 ) * jitterNanos );
+        }
+        return Math.max( 0, delay );
+    }
+
+    private void sleep( long nanos ) throws InterruptedException
+    {
+        if ( nanos > 0 )
+        {
+            TimeUnit.NANOSECONDS.sleep( nanos );
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.e4.core.contexts.ContextInjectionFactory;
+import org.eclipse.e4.core.contexts.EclipseContextFactory;
+import org.eclipse.e4.core.contexts.IEclipseContext;
+import org.eclipse.jface.preference.IPreferenceStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.Activator;
+import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+import com.github.gradusnikov.eclipse.assistai.preferences.ModelApiDescriptorUtilities;
+import com.github.gradusnikov.eclipse.assistai.preferences.PreferenceConstants;
+import com.github.gradusnikov.eclipse.assistai.prompt.Prompts;
+import com.github.gradusnikov.eclipse.assistai.services.LatencyTracker;
+import com.github.gradusnikov.eclipse.assistai.services.ModelRouter;
+
+/**
+ * Picks the model of a request with {@link ModelRouter}.
+ */
+public class ModelRouterTest
+{
+    private final ModelApiDescriptor large = model( "large", "gpt-4o", 128_000 );
+
+    private final ModelApiDescriptor fast = model( "fast", "gpt-4o-mini", 8_000 );
+
+    private final ModelApiDescriptor slow = model( "slow", "gpt-4-turbo", 8_000 );
+
+    private IEclipseContext context;
+
+    private ModelRouter router;
+
+    private LatencyTracker latencyTracker;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        var preferenceStore = Activator.getDefault().getPreferenceStore();
+        preferenceStore.setValue( PreferenceConstants.ASSISTAI_DEFINED_MODELS, ModelApiDescriptorUtilities.toJson( large, fast, slow ) );
+        preferenceStore.setValue( PreferenceConstants.ASSISTAI_SELECTED_MODEL, slow.uid() );
+        preferenceStore.setValue( PreferenceConstants.ASSISTAI_ROUTING_ENABLED, true );
+        context = EclipseContextFactory.create();
+        context.set( ILog.class, Activator.getDefault().getLog() );
+        latencyTracker = ContextInjectionFactory.make( LatencyTracker.class, context );
+        context.set( LatencyTracker.class, latencyTracker );
+        router = ContextInjectionFactory.make( ModelRouter.class, context );
+        for ( var model : new ModelApiDescriptor[] { large, fast, slow } )
+        {
+            latencyTracker.recordFirstToken( model, TimeUnit.MILLISECONDS.toNanos( model == fast ? 200 : model == large ? 2000 : 3000 ) );
+            latencyTracker.recordThroughput( model, 100, TimeUnit.SECONDS.toNanos( model == fast ? 1 : 4 ) );
+        }
+    }
+
+    @AfterEach
+    public void afterEach()
+    {
+        IPreferenceStore preferenceStore = Activator.getDefault().getPreferenceStore();
+        preferenceStore.setToDefault( PreferenceConstants.ASSISTAI_DEFINED_MODELS );
+        preferenceStore.setToDefault( PreferenceConstants.ASSISTAI_SELECTED_MODEL );
+        preferenceStore.setToDefault( PreferenceConstants.ASSISTAI_ROUTING_ENABLED );
+        context.dispose();
+    }
+
+    @Test
+    public void routesSmallPromptToFastestModel()
+    {
+        var conversation = conversation( 1 );
+
+        assertThat( router.route( conversation, Prompts.GIT_COMMENT ).uid(), equalTo( fast.uid() ) );
+        // the chat and larger tasks stay with the selected model
+        assertThat( router.route( conversation, null ).uid(), equalTo( slow.uid() ) );
+        assertThat( router.route( conversation, Prompts.REFACTOR ).uid(), equalTo( slow.uid() ) );
+    }
+
+    @Test
+    public void followsMeasuredLatency()
+    {
+        for ( int i = 0; i < 20; i++ )
+        {
+            latencyTracker.recordFirstToken( fast, TimeUnit.SECONDS.toNanos( 10 ) );
+        }
+
+        assertThat( router.route( conversation( 1 ), Prompts.GIT_COMMENT ).uid(), equalTo( large.uid() ) );
+    }
+
+    @Test
+    public void routesLongConversationToLargerContextWindow()
+    {
+        var conversation = conversation( 200 );
+
+        assertThat( router.route( conversation, null ).uid(), equalTo( large.uid() ) );
+        assertThat( router.route( conversation, Prompts.GIT_COMMENT ).uid(), equalTo( large.uid() ) );
+    }
+
+    @Test
+    public void usesSelectedModelWithoutRouting()
+    {
+        Activator.getDefault().getPreferenceStore().setValue( PreferenceConstants.ASSISTAI_ROUTING_ENABLED, false );
+
+        assertThat( router.route( conversation( 200 ), Prompts.GIT_COMMENT ).uid(), equalTo( slow.uid() ) );
+    }
+
+    private static Conversation conversation( int messages )
+    {
+        var conversation = new Conversation();
+        for ( int i = 0; i < messages; i++ )
+        {
+            var message = new ChatMessage( String.valueOf( i ), i % 2 == 0 ? "user" : "assistant" );
+            message.setContent( "Message " + i + " of a conversation about the quick brown fox jumping over the lazy dog. ".repeat( 10 ) );
+            conversation.add( message );
+        }
+        return conversation;
+    }
+
+    private static ModelApiDescriptor model( String uid, String modelName, int contextWindow )
+    {
+        return new ModelApiDescriptor( uid, "openai", "http://localhost", "", modelName, 7, false, false, 0, null, 0, contextWindow, 0, 0, 0, 0, 0 );
+    }
+}
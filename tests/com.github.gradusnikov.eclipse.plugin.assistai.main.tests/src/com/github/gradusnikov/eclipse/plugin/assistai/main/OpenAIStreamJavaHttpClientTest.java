@@ -0,0 +1,384 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.e4.core.contexts.ContextInjectionFactory;
+import org.eclipse.e4.core.contexts.EclipseContextFactory;
+import org.eclipse.e4.core.contexts.IEclipseContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.gradusnikov.eclipse.assistai.Activator;
+import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+import com.github.gradusnikov.eclipse.assistai.model.FunctionCall;
+import com.github.gradusnikov.eclipse.assistai.model.Incoming;
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+import com.github.gradusnikov.eclipse.assistai.preferences.ModelApiDescriptorUtilities;
+import com.github.gradusnikov.eclipse.assistai.preferences.PreferenceConstants;
+import com.github.gradusnikov.eclipse.assistai.prompt.Prompts;
+import com.github.gradusnikov.eclipse.assistai.services.OpenAIStreamJavaHttpClient;
+import com.github.gradusnikov.eclipse.assistai.services.ResponseCache;
+
+/**
+ * Streams conversations through {@link OpenAIStreamJavaHttpClient} from a
+ * {@link MockOpenAIServer}.
+ */
+public class OpenAIStreamJavaHttpClientTest
+{
+    private MockOpenAIServer server;
+
+    private IEclipseContext context;
+
+    @BeforeEach
+    public void beforeEach() throws Exception
+    {
+        server = MockOpenAIServer.start();
+        context = EclipseContextFactory.create();
+        context.set( ILog.class, Activator.getDefault().getLog() );
+    }
+
+    @AfterEach
+    public void afterEach()
+    {
+        server.close();
+        context.dispose();
+    }
+
+    @Test
+    public void streamsContent() throws Exception
+    {
+        server.reply( "Hello from the **mock** server.\n\nSecond paragraph." ).tokensPerSecond( 200 );
+
+        var subscriber = send( server.model() );
+
+        assertThat( subscriber.error, nullValue() );
+        assertThat( subscriber.payload( Incoming.Type.CONTENT ), equalTo( "Hello from the **mock** server.\n\nSecond paragraph." ) );
+        assertThat( server.getLastRequest().path( "model" ).asText(), equalTo( "mock-model" ) );
+        assertThat( server.getLastRequest().path( "stream" ).asBoolean(), equalTo( true ) );
+    }
+
+    @Test
+    public void streamsFunctionCall() throws Exception
+    {
+        server.functionCall( "getCurrentWeather", "{\"location\": \"Paris, France\", \"unit\": \"metric\"}" );
+
+        var subscriber = send( server.model( false, true ) );
+
+        assertThat( subscriber.error, nullValue() );
+        // assembled the same way as FunctionCallSubscriber does
+        var json = subscriber.payload( Incoming.Type.FUNCTION_CALL ) + "}";
+        var functionCall = new ObjectMapper().readValue( json.replace( "\"function_call\" : ", "" ), FunctionCall.class );
+        assertThat( functionCall.name(), equalTo( "getCurrentWeather" ) );
+        assertThat( functionCall.arguments().get( "location" ), equalTo( "Paris, France" ) );
+    }
+
+    @Test
+    public void retriesOnServerError() throws Exception
+    {
+        server.reply( "sent on retry" ).failWith( 500 );
+
+        var subscriber = send( server.model() );
+
+        assertThat( subscriber.error, nullValue() );
+        assertThat( subscriber.payload( Incoming.Type.CONTENT ), equalTo( "sent on retry" ) );
+        assertThat( server.getRequestCount(), equalTo( 2 ) );
+    }
+
+    @Test
+    public void completesWithoutContentOnClientError() throws Exception
+    {
+        server.reply( "never sent" ).failWith( 400 );
+
+        var subscriber = send( server.model() );
+
+        assertThat( subscriber.payload( Incoming.Type.CONTENT ), equalTo( "" ) );
+        assertThat( server.getRequestCount(), equalTo( 1 ) );
+    }
+
+    @Test
+    public void failsOnDroppedConnection() throws Exception
+    {
+        server.replyTokens( "one", " two", " three", " four" ).dropConnectionAfter( 2 );
+
+        var subscriber = send( server.model() );
+
+        assertThat( subscriber.error, notNullValue() );
+        assertThat( subscriber.payload( Incoming.Type.CONTENT ), equalTo( "one two" ) );
+    }
+
+    @Test
+    public void cancelsStalledStreamImmediately() throws Exception
+    {
+        // the second token follows after 20 seconds
+        server.replyTokens( "one", " two" ).tokensPerSecond( 0.05 );
+        selectModel( server.model() );
+
+        var client = ContextInjectionFactory.make( OpenAIStreamJavaHttpClient.class, context );
+        var subscriber = new RecordingSubscriber();
+        client.subscribe( subscriber );
+        var reader = new Thread( client.run( conversation() ) );
+        reader.start();
+        while ( !subscriber.payload( Incoming.Type.CONTENT ).equals( "one" ) )
+        {
+            Thread.sleep( 10 );
+        }
+
+        long start = System.nanoTime();
+        client.cancel();
+        reader.join( 1000 );
+        long stopMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+        assertThat( reader.isAlive(), equalTo( false ) );
+        assertThat( stopMillis, lessThan( 100L ) );
+        assertThat( subscriber.done.await( 1, TimeUnit.SECONDS ), equalTo( true ) );
+        assertThat( subscriber.error, instanceOf( CancellationException.class ) );
+    }
+
+    @Test
+    public void abortsStreamStalledLongerThanIdleTimeout() throws Exception
+    {
+        // the second token follows after 20 seconds
+        server.replyTokens( "one", " two" ).tokensPerSecond( 0.05 );
+
+        long start = System.nanoTime();
+        var subscriber = send( withTimeouts( server.model(), 10, 1 ) );
+        long stopMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+        assertThat( subscriber.payload( Incoming.Type.CONTENT ), equalTo( "one" ) );
+        assertThat( subscriber.error, instanceOf( HttpTimeoutException.class ) );
+        // aborted by the idle timeout, not by the first token timeout
+        assertThat( stopMillis, lessThan( 5000L ) );
+    }
+
+    @Test
+    public void abortsRequestWithoutFirstToken() throws Exception
+    {
+        server.replyTokens( "one" ).timeToFirstToken( Duration.ofSeconds( 20 ) );
+
+        var subscriber = send( withTimeouts( server.model(), 1, 5 ) );
+
+        assertThat( subscriber.payload( Incoming.Type.CONTENT ), equalTo( "" ) );
+        assertThat( subscriber.error, instanceOf( HttpTimeoutException.class ) );
+    }
+
+    @Test
+    public void keepsStreamLongerThanIdleTimeout() throws Exception
+    {
+        // 3 seconds of tokens, each within the idle timeout
+        server.replyTokens( "a", "b", "c", "d", "e", "f", "g", "h", "i", "j", "k", "l" ).tokensPerSecond( 4 );
+
+        var subscriber = send( withTimeouts( server.model(), 1, 1 ) );
+
+        assertThat( subscriber.error, nullValue() );
+        assertThat( subscriber.payload( Incoming.Type.CONTENT ), equalTo( "abcdefghijkl" ) );
+    }
+
+    @Test
+    public void retriesRateLimitedRequestAfterRetryAfter() throws Exception
+    {
+        server.reply( "Hello" ).failWith( 429 ).retryAfter( 1 );
+
+        long start = System.nanoTime();
+        var subscriber = send( server.model() );
+
+        assertThat( subscriber.error, nullValue() );
+        assertThat( subscriber.payload( Incoming.Type.CONTENT ), equalTo( "Hello" ) );
+        assertThat( server.getRequestCount(), equalTo( 2 ) );
+        assertThat( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ), greaterThanOrEqualTo( 1000L ) );
+    }
+
+    @Test
+    public void failsWithoutRetryOnClientError() throws Exception
+    {
+        server.reply( "Hello" ).failWith( 400 );
+
+        var subscriber = send( server.model() );
+
+        assertThat( subscriber.error, instanceOf( IOException.class ) );
+        assertThat( subscriber.payload( Incoming.Type.CONTENT ), equalTo( "" ) );
+        assertThat( server.getRequestCount(), equalTo( 1 ) );
+    }
+
+    @Test
+    public void hedgesSlowRequestWithSecondModel() throws Exception
+    {
+        server.reply( "Slow reply" ).timeToFirstToken( Duration.ofSeconds( 20 ) );
+        try ( var hedgeServer = MockOpenAIServer.start() )
+        {
+            hedgeServer.reply( "Hedged reply" );
+            var hedgeModel = new ModelApiDescriptor( "mock-hedge", "openai", hedgeServer.getApiUrl(), "mock-api-key", "mock-hedge", 7, false, false );
+            var preferenceStore = Activator.getDefault().getPreferenceStore();
+            preferenceStore.setValue( PreferenceConstants.ASSISTAI_HEDGE_DELAY_MILLIS, 200 );
+            try
+            {
+                selectModel( server.model() );
+                preferenceStore.setValue( PreferenceConstants.ASSISTAI_DEFINED_MODELS, ModelApiDescriptorUtilities.toJson( server.model(), hedgeModel ) );
+                preferenceStore.setValue( PreferenceConstants.ASSISTAI_HEDGE_MODEL, hedgeModel.uid() );
+
+                long start = System.nanoTime();
+                var client = ContextInjectionFactory.make( OpenAIStreamJavaHttpClient.class, context );
+                var subscriber = new RecordingSubscriber();
+                client.subscribe( subscriber );
+                client.run( conversation() ).run();
+
+                assertThat( subscriber.done.await( 1, TimeUnit.SECONDS ), equalTo( true ) );
+                assertThat( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ), lessThan( 5000L ) );
+                assertThat( subscriber.error, nullValue() );
+                assertThat( subscriber.payload( Incoming.Type.CONTENT ), equalTo( "Hedged reply" ) );
+                assertThat( hedgeServer.getRequestCount(), equalTo( 1 ) );
+            }
+            finally
+            {
+                preferenceStore.setToDefault( PreferenceConstants.ASSISTAI_HEDGE_MODEL );
+                preferenceStore.setToDefault( PreferenceConstants.ASSISTAI_HEDGE_DELAY_MILLIS );
+            }
+        }
+    }
+
+    @Test
+    public void repliesToRepeatedPromptFromCache() throws Exception
+    {
+        server.reply( "Fix the build" ).tokensPerSecond( 200 );
+        var preferenceStore = Activator.getDefault().getPreferenceStore();
+        preferenceStore.setValue( PreferenceConstants.ASSISTAI_RESPONSE_CACHE_ENABLED, true );
+        // an empty cache for this test, used by the clients made in the context
+        var directory = Files.createTempDirectory( "response-cache" );
+        var responseCache = new ResponseCache( directory );
+        ContextInjectionFactory.inject( responseCache, context );
+        context.set( ResponseCache.class, responseCache );
+        try
+        {
+            selectModel( server.model() );
+            var first = sendPrompt( Prompts.GIT_COMMENT );
+            var second = sendPrompt( Prompts.GIT_COMMENT );
+
+            assertThat( first.payload( Incoming.Type.CONTENT ), equalTo( "Fix the build" ) );
+            assertThat( second.payload( Incoming.Type.CONTENT ), equalTo( "Fix the build" ) );
+            assertThat( server.getRequestCount(), equalTo( 1 ) );
+
+            // editing the prompt template drops its replies
+            preferenceStore.setValue( Prompts.GIT_COMMENT.preferenceName(), preferenceStore.getString( Prompts.GIT_COMMENT.preferenceName() ) + " " );
+            sendPrompt( Prompts.GIT_COMMENT );
+            assertThat( server.getRequestCount(), equalTo( 2 ) );
+        }
+        finally
+        {
+            preferenceStore.setToDefault( PreferenceConstants.ASSISTAI_RESPONSE_CACHE_ENABLED );
+            preferenceStore.setToDefault( Prompts.GIT_COMMENT.preferenceName() );
+            try ( var files = Files.walk( directory ) )
+            {
+                for ( var file : files.sorted( Comparator.reverseOrder() ).toList() )
+                {
+                    Files.deleteIfExists( file );
+                }
+            }
+        }
+    }
+
+    private RecordingSubscriber sendPrompt( Prompts promptType ) throws Exception
+    {
+        var client = ContextInjectionFactory.make( OpenAIStreamJavaHttpClient.class, context );
+        client.setPromptType( promptType );
+        var subscriber = new RecordingSubscriber();
+        client.subscribe( subscriber );
+        client.run( conversation() ).run();
+        assertThat( "stream did not complete", subscriber.done.await( 10, TimeUnit.SECONDS ), equalTo( true ) );
+        return subscriber;
+    }
+
+    private RecordingSubscriber send( ModelApiDescriptor model ) throws Exception
+    {
+        selectModel( model );
+        var client = ContextInjectionFactory.make( OpenAIStreamJavaHttpClient.class, context );
+        var subscriber = new RecordingSubscriber();
+        client.subscribe( subscriber );
+        client.run( conversation() ).run();
+        assertThat( "stream did not complete", subscriber.done.await( 10, TimeUnit.SECONDS ), equalTo( true ) );
+        return subscriber;
+    }
+
+    private static ModelApiDescriptor withTimeouts( ModelApiDescriptor model, int firstTokenTimeoutSeconds, int idleTimeoutSeconds )
+    {
+        return new ModelApiDescriptor( model.uid(), model.apiType(), model.apiUrl(), model.apiKey(), model.modelName(), model.temperature(),
+                model.vision(), model.functionCalling(), model.maxImageEdge(), model.imageDetail(), model.jpegQuality(), model.contextWindow(),
+                model.connectTimeoutSeconds(), firstTokenTimeoutSeconds, idleTimeoutSeconds, model.requestsPerMinute(), model.tokensPerMinute() );
+    }
+
+    private static void selectModel( ModelApiDescriptor model )
+    {
+        var preferenceStore = Activator.getDefault().getPreferenceStore();
+        preferenceStore.setValue( PreferenceConstants.ASSISTAI_DEFINED_MODELS, ModelApiDescriptorUtilities.toJson( model ) );
+        preferenceStore.setValue( PreferenceConstants.ASSISTAI_SELECTED_MODEL, model.uid() );
+    }
+
+    private static Conversation conversation()
+    {
+        var conversation = new Conversation();
+        var message = new ChatMessage( "1", "user" );
+        message.setContent( "What is the weather like in Paris?" );
+        conversation.add( message );
+        return conversation;
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<List<Incoming>>
+    {
+        private final List<Incoming> items = new CopyOnWriteArrayList<>();
+
+        private final CountDownLatch done = new CountDownLatch( 1 );
+
+        private volatile Throwable error;
+
+        @Override
+        public void onSubscribe( Flow.Subscription subscription )
+        {
+            subscription.request( Long.MAX_VALUE );
+        }
+
+        @Override
+        public void onNext( List<Incoming> batch )
+        {
+            items.addAll( batch );
+        }
+
+        @Override
+        public void onError( Throwable throwable )
+        {
+            error = throwable;
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete()
+        {
+            done.countDown();
+        }
+
+        String payload( Incoming.Type type )
+        {
+            return items.stream().filter( item -> item.type() == type ).map( Incoming::payload ).collect( Collectors.joining() );
+        }
+    }
+}
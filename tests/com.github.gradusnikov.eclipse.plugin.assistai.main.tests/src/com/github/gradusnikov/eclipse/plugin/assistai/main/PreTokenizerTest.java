@@ -0,0 +1,101 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.tokenizer.PreTokenizer;
+
+/**
+ * Compares {@link PreTokenizer} with the regular expressions of the tiktoken
+ * encodings.
+ */
+public class PreTokenizerTest
+{
+    private static final Pattern CL100K = Pattern.compile( 
+            "(?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\\r\\n\\p{L}\\p{N}]?\\p{L}+|\\p{N}{1,3}| ?[^\\s\\p{L}\\p{N}]+[\\r\\n]*|\\s*[\\r\\n]+|\\s+(?!\\S)|\\s+",
+            Pattern.UNICODE_CHARACTER_CLASS );
+
+    private static final Pattern O200K = Pattern.compile( String.join( "|",
+            "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]*[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]+(?i:'s|'t|'re|'ve|'m|'ll|'d)?",
+            "[^\\r\\n\\p{L}\\p{N}]?[\\p{Lu}\\p{Lt}\\p{Lm}\\p{Lo}\\p{M}]+[\\p{Ll}\\p{Lm}\\p{Lo}\\p{M}]*(?i:'s|'t|'re|'ve|'m|'ll|'d)?",
+            "\\p{N}{1,3}", 
+            " ?[^\\s\\p{L}\\p{N}]+[\\r\\n/]*", 
+            "\\s*[\\r\\n]+", 
+            "\\s+(?!\\S)", 
+            "\\s+" ),
+            Pattern.UNICODE_CHARACTER_CLASS );
+
+    /** characters of all classes the expressions distinguish */
+    private static final String ALPHABET = "aZ eE'sStTrRvVlLmMdD0129 \t\n\r\n!?./,;:()_-éÉ  ́²Ⅷʰ中文ſ😀";
+
+    @Test
+    public void splitsLikeCl100kExpression()
+    {
+        assertThat( split( PreTokenizer.CL100K, "Hello world's 12345 foo!!\n\n  bar" ), 
+                contains( "Hello", " world", "'s", " ", "123", "45", " foo", "!!\n\n", " ", " bar" ) );
+        compareRandomTexts( PreTokenizer.CL100K, CL100K );
+    }
+
+    @Test
+    public void splitsLikeO200kExpression()
+    {
+        assertThat( split( PreTokenizer.O200K, "HTTPServer's URL: https://example.com/a\n" ), 
+                contains( "HTTPServer's", " URL", ":", " https", "://", "example", ".com", "/a", "\n" ) );
+        compareRandomTexts( PreTokenizer.O200K, O200K );
+    }
+
+    private void compareRandomTexts( PreTokenizer preTokenizer, Pattern pattern )
+    {
+        var random = new Random( 42 );
+        for ( int n = 0; n < 20000; n++ )
+        {
+            var text = new StringBuilder();
+            int length = 1 + random.nextInt( 12 );
+            for ( int i = 0; i < length; i++ )
+            {
+                int index = random.nextInt( ALPHABET.length() );
+                if ( Character.isSurrogate( ALPHABET.charAt( index ) ) )
+                {
+                    index = ALPHABET.length() - 2;
+                    text.append( ALPHABET, index, index + 2 );
+                }
+                else
+                {
+                    text.append( ALPHABET.charAt( index ) );
+                }
+            }
+            assertThat( "pieces of \"" + text + "\"", split( preTokenizer, text ), equalTo( split( pattern, text ) ) );
+        }
+    }
+
+    private static List<String> split( PreTokenizer preTokenizer, CharSequence text )
+    {
+        var pieces = new ArrayList<String>();
+        for ( int start = 0; start < text.length(); )
+        {
+            int end = preTokenizer.pieceEnd( text, start );
+            pieces.add( text.subSequence( start, end ).toString() );
+            start = end;
+        }
+        return pieces;
+    }
+
+    private static List<String> split( Pattern pattern, CharSequence text )
+    {
+        var pieces = new ArrayList<String>();
+        var matcher = pattern.matcher( text );
+        while ( matcher.find() )
+        {
+            pieces.add( matcher.group() );
+        }
+        return pieces;
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.net.http.HttpHeaders;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.core.runtime.ILog;
+import org.eclipse.e4.core.contexts.ContextInjectionFactory;
+import org.eclipse.e4.core.contexts.EclipseContextFactory;
+import org.eclipse.e4.core.contexts.IEclipseContext;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.Activator;
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+import com.github.gradusnikov.eclipse.assistai.preferences.PreferenceConstants;
+import com.github.gradusnikov.eclipse.assistai.services.RequestScheduler;
+
+/**
+ * Queues requests with a {@link RequestScheduler} and parses the rate limit
+ * headers.
+ */
+public class RequestSchedulerTest
+{
+    private IEclipseContext context;
+
+    private RequestScheduler scheduler;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        context = EclipseContextFactory.create();
+        context.set( ILog.class, Activator.getDefault().getLog() );
+        scheduler = ContextInjectionFactory.make( RequestScheduler.class, context );
+    }
+
+    @AfterEach
+    public void afterEach()
+    {
+        Activator.getDefault().getPreferenceStore().setToDefault( PreferenceConstants.ASSISTAI_MAX_CONCURRENT_REQUESTS );
+        context.dispose();
+    }
+
+    @Test
+    public void grantsInteractiveRequestsFirst() throws Exception
+    {
+        Activator.getDefault().getPreferenceStore().setValue( PreferenceConstants.ASSISTAI_MAX_CONCURRENT_REQUESTS, 1 );
+        var model = model( 0, 0 );
+        var granted = new CopyOnWriteArrayList<String>();
+        var running = scheduler.acquire( model, 10, RequestScheduler.Priority.INTERACTIVE );
+
+        var background = request( model, RequestScheduler.Priority.BACKGROUND, "background", granted );
+        Thread.sleep( 100 );
+        var interactive = request( model, RequestScheduler.Priority.INTERACTIVE, "interactive", granted );
+        Thread.sleep( 100 );
+        assertThat( granted, equalTo( List.of() ) );
+
+        running.close();
+        background.join( 1000 );
+        interactive.join( 1000 );
+
+        assertThat( granted, contains( "interactive", "background" ) );
+    }
+
+    @Test
+    public void waitsForTokenBudget() throws Exception
+    {
+        var model = model( 0, 6000 );
+        scheduler.acquire( model, 6000, RequestScheduler.Priority.INTERACTIVE ).close();
+
+        long start = System.nanoTime();
+        scheduler.acquire( model, 100, RequestScheduler.Priority.INTERACTIVE ).close();
+        long waitedMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+        // 6000 tokens per minute refill 100 tokens per second
+        assertThat( waitedMillis, greaterThan( 900L ) );
+        assertThat( waitedMillis, lessThan( 2000L ) );
+    }
+
+    @Test
+    public void pausesRateLimitedModel() throws Exception
+    {
+        var model = model( 0, 0 );
+        long delay = scheduler.getRetryDelayMillis( model, 0, 429, headers( Map.of( "retry-after-ms", "500" ) ) );
+        assertThat( delay >= 500 && delay <= 550, equalTo( true ) );
+
+        long start = System.nanoTime();
+        scheduler.acquire( model, 10, RequestScheduler.Priority.INTERACTIVE ).close();
+
+        assertThat( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start ), greaterThan( 400L ) );
+    }
+
+    @Test
+    public void retriesOnlyTransientFailures()
+    {
+        var model = model( 0, 0 );
+        var none = headers( Map.of() );
+
+        assertThat( scheduler.getRetryDelayMillis( model, 0, 400, none ), equalTo( -1L ) );
+        assertThat( scheduler.getRetryDelayMillis( model, RequestScheduler.MAX_RETRIES, 503, none ), equalTo( -1L ) );
+        // a daily quota is not waited for
+        assertThat( scheduler.getRetryDelayMillis( model, 0, 429, headers( Map.of( "retry-after", "3600" ) ) ), equalTo( -1L ) );
+        long backoff = scheduler.getRetryDelayMillis( model, 2, 503, none );
+        assertThat( backoff >= 2000 && backoff <= 4000, equalTo( true ) );
+    }
+
+    @Test
+    public void parsesRateLimitHeaders()
+    {
+        assertThat( RequestScheduler.parseResetDuration( "1s" ), equalTo( 1000L ) );
+        assertThat( RequestScheduler.parseResetDuration( "6m0s" ), equalTo( 360_000L ) );
+        assertThat( RequestScheduler.parseResetDuration( "20ms" ), equalTo( 20L ) );
+        assertThat( RequestScheduler.parseResetDuration( "1.5s" ), equalTo( 1500L ) );
+        assertThat( RequestScheduler.parseResetDuration( "soon" ), equalTo( -1L ) );
+
+        assertThat( RequestScheduler.getRetryAfterMillis( headers( Map.of( "Retry-After", "2" ) ) ), equalTo( 2000L ) );
+        assertThat( RequestScheduler.getRetryAfterMillis( headers( Map.of( "retry-after-ms", "250" ) ) ), equalTo( 250L ) );
+        assertThat( RequestScheduler.getRetryAfterMillis( headers( Map.of() ) ), equalTo( -1L ) );
+        var date = ZonedDateTime.now().plusSeconds( 30 ).format( DateTimeFormatter.RFC_1123_DATE_TIME );
+        long millis = RequestScheduler.getRetryAfterMillis( headers( Map.of( "Retry-After", date ) ) );
+        assertThat( millis > 28_000 && millis <= 30_000, equalTo( true ) );
+    }
+
+    @SuppressWarnings( "try" ) // the permit is held while the block runs
+    private Thread request( ModelApiDescriptor model, RequestScheduler.Priority priority, String name, List<String> granted )
+    {
+        var thread = new Thread( () -> {
+            try ( var permit = scheduler.acquire( model, 10, priority ) )
+            {
+                granted.add( name );
+                Thread.sleep( 10 );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        } );
+        thread.start();
+        return thread;
+    }
+
+    private static ModelApiDescriptor model( int requestsPerMinute, int tokensPerMinute )
+    {
+        return new ModelApiDescriptor( "test", "openai", "http://localhost", "", "gpt-4o", 7, false, false, 0, null, 0, 0, 0, 0, 0,
+                requestsPerMinute, tokensPerMinute );
+    }
+
+    private static HttpHeaders headers( Map<String, String> values )
+    {
+        var map = new HashMap<String, List<String>>();
+        values.forEach( ( name, value ) -> map.put( name, List.of( value ) ) );
+        return HttpHeaders.of( map, ( name, value ) -> true );
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Optional;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.model.ModelApiDescriptor;
+import com.github.gradusnikov.eclipse.assistai.prompt.Prompts;
+import com.github.gradusnikov.eclipse.assistai.services.ResponseCache;
+
+/**
+ * Keeps replies in memory and on disk with {@link ResponseCache}.
+ */
+public class ResponseCacheTest
+{
+    private static final Duration DAY = Duration.ofDays( 1 );
+
+    private final ModelApiDescriptor model = new ModelApiDescriptor( "test", "openai", "http://localhost", "", "gpt-4o", 7, false, false );
+
+    private Path directory;
+
+    @BeforeEach
+    public void beforeEach() throws Exception
+    {
+        directory = Files.createTempDirectory( "response-cache" );
+    }
+
+    @AfterEach
+    public void afterEach() throws Exception
+    {
+        try ( var files = Files.walk( directory ) )
+        {
+            for ( var file : files.sorted( Comparator.reverseOrder() ).toList() )
+            {
+                Files.deleteIfExists( file );
+            }
+        }
+    }
+
+    @Test
+    public void keysRequestByEndpointAndBody()
+    {
+        var key = ResponseCache.getKey( model, "{\"model\":\"gpt-4o\"}" );
+
+        assertThat( ResponseCache.getKey( model, "{\"model\":\"gpt-4o\"}" ), equalTo( key ) );
+        assertThat( ResponseCache.getKey( model, "{\"model\":\"gpt-4o-mini\"}" ), not( equalTo( key ) ) );
+        var otherEndpoint = new ModelApiDescriptor( "test", "openai", "http://example.com", "", "gpt-4o", 7, false, false );
+        assertThat( ResponseCache.getKey( otherEndpoint, "{\"model\":\"gpt-4o\"}" ), not( equalTo( key ) ) );
+    }
+
+    @Test
+    public void readsReplyWrittenBefore()
+    {
+        var key = ResponseCache.getKey( model, "request" );
+        new ResponseCache( directory ).put( Prompts.GIT_COMMENT, key, "Fix the build\n\nDetails." );
+
+        var cache = new ResponseCache( directory );
+
+        assertThat( cache.get( Prompts.GIT_COMMENT, key, DAY ), equalTo( Optional.of( "Fix the build\n\nDetails." ) ) );
+        assertThat( cache.get( Prompts.DOCUMENT, key, DAY ), equalTo( Optional.empty() ) );
+        assertThat( cache.get( Prompts.GIT_COMMENT, ResponseCache.getKey( model, "other request" ), DAY ), equalTo( Optional.empty() ) );
+    }
+
+    @Test
+    public void expiresOldReplies() throws Exception
+    {
+        var key = ResponseCache.getKey( model, "request" );
+        var cache = new ResponseCache( directory );
+        cache.put( Prompts.DOCUMENT, key, "/** Javadoc */" );
+        Thread.sleep( 20 );
+
+        assertThat( cache.get( Prompts.DOCUMENT, key, Duration.ofMillis( 10 ) ), equalTo( Optional.empty() ) );
+        assertThat( new ResponseCache( directory ).get( Prompts.DOCUMENT, key, DAY ), equalTo( Optional.empty() ) );
+    }
+
+    @Test
+    public void invalidatesRepliesToEditedPrompt()
+    {
+        var commitKey = ResponseCache.getKey( model, "commit" );
+        var javadocKey = ResponseCache.getKey( model, "javadoc" );
+        var cache = new ResponseCache( directory );
+        cache.put( Prompts.GIT_COMMENT, commitKey, "Fix the build" );
+        cache.put( Prompts.DOCUMENT, javadocKey, "/** Javadoc */" );
+
+        cache.invalidate( Prompts.GIT_COMMENT );
+
+        assertThat( cache.get( Prompts.GIT_COMMENT, commitKey, DAY ), equalTo( Optional.empty() ) );
+        assertThat( new ResponseCache( directory ).get( Prompts.GIT_COMMENT, commitKey, DAY ), equalTo( Optional.empty() ) );
+        assertThat( new ResponseCache( directory ).get( Prompts.DOCUMENT, javadocKey, DAY ), equalTo( Optional.of( "/** Javadoc */" ) ) );
+
+        cache.clear();
+
+        assertThat( new ResponseCache( directory ).get( Prompts.DOCUMENT, javadocKey, DAY ), equalTo( Optional.empty() ) );
+    }
+}
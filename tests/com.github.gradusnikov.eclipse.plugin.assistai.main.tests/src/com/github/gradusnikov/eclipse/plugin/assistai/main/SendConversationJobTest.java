@@ -0,0 +1,90 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.List;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.PaletteData;
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.jobs.SendConversationJob;
+import com.github.gradusnikov.eclipse.assistai.model.ChatMessage;
+import com.github.gradusnikov.eclipse.assistai.model.Conversation;
+import com.github.gradusnikov.eclipse.assistai.part.Attachment;
+
+/**
+ * Recognizes a repeated message with
+ * {@link SendConversationJob#isAnswering(ChatMessage)}.
+ */
+public class SendConversationJobTest
+{
+    @Test
+    public void recognizesRepeatedMessage()
+    {
+        var conversation = new Conversation();
+        var sent = message( "1", "user", "Explain this method" );
+        conversation.add( sent );
+        var job = new SendConversationJob();
+        job.setConversation( conversation );
+
+        assertThat( job.isAnswering( message( "2", "user", "Explain this method" ) ), equalTo( true ) );
+        assertThat( job.isAnswering( sent ), equalTo( false ) );
+        assertThat( job.isAnswering( message( "3", "user", "Explain this class" ) ), equalTo( false ) );
+        assertThat( job.isAnswering( message( "4", "assistant", "Explain this method" ) ), equalTo( false ) );
+    }
+
+    @Test
+    public void comparesAttachments()
+    {
+        var conversation = new Conversation();
+        var sent = message( "1", "user", "Explain this method" );
+        sent.setAttachments( List.of( file( "int answer = 42;" ), image( 1 ) ) );
+        conversation.add( sent );
+        var job = new SendConversationJob();
+        job.setConversation( conversation );
+
+        var repeated = message( "2", "user", "Explain this method" );
+        repeated.setAttachments( List.of( file( "int answer = 42;" ), image( 1 ) ) );
+        assertThat( job.isAnswering( repeated ), equalTo( true ) );
+
+        var otherFile = message( "3", "user", "Explain this method" );
+        otherFile.setAttachments( List.of( file( "int answer = 43;" ), image( 1 ) ) );
+        assertThat( job.isAnswering( otherFile ), equalTo( false ) );
+
+        var otherImage = message( "4", "user", "Explain this method" );
+        otherImage.setAttachments( List.of( file( "int answer = 42;" ), image( 2 ) ) );
+        assertThat( job.isAnswering( otherImage ), equalTo( false ) );
+
+        assertThat( job.isAnswering( message( "5", "user", "Explain this method" ) ), equalTo( false ) );
+    }
+
+    @Test
+    public void answersNothingInEmptyConversation()
+    {
+        var job = new SendConversationJob();
+        job.setConversation( new Conversation() );
+
+        assertThat( job.isAnswering( message( "1", "user", "Hello" ) ), equalTo( false ) );
+    }
+
+    private static ChatMessage message( String id, String role, String content )
+    {
+        var message = new ChatMessage( id, role );
+        message.setContent( content );
+        return message;
+    }
+
+    private static Attachment file( String content )
+    {
+        return new Attachment.FileContentAttachment( "/project/src/Answer.java", 1, 1, content );
+    }
+
+    private static Attachment image( int pixel )
+    {
+        var image = new ImageData( 2, 2, 8, new PaletteData( 0xFF, 0xFF, 0xFF ) );
+        image.setPixel( 0, 0, pixel );
+        return new Attachment.ImageAttachment( image, image );
+    }
+}
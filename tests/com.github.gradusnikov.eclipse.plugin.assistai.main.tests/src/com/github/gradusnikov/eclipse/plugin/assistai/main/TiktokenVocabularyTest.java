@@ -0,0 +1,95 @@
+package com.github.gradusnikov.eclipse.plugin.assistai.main;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+
+import org.eclipse.core.runtime.Platform;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+
+import com.github.gradusnikov.eclipse.assistai.tokenizer.BpeTokenizer;
+import com.github.gradusnikov.eclipse.assistai.tokenizer.PreTokenizer;
+import com.github.gradusnikov.eclipse.assistai.tokenizer.Tokenizers;
+
+/**
+ * Counts tokens with the vocabularies of the dependencies bundle and compares
+ * them with the counts of OpenAI's tiktoken, as listed in the "How to count
+ * tokens with tiktoken" example of the OpenAI cookbook.
+ * <p>
+ * The vocabularies are read from the folder given by
+ * {@link Tokenizers#VOCABULARY_DIR_PROPERTY}, or from the dependencies bundle.
+ * The vocabularies are not committed (see <code>tiktoken/README.md</code>), so
+ * a test is skipped when its vocabulary is missing.
+ */
+public class TiktokenVocabularyTest
+{
+    private static final String DEPENDENCIES_BUNDLE = "com.github.gradusnikov.eclipse.plugin.assistai.dependencies";
+
+    /** the hashes tiktoken verifies the downloaded vocabularies with */
+    private static final String CL100K_BASE_SHA256 = "223921b76ee99bde995b7ff738513eef100fb51d18c93597a113bcffe865b2a7";
+
+    private static final String O200K_BASE_SHA256 = "446a9538cb6c348e3516120d7c08b09f57c36495e2acfffe59a5bf8b0cfb1a2d";
+
+    @Test
+    public void countsLikeTiktokenWithCl100kBase() throws Exception
+    {
+        var tokenizer = tokenizer( Tokenizers.CL100K_BASE, CL100K_BASE_SHA256, PreTokenizer.CL100K );
+
+        assertThat( tokenizer.countTokens( "hello world" ), equalTo( 2 ) );
+        assertThat( tokenizer.countTokens( "tiktoken is great!" ), equalTo( 6 ) );
+        assertThat( tokenizer.countTokens( "antidisestablishmentarianism" ), equalTo( 6 ) );
+        assertThat( tokenizer.countTokens( "2 + 2 = 4" ), equalTo( 7 ) );
+        assertThat( tokenizer.countTokens( "お誕生日おめでとう" ), equalTo( 9 ) );
+    }
+
+    @Test
+    public void countsLikeTiktokenWithO200kBase() throws Exception
+    {
+        var tokenizer = tokenizer( Tokenizers.O200K_BASE, O200K_BASE_SHA256, PreTokenizer.O200K );
+
+        assertThat( tokenizer.countTokens( "hello world" ), equalTo( 2 ) );
+        assertThat( tokenizer.countTokens( "tiktoken is great!" ), equalTo( 6 ) );
+        assertThat( tokenizer.countTokens( "antidisestablishmentarianism" ), equalTo( 6 ) );
+        assertThat( tokenizer.countTokens( "2 + 2 = 4" ), equalTo( 7 ) );
+        assertThat( tokenizer.countTokens( "お誕生日おめでとう" ), equalTo( 8 ) );
+    }
+
+    /**
+     * Loads the vocabulary, after checking that it is the one published by
+     * OpenAI.
+     */
+    private static BpeTokenizer tokenizer( String encoding, String sha256, PreTokenizer preTokenizer ) throws Exception
+    {
+        byte[] vocabulary;
+        try ( var in = openVocabulary( encoding ) )
+        {
+            Assumptions.assumeTrue( in != null, "the vocabulary " + encoding + " is missing, see tiktoken/README.md" );
+            vocabulary = in.readAllBytes();
+        }
+        var digest = MessageDigest.getInstance( "SHA-256" ).digest( vocabulary );
+        assertThat( "the vocabulary " + encoding + " is not the one published by OpenAI", HexFormat.of().formatHex( digest ), equalTo( sha256 ) );
+        return BpeTokenizer.load( encoding, preTokenizer, new ByteArrayInputStream( vocabulary ) );
+    }
+
+    private static InputStream openVocabulary( String encoding ) throws IOException
+    {
+        var fileName = encoding + ".tiktoken";
+        var folder = System.getProperty( Tokenizers.VOCABULARY_DIR_PROPERTY );
+        if ( folder != null )
+        {
+            var file = Path.of( folder, fileName );
+            return Files.exists( file ) ? Files.newInputStream( file ) : null;
+        }
+        var bundle = Platform.getBundle( DEPENDENCIES_BUNDLE );
+        var entry = bundle != null ? bundle.getEntry( "tiktoken/" + fileName ) : null;
+        return entry != null ? entry.openStream() : null;
+    }
+}